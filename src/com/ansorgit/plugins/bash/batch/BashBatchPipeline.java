@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.ansorgit.plugins.bash.batch.PipelineStage.Step;
+import com.google.common.collect.Lists;
+import com.intellij.concurrency.JobSchedulerImpl;
+import com.intellij.lang.ASTNode;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.CancellationBudget;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Analyzes a batch of Bash files in three stages: reading and decoding, lexing and parsing, and fact extraction.
+ * <br>
+ * Each stage has its own threads and a bounded queue. A stage blocks when the queue of the next stage is full,
+ * the number of files in memory is therefore limited by the queue capacities, independent of the size of the batch.
+ * Slow I/O doesn't idle the parser threads as long as files are queued for parsing.
+ * <br>
+ * The results are passed to the sink by the threads of the extraction stage, or by the stage which failed.
+ * The sink has to be thread-safe.
+ *
+ * @param <T> The type of the extracted facts
+ * @author jansorg
+ */
+public final class BashBatchPipeline<T> implements AutoCloseable {
+    private static final Logger LOG = Logger.getInstance("#bash.batch");
+
+    private final FactExtractor<T> extractor;
+    private final Charset charset;
+
+    private final PipelineStage readStage;
+    private final PipelineStage parseStage;
+    private final PipelineStage extractStage;
+
+    private volatile long fileTimeoutMillis;
+    private volatile int fileTokenLimit;
+
+    //the number of submitted tasks which are not finished yet
+    private final Object pendingLock = new Object();
+    private int pending;
+
+    public BashBatchPipeline(@NotNull FactExtractor<T> extractor) {
+        this(extractor, StandardCharsets.UTF_8, 2, JobSchedulerImpl.CORES_COUNT, Math.max(1, JobSchedulerImpl.CORES_COUNT / 4), 4 * JobSchedulerImpl.CORES_COUNT);
+    }
+
+    /**
+     * @param extractor      The extractor of the facts
+     * @param charset        The charset of the files
+     * @param readThreads    The number of threads which read and decode the files
+     * @param parseThreads   The number of threads which lex and parse
+     * @param extractThreads The number of threads which call the extractor
+     * @param queueCapacity  The capacity of the queue in front of each stage
+     */
+    public BashBatchPipeline(@NotNull FactExtractor<T> extractor, @NotNull Charset charset, int readThreads, int parseThreads, int extractThreads, int queueCapacity) {
+        if (readThreads <= 0 || parseThreads <= 0 || extractThreads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("The number of threads and the queue capacity must be positive");
+        }
+
+        this.extractor = extractor;
+        this.charset = charset;
+
+        this.readStage = new PipelineStage("read", readThreads, queueCapacity, this::taskDone);
+        this.parseStage = new PipelineStage("parse", parseThreads, queueCapacity, this::taskDone);
+        this.extractStage = new PipelineStage("extract", extractThreads, queueCapacity, this::taskDone);
+    }
+
+    /**
+     * Limits the work spent on a single file, see {@link CancellationBudget}.
+     * Files which exceed the budget are reported as failed with the offset which was reached.
+     *
+     * @param timeoutMillis The maximum parsing time of a file, a value <= 0 disables the limit
+     * @param maxTokens     The maximum number of tokens consumed by the parser, a value <= 0 disables the limit
+     */
+    public void setFileBudget(long timeoutMillis, int maxTokens) {
+        this.fileTimeoutMillis = timeoutMillis;
+        this.fileTokenLimit = maxTokens;
+    }
+
+    /**
+     * Processes the files and waits until all of them were passed to the sink.
+     * The sink isn't called anymore after this method returned or threw.
+     *
+     * @param files The files to analyze, they are read lazily
+     * @param sink  Receives the result of each file
+     * @throws InterruptedException If the calling thread was interrupted while waiting.
+     *                              No more files are queued, the files which were already queued are processed before.
+     */
+    public void run(@NotNull Iterable<File> files, @NotNull Consumer<FileResult<T>> sink) throws InterruptedException {
+        for (File file : files) {
+            try {
+                submit(readStage, () -> read(file, sink));
+            } catch (InterruptedException | RuntimeException e) {
+                finish(FileResult.<T>failure(file, e), sink);
+                drainPending();
+                throw e;
+            }
+        }
+
+        awaitPending();
+    }
+
+    /**
+     * Walks the Bash scripts below the root and processes them, see {@link BashFileWalker#BASH_FILES}.
+     * The files are queued for reading while the walk is still running, the walk pauses while the read queue is full.
+     * Waits until all files were passed to the sink.
+     *
+     * @param root   The root directory
+     * @param walker The walker which enumerates the files
+     * @param sink   Receives the result of each file
+     * @throws InterruptedException If the calling thread or a thread of the walker was interrupted while waiting.
+     *                              The walk is stopped, the files which were already queued are processed before.
+     */
+    public void run(@NotNull File root, @NotNull BashFileWalker walker, @NotNull Consumer<FileResult<T>> sink) throws InterruptedException {
+        try {
+            walker.walk(root, file -> {
+                try {
+                    submit(readStage, () -> read(file, sink));
+                } catch (InterruptedException e) {
+                    //the walker thread keeps its interrupt, the exception stops the walk
+                    Thread.currentThread().interrupt();
+                    finish(FileResult.<T>failure(file, e), sink);
+                    throw new WalkInterruptedException(e);
+                } catch (RuntimeException e) {
+                    finish(FileResult.<T>failure(file, e), sink);
+                    throw e;
+                }
+            });
+        } catch (InterruptedException | RuntimeException e) {
+            drainPending();
+            if (e instanceof WalkInterruptedException) {
+                throw (InterruptedException) e.getCause();
+            }
+            throw e;
+        }
+
+        awaitPending();
+    }
+
+    /**
+     * @return The current metrics of the read, parse and extract stages
+     */
+    @NotNull
+    public List<StageMetrics> getMetrics() {
+        return Lists.newArrayList(readStage.metrics(), parseStage.metrics(), extractStage.metrics());
+    }
+
+    /**
+     * Stops the threads of the pipeline. Files which are still queued are processed before the threads terminate.
+     */
+    @Override
+    public void close() {
+        readStage.shutdown();
+        parseStage.shutdown();
+        extractStage.shutdown();
+    }
+
+    /**
+     * Waits until the threads of the pipeline have terminated after {@link #close()}.
+     */
+    public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        for (PipelineStage stage : Lists.newArrayList(readStage, parseStage, extractStage)) {
+            if (!stage.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private Step read(@NotNull File file, @NotNull Consumer<FileResult<T>> sink) {
+        CharSequence content;
+        try {
+            content = BashScriptLoader.load(file, charset);
+        } catch (Exception e) {
+            return finish(FileResult.<T>failure(file, e), sink);
+        }
+
+        return handOver(file, sink, parseStage, () -> parse(file, content, sink));
+    }
+
+    private Step parse(@NotNull File file, @NotNull CharSequence content, @NotNull Consumer<FileResult<T>> sink) {
+        ASTNode root;
+        try {
+            //the budget is closed before the failure is passed to the sink
+            CancellationBudget budget = CancellationBudget.start(fileTimeoutMillis, fileTokenLimit);
+            try {
+                root = BashFileParser.parse(content);
+            } finally {
+                budget.close();
+            }
+        } catch (Exception e) {
+            return finish(FileResult.<T>failure(file, e), sink);
+        }
+
+        return handOver(file, sink, extractStage, () -> extract(file, root, sink));
+    }
+
+    private Step extract(@NotNull File file, @NotNull ASTNode root, @NotNull Consumer<FileResult<T>> sink) {
+        try {
+            return finish(FileResult.success(file, extractor.extract(file, root)), sink);
+        } catch (Exception e) {
+            return finish(FileResult.<T>failure(file, e), sink);
+        }
+    }
+
+    /**
+     * Submits the next step of a file, this blocks the current stage while the next stage is saturated.
+     */
+    private Step handOver(@NotNull File file, @NotNull Consumer<FileResult<T>> sink, @NotNull PipelineStage next, @NotNull Callable<Step> task) {
+        try {
+            submit(next, task);
+            return Step.HANDED_OVER;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return finish(FileResult.<T>failure(file, e), sink);
+        } catch (RuntimeException e) {
+            return finish(FileResult.<T>failure(file, e), sink);
+        }
+    }
+
+    @NotNull
+    private Step finish(@NotNull FileResult<T> result, @NotNull Consumer<FileResult<T>> sink) {
+        try {
+            sink.accept(result);
+        } catch (Exception e) {
+            LOG.warn("The result sink failed for " + result.getFile(), e);
+        }
+
+        return result.isSuccess() ? Step.SUCCEEDED : Step.FAILED;
+    }
+
+    private void submit(@NotNull PipelineStage stage, @NotNull Callable<Step> task) throws InterruptedException {
+        synchronized (pendingLock) {
+            pending++;
+        }
+
+        boolean submitted = false;
+        try {
+            stage.submit(task);
+            submitted = true;
+        } finally {
+            if (!submitted) {
+                taskDone();
+            }
+        }
+    }
+
+    private void awaitPending() throws InterruptedException {
+        try {
+            synchronized (pendingLock) {
+                while (pending > 0) {
+                    pendingLock.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            drainPending();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the queued tasks without being interrupted, they must not call the sink after run returned.
+     * The queues are bounded, only a limited number of files is still processed.
+     */
+    private void drainPending() {
+        boolean interrupted = false;
+        synchronized (pendingLock) {
+            while (pending > 0) {
+                try {
+                    pendingLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void taskDone() {
+        synchronized (pendingLock) {
+            pending--;
+            pendingLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops a walk whose consumer was interrupted, the cause is rethrown by run.
+     */
+    private static final class WalkInterruptedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        WalkInterruptedException(@NotNull InterruptedException cause) {
+            super(cause);
+        }
+    }
+}
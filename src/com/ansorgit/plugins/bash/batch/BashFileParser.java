@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.intellij.lang.ASTNode;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Parses the content of a Bash file without an application or a project.
+ * The parser infrastructure of the calling thread is reused, see {@link BashParseContext}.
+ *
+ * @author jansorg
+ */
+public final class BashFileParser {
+    private BashFileParser() {
+    }
+
+    /**
+     * @param content The content of the file
+     * @return The root node of the parsed file
+     */
+    @NotNull
+    public static ASTNode parse(@NotNull CharSequence content) {
+        return BashParseContext.current().parse(content);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.ansorgit.plugins.bash.file.BashFileType;
+import com.google.common.collect.Lists;
+import com.intellij.concurrency.JobSchedulerImpl;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileAttributes;
+import com.intellij.openapi.util.io.FileSystemUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Enumerates the Bash scripts of a directory tree in parallel.
+ * <br>
+ * Every directory is listed by its own fork/join task, the subdirectories are forked. Latency bound file systems, e.g. NFS,
+ * are listed with as many concurrent requests as the walker has threads.
+ * The files are passed to the consumer as soon as they are found, e.g. to the read stage of a {@link BashBatchPipeline}.
+ * The consumer is called by the threads of the walker, a consumer which blocks throttles the walk.
+ * <br>
+ * Symbolic links to directories are not followed.
+ *
+ * @author jansorg
+ */
+public final class BashFileWalker implements AutoCloseable {
+    private static final Logger LOG = Logger.getInstance("#bash.batch");
+
+    //the number of bytes which are read to find a shebang line
+    private static final int SHEBANG_LIMIT = 128;
+
+    /**
+     * Accepts files with a Bash name, see {@link BashFileType#isBashFileName(String)}, and files without an extension
+     * whose shebang line runs bash or sh.
+     */
+    public static final FileFilter BASH_FILES = BashFileWalker::isBashFile;
+
+    private final ForkJoinPool pool;
+
+    public BashFileWalker() {
+        this(2 * JobSchedulerImpl.CORES_COUNT);
+    }
+
+    /**
+     * @param parallelism The number of threads, directories on a remote file system are listed faster with more threads than cores
+     */
+    public BashFileWalker(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Bash batch walker " + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Walks the Bash scripts below the root, see {@link #BASH_FILES}.
+     */
+    public int walk(@NotNull File root, @NotNull Consumer<File> consumer) throws InterruptedException {
+        return walk(root, BASH_FILES, consumer);
+    }
+
+    /**
+     * Walks the tree and waits until all accepted files were passed to the consumer.
+     * An exception of the consumer stops the walk and is thrown by this method.
+     * The consumer isn't called anymore after this method returned or threw.
+     *
+     * @param root     The root directory
+     * @param filter   Accepts the files which are passed to the consumer, it's called concurrently
+     * @param consumer Receives the accepted files, it's called concurrently
+     * @return The number of files which were passed to the consumer
+     * @throws InterruptedException If the calling thread was interrupted while waiting, the walk is cancelled
+     */
+    public int walk(@NotNull File root, @NotNull FileFilter filter, @NotNull Consumer<File> consumer) throws InterruptedException {
+        Walk walk = new Walk(filter, consumer);
+        ForkJoinTask<Void> task = pool.submit(new DirectoryTask(root.toPath(), walk));
+
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            //cancelling the root task doesn't stop the forked tasks, they stop at the flag
+            walk.cancelled.set(true);
+            task.quietlyJoin();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            //fork/join wraps an exception of another thread into a copy of the same type
+            while (cause.getCause() != null && cause.getCause().getClass() == cause.getClass()) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+
+        return walk.count.get();
+    }
+
+    /**
+     * Stops the threads of the walker.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * @return true if the file is a Bash script, a file without an extension is read to check its shebang line
+     */
+    public static boolean isBashFile(@NotNull File file) {
+        String name = file.getName();
+        if (BashFileType.isBashFileName(name)) {
+            return true;
+        }
+
+        return name.indexOf('.') < 0 && hasBashShebang(file.toPath());
+    }
+
+    static boolean hasBashShebang(@NotNull Path file) {
+        byte[] head = new byte[SHEBANG_LIMIT];
+        int length = 0;
+        try (InputStream input = Files.newInputStream(file)) {
+            int count;
+            while (length < head.length && (count = input.read(head, length, head.length - length)) > 0) {
+                length += count;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+
+        if (length < 2 || head[0] != '#' || head[1] != '!') {
+            return false;
+        }
+
+        int end = 2;
+        while (end < length && head[end] != '\n' && head[end] != '\r') {
+            end++;
+        }
+
+        String[] words = new String(head, 2, end - 2, StandardCharsets.ISO_8859_1).trim().split("[ \t]+");
+        if (words.length == 0 || words[0].isEmpty()) {
+            return false;
+        }
+
+        //#!/usr/bin/env [-S] bash
+        String interpreter = ScriptTokenScanner.baseName(words[0]);
+        for (int i = 1; "env".equals(interpreter) && i < words.length; i++) {
+            if (!words[i].startsWith("-")) {
+                interpreter = ScriptTokenScanner.baseName(words[i]);
+            }
+        }
+
+        return "bash".equals(interpreter) || "sh".equals(interpreter);
+    }
+
+    /**
+     * The state which is shared by the tasks of a walk.
+     */
+    private static final class Walk {
+        private final FileFilter filter;
+        private final Consumer<File> consumer;
+        private final AtomicInteger count = new AtomicInteger();
+        //set if the walk was interrupted or if the filter or the consumer failed
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        Walk(@NotNull FileFilter filter, @NotNull Consumer<File> consumer) {
+            this.filter = filter;
+            this.consumer = consumer;
+        }
+    }
+
+    private static final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        //fork/join tasks are serializable, but the tasks of a walk are never serialized
+        private final transient Path directory;
+        private final transient Walk walk;
+
+        DirectoryTask(@NotNull Path directory, @NotNull Walk walk) {
+            this.directory = directory;
+            this.walk = walk;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectories = Lists.newArrayList();
+            try {
+                list(subdirectories);
+            } catch (RuntimeException | Error e) {
+                walk.cancelled.set(true);
+                throw e;
+            } finally {
+                //a task completes after the tasks it forked, they may still call the filter or the consumer
+                for (DirectoryTask task : subdirectories) {
+                    task.quietlyJoin();
+                }
+            }
+
+            for (DirectoryTask task : subdirectories) {
+                //all tasks are done, this rethrows the exception of a failed task
+                task.join();
+            }
+        }
+
+        private void list(@NotNull List<DirectoryTask> subdirectories) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+                for (Path child : children) {
+                    if (walk.cancelled.get()) {
+                        break;
+                    }
+
+                    FileAttributes attributes = FileSystemUtil.getAttributes(child.toString());
+                    if (attributes == null) {
+                        continue;
+                    }
+
+                    if (attributes.isDirectory()) {
+                        if (!attributes.isSymLink()) {
+                            DirectoryTask task = new DirectoryTask(child, walk);
+                            task.fork();
+                            subdirectories.add(task);
+                        }
+                    } else if (attributes.isFile()) {
+                        File file = child.toFile();
+                        if (walk.filter.accept(file) && !walk.cancelled.get()) {
+                            walk.count.incrementAndGet();
+                            walk.consumer.accept(file);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOG.debug("Unable to list " + directory, e);
+            }
+        }
+    }
+}
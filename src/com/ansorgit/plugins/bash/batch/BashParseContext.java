@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.ansorgit.plugins.bash.lang.parser.BashParserDefinition;
+import com.ansorgit.plugins.bash.lang.psi.impl.BashFileImpl;
+import com.ansorgit.plugins.bash.lang.psi.stubs.elements.BashStubFileElementType;
+import com.intellij.lang.ASTNode;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.lang.PsiParser;
+import com.intellij.lang.impl.PsiBuilderImpl;
+import com.intellij.lexer.Lexer;
+import com.intellij.psi.SingleRootFileViewProvider;
+import com.intellij.psi.impl.source.tree.FileElement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The parser infrastructure of a thread, it's reset for each parsed file instead of being allocated again.
+ * <br>
+ * A context keeps the lexer with its state stacks, the parser with the state of its builder, the pools of markers and
+ * the lexeme arrays of the PsiBuilder. Setting these up costs more than parsing a small script, which matters when
+ * thousands of scripts are parsed.
+ * <br>
+ * A context must only be used by its thread, use {@link #current()}. A nested call of parse on the same thread,
+ * e.g. by a visitor which is called while a file is parsed, uses fresh objects.
+ *
+ * @author jansorg
+ */
+public final class BashParseContext {
+    //element types are registered globally, a new file type for each file would fill the registry
+    private static final BashStubFileElementType fileType = new BashStubFileElementType();
+    private static final BashParserDefinition parserDefinition = new BashParserDefinition();
+
+    private static final ThreadLocal<BashParseContext> contexts = ThreadLocal.withInitial(BashParseContext::new);
+
+    private final Lexer lexer = BashParserDefinition.createBashLexer();
+    private final PsiParser parser = BashParserDefinition.createReusableParser();
+    private final PsiBuilderImpl.ReusableBuffers buffers = new PsiBuilderImpl.ReusableBuffers();
+    private boolean parsing;
+
+    private BashParseContext() {
+    }
+
+    /**
+     * @return The context of the current thread
+     */
+    @NotNull
+    public static BashParseContext current() {
+        return contexts.get();
+    }
+
+    /**
+     * @param content The content of the file
+     * @return The root node of the parsed file
+     */
+    @NotNull
+    public ASTNode parse(@NotNull CharSequence content) {
+        if (parsing) {
+            return parse(content, BashParserDefinition.createBashLexer(), BashParserDefinition.createNewParser(), null);
+        }
+
+        parsing = true;
+        try {
+            return parse(content, lexer, parser, buffers);
+        } finally {
+            parsing = false;
+        }
+    }
+
+    @NotNull
+    private static ASTNode parse(@NotNull CharSequence content, @NotNull Lexer lexer, @NotNull PsiParser parser, @Nullable PsiBuilderImpl.ReusableBuffers buffers) {
+        FileElement fileElement = new FileElement(fileType, content);
+        BashFileImpl file = new BashFileImpl(new SingleRootFileViewProvider(null, false));
+
+        PsiBuilder builder = new PsiBuilderImpl(file, parserDefinition, lexer, fileElement, content, buffers);
+        return parser.parse(fileType, builder);
+    }
+}
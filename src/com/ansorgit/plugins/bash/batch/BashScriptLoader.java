@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads the content of a script for the parser without an intermediate String.
+ * <br>
+ * Large files are memory-mapped, small files are read into a byte array, mapping them costs more than reading them.
+ * A byte order mark determines the charset and is skipped, otherwise the default charset is used.
+ * <br>
+ * Most scripts are ASCII. If the charset is ASCII compatible and the content is ASCII, then the returned sequence is a view
+ * of the bytes, which doesn't copy or decode the content and which needs a byte per character.
+ * Other content is decoded once into a char buffer. The parser accepts both without copying them again.
+ * <br>
+ * The returned sequence of a mapped file references the mapping, it's released when the sequence and all of its
+ * subsequences are unreachable.
+ *
+ * @author jansorg
+ */
+public final class BashScriptLoader {
+    //files smaller than this are read instead of being mapped
+    private static final int MAP_THRESHOLD = 64 * 1024;
+
+    private static final long ASCII_MASK = 0x8080808080808080L;
+
+    private BashScriptLoader() {
+    }
+
+    /**
+     * Loads a script which is encoded in UTF-8, unless a byte order mark defines another charset.
+     */
+    @NotNull
+    public static CharSequence load(@NotNull File file) throws IOException {
+        return load(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param file           The script
+     * @param defaultCharset The charset which is used if the file has no byte order mark
+     * @return The content of the script
+     * @throws IOException If the file could not be read or if it's larger than 2 GB
+     */
+    @NotNull
+    public static CharSequence load(@NotNull File file, @NotNull Charset defaultCharset) throws IOException {
+        ByteBuffer bytes;
+        if (file.length() < MAP_THRESHOLD) {
+            bytes = ByteBuffer.wrap(FileUtil.loadFileBytes(file));
+        } else {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("The file is too large: " + file);
+                }
+
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        return decode(bytes, defaultCharset);
+    }
+
+    /**
+     * Decodes the bytes between the position and the limit of the buffer.
+     *
+     * @param bytes          The content
+     * @param defaultCharset The charset which is used if the content has no byte order mark
+     * @return The decoded content, it may be a view of the buffer
+     */
+    @NotNull
+    public static CharSequence decode(@NotNull ByteBuffer bytes, @NotNull Charset defaultCharset) throws CharacterCodingException {
+        byte[] head = new byte[Math.min(4, bytes.remaining())];
+        bytes.duplicate().get(head);
+
+        Charset charset = CharsetToolkit.guessFromBOM(head);
+        int start = bytes.position() + (charset != null ? bomLength(charset) : 0);
+        if (charset == null) {
+            charset = defaultCharset;
+        }
+
+        int length = bytes.limit() - start;
+        if (charset.equals(StandardCharsets.ISO_8859_1) || isAsciiCompatible(charset) && isAscii(bytes, start, length)) {
+            return new ByteBufferCharSequence(bytes, start, length);
+        }
+
+        ByteBuffer content = bytes.duplicate();
+        content.position(start);
+
+        CharBuffer chars = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(content);
+
+        //the parser uses the array of the decoded buffer without copying it
+        return chars;
+    }
+
+    private static int bomLength(@NotNull Charset charset) {
+        if (charset.equals(CharsetToolkit.UTF8_CHARSET)) {
+            return CharsetToolkit.UTF8_BOM.length;
+        }
+
+        if (charset.equals(CharsetToolkit.UTF_32BE_CHARSET) || charset.equals(CharsetToolkit.UTF_32LE_CHARSET)) {
+            return CharsetToolkit.UTF32BE_BOM.length;
+        }
+
+        return CharsetToolkit.UTF16BE_BOM.length;
+    }
+
+    private static boolean isAsciiCompatible(@NotNull Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII);
+    }
+
+    private static boolean isAscii(@NotNull ByteBuffer bytes, int start, int length) {
+        int end = start + length;
+
+        //eight bytes at a time, the order of the bytes doesn't matter for the mask
+        int i = start;
+        for (; i + 8 <= end; i += 8) {
+            if ((bytes.getLong(i) & ASCII_MASK) != 0) {
+                return false;
+            }
+        }
+
+        for (; i < end; i++) {
+            if (bytes.get(i) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
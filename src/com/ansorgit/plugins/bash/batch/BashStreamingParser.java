@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.google.common.collect.Lists;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.impl.source.tree.CompositeElement;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Parses a script in chunks of top-level commands and passes each top-level command to a callback.
+ * <br>
+ * The parser doesn't lex the whole script up front. The end of the next chunk is located by a scan which keeps no tokens,
+ * then only the chunk is lexed and parsed. The tree of a chunk is released after its commands were passed to the callback.
+ * The memory which is used is therefore proportional to the chunk size or to the largest top-level command,
+ * but not to the size of the script. The content itself isn't copied if its subsequences are views,
+ * e.g. of a {@link java.nio.CharBuffer}.
+ * <br>
+ * A chunk which has syntax errors is parsed again together with the following chunks, because the scan may have
+ * split a command. If that doesn't help the errors are kept.
+ * <br>
+ * The script after a top-level exit command is binary data, it's part of the last chunk.
+ *
+ * @author jansorg
+ */
+public final class BashStreamingParser {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    //the number of following chunks which are tried when a chunk has syntax errors
+    private static final int MAX_MERGES = 8;
+
+    private final int chunkSize;
+
+    public BashStreamingParser() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize The minimal number of characters which are parsed at once, 0 parses each top-level command list separately
+     */
+    public BashStreamingParser(int chunkSize) {
+        if (chunkSize < 0) {
+            throw new IllegalArgumentException("The chunk size must not be negative");
+        }
+
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Parses the content and passes the top-level commands to the callback, in the order of the script.
+     * The nodes passed to the callback belong to the tree of their chunk, their text offsets are relative to the chunk.
+     * The callback receives the offset of a node in the script as second parameter.
+     *
+     * @param content  The script
+     * @param callback Receives each top-level command and its offset in the script
+     * @return The number of top-level commands which were passed to the callback
+     */
+    public int parse(@NotNull CharSequence content, @NotNull ObjIntConsumer<ASTNode> callback) {
+        TopLevelBoundaryScanner scanner = new TopLevelBoundaryScanner(content);
+        List<Integer> lookahead = Lists.newArrayList();
+
+        int count = 0;
+        int start = 0;
+        while (start < content.length()) {
+            int end = nextBoundary(scanner, lookahead, start + Math.max(1, chunkSize), content.length());
+
+            ASTNode root = BashFileParser.parse(content.subSequence(start, end));
+
+            for (int merged = 0; merged < MAX_MERGES && hasErrors(root); merged++) {
+                if (lookahead.size() == merged) {
+                    int boundary = scanner.next(0);
+                    if (boundary < 0) {
+                        break;
+                    }
+
+                    lookahead.add(boundary);
+                }
+
+                int mergedEnd = lookahead.get(merged);
+                ASTNode mergedRoot = BashFileParser.parse(content.subSequence(start, mergedEnd));
+                if (!hasErrors(mergedRoot)) {
+                    root = mergedRoot;
+                    end = mergedEnd;
+                    lookahead.subList(0, merged + 1).clear();
+                }
+            }
+
+            for (ASTNode child = root.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+                if (child instanceof CompositeElement) {
+                    callback.accept(child, start + child.getStartOffset());
+                    count++;
+                }
+            }
+
+            start = end;
+        }
+
+        return count;
+    }
+
+    private static int nextBoundary(TopLevelBoundaryScanner scanner, List<Integer> lookahead, int minOffset, int length) {
+        while (!lookahead.isEmpty()) {
+            int boundary = lookahead.remove(0);
+            if (boundary >= minOffset) {
+                return boundary;
+            }
+        }
+
+        int boundary = scanner.next(minOffset);
+        return boundary < 0 ? length : boundary;
+    }
+
+    private static boolean hasErrors(@NotNull ASTNode root) {
+        ArrayDeque<ASTNode> queue = new ArrayDeque<ASTNode>();
+        queue.add(root);
+
+        ASTNode node;
+        while ((node = queue.poll()) != null) {
+            if (node.getElementType() == TokenType.ERROR_ELEMENT) {
+                return true;
+            }
+
+            for (ASTNode child = node.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+                if (child instanceof CompositeElement) {
+                    queue.add(child);
+                }
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,572 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.ansorgit.plugins.bash.lang.lexer.BashTokenTypes;
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes;
+import com.ansorgit.plugins.bash.lang.psi.api.command.BashCommand;
+import com.google.common.collect.Lists;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.TokenType;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.util.containers.IntArrayList;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.IOUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The simple commands of a batch of files, stored in columns of primitive arrays instead of an object per command.
+ * <br>
+ * Each command is a row. The columns are the file id, the id of the command name, the text range of the command,
+ * flags and the text ranges of the arguments and of the redirects. Files and command names are mapped to dense ids.
+ * The rows are ordered by file and by the start offset of the commands. Commands which are nested in the arguments of
+ * another command, e.g. in a command substitution, follow the outer command.
+ * <br>
+ * Filters return the matching rows as bit set, the filters may be combined with the operations of the bit set.
+ * A store is built by a {@link Builder}, it's immutable and thread-safe.
+ *
+ * @author jansorg
+ */
+public final class CommandFactStore {
+    /**
+     * The name id of commands without a command name, e.g. of pure assignments like a=1.
+     */
+    public static final int NO_NAME = -1;
+
+    /**
+     * The command has a here document.
+     */
+    public static final int HAS_HEREDOC = 1;
+    /**
+     * The command has a redirect, including here documents.
+     */
+    public static final int HAS_REDIRECT = 1 << 1;
+    /**
+     * The command has assignments, e.g. a=1 cmd or local a=1.
+     */
+    public static final int HAS_ASSIGNMENT = 1 << 2;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final IdDictionary files;
+    private final IdDictionary names;
+    private final int size;
+
+    private final int[] fileIds;
+    private final int[] nameIds;
+    private final int[] startOffsets;
+    private final int[] endOffsets;
+    private final int[] flags;
+
+    //the arguments of row i are at the indices argIndex[i] until argIndex[i + 1]
+    private final int[] argIndex;
+    private final int[] argStarts;
+    private final int[] argEnds;
+
+    private final int[] redirectIndex;
+    private final int[] redirectStarts;
+    private final int[] redirectEnds;
+
+    private CommandFactStore(IdDictionary files, IdDictionary names, int size, int[] fileIds, int[] nameIds, int[] startOffsets, int[] endOffsets, int[] flags,
+                             int[] argIndex, int[] argStarts, int[] argEnds, int[] redirectIndex, int[] redirectStarts, int[] redirectEnds) {
+        this.files = files;
+        this.names = names;
+        this.size = size;
+        this.fileIds = fileIds;
+        this.nameIds = nameIds;
+        this.startOffsets = startOffsets;
+        this.endOffsets = endOffsets;
+        this.flags = flags;
+        this.argIndex = argIndex;
+        this.argStarts = argStarts;
+        this.argEnds = argEnds;
+        this.redirectIndex = redirectIndex;
+        this.redirectStarts = redirectStarts;
+        this.redirectEnds = redirectEnds;
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return The number of rows, i.e. of commands
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    public int getNameCount() {
+        return names.size();
+    }
+
+    @NotNull
+    public String getFile(int fileId) {
+        return files.get(fileId);
+    }
+
+    @NotNull
+    public String getName(int nameId) {
+        return names.get(nameId);
+    }
+
+    /**
+     * @return The id of the file or -1 if the store doesn't contain the file
+     */
+    public int findFileId(@NotNull String file) {
+        return files.find(file);
+    }
+
+    /**
+     * @return The id of the command name or -1 if no command of the store has the name
+     */
+    public int findNameId(@NotNull String name) {
+        return names.find(name);
+    }
+
+    public int getFileId(int row) {
+        return fileIds[row];
+    }
+
+    /**
+     * @return The id of the command name or {@link #NO_NAME}
+     */
+    public int getNameId(int row) {
+        return nameIds[row];
+    }
+
+    /**
+     * @return The command name or null if the command has no name
+     */
+    @Nullable
+    public String getCommandName(int row) {
+        int id = nameIds[row];
+        return id == NO_NAME ? null : names.get(id);
+    }
+
+    public int getStartOffset(int row) {
+        return startOffsets[row];
+    }
+
+    public int getEndOffset(int row) {
+        return endOffsets[row];
+    }
+
+    public int getFlags(int row) {
+        return flags[row];
+    }
+
+    public boolean hasFlags(int row, int flags) {
+        return (this.flags[row] & flags) == flags;
+    }
+
+    public int getArgumentCount(int row) {
+        return argIndex[row + 1] - argIndex[row];
+    }
+
+    public int getArgumentStart(int row, int argument) {
+        return argStarts[argIndex[row] + argument];
+    }
+
+    public int getArgumentEnd(int row, int argument) {
+        return argEnds[argIndex[row] + argument];
+    }
+
+    public int getRedirectCount(int row) {
+        return redirectIndex[row + 1] - redirectIndex[row];
+    }
+
+    public int getRedirectStart(int row, int redirect) {
+        return redirectStarts[redirectIndex[row] + redirect];
+    }
+
+    public int getRedirectEnd(int row, int redirect) {
+        return redirectEnds[redirectIndex[row] + redirect];
+    }
+
+    /**
+     * @return A set with all rows
+     */
+    @NotNull
+    public BitSet all() {
+        BitSet result = new BitSet(size);
+        result.set(0, size);
+        return result;
+    }
+
+    /**
+     * @return The rows of the commands which have one of the given names
+     */
+    @NotNull
+    public BitSet withCommandNames(@NotNull Collection<String> commandNames) {
+        boolean[] wanted = new boolean[names.size()];
+        for (String name : commandNames) {
+            int id = findNameId(name);
+            if (id >= 0) {
+                wanted[id] = true;
+            }
+        }
+
+        BitSet result = new BitSet(size);
+        for (int row = 0; row < size; row++) {
+            int id = nameIds[row];
+            if (id != NO_NAME && wanted[id]) {
+                result.set(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The rows of the commands in the given files
+     */
+    @NotNull
+    public BitSet inFiles(@NotNull Collection<String> filePaths) {
+        boolean[] wanted = new boolean[files.size()];
+        for (String file : filePaths) {
+            int id = findFileId(file);
+            if (id >= 0) {
+                wanted[id] = true;
+            }
+        }
+
+        BitSet result = new BitSet(size);
+        for (int row = 0; row < size; row++) {
+            if (wanted[fileIds[row]]) {
+                result.set(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param flags The flags, e.g. {@link #HAS_HEREDOC}
+     * @return The rows of the commands which have all the given flags
+     */
+    @NotNull
+    public BitSet withFlags(int flags) {
+        BitSet result = new BitSet(size);
+        for (int row = 0; row < size; row++) {
+            if ((this.flags[row] & flags) == flags) {
+                result.set(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the store into a file. The ids of the files and of the command names are preserved.
+     */
+    public void save(@NotNull File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            DataInputOutputUtil.writeINT(out, FORMAT_VERSION);
+            IOUtil.writeStringList(out, files.values());
+            IOUtil.writeStringList(out, names.values());
+
+            DataInputOutputUtil.writeINT(out, size);
+            for (int row = 0; row < size; row++) {
+                //offsets are stored as deltas, they increase within a file
+                boolean newFile = row == 0 || fileIds[row] != fileIds[row - 1];
+                int previousStart = newFile ? 0 : startOffsets[row - 1];
+
+                DataInputOutputUtil.writeINT(out, fileIds[row]);
+                DataInputOutputUtil.writeINT(out, nameIds[row] + 1);
+                DataInputOutputUtil.writeSINT(out, startOffsets[row] - previousStart);
+                DataInputOutputUtil.writeINT(out, endOffsets[row] - startOffsets[row]);
+                DataInputOutputUtil.writeINT(out, flags[row]);
+
+                writeRanges(out, startOffsets[row], argIndex[row], argIndex[row + 1], argStarts, argEnds);
+                writeRanges(out, startOffsets[row], redirectIndex[row], redirectIndex[row + 1], redirectStarts, redirectEnds);
+            }
+        }
+    }
+
+    /**
+     * Reads a store which was written by {@link #save(File)}.
+     */
+    @NotNull
+    public static CommandFactStore load(@NotNull File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = DataInputOutputUtil.readINT(in);
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported version of the command fact store: " + version);
+            }
+
+            IdDictionary files = new IdDictionary(IOUtil.readStringList(in));
+            IdDictionary names = new IdDictionary(IOUtil.readStringList(in));
+
+            int size = DataInputOutputUtil.readINT(in);
+            int[] fileIds = new int[size];
+            int[] nameIds = new int[size];
+            int[] startOffsets = new int[size];
+            int[] endOffsets = new int[size];
+            int[] flags = new int[size];
+            int[] argIndex = new int[size + 1];
+            int[] redirectIndex = new int[size + 1];
+            IntArrayList argRanges = new IntArrayList();
+            IntArrayList redirectRanges = new IntArrayList();
+
+            for (int row = 0; row < size; row++) {
+                fileIds[row] = DataInputOutputUtil.readINT(in);
+                nameIds[row] = DataInputOutputUtil.readINT(in) - 1;
+
+                boolean newFile = row == 0 || fileIds[row] != fileIds[row - 1];
+                startOffsets[row] = (newFile ? 0 : startOffsets[row - 1]) + DataInputOutputUtil.readSINT(in);
+                endOffsets[row] = startOffsets[row] + DataInputOutputUtil.readINT(in);
+                flags[row] = DataInputOutputUtil.readINT(in);
+
+                readRanges(in, startOffsets[row], argRanges);
+                argIndex[row + 1] = argRanges.size() / 2;
+
+                readRanges(in, startOffsets[row], redirectRanges);
+                redirectIndex[row + 1] = redirectRanges.size() / 2;
+            }
+
+            return new CommandFactStore(files, names, size, fileIds, nameIds, startOffsets, endOffsets, flags,
+                    argIndex, starts(argRanges), ends(argRanges), redirectIndex, starts(redirectRanges), ends(redirectRanges));
+        }
+    }
+
+    private static void writeRanges(DataOutputStream out, int base, int from, int to, int[] starts, int[] ends) throws IOException {
+        DataInputOutputUtil.writeINT(out, to - from);
+        for (int i = from; i < to; i++) {
+            DataInputOutputUtil.writeINT(out, starts[i] - base);
+            DataInputOutputUtil.writeINT(out, ends[i] - starts[i]);
+        }
+    }
+
+    private static void readRanges(DataInputStream in, int base, IntArrayList ranges) throws IOException {
+        int count = DataInputOutputUtil.readINT(in);
+        for (int i = 0; i < count; i++) {
+            int start = base + DataInputOutputUtil.readINT(in);
+            ranges.add(start);
+            ranges.add(start + DataInputOutputUtil.readINT(in));
+        }
+    }
+
+    private static int[] starts(IntArrayList ranges) {
+        int[] result = new int[ranges.size() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ranges.getQuick(2 * i);
+        }
+        return result;
+    }
+
+    private static int[] ends(IntArrayList ranges) {
+        int[] result = new int[ranges.size() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ranges.getQuick(2 * i + 1);
+        }
+        return result;
+    }
+
+    /**
+     * Collects the commands of parsed files. Files may be added concurrently, e.g. by the extractors of a
+     * {@link BashBatchPipeline}. The commands of a file are collected without holding the lock of the builder.
+     */
+    public static final class Builder {
+        private final IdDictionary files = new IdDictionary();
+        private final IdDictionary names = new IdDictionary();
+
+        private final IntArrayList rowFiles = new IntArrayList();
+        private final IntArrayList rowNames = new IntArrayList();
+        private final IntArrayList startOffsets = new IntArrayList();
+        private final IntArrayList endOffsets = new IntArrayList();
+        private final IntArrayList flags = new IntArrayList();
+        private final IntArrayList argIndex = new IntArrayList();
+        private final IntArrayList argRanges = new IntArrayList();
+        private final IntArrayList redirectIndex = new IntArrayList();
+        private final IntArrayList redirectRanges = new IntArrayList();
+
+        private Builder() {
+            argIndex.add(0);
+            redirectIndex.add(0);
+        }
+
+        /**
+         * Adds the simple commands of a parsed file.
+         *
+         * @param file The path of the file, the commands of a file which was already added are appended
+         * @param root The root node of the file
+         * @return The number of added commands
+         */
+        public int addFile(@NotNull String file, @NotNull ASTNode root) {
+            FileCommands commands = new FileCommands();
+            collect(root, commands);
+
+            synchronized (this) {
+                int fileId = files.add(file);
+
+                for (int i = 0; i < commands.names.size(); i++) {
+                    String name = commands.names.get(i);
+                    rowFiles.add(fileId);
+                    rowNames.add(name == null ? NO_NAME : names.add(name));
+                    startOffsets.add(commands.columns.getQuick(3 * i));
+                    endOffsets.add(commands.columns.getQuick(3 * i + 1));
+                    flags.add(commands.columns.getQuick(3 * i + 2));
+
+                    appendRanges(commands.argCounts.getQuick(i), commands.argRanges, commands.argOffset, argIndex, argRanges);
+                    commands.argOffset += 2 * commands.argCounts.getQuick(i);
+
+                    appendRanges(commands.redirectCounts.getQuick(i), commands.redirectRanges, commands.redirectOffset, redirectIndex, redirectRanges);
+                    commands.redirectOffset += 2 * commands.redirectCounts.getQuick(i);
+                }
+            }
+
+            return commands.names.size();
+        }
+
+        /**
+         * @return An extractor which adds the commands of each file to this builder and returns the number of added commands
+         */
+        @NotNull
+        public FactExtractor<Integer> extractor() {
+            return (file, root) -> addFile(file.getPath(), root);
+        }
+
+        @NotNull
+        public synchronized CommandFactStore build() {
+            return new CommandFactStore(files.copy(), names.copy(), rowFiles.size(),
+                    rowFiles.toArray(), rowNames.toArray(), startOffsets.toArray(), endOffsets.toArray(), flags.toArray(),
+                    argIndex.toArray(), starts(argRanges), ends(argRanges), redirectIndex.toArray(), starts(redirectRanges), ends(redirectRanges));
+        }
+
+        private static void appendRanges(int count, IntArrayList source, int offset, IntArrayList index, IntArrayList target) {
+            for (int i = 0; i < 2 * count; i++) {
+                target.add(source.getQuick(offset + i));
+            }
+            index.add(target.size() / 2);
+        }
+
+        private static void collect(ASTNode root, FileCommands commands) {
+            ArrayDeque<ASTNode> stack = new ArrayDeque<>();
+            stack.push(root);
+
+            while (!stack.isEmpty()) {
+                ASTNode node = stack.pop();
+                if (node.getElementType() == BashElementTypes.SIMPLE_COMMAND_ELEMENT) {
+                    commands.add(node);
+                }
+
+                //children are pushed in reverse order to visit them in document order
+                for (ASTNode child = node.getLastChildNode(); child != null; child = child.getTreePrev()) {
+                    if (child.getFirstChildNode() != null) {
+                        stack.push(child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The commands of a single file, collected before they're added to the builder.
+     */
+    private static final class FileCommands {
+        private final List<String> names = Lists.newArrayList();
+        //start offset, end offset and flags of each command
+        private final IntArrayList columns = new IntArrayList();
+        private final IntArrayList argCounts = new IntArrayList();
+        private final IntArrayList argRanges = new IntArrayList();
+        private final IntArrayList redirectCounts = new IntArrayList();
+        private final IntArrayList redirectRanges = new IntArrayList();
+
+        private int argOffset;
+        private int redirectOffset;
+
+        void add(ASTNode command) {
+            PsiElement psi = command.getPsi();
+            names.add(psi instanceof BashCommand ? ((BashCommand) psi).getReferencedCommandName() : null);
+
+            int flags = 0;
+            int args = 0;
+            int redirects = 0;
+            boolean afterCommandElement = false;
+
+            for (ASTNode child = command.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+                IElementType type = child.getElementType();
+
+                if (type == BashElementTypes.GENERIC_COMMAND_ELEMENT) {
+                    afterCommandElement = true;
+                } else if (type == BashElementTypes.REDIRECT_LIST_ELEMENT) {
+                    flags |= HAS_REDIRECT;
+                    redirects += addRedirects(child);
+                    if (child.findChildByType(BashTokenTypes.HEREDOC_MARKER_TAG) != null) {
+                        flags |= HAS_HEREDOC;
+                    }
+                } else if (type == BashElementTypes.VAR_DEF_ELEMENT) {
+                    flags |= HAS_ASSIGNMENT;
+                    if (afterCommandElement) {
+                        args += addRange(argRanges, child);
+                    }
+                } else if (afterCommandElement && type != TokenType.WHITE_SPACE && type != BashTokenTypes.LINE_CONTINUATION) {
+                    args += addRange(argRanges, child);
+                }
+            }
+
+            columns.add(command.getStartOffset());
+            columns.add(command.getStartOffset() + command.getTextLength());
+            columns.add(flags);
+            argCounts.add(args);
+            redirectCounts.add(redirects);
+        }
+
+        private int addRedirects(ASTNode redirectList) {
+            int count = 0;
+            for (ASTNode child = redirectList.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+                if (child.getElementType() == BashElementTypes.REDIRECT_ELEMENT) {
+                    count += addRange(redirectRanges, child);
+                } else if (child.getElementType() == BashTokenTypes.HEREDOC_MARKER_TAG) {
+                    //the heredoc operator and its start marker
+                    ASTNode marker = child.getTreeNext();
+                    while (marker != null && marker.getElementType() == TokenType.WHITE_SPACE) {
+                        marker = marker.getTreeNext();
+                    }
+
+                    redirectRanges.add(child.getStartOffset());
+                    redirectRanges.add(marker != null ? marker.getStartOffset() + marker.getTextLength() : child.getStartOffset() + child.getTextLength());
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static int addRange(IntArrayList ranges, ASTNode node) {
+            ranges.add(node.getStartOffset());
+            ranges.add(node.getStartOffset() + node.getTextLength());
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.intellij.openapi.util.io.FileAttributes;
+import com.intellij.openapi.util.io.FileSystemUtil;
+import com.intellij.openapi.vfs.newvfs.persistent.ContentHashesUtil;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.PersistentHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A persistent snapshot of the files of a corpus, which finds the files which changed since the last scan.
+ * <br>
+ * The snapshot stores the length, the timestamp and the SHA-1 hash of the content of every file, keyed by the enumerated path.
+ * A scan lists the directories and stats the files. Only files whose length or timestamp differ from the snapshot are read,
+ * a file whose content is still the same, e.g. after a touch, is not reported as changed.
+ * A rescan of an unchanged tree therefore costs only the directory listings and the stat calls.
+ * <br>
+ * Files which were modified in the same interval as the timestamp resolution of the file system
+ * before they were recorded are read again by the next scan, a second modification could have kept the timestamp.
+ * <br>
+ * The changed and deleted files are reported, callers re-analyze the changed files and drop the facts of the deleted files.
+ * The snapshot is updated by the scan, it isn't thread-safe.
+ *
+ * @author jansorg
+ */
+public final class CorpusSnapshot implements Closeable {
+    private static final int VERSION = 1;
+    //the coarsest timestamp resolution of common file systems
+    private static final long TIMESTAMP_RESOLUTION = 2000;
+
+    private final PersistentHashMap<String, FileState> states;
+
+    /**
+     * Opens a snapshot, it's created if it doesn't exist yet.
+     *
+     * @param file The base file of the snapshot, additional files with the same prefix are created next to it
+     */
+    public CorpusSnapshot(@NotNull File file) throws IOException {
+        this.states = new PersistentHashMap<String, FileState>(file, EnumeratorStringDescriptor.INSTANCE, new FileStateExternalizer(), 4096, VERSION);
+    }
+
+    /**
+     * Scans all files below the root.
+     */
+    @NotNull
+    public Changes scan(@NotNull File root) throws IOException {
+        return scan(root, file -> true);
+    }
+
+    /**
+     * Scans the files below the root which are accepted by the filter and updates the snapshot.
+     * Symbolic links to directories are not followed.
+     * Files below the root which are in the snapshot, but which don't exist anymore or which are not accepted anymore,
+     * are reported as deleted and are removed from the snapshot.
+     *
+     * @param root   The root directory of the corpus
+     * @param filter Accepts the files of the corpus, it must not read the files
+     * @return The changes since the previous scan of the root
+     */
+    @NotNull
+    public Changes scan(@NotNull File root, @NotNull FileFilter filter) throws IOException {
+        long scanTime = System.currentTimeMillis();
+
+        List<File> changed = Lists.newArrayList();
+        Set<String> seen = Sets.newHashSet();
+        int unchanged = 0;
+        int reads = 0;
+
+        Deque<File> directories = new ArrayDeque<File>();
+        directories.push(root.getAbsoluteFile());
+        while (!directories.isEmpty()) {
+            File directory = directories.pop();
+            String[] names = directory.list();
+            if (names == null) {
+                continue;
+            }
+
+            for (String name : names) {
+                File file = new File(directory, name);
+                FileAttributes attributes = FileSystemUtil.getAttributes(file);
+                if (attributes == null) {
+                    continue;
+                }
+
+                if (attributes.isDirectory()) {
+                    if (!attributes.isSymLink()) {
+                        directories.push(file);
+                    }
+                    continue;
+                }
+
+                if (!attributes.isFile() || !filter.accept(file)) {
+                    continue;
+                }
+
+                String path = file.getPath();
+                FileState previous = states.get(path);
+                if (previous != null && previous.isUpToDate(attributes)) {
+                    seen.add(path);
+                    unchanged++;
+                    continue;
+                }
+
+                byte[] hash;
+                try {
+                    hash = contentHash(file);
+                    reads++;
+                } catch (IOException e) {
+                    //the file was deleted or can't be read anymore, it's reported as deleted if it was known
+                    continue;
+                }
+
+                seen.add(path);
+                states.put(path, new FileState(attributes.length, attributes.lastModified, scanTime, hash));
+                if (previous != null && Arrays.equals(previous.hash, hash)) {
+                    unchanged++;
+                } else {
+                    changed.add(file);
+                }
+            }
+        }
+
+        String prefix = root.getAbsolutePath() + File.separator;
+        List<String> deletedPaths = Lists.newArrayList();
+        states.processKeysWithExistingMapping(path -> {
+            if (path.startsWith(prefix) && !seen.contains(path)) {
+                deletedPaths.add(path);
+            }
+            return true;
+        });
+
+        List<File> deleted = Lists.newArrayListWithCapacity(deletedPaths.size());
+        for (String path : deletedPaths) {
+            states.remove(path);
+            deleted.add(new File(path));
+        }
+
+        states.force();
+        return new Changes(changed, deleted, unchanged, reads);
+    }
+
+    /**
+     * @return The number of files in the snapshot
+     */
+    public int size() throws IOException {
+        return states.getAllKeysWithExistingMapping().size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        states.close();
+    }
+
+    @NotNull
+    private static byte[] contentHash(@NotNull File file) throws IOException {
+        MessageDigest digest = ContentHashesUtil.HASHER_CACHE.getValue();
+
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = new FileInputStream(file)) {
+            int count;
+            while ((count = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, count);
+            }
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * The files which changed since the previous scan.
+     */
+    public static final class Changes {
+        private final List<File> changed;
+        private final List<File> deleted;
+        private final int unchangedCount;
+        private final int readCount;
+
+        private Changes(@NotNull List<File> changed, @NotNull List<File> deleted, int unchangedCount, int readCount) {
+            this.changed = Collections.unmodifiableList(changed);
+            this.deleted = Collections.unmodifiableList(deleted);
+            this.unchangedCount = unchangedCount;
+            this.readCount = readCount;
+        }
+
+        /**
+         * @return The new files and the files whose content changed, they have to be analyzed again
+         */
+        @NotNull
+        public List<File> getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return The files which were deleted since the previous scan, their facts are invalid
+         */
+        @NotNull
+        public List<File> getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return The number of files whose content didn't change
+         */
+        public int getUnchangedCount() {
+            return unchangedCount;
+        }
+
+        /**
+         * @return The number of files which were read to compute the hash of the content
+         */
+        public int getReadCount() {
+            return readCount;
+        }
+
+        public boolean isEmpty() {
+            return changed.isEmpty() && deleted.isEmpty();
+        }
+    }
+
+    private static final class FileState {
+        private final long length;
+        private final long lastModified;
+        //the time when the state was recorded
+        private final long recorded;
+        private final byte[] hash;
+
+        private FileState(long length, long lastModified, long recorded, @NotNull byte[] hash) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.recorded = recorded;
+            this.hash = hash;
+        }
+
+        boolean isUpToDate(@NotNull FileAttributes attributes) {
+            //a file which was modified shortly before it was recorded may have been modified again without a new timestamp
+            return length == attributes.length
+                    && lastModified == attributes.lastModified
+                    && lastModified + TIMESTAMP_RESOLUTION < recorded;
+        }
+    }
+
+    private static final class FileStateExternalizer implements DataExternalizer<FileState> {
+        @Override
+        public void save(@NotNull DataOutput out, FileState value) throws IOException {
+            out.writeLong(value.length);
+            out.writeLong(value.lastModified);
+            out.writeLong(value.recorded);
+            out.writeByte(value.hash.length);
+            out.write(value.hash);
+        }
+
+        @Override
+        public FileState read(@NotNull DataInput in) throws IOException {
+            long length = in.readLong();
+            long lastModified = in.readLong();
+            long recorded = in.readLong();
+            byte[] hash = new byte[in.readByte()];
+            in.readFully(hash);
+            return new FileState(length, lastModified, recorded, hash);
+        }
+    }
+}
@@ -0,0 +1,710 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.ansorgit.plugins.bash.lang.lexer.BashTokenTypes;
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes;
+import com.ansorgit.plugins.bash.lang.psi.api.command.BashCommand;
+import com.google.common.collect.Lists;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import com.intellij.util.containers.IntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The execution structure of the scripts of a batch: which commands feed others by pipes and which commands run
+ * only after others succeeded or failed. It's stored in columns of primitive arrays instead of an object per command.
+ * <br>
+ * The nodes are the command invocations and the compound commands, e.g. loops, groups and command substitutions.
+ * The columns of a node are the file id, the kind, the id of the command name, the text range, the enclosing node and flags.
+ * The commands of a compound command and of a substitution are nested in it, a function definition contains its body.
+ * The nodes are ordered by file and by start offset, a node follows the node which encloses it.
+ * <br>
+ * The edges link the consecutive commands of a list, their label is the operator between the two commands:
+ * in {@code a | b && c || d; e & f} there's a {@link #PIPE} edge from a to b, an {@link #AND_THEN} edge from b to c,
+ * an {@link #OR_ELSE} edge from c to d, a {@link #SEQUENCE} edge from d to e and a {@link #BACKGROUND} edge from e to f.
+ * The lists of a compound command, e.g. the condition and the branches of an if command, are not linked with each other.
+ * <br>
+ * A store is built by a {@link Builder} in a single pass over the tree of each file, it's immutable and thread-safe.
+ *
+ * @author jansorg
+ */
+public final class ExecutionGraphStore {
+    /**
+     * A simple command, e.g. {@code ls -l}, or a builtin like {@code let}.
+     */
+    public static final int COMMAND = 1;
+    /**
+     * A group, {@code { ...; }}.
+     */
+    public static final int GROUP = 2;
+    /**
+     * A subshell, {@code ( ... )}.
+     */
+    public static final int SUBSHELL = 3;
+    /**
+     * A command or process substitution, e.g. {@code $(...)}, backquotes or {@code <(...)}. It's nested in the command
+     * or compound command whose words contain it.
+     */
+    public static final int SUBSTITUTION = 4;
+    /**
+     * An if command.
+     */
+    public static final int IF = 5;
+    /**
+     * A while, until, for or select loop.
+     */
+    public static final int LOOP = 6;
+    /**
+     * A case command.
+     */
+    public static final int CASE = 7;
+    /**
+     * A test, {@code [ ... ]}, {@code [[ ... ]]} or {@code (( ... ))}.
+     */
+    public static final int TEST = 8;
+    /**
+     * A function definition, its name is the function name.
+     */
+    public static final int FUNCTION = 9;
+
+    /**
+     * The stdout of the source command is the stdin of the target, {@code |} or {@code |&}.
+     */
+    public static final int PIPE = 1;
+    /**
+     * The target runs if the source succeeded, {@code &&}.
+     */
+    public static final int AND_THEN = 2;
+    /**
+     * The target runs if the source failed, {@code ||}.
+     */
+    public static final int OR_ELSE = 3;
+    /**
+     * The target runs after the source, {@code ;} or a line feed.
+     */
+    public static final int SEQUENCE = 4;
+    /**
+     * The source runs in the background and the target runs without waiting for it, {@code &}.
+     */
+    public static final int BACKGROUND = 5;
+
+    /**
+     * The name id of nodes without a name, e.g. of compound commands and of pure assignments like a=1.
+     */
+    public static final int NO_NAME = -1;
+    /**
+     * The parent of top-level nodes.
+     */
+    public static final int NO_PARENT = -1;
+
+    /**
+     * The command runs in the background, it's followed by {@code &}.
+     */
+    public static final int IN_BACKGROUND = 1;
+    /**
+     * The exit status of the command is negated by {@code !}.
+     */
+    public static final int NEGATED = 1 << 1;
+
+    private final IdDictionary files;
+    private final IdDictionary names;
+    private final int size;
+
+    private final int[] fileIds;
+    private final int[] kinds;
+    private final int[] nameIds;
+    private final int[] startOffsets;
+    private final int[] endOffsets;
+    private final int[] parents;
+    private final int[] flags;
+
+    private final int[] edgeSources;
+    private final int[] edgeTargets;
+    private final int[] edgeLabels;
+
+    //the outgoing edges of node i are successorEdges[successorIndex[i]] until successorEdges[successorIndex[i + 1]]
+    private final int[] successorIndex;
+    private final int[] successorEdges;
+    //the nested nodes of node i are children[childIndex[i]] until children[childIndex[i + 1]]
+    private final int[] childIndex;
+    private final int[] children;
+
+    private ExecutionGraphStore(IdDictionary files, IdDictionary names, int size, int[] fileIds, int[] kinds, int[] nameIds, int[] startOffsets,
+                                int[] endOffsets, int[] parents, int[] flags, int[] edgeSources, int[] edgeTargets, int[] edgeLabels) {
+        this.files = files;
+        this.names = names;
+        this.size = size;
+        this.fileIds = fileIds;
+        this.kinds = kinds;
+        this.nameIds = nameIds;
+        this.startOffsets = startOffsets;
+        this.endOffsets = endOffsets;
+        this.parents = parents;
+        this.flags = flags;
+        this.edgeSources = edgeSources;
+        this.edgeTargets = edgeTargets;
+        this.edgeLabels = edgeLabels;
+
+        this.successorIndex = new int[size + 1];
+        this.successorEdges = new int[edgeSources.length];
+        group(edgeSources, successorIndex, successorEdges, false);
+
+        this.childIndex = new int[size + 1];
+        this.children = new int[size];
+        group(parents, childIndex, children, true);
+    }
+
+    /**
+     * Groups the indices of the values by value with a counting sort, the indices of a value keep their order.
+     */
+    private static void group(int[] values, int[] index, int[] target, boolean skipNegative) {
+        for (int value : values) {
+            if (!skipNegative || value >= 0) {
+                index[value + 1]++;
+            }
+        }
+        for (int i = 1; i < index.length; i++) {
+            index[i] += index[i - 1];
+        }
+
+        int[] next = index.clone();
+        for (int i = 0; i < values.length; i++) {
+            if (!skipNegative || values[i] >= 0) {
+                target[next[values[i]]++] = i;
+            }
+        }
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return The number of nodes
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getEdgeCount() {
+        return edgeSources.length;
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    @NotNull
+    public String getFile(int fileId) {
+        return files.get(fileId);
+    }
+
+    /**
+     * @return The id of the command name or {@link #NO_NAME} if no node of the store has the name
+     */
+    public int findNameId(@NotNull String name) {
+        return names.find(name);
+    }
+
+    public int getFileId(int node) {
+        return fileIds[node];
+    }
+
+    /**
+     * @return One of {@link #COMMAND}, {@link #GROUP}, {@link #SUBSHELL}, {@link #SUBSTITUTION}, {@link #IF}, {@link #LOOP},
+     * {@link #CASE}, {@link #TEST} and {@link #FUNCTION}
+     */
+    public int getKind(int node) {
+        return kinds[node];
+    }
+
+    public int getNameId(int node) {
+        return nameIds[node];
+    }
+
+    /**
+     * @return The command name of a command, the function name of a function definition, otherwise null
+     */
+    @Nullable
+    public String getName(int node) {
+        int id = nameIds[node];
+        return id == NO_NAME ? null : names.get(id);
+    }
+
+    public int getStartOffset(int node) {
+        return startOffsets[node];
+    }
+
+    public int getEndOffset(int node) {
+        return endOffsets[node];
+    }
+
+    /**
+     * @return The node which encloses the node or {@link #NO_PARENT}
+     */
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    public int getFlags(int node) {
+        return flags[node];
+    }
+
+    public int getEdgeSource(int edge) {
+        return edgeSources[edge];
+    }
+
+    public int getEdgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    /**
+     * @return One of {@link #PIPE}, {@link #AND_THEN}, {@link #OR_ELSE}, {@link #SEQUENCE} and {@link #BACKGROUND}
+     */
+    public int getEdgeLabel(int edge) {
+        return edgeLabels[edge];
+    }
+
+    /**
+     * @return The number of outgoing edges of the node, there's at most one
+     */
+    public int getSuccessorCount(int node) {
+        return successorIndex[node + 1] - successorIndex[node];
+    }
+
+    /**
+     * @return The edge index of an outgoing edge of the node
+     */
+    public int getSuccessorEdge(int node, int successor) {
+        return successorEdges[successorIndex[node] + successor];
+    }
+
+    public int getChildCount(int node) {
+        return childIndex[node + 1] - childIndex[node];
+    }
+
+    public int getChild(int node, int child) {
+        return children[childIndex[node] + child];
+    }
+
+    /**
+     * @return The nodes which have one of the given names
+     */
+    @NotNull
+    public BitSet withNames(@NotNull Collection<String> names) {
+        boolean[] wanted = new boolean[this.names.size()];
+        for (String name : names) {
+            int id = findNameId(name);
+            if (id != NO_NAME) {
+                wanted[id] = true;
+            }
+        }
+
+        BitSet result = new BitSet(size);
+        for (int node = 0; node < size; node++) {
+            int id = nameIds[node];
+            if (id != NO_NAME && wanted[id]) {
+                result.set(node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The edges with the given label
+     */
+    @NotNull
+    public BitSet edgesWithLabel(int label) {
+        BitSet result = new BitSet(edgeLabels.length);
+        for (int edge = 0; edge < edgeLabels.length; edge++) {
+            if (edgeLabels[edge] == label) {
+                result.set(edge);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the nodes which run after the given node and are linked to it, i.e. which are reachable by edges.
+     * The nodes which are nested in a reachable node are downstream, too, except the bodies of function definitions.
+     * The successors of the compound commands which enclose the node are downstream, and the command whose substitution
+     * encloses the node, because it runs after the substitution, with its other nested commands.
+     * Function definitions end the search. Their body runs when the function is called.
+     *
+     * @param labels The labels of the edges which are followed, all edges are followed if none is given
+     */
+    @NotNull
+    public BitSet downstream(int node, int... labels) {
+        BitSet result = new BitSet(size);
+        //the node and its ancestors are not downstream
+        BitSet visited = new BitSet(size);
+        IntArrayList queue = new IntArrayList();
+
+        visited.set(node);
+        addSuccessors(node, labels, queue);
+        for (int parent = parents[node], child = node; parent != NO_PARENT && kinds[child] != FUNCTION; child = parent, parent = parents[parent]) {
+            visited.set(parent);
+            if (kinds[child] == SUBSTITUTION) {
+                result.set(parent);
+                addChildren(parent, queue);
+            }
+            addSuccessors(parent, labels, queue);
+        }
+
+        while (!queue.isEmpty()) {
+            int next = queue.remove(queue.size() - 1);
+            if (visited.get(next)) {
+                continue;
+            }
+
+            visited.set(next);
+            result.set(next);
+            addSuccessors(next, labels, queue);
+            if (kinds[next] != FUNCTION) {
+                addChildren(next, queue);
+            }
+        }
+
+        return result;
+    }
+
+    private void addChildren(int node, IntArrayList queue) {
+        for (int i = childIndex[node]; i < childIndex[node + 1]; i++) {
+            queue.add(children[i]);
+        }
+    }
+
+    private void addSuccessors(int node, int[] labels, IntArrayList queue) {
+        for (int i = successorIndex[node]; i < successorIndex[node + 1]; i++) {
+            int edge = successorEdges[i];
+            if (labels.length == 0 || contains(labels, edgeLabels[edge])) {
+                queue.add(edgeTargets[edge]);
+            }
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the graphs of parsed files. Files may be added concurrently, e.g. by the extractors of a
+     * {@link BashBatchPipeline}. The graph of a file is collected without holding the lock of the builder.
+     */
+    public static final class Builder {
+        private final IdDictionary files = new IdDictionary();
+        private final IdDictionary names = new IdDictionary();
+
+        private final IntArrayList nodeFiles = new IntArrayList();
+        private final IntArrayList kinds = new IntArrayList();
+        private final IntArrayList nodeNames = new IntArrayList();
+        private final IntArrayList startOffsets = new IntArrayList();
+        private final IntArrayList endOffsets = new IntArrayList();
+        private final IntArrayList parents = new IntArrayList();
+        private final IntArrayList flags = new IntArrayList();
+
+        private final IntArrayList edgeSources = new IntArrayList();
+        private final IntArrayList edgeTargets = new IntArrayList();
+        private final IntArrayList edgeLabels = new IntArrayList();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds the execution graph of a parsed file.
+         *
+         * @param file The path of the file, the nodes of a file which was already added are appended
+         * @param root The root node of the file
+         * @return The number of added nodes
+         */
+        public int addFile(@NotNull String file, @NotNull ASTNode root) {
+            FileGraph graph = new FileGraph();
+            graph.list(root, NO_PARENT, new Chain(graph));
+
+            synchronized (this) {
+                int fileId = files.add(file);
+                int base = kinds.size();
+
+                for (int i = 0; i < graph.names.size(); i++) {
+                    String name = graph.names.get(i);
+                    int parent = graph.nodes.getQuick(FileGraph.COLUMNS * i + 3);
+
+                    nodeFiles.add(fileId);
+                    nodeNames.add(name == null ? NO_NAME : names.add(name));
+                    kinds.add(graph.nodes.getQuick(FileGraph.COLUMNS * i));
+                    startOffsets.add(graph.nodes.getQuick(FileGraph.COLUMNS * i + 1));
+                    endOffsets.add(graph.nodes.getQuick(FileGraph.COLUMNS * i + 2));
+                    parents.add(parent == NO_PARENT ? NO_PARENT : base + parent);
+                    flags.add(graph.nodes.getQuick(FileGraph.COLUMNS * i + 4));
+                }
+
+                for (int i = 0; i < graph.edges.size(); i += 3) {
+                    edgeSources.add(base + graph.edges.getQuick(i));
+                    edgeTargets.add(base + graph.edges.getQuick(i + 1));
+                    edgeLabels.add(graph.edges.getQuick(i + 2));
+                }
+            }
+
+            return graph.names.size();
+        }
+
+        /**
+         * @return An extractor which adds the graph of each file to this builder and returns the number of added nodes
+         */
+        @NotNull
+        public FactExtractor<Integer> extractor() {
+            return (file, root) -> addFile(file.getPath(), root);
+        }
+
+        @NotNull
+        public synchronized ExecutionGraphStore build() {
+            return new ExecutionGraphStore(files.copy(), names.copy(), kinds.size(),
+                    nodeFiles.toArray(), kinds.toArray(), nodeNames.toArray(), startOffsets.toArray(), endOffsets.toArray(),
+                    parents.toArray(), flags.toArray(), edgeSources.toArray(), edgeTargets.toArray(), edgeLabels.toArray());
+        }
+    }
+
+    /**
+     * The nodes and edges of a single file, collected before they're added to the builder.
+     * Node and edge ids are local to the file.
+     */
+    private static final class FileGraph implements BashElementTypes {
+        //kind, start offset, end offset, parent and flags of each node
+        private static final int COLUMNS = 5;
+
+        //elements whose children continue the list of the enclosing element
+        private static final TokenSet transparent = TokenSet.create(PIPELINE_COMMAND, COMPOSED_COMMAND);
+        //elements which contain lists of their own, the last command of the list is followed by the operators of the enclosing list
+        private static final TokenSet blocks = TokenSet.create(LOGICAL_BLOCK_ELEMENT, CASE_PATTERN_LIST_ELEMENT);
+        private static final TokenSet ignored = TokenSet.create(BashTokenTypes.WHITESPACE, BashTokenTypes.LINE_CONTINUATION, BashTokenTypes.COMMENT, TIME_COMMAND, EVAL_BLOCK);
+        private static final TokenSet simpleCommands = TokenSet.create(SIMPLE_COMMAND_ELEMENT, INCLUDE_COMMAND_ELEMENT, LET_COMMAND, TRAP_COMMAND);
+
+        private final List<String> names = Lists.newArrayList();
+        private final IntArrayList nodes = new IntArrayList();
+        //source, target and label of each edge
+        private final IntArrayList edges = new IntArrayList();
+
+        /**
+         * Adds the commands of a list and of the lists nested in it.
+         */
+        void list(@NotNull ASTNode container, int parent, @NotNull Chain chain) {
+            for (ASTNode child = container.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+                IElementType type = child.getElementType();
+
+                if (ignored.contains(type)) {
+                    continue;
+                }
+
+                if (type == BashTokenTypes.PIPE || type == BashTokenTypes.PIPE_AMP) {
+                    chain.operator(PIPE);
+                } else if (type == BashTokenTypes.AND_AND) {
+                    chain.operator(AND_THEN);
+                } else if (type == BashTokenTypes.OR_OR) {
+                    chain.operator(OR_ELSE);
+                } else if (type == BashTokenTypes.SEMI) {
+                    chain.operator(SEQUENCE);
+                } else if (type == BashTokenTypes.AMP) {
+                    chain.operator(BACKGROUND);
+                } else if (type == BashTokenTypes.LINE_FEED) {
+                    chain.lineFeed();
+                } else if (transparent.contains(type)) {
+                    list(child, parent, chain);
+                } else if (blocks.contains(type)) {
+                    Chain inner = new Chain(this);
+                    list(child, parent, inner);
+                    chain.reset(inner.last);
+                } else if (simpleCommands.contains(type)) {
+                    chain.add(command(child, parent));
+                } else if (compoundKind(type, false) != 0) {
+                    chain.add(compound(child, compoundKind(type, false), parent));
+                } else if (child.getFirstChildNode() != null) {
+                    //a word or a redirect, which may contain substitutions
+                    nested(child, chain.last != -1 && type == REDIRECT_LIST_ELEMENT ? chain.last : parent);
+                } else if (type == BashTokenTypes.WORD && "!".contentEquals(child.getChars())) {
+                    chain.negate();
+                } else if (type == BashTokenTypes.WORD) {
+                    //a command which isn't wrapped into a command element, e.g. eval
+                    chain.add(addNode(COMMAND, child.getText(), child, parent));
+                } else {
+                    //a keyword of a compound command
+                    chain.reset(-1);
+                }
+            }
+        }
+
+        private int command(ASTNode command, int parent) {
+            PsiElement psi = command.getPsi();
+            String name;
+            if (psi instanceof BashCommand) {
+                name = ((BashCommand) psi).getReferencedCommandName();
+            } else {
+                ASTNode first = command.getFirstChildNode();
+                name = first != null ? first.getText() : null;
+            }
+
+            int node = addNode(COMMAND, name, command, parent);
+            nested(command, node);
+            return node;
+        }
+
+        private int compound(ASTNode compound, int kind, int parent) {
+            String name = null;
+            if (kind == FUNCTION) {
+                ASTNode nameNode = compound.findChildByType(FUNCTION_DEF_NAME_ELEMENT);
+                name = nameNode != null ? nameNode.getText() : null;
+            }
+
+            int node = addNode(kind, name, compound, parent);
+            list(compound, node, new Chain(this));
+            return node;
+        }
+
+        /**
+         * Adds the substitutions in the words of a command.
+         */
+        private void nested(ASTNode element, int parent) {
+            for (ASTNode child = element.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+                IElementType type = child.getElementType();
+                int kind = compoundKind(type, true);
+                if (kind != 0) {
+                    compound(child, kind, parent);
+                } else if (simpleCommands.contains(type)) {
+                    command(child, parent);
+                } else if (child.getFirstChildNode() != null) {
+                    nested(child, parent);
+                }
+            }
+        }
+
+        private static int compoundKind(IElementType type, boolean inWord) {
+            if (type == SUBSHELL_COMMAND) {
+                return inWord ? SUBSTITUTION : SUBSHELL;
+            }
+            if (type == BACKQUOTE_COMMAND || type == PROCESS_SUBSTITUTION_ELEMENT) {
+                return SUBSTITUTION;
+            }
+            if (type == GROUP_ELEMENT || type == GROUP_COMMAND) {
+                return GROUP;
+            }
+            if (type == IF_COMMAND) {
+                return IF;
+            }
+            if (type == WHILE_COMMAND || type == UNTIL_COMMAND || type == FOR_COMMAND || type == SELECT_COMMAND) {
+                return LOOP;
+            }
+            if (type == CASE_COMMAND) {
+                return CASE;
+            }
+            if (type == CONDITIONAL_COMMAND || type == EXTENDED_CONDITIONAL_COMMAND || type == ARITHMETIC_COMMAND) {
+                return TEST;
+            }
+            if (type == FUNCTION_DEF_COMMAND) {
+                return FUNCTION;
+            }
+            return 0;
+        }
+
+        private int addNode(int kind, @Nullable String name, ASTNode element, int parent) {
+            nodes.add(kind);
+            nodes.add(element.getStartOffset());
+            nodes.add(element.getStartOffset() + element.getTextLength());
+            nodes.add(parent);
+            nodes.add(0);
+            names.add(name);
+            return names.size() - 1;
+        }
+
+        void addFlags(int node, int flags) {
+            int index = COLUMNS * node + 4;
+            nodes.set(index, nodes.get(index) | flags);
+        }
+
+        void addEdge(int source, int target, int label) {
+            edges.add(source);
+            edges.add(target);
+            edges.add(label);
+        }
+    }
+
+    /**
+     * The state of a list while its children are visited: the last command and the operator which follows it.
+     */
+    private static final class Chain {
+        private final FileGraph graph;
+        private int last = -1;
+        private int operator;
+        private boolean negated;
+
+        Chain(FileGraph graph) {
+            this.graph = graph;
+        }
+
+        void add(int node) {
+            if (last != -1 && operator != 0) {
+                graph.addEdge(last, node, operator);
+            }
+            if (negated) {
+                graph.addFlags(node, NEGATED);
+                negated = false;
+            }
+
+            last = node;
+            operator = 0;
+        }
+
+        void operator(int label) {
+            if (last == -1) {
+                return;
+            }
+
+            operator = label;
+            if (label == BACKGROUND) {
+                graph.addFlags(last, IN_BACKGROUND);
+            }
+        }
+
+        void lineFeed() {
+            //a line feed after && or | continues the list
+            if (last != -1 && operator == 0) {
+                operator = SEQUENCE;
+            }
+        }
+
+        void negate() {
+            negated = true;
+        }
+
+        void reset(int last) {
+            this.last = last;
+            this.operator = 0;
+            this.negated = false;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.intellij.lang.ASTNode;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+
+/**
+ * Extracts the facts of a parsed file. Implementations are called concurrently by the threads of the extraction stage.
+ *
+ * @param <T> The type of the extracted facts
+ * @author jansorg
+ */
+public interface FactExtractor<T> {
+    @Nullable
+    T extract(@NotNull File file, @NotNull ASTNode root);
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.intellij.openapi.progress.CancellationBudget;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+
+/**
+ * The outcome of the analysis of a single file.
+ *
+ * @param <T> The type of the extracted facts
+ * @author jansorg
+ */
+public final class FileResult<T> {
+    private final File file;
+    private final T facts;
+    private final Throwable error;
+
+    private FileResult(@NotNull File file, @Nullable T facts, @Nullable Throwable error) {
+        this.file = file;
+        this.facts = facts;
+        this.error = error;
+    }
+
+    @NotNull
+    static <T> FileResult<T> success(@NotNull File file, @Nullable T facts) {
+        return new FileResult<T>(file, facts, null);
+    }
+
+    @NotNull
+    static <T> FileResult<T> failure(@NotNull File file, @NotNull Throwable error) {
+        return new FileResult<T>(file, null, error);
+    }
+
+    @NotNull
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The facts returned by the extractor, null if the file failed
+     */
+    @Nullable
+    public T getFacts() {
+        return facts;
+    }
+
+    /**
+     * @return The error which aborted the processing of the file, null if the file was processed successfully
+     */
+    @Nullable
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return The offset which was reached when the file exceeded its budget, -1 if it didn't
+     */
+    public int getAbortOffset() {
+        return error instanceof CancellationBudget.BudgetExceededException ? ((CancellationBudget.BudgetExceededException) error).getOffset() : -1;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? file.getPath() : file.getPath() + ": " + error;
+    }
+}
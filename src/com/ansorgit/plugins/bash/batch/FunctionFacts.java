@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * The facts which were extracted from a function body: the commands which are called,
+ * the variables which are read and the variables which are defined, in the order of the body.
+ * <br>
+ * The offsets are relative to the start of the body, the facts of identical bodies are therefore shared by all files
+ * which contain the body. Instances are immutable.
+ *
+ * @author jansorg
+ * @see SharedFunctionTable
+ */
+public final class FunctionFacts {
+    public enum Kind {
+        COMMAND, VARIABLE_READ, VARIABLE_DEFINITION
+    }
+
+    private static final Kind[] kinds = Kind.values();
+
+    private final int bodyLength;
+    private final byte[] factKinds;
+    private final String[] names;
+    private final int[] offsets;
+
+    FunctionFacts(int bodyLength, @NotNull byte[] factKinds, @NotNull String[] names, @NotNull int[] offsets) {
+        this.bodyLength = bodyLength;
+        this.factKinds = factKinds;
+        this.names = names;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return The length of the function body
+     */
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * @return The number of facts
+     */
+    public int size() {
+        return names.length;
+    }
+
+    @NotNull
+    public Kind getKind(int index) {
+        return kinds[factKinds[index]];
+    }
+
+    /**
+     * @return The name of the command or of the variable
+     */
+    @NotNull
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @return The offset of the fact, relative to the start of the function body
+     */
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @return The names of the facts of the given kind, in the order of the body
+     */
+    @NotNull
+    public List<String> getNames(@NotNull Kind kind) {
+        List<String> result = Lists.newArrayList();
+        for (int i = 0; i < names.length; i++) {
+            if (factKinds[i] == kind.ordinal()) {
+                result.add(names[i]);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Collects the facts of a function body.
+     */
+    static final class Builder {
+        private final List<Kind> factKinds = Lists.newArrayList();
+        private final List<String> names = Lists.newArrayList();
+        private final List<Integer> offsets = Lists.newArrayList();
+
+        void add(@NotNull Kind kind, @NotNull String name, int offset) {
+            factKinds.add(kind);
+            names.add(name);
+            offsets.add(offset);
+        }
+
+        @NotNull
+        FunctionFacts build(int bodyLength) {
+            byte[] kindArray = new byte[factKinds.size()];
+            int[] offsetArray = new int[offsets.size()];
+            for (int i = 0; i < kindArray.length; i++) {
+                kindArray[i] = (byte) factKinds.get(i).ordinal();
+                offsetArray[i] = offsets.get(i);
+            }
+
+            return new FunctionFacts(bodyLength, kindArray, names.toArray(new String[names.size()]), offsetArray);
+        }
+    }
+}
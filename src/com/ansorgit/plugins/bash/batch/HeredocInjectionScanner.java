@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the here documents of a script and the commands which read them, in a single pass over the tokens of the lexer.
+ * <br>
+ * The host command of a here document is the first word in command position, variable assignments in front of it are skipped.
+ * Wrappers like {@code exec} or {@code nohup} are skipped, too. A command given by a path is reduced to its file name.
+ * Here documents whose command isn't a plain word have no host command.
+ * <br>
+ * The content of a here document is the same as the content which the shell passes to the command:
+ * the leading tabs of the lines are removed for {@code <<-}. Content with expansions isn't static and is reported without its value,
+ * like {@link com.ansorgit.plugins.bash.lang.psi.impl.heredoc.BashHereDocImpl#isValidHost()} it can't be injected.
+ *
+ * @author jansorg
+ */
+final class HeredocInjectionScanner extends ScriptTokenScanner<HeredocInjectionScanner.Heredoc> {
+    //commands which run the following word as command
+    private static final Set<String> wrappers = Sets.newHashSet("exec", "command", "nohup", "time", "env", "builtin");
+
+    private final List<Heredoc> heredocs = Lists.newArrayList();
+
+    private boolean commandPosition = true;
+    private boolean inAssignment = false;
+    //a wrapper command was skipped in the current command position
+    private boolean wrapped = false;
+    @Nullable
+    private String command;
+
+    private HeredocInjectionScanner(@NotNull CharSequence content) {
+        super(content);
+    }
+
+    /**
+     * @return The here documents of the script, ordered by the offset of their content
+     */
+    @NotNull
+    static List<Heredoc> scan(@NotNull CharSequence content) {
+        return new HeredocInjectionScanner(content).scan();
+    }
+
+    private List<Heredoc> scan() {
+        IElementType type;
+        while ((type = lexer.getTokenType()) != null) {
+            if (type == HEREDOC_MARKER_TAG) {
+                startHeredoc();
+                continue;
+            }
+
+            //the content of a here document doesn't change the command position
+            if (!heredocToken(type)) {
+                if (isCommandStart(type)) {
+                    commandPosition = true;
+                    inAssignment = false;
+                    wrapped = false;
+                    command = null;
+                } else if (commandPosition) {
+                    commandToken(type);
+                }
+            }
+
+            lexer.advance();
+        }
+
+        finishPendingHeredocs();
+        return heredocs;
+    }
+
+    private void commandToken(IElementType type) {
+        if (type == ASSIGNMENT_WORD) {
+            inAssignment = true;
+        } else if (whitespaceTokens.contains(type) || type == LINE_CONTINUATION) {
+            inAssignment = false;
+        } else if (!inAssignment) {
+            String name = type == WORD ? baseName(content.subSequence(lexer.getTokenStart(), lexer.getTokenEnd()).toString()) : null;
+            if (name != null && wrappers.contains(name)) {
+                wrapped = true;
+                return;
+            }
+
+            if (wrapped && name != null && (name.startsWith("-") || name.indexOf('=') >= 0)) {
+                //an option or an assignment of a wrapper, e.g. env -i A=1 cmd
+                return;
+            }
+
+            command = name;
+            commandPosition = false;
+        }
+    }
+
+    private void startHeredoc() {
+        boolean stripTabs = "<<-".contentEquals(content.subSequence(lexer.getTokenStart(), lexer.getTokenEnd()));
+        String hostCommand = command;
+
+        lexer.advance();
+        boolean quoted = readHeredocMarker();
+
+        addHeredoc(new Heredoc(hostCommand, stripTabs, quoted));
+    }
+
+    @Override
+    void finishHeredoc(@NotNull Heredoc heredoc, int start, int end) {
+        heredoc.contentStart = start;
+        heredoc.contentEnd = end;
+        if (heredoc.quoted || !hasExpansion(start, end)) {
+            heredoc.value = heredoc.stripTabs ? stripTabs(start, end) : content.subSequence(start, end).toString();
+        }
+
+        heredocs.add(heredoc);
+    }
+
+    private boolean hasExpansion(int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = content.charAt(i);
+            if (c == '$' || c == '`') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private String stripTabs(int start, int end) {
+        StringBuilder value = new StringBuilder(end - start);
+        boolean lineStart = true;
+        for (int i = start; i < end; i++) {
+            char c = content.charAt(i);
+            if (lineStart && c == '\t') {
+                continue;
+            }
+
+            lineStart = c == '\n';
+            value.append(c);
+        }
+        return value.toString();
+    }
+
+    /**
+     * A here document of a script.
+     */
+    static final class Heredoc {
+        @Nullable
+        final String command;
+        final boolean stripTabs;
+        final boolean quoted;
+
+        int contentStart;
+        int contentEnd;
+        //the content without the stripped tabs, null if it contains expansions
+        @Nullable
+        String value;
+
+        Heredoc(@Nullable String command, boolean stripTabs, boolean quoted) {
+            this.command = command;
+            this.stripTabs = stripTabs;
+            this.quoted = quoted;
+        }
+    }
+}
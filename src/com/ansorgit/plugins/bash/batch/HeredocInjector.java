@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.google.common.collect.Lists;
+import com.intellij.concurrency.JobSchedulerImpl;
+import com.intellij.util.containers.TinyLfuCache;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parses the here documents of scripts with the parsers which were registered for their commands,
+ * e.g. the SQL which is passed to {@code psql} or {@code bteq}.
+ * <br>
+ * The parsers run on a pool of their own, with a bounded queue. The here documents of a file are submitted by
+ * {@link #inject(CharSequence)} or by the {@link #extractor()} of a {@link BashBatchPipeline}, which returns without waiting
+ * for the parsers. The slow parsers of the injected languages don't block the parsing of the scripts.
+ * <br>
+ * The results are cached by the content of the here documents, the same content is parsed only once per parser,
+ * even if it is submitted concurrently. Failed parses are not cached, their content is parsed again when it's submitted again.
+ * Here documents with expansions are not injected.
+ *
+ * @param <R> The type of the parse results
+ * @author jansorg
+ */
+public final class HeredocInjector<R> implements AutoCloseable {
+    private final Map<String, InjectedContentParser<? extends R>> parsers = new ConcurrentHashMap<>();
+    //the successfully completed parses, the cache may reject or evict them
+    private final TinyLfuCache<ContentKey, CompletableFuture<R>> results;
+    //the parses which were submitted and didn't complete yet
+    private final Map<ContentKey, CompletableFuture<R>> inFlight = new ConcurrentHashMap<>();
+    private final PipelineStage stage;
+
+    private final AtomicLong injected = new AtomicLong();
+    private final AtomicLong parsed = new AtomicLong();
+
+    public HeredocInjector() {
+        this(JobSchedulerImpl.CORES_COUNT, 4 * JobSchedulerImpl.CORES_COUNT, 10000);
+    }
+
+    /**
+     * @param threads       The number of threads which run the parsers
+     * @param queueCapacity The number of contents which may wait for a parser, submitting blocks while the queue is full
+     * @param cacheSize     The number of parse results which are cached
+     */
+    public HeredocInjector(int threads, int queueCapacity, int cacheSize) {
+        this.results = new TinyLfuCache<>(cacheSize);
+        this.stage = new PipelineStage("injection", threads, queueCapacity, () -> {
+        });
+    }
+
+    /**
+     * Registers the parser of the here documents which are read by the given command.
+     *
+     * @param command The name of the command, without a path, e.g. psql
+     * @return This injector
+     */
+    @NotNull
+    public HeredocInjector<R> register(@NotNull String command, @NotNull InjectedContentParser<? extends R> parser) {
+        parsers.put(command, parser);
+        return this;
+    }
+
+    /**
+     * Submits the here documents of a script whose command has a registered parser.
+     * This blocks while the queue of the parsers is full.
+     *
+     * @param content The content of the script
+     * @return The injected here documents, ordered by offset
+     */
+    @NotNull
+    public List<InjectedHeredoc<R>> inject(@NotNull CharSequence content) throws InterruptedException {
+        List<InjectedHeredoc<R>> result = Lists.newArrayList();
+
+        for (HeredocInjectionScanner.Heredoc heredoc : HeredocInjectionScanner.scan(content)) {
+            if (heredoc.command == null || heredoc.value == null) {
+                continue;
+            }
+
+            InjectedContentParser<? extends R> parser = parsers.get(heredoc.command);
+            if (parser != null) {
+                result.add(new InjectedHeredoc<>(heredoc.command, heredoc.contentStart, heredoc.contentEnd, heredoc.value, submit(parser, heredoc.value)));
+            }
+        }
+
+        injected.addAndGet(result.size());
+        return result;
+    }
+
+    /**
+     * @return An extractor which submits the here documents of each file and returns them without waiting for the parse results.
+     * It scans the text of the tree again, the tree itself is not used.
+     */
+    @NotNull
+    public FactExtractor<List<InjectedHeredoc<R>>> extractor() {
+        return (file, root) -> {
+            try {
+                return inject(root.getChars());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while injecting " + file, e);
+            }
+        };
+    }
+
+    private CompletableFuture<R> submit(@NotNull InjectedContentParser<? extends R> parser, @NotNull String content) throws InterruptedException {
+        ContentKey key = new ContentKey(parser, content);
+        CompletableFuture<R> cached = results.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<R> future = new CompletableFuture<>();
+        CompletableFuture<R> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+
+        //the parse of the same content may have completed after the lookup
+        cached = results.get(key);
+        if (cached != null) {
+            future.complete(cached.join());
+            inFlight.remove(key, future);
+            return cached;
+        }
+
+        try {
+            stage.submit(() -> {
+                parsed.incrementAndGet();
+                try {
+                    future.complete(parser.parse(content));
+                    results.put(key, future);
+                    return PipelineStage.Step.SUCCEEDED;
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                    return PipelineStage.Step.FAILED;
+                } finally {
+                    inFlight.remove(key, future);
+                }
+            });
+        } catch (InterruptedException | RuntimeException e) {
+            //waiting callers of the same content must not hang
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+
+        return future;
+    }
+
+    /**
+     * @return The number of here documents which were submitted
+     */
+    public long getInjectedCount() {
+        return injected.get();
+    }
+
+    /**
+     * @return The number of contents which were passed to a parser, the other here documents used a cached result
+     */
+    public long getParsedCount() {
+        return parsed.get();
+    }
+
+    @NotNull
+    public StageMetrics getMetrics() {
+        return stage.metrics();
+    }
+
+    /**
+     * Stops the threads of the parsers after the queued contents were parsed.
+     */
+    @Override
+    public void close() {
+        stage.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        return stage.awaitTermination(timeout, unit);
+    }
+
+    private static final class ContentKey {
+        private final InjectedContentParser<?> parser;
+        private final String content;
+        private final int hash;
+
+        ContentKey(@NotNull InjectedContentParser<?> parser, @NotNull String content) {
+            this.parser = parser;
+            this.content = content;
+            this.hash = 31 * System.identityHashCode(parser) + content.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ContentKey)) {
+                return false;
+            }
+
+            ContentKey other = (ContentKey) o;
+            return parser == other.parser && hash == other.hash && content.equals(other.content);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
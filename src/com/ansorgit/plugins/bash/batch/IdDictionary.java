@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.google.common.collect.Lists;
+import gnu.trove.TObjectIntHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maps the strings of a fact store, e.g. file paths or command names, to dense ids in the order in which they were added.
+ * <br>
+ * A dictionary isn't thread-safe, the builders of the stores add values while holding their lock.
+ * The dictionary of a store is a {@link #copy()} which isn't modified anymore and may be read concurrently.
+ *
+ * @author jansorg
+ */
+final class IdDictionary {
+    private final List<String> values;
+    private final TObjectIntHashMap<String> ids;
+
+    IdDictionary() {
+        this.values = Lists.newArrayList();
+        this.ids = new TObjectIntHashMap<>();
+    }
+
+    IdDictionary(@NotNull Collection<String> values) {
+        this.values = Lists.newArrayListWithCapacity(values.size());
+        this.ids = new TObjectIntHashMap<>(values.size());
+        for (String value : values) {
+            add(value);
+        }
+    }
+
+    /**
+     * @return The id of the value, a new id is assigned if the dictionary doesn't contain the value
+     */
+    int add(@NotNull String value) {
+        if (ids.containsKey(value)) {
+            return ids.get(value);
+        }
+
+        int id = values.size();
+        values.add(value);
+        ids.put(value, id);
+        return id;
+    }
+
+    /**
+     * @return The id of the value or -1 if the dictionary doesn't contain it
+     */
+    int find(@NotNull String value) {
+        return ids.containsKey(value) ? ids.get(value) : -1;
+    }
+
+    @NotNull
+    String get(int id) {
+        return values.get(id);
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    /**
+     * @return The values, ordered by id
+     */
+    @NotNull
+    List<String> values() {
+        return Collections.unmodifiableList(values);
+    }
+
+    @NotNull
+    IdDictionary copy() {
+        return new IdDictionary(values);
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Parses the content of here documents which is written in another language, e.g. the SQL of {@code psql <<EOF}.
+ * Implementations are called concurrently by the threads of a {@link HeredocInjector}.
+ * The result of a content is cached and shared by all here documents with the same content, it should be immutable.
+ *
+ * @param <R> The type of the parse result
+ * @author jansorg
+ */
+public interface InjectedContentParser<R> {
+    @Nullable
+    R parse(@NotNull String content) throws Exception;
+}
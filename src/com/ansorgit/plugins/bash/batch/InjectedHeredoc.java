@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A here document whose content is parsed by the parser which was registered for its command.
+ * The parse result is computed in the background, see {@link HeredocInjector}.
+ *
+ * @param <R> The type of the parse result
+ * @author jansorg
+ */
+public final class InjectedHeredoc<R> {
+    private final String command;
+    private final int contentStart;
+    private final int contentEnd;
+    private final String content;
+    private final CompletableFuture<R> result;
+
+    InjectedHeredoc(@NotNull String command, int contentStart, int contentEnd, @NotNull String content, @NotNull CompletableFuture<R> result) {
+        this.command = command;
+        this.contentStart = contentStart;
+        this.contentEnd = contentEnd;
+        this.content = content;
+        this.result = result;
+    }
+
+    /**
+     * @return The name of the command which reads the here document, e.g. psql
+     */
+    @NotNull
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return The offset of the content in the script
+     */
+    public int getContentStart() {
+        return contentStart;
+    }
+
+    public int getContentEnd() {
+        return contentEnd;
+    }
+
+    /**
+     * @return The content which was passed to the parser, leading tabs are removed for {@code <<-}
+     */
+    @NotNull
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * @return The parse result, completed exceptionally if the parser failed
+     */
+    @NotNull
+    public CompletableFuture<R> getFuture() {
+        return result;
+    }
+
+    /**
+     * Waits for the parse result.
+     *
+     * @throws ExecutionException If the parser failed, the cause is the exception of the parser
+     */
+    @Nullable
+    public R getResult() throws InterruptedException, ExecutionException {
+        return result.get();
+    }
+
+    @Override
+    public String toString() {
+        return "InjectedHeredoc{" + command + ", " + contentStart + "-" + contentEnd + "}";
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.google.common.collect.Lists;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import com.intellij.util.containers.IntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+import static com.ansorgit.plugins.bash.batch.IoLineageStore.*;
+
+/**
+ * Finds the file reads and writes of a script in a single pass over the tokens of the lexer, without building a tree.
+ * <br>
+ * Redirects are found by their operators, the target is the word which follows the operator.
+ * A number directly in front of the operator is the file descriptor. Duplications of file descriptors, e.g. 2>&1,
+ * and process substitutions are no file I/O and are skipped. Source commands are found in command position.
+ * Here documents are recorded at their operator, their content is the text range of the record.
+ * <br>
+ * A target is static if it contains no expansions, i.e. only plain words without glob characters and quoted strings
+ * without variables or substitutions.
+ *
+ * @author jansorg
+ */
+final class IoLineageScanner extends ScriptTokenScanner<Integer> {
+    //tokens which end a word outside of strings and substitutions
+    private static final TokenSet wordEnd = TokenSet.orSet(redirectionSet, TokenSet.create(WHITESPACE, LINE_CONTINUATION, LINE_FEED,
+            SEMI, AMP, PIPE, PIPE_AMP, AND_AND, OR_OR, CASE_END, COMMENT, RIGHT_PAREN, FILEDESCRIPTOR,
+            HEREDOC_CONTENT, HEREDOC_MARKER_END, HEREDOC_MARKER_IGNORING_TABS_END));
+
+    //tokens of a word which contain no expansions
+    private static final TokenSet staticTokens = TokenSet.create(WORD, STRING2, STRING_BEGIN, STRING_CONTENT, STRING_END, INTEGER_LITERAL, COLON);
+
+    private final Records records;
+
+    //the previous token, null after whitespace
+    private IElementType previous;
+    private int previousStart;
+    private int previousLength;
+    private boolean commandPosition = true;
+
+    private IoLineageScanner(@NotNull CharSequence content, @NotNull Records records) {
+        super(content);
+        this.records = records;
+    }
+
+    /**
+     * Appends the I/O records of the script to the given records.
+     */
+    static void scan(@NotNull CharSequence content, @NotNull Records records) {
+        new IoLineageScanner(content, records).scan();
+    }
+
+    private void scan() {
+        IElementType type;
+        while ((type = lexer.getTokenType()) != null) {
+            if (type == HEREDOC_MARKER_TAG) {
+                startHeredoc();
+                continue;
+            }
+
+            if (!heredocToken(type)) {
+                if (isRedirect(type)) {
+                    redirect(type);
+                    continue;
+                }
+
+                if (commandPosition && type == WORD && isSource()) {
+                    int start = lexer.getTokenStart();
+                    track(type);
+                    lexer.advance();
+                    readTarget(start, SOURCE, NO_FD, 0);
+                    continue;
+                }
+            }
+
+            track(type);
+            lexer.advance();
+        }
+
+        finishPendingHeredocs();
+    }
+
+    private void redirect(IElementType operator) {
+        int start = lexer.getTokenStart();
+        boolean explicitFd = previous == INTEGER_LITERAL && lexer.getTokenStart() == previousEnd();
+        int fd = NO_FD;
+        if (explicitFd) {
+            start = previousStart;
+            fd = parseFd(previousStart, lexer.getTokenStart());
+        }
+
+        int direction;
+        int flags = 0;
+        if (operator == LESS_THAN) {
+            direction = READ;
+        } else if (operator == REDIRECT_LESS_GREATER) {
+            direction = READ_WRITE;
+        } else if (operator == REDIRECT_HERE_STRING) {
+            direction = HERE_STRING;
+        } else if (operator == SHIFT_RIGHT) {
+            direction = APPEND;
+        } else if (operator == REDIRECT_AMP_GREATER_GREATER || operator == REDIRECT_GREATER_GREATER_AMP) {
+            direction = APPEND;
+            flags = BOTH_OUTPUTS;
+        } else if (operator == REDIRECT_AMP_GREATER || operator == REDIRECT_GREATER_AMP) {
+            direction = WRITE;
+            flags = BOTH_OUTPUTS;
+        } else {
+            direction = WRITE;
+        }
+
+        if (!explicitFd) {
+            fd = direction == READ || direction == READ_WRITE || direction == HERE_STRING ? 0 : 1;
+        }
+
+        track(operator);
+        lexer.advance();
+
+        IElementType next = lexer.getTokenType();
+        if (next == FILEDESCRIPTOR || next == LEFT_PAREN) {
+            //a duplication like 2>&1 or a process substitution like <(cmd)
+            return;
+        }
+
+        readTarget(start, direction, fd, flags);
+    }
+
+    private void startHeredoc() {
+        int start = lexer.getTokenStart();
+        int fd = 0;
+        if (previous == INTEGER_LITERAL && lexer.getTokenStart() == previousEnd()) {
+            start = previousStart;
+            fd = parseFd(previousStart, lexer.getTokenStart());
+        }
+
+        track(HEREDOC_MARKER_TAG);
+        lexer.advance();
+        int flags = readHeredocMarker() ? STATIC | QUOTED_HEREDOC : 0;
+
+        addHeredoc(records.add(start, HEREDOC, fd, -1, -1, flags, null));
+    }
+
+    @Override
+    void finishHeredoc(@NotNull Integer row, int start, int end) {
+        String text = content.subSequence(start, end).toString();
+        boolean isStatic = (records.flags.get(row) & QUOTED_HEREDOC) != 0 || text.indexOf('$') < 0 && text.indexOf('`') < 0;
+        records.setTarget(row, start, end, isStatic ? STATIC : 0, isStatic ? text : null);
+    }
+
+    /**
+     * Reads the word after an operator and records it, nothing is recorded if there's no word.
+     */
+    private void readTarget(int start, int direction, int fd, int flags) {
+        skipWhitespace();
+
+        int targetStart = lexer.getTokenStart();
+        int targetEnd = targetStart;
+        boolean isStatic = true;
+        StringBuilder value = new StringBuilder();
+        int depth = 0;
+
+        IElementType type;
+        while ((type = lexer.getTokenType()) != null && (depth > 0 || !wordEnd.contains(type))) {
+            int tokenStart = lexer.getTokenStart();
+            int tokenEnd = lexer.getTokenEnd();
+
+            if (type == STRING_BEGIN || type == LEFT_PAREN || type == LEFT_CURLY) {
+                depth++;
+            } else if ((type == STRING_END || type == RIGHT_PAREN || type == RIGHT_CURLY) && depth > 0) {
+                depth--;
+            }
+
+            if (isStatic) {
+                isStatic = staticTokens.contains(type) && appendValue(type, tokenStart, tokenEnd, value);
+            }
+
+            targetEnd = tokenEnd;
+            track(type);
+            lexer.advance();
+        }
+
+        if (targetEnd == targetStart) {
+            return;
+        }
+
+        records.add(start, direction, fd, targetStart, targetEnd, flags | (isStatic ? STATIC : 0), isStatic ? value.toString() : null);
+    }
+
+    /**
+     * Appends the value of a static token.
+     *
+     * @return false if the token isn't static
+     */
+    private boolean appendValue(IElementType type, int start, int end, StringBuilder value) {
+        if (type == STRING_BEGIN || type == STRING_END) {
+            return true;
+        }
+
+        if (type == STRING2) {
+            //ANSI-C strings like $'a\tb' are not decoded
+            if (content.charAt(start) != '\'') {
+                return false;
+            }
+            value.append(content, start + 1, end - 1);
+            return true;
+        }
+
+        boolean inString = type == STRING_CONTENT;
+        for (int i = start; i < end; i++) {
+            char c = content.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                char escaped = content.charAt(i + 1);
+                if (!inString || escaped == '"' || escaped == '\\' || escaped == '$' || escaped == '`') {
+                    value.append(escaped);
+                    i++;
+                    continue;
+                }
+            } else if (!inString && (c == '*' || c == '?' || c == '[' || c == '~' && i == start && value.length() == 0)) {
+                //a glob pattern or a home directory
+                return false;
+            }
+
+            value.append(c);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The file descriptor in front of an operator, {@link IoLineageStore#NO_FD} if it's out of the range of descriptors
+     */
+    private int parseFd(int start, int end) {
+        long fd = 0;
+        for (int i = start; i < end; i++) {
+            char c = content.charAt(i);
+            if (c < '0' || c > '9') {
+                return NO_FD;
+            }
+
+            fd = fd * 10 + (c - '0');
+            if (fd > Integer.MAX_VALUE) {
+                return NO_FD;
+            }
+        }
+
+        return (int) fd;
+    }
+
+    private boolean isRedirect(IElementType type) {
+        return type == LESS_THAN || type == GREATER_THAN || type == SHIFT_RIGHT || type == REDIRECT_GREATER_BAR
+                || type == REDIRECT_LESS_GREATER || type == REDIRECT_HERE_STRING
+                || type == REDIRECT_AMP_GREATER || type == REDIRECT_AMP_GREATER_GREATER
+                || type == REDIRECT_GREATER_AMP || type == REDIRECT_GREATER_GREATER_AMP;
+    }
+
+    private boolean isSource() {
+        int start = lexer.getTokenStart();
+        int length = lexer.getTokenEnd() - start;
+        if (length == 1) {
+            return content.charAt(start) == '.';
+        }
+
+        return length == 6 && "source".contentEquals(content.subSequence(start, start + 6));
+    }
+
+    private int previousEnd() {
+        return previousStart + previousLength;
+    }
+
+    private void track(IElementType type) {
+        if (type == WHITESPACE || type == LINE_CONTINUATION || type == COMMENT) {
+            //a file descriptor must be directly in front of the operator
+            previous = null;
+            return;
+        }
+
+        if (isCommandStart(type)) {
+            commandPosition = true;
+        } else if (type != HEREDOC_CONTENT && type != HEREDOC_MARKER_END && type != HEREDOC_MARKER_IGNORING_TABS_END) {
+            commandPosition = false;
+        }
+
+        previous = type;
+        previousStart = lexer.getTokenStart();
+        previousLength = lexer.getTokenEnd() - previousStart;
+    }
+
+    /**
+     * The columns of the I/O records of a file, collected before they're added to a store.
+     */
+    static final class Records {
+        final IntArrayList offsets = new IntArrayList();
+        final IntArrayList directions = new IntArrayList();
+        final IntArrayList fds = new IntArrayList();
+        final IntArrayList targetStarts = new IntArrayList();
+        final IntArrayList targetEnds = new IntArrayList();
+        final IntArrayList flags = new IntArrayList();
+        final List<String> values = Lists.newArrayList();
+
+        int add(int offset, int direction, int fd, int targetStart, int targetEnd, int flags, @Nullable String value) {
+            offsets.add(offset);
+            directions.add(direction);
+            fds.add(fd);
+            targetStarts.add(targetStart);
+            targetEnds.add(targetEnd);
+            this.flags.add(flags);
+            values.add(value);
+            return offsets.size() - 1;
+        }
+
+        void setTarget(int row, int start, int end, int flags, @Nullable String value) {
+            targetStarts.set(row, start);
+            targetEnds.set(row, end);
+            this.flags.set(row, this.flags.get(row) | flags);
+            values.set(row, value);
+        }
+
+        int size() {
+            return offsets.size();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.google.common.collect.Lists;
+import com.intellij.util.containers.IntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The files which are read and written by the scripts of a batch, for data lineage reports.
+ * <br>
+ * Each redirect, source command, here document and here string is a row. The columns are the file id, the offset of the
+ * operator or command, the direction, the file descriptor, the text range of the target and flags.
+ * Rows with a static target also store its value, i.e. the path without quotes and escapes.
+ * The rows of a file are ordered by offset.
+ * <br>
+ * The rows are found in the token stream of the lexer, see {@link IoLineageScanner}, the scripts don't have to be parsed.
+ * A store is built by a {@link Builder}, it's immutable and thread-safe.
+ *
+ * @author jansorg
+ */
+public final class IoLineageStore {
+    /**
+     * Input redirect, e.g. {@code < file}.
+     */
+    public static final int READ = 1;
+    /**
+     * Output redirect, e.g. {@code > file}, {@code >| file} or {@code &> file}.
+     */
+    public static final int WRITE = 2;
+    /**
+     * Appending output redirect, e.g. {@code >> file}.
+     */
+    public static final int APPEND = 3;
+    /**
+     * Redirect for reading and writing, {@code <> file}.
+     */
+    public static final int READ_WRITE = 4;
+    /**
+     * A file which is sourced by {@code source file} or {@code . file}.
+     */
+    public static final int SOURCE = 5;
+    /**
+     * A here document, the target is the content.
+     */
+    public static final int HEREDOC = 6;
+    /**
+     * A here string, the target is the word after {@code <<<}.
+     */
+    public static final int HERE_STRING = 7;
+
+    /**
+     * The file descriptor of source commands and of redirects whose descriptor is too large to be valid.
+     */
+    public static final int NO_FD = -1;
+
+    /**
+     * The target contains no expansions, its value is known.
+     */
+    public static final int STATIC = 1;
+    /**
+     * The redirect applies to the standard output and the standard error, e.g. {@code &> file}.
+     */
+    public static final int BOTH_OUTPUTS = 1 << 1;
+    /**
+     * The marker of the here document is quoted, the content is not expanded.
+     */
+    public static final int QUOTED_HEREDOC = 1 << 2;
+
+    private final IdDictionary files;
+    private final int size;
+
+    private final int[] fileIds;
+    private final int[] offsets;
+    private final int[] directions;
+    private final int[] fds;
+    private final int[] targetStarts;
+    private final int[] targetEnds;
+    private final int[] flags;
+    private final String[] values;
+
+    private IoLineageStore(IdDictionary files, int size, int[] fileIds, int[] offsets, int[] directions, int[] fds,
+                           int[] targetStarts, int[] targetEnds, int[] flags, String[] values) {
+        this.files = files;
+        this.size = size;
+        this.fileIds = fileIds;
+        this.offsets = offsets;
+        this.directions = directions;
+        this.fds = fds;
+        this.targetStarts = targetStarts;
+        this.targetEnds = targetEnds;
+        this.flags = flags;
+        this.values = values;
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    @NotNull
+    public String getFile(int fileId) {
+        return files.get(fileId);
+    }
+
+    public int getFileId(int row) {
+        return fileIds[row];
+    }
+
+    /**
+     * @return The offset of the operator, including a file descriptor in front of it, or the offset of the source command
+     */
+    public int getOffset(int row) {
+        return offsets[row];
+    }
+
+    /**
+     * @return One of {@link #READ}, {@link #WRITE}, {@link #APPEND}, {@link #READ_WRITE}, {@link #SOURCE}, {@link #HEREDOC} and {@link #HERE_STRING}
+     */
+    public int getDirection(int row) {
+        return directions[row];
+    }
+
+    /**
+     * @return The file descriptor of a redirect, the default descriptor of the operator if none is given,
+     * or {@link #NO_FD} for source commands and invalid descriptors
+     */
+    public int getFd(int row) {
+        return fds[row];
+    }
+
+    public int getTargetStart(int row) {
+        return targetStarts[row];
+    }
+
+    public int getTargetEnd(int row) {
+        return targetEnds[row];
+    }
+
+    public int getFlags(int row) {
+        return flags[row];
+    }
+
+    public boolean isStatic(int row) {
+        return (flags[row] & STATIC) != 0;
+    }
+
+    /**
+     * @return The value of a static target, e.g. the path without quotes, or the content of a here document. Null if it's not static.
+     */
+    @Nullable
+    public String getStaticValue(int row) {
+        return values[row];
+    }
+
+    /**
+     * @return The rows whose direction is one of the given directions
+     */
+    @NotNull
+    public BitSet withDirections(int... directions) {
+        BitSet result = new BitSet(size);
+        for (int row = 0; row < size; row++) {
+            for (int direction : directions) {
+                if (this.directions[row] == direction) {
+                    result.set(row);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The rows whose static value is the given path
+     */
+    @NotNull
+    public BitSet withStaticValue(@NotNull String value) {
+        BitSet result = new BitSet(size);
+        for (int row = 0; row < size; row++) {
+            if (value.equals(values[row])) {
+                result.set(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Collects the I/O of scripts. Files may be added concurrently, e.g. by the extractors of a {@link BashBatchPipeline}.
+     * The tokens of a file are scanned without holding the lock of the builder.
+     */
+    public static final class Builder {
+        private final IdDictionary files = new IdDictionary();
+
+        private final IntArrayList rowFiles = new IntArrayList();
+        private final IntArrayList offsets = new IntArrayList();
+        private final IntArrayList directions = new IntArrayList();
+        private final IntArrayList fds = new IntArrayList();
+        private final IntArrayList targetStarts = new IntArrayList();
+        private final IntArrayList targetEnds = new IntArrayList();
+        private final IntArrayList flags = new IntArrayList();
+        private final List<String> values = Lists.newArrayList();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds the I/O of a script.
+         *
+         * @param file    The path of the file, the rows of a file which was already added are appended
+         * @param content The content of the file
+         * @return The number of added rows
+         */
+        public int addFile(@NotNull String file, @NotNull CharSequence content) {
+            IoLineageScanner.Records records = new IoLineageScanner.Records();
+            IoLineageScanner.scan(content, records);
+
+            synchronized (this) {
+                int fileId = files.add(file);
+
+                for (int i = 0; i < records.size(); i++) {
+                    rowFiles.add(fileId);
+                    offsets.add(records.offsets.getQuick(i));
+                    directions.add(records.directions.getQuick(i));
+                    fds.add(records.fds.getQuick(i));
+                    targetStarts.add(records.targetStarts.getQuick(i));
+                    targetEnds.add(records.targetEnds.getQuick(i));
+                    flags.add(records.flags.getQuick(i));
+                }
+                values.addAll(records.values);
+            }
+
+            return records.size();
+        }
+
+        /**
+         * @return An extractor which adds the I/O of each file to this builder and returns the number of added rows.
+         * It scans the text of the tree again, the tree itself is not used.
+         */
+        @NotNull
+        public FactExtractor<Integer> extractor() {
+            return (file, root) -> addFile(file.getPath(), root.getChars());
+        }
+
+        @NotNull
+        public synchronized IoLineageStore build() {
+            return new IoLineageStore(files.copy(), rowFiles.size(), rowFiles.toArray(), offsets.toArray(), directions.toArray(),
+                    fds.toArray(), targetStarts.toArray(), targetEnds.toArray(), flags.toArray(), values.toArray(new String[0]));
+        }
+    }
+}
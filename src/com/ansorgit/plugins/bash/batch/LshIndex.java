@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.intellij.util.containers.IntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Locality-sensitive hashing of MinHash signatures to find near-duplicate scripts without comparing all pairs.
+ * <br>
+ * A signature is split into bands of rows, the rows of a band are hashed into a bucket. Two scripts are candidates
+ * if they share the bucket of at least one band. The probability of this is 1 - (1 - s^rows)^bands
+ * for two scripts with similarity s, i.e. the index finds similar scripts with high probability and rarely
+ * proposes dissimilar scripts. The candidates are verified with their signatures.
+ * <br>
+ * This class is thread-safe.
+ *
+ * @param <K> The type of the keys of the scripts, e.g. files
+ * @author jansorg
+ */
+public final class LshIndex<K> {
+    private final int bands;
+    private final int rows;
+
+    //the slots of the scripts, the slots of removed scripts are null and reused by the next added scripts
+    private final List<K> keys = Lists.newArrayList();
+    private final List<MinHashSignature> signatures = Lists.newArrayList();
+    private final IntArrayList freeSlots = new IntArrayList();
+    private final Map<K, Integer> keyIndices = Maps.newLinkedHashMap();
+    //bucket hash to the indices of the keys, for each band
+    private final List<Map<Long, List<Integer>>> buckets = Lists.newArrayList();
+
+    /**
+     * @param bands The number of bands
+     * @param rows  The number of signature values per band, bands * rows must not exceed the size of the signatures
+     */
+    public LshIndex(int bands, int rows) {
+        if (bands <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("The number of bands and rows must be positive");
+        }
+
+        this.bands = bands;
+        this.rows = rows;
+
+        for (int i = 0; i < bands; i++) {
+            buckets.add(Maps.<Long, List<Integer>>newHashMap());
+        }
+    }
+
+    /**
+     * Creates an index whose bands and rows are chosen for the given similarity threshold.
+     * Scripts which are more similar than the threshold are likely candidates, less similar scripts are unlikely candidates.
+     *
+     * @param signatureSize The size of the signatures
+     * @param threshold     The similarity threshold between 0 and 1
+     */
+    @NotNull
+    public static <K> LshIndex<K> forThreshold(int signatureSize, double threshold) {
+        int bestBands = 1;
+        double bestError = Double.MAX_VALUE;
+
+        for (int bands = 1; bands <= signatureSize; bands++) {
+            int rows = signatureSize / bands;
+            //the similarity at which the probability of a candidate rises most steeply
+            double error = Math.abs(Math.pow(1.0 / bands, 1.0 / rows) - threshold);
+            if (error < bestError) {
+                bestError = error;
+                bestBands = bands;
+            }
+        }
+
+        return new LshIndex<K>(bestBands, signatureSize / bestBands);
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Adds a script to the index. A key which was already added is replaced.
+     */
+    public synchronized void add(@NotNull K key, @NotNull MinHashSignature signature) {
+        if (signature.size() < bands * rows) {
+            throw new IllegalArgumentException("The signature is smaller than bands * rows: " + signature.size());
+        }
+
+        Integer previous = keyIndices.get(key);
+        int index;
+        if (previous != null) {
+            //a replaced script keeps its slot
+            index = previous;
+            removeFromBuckets(index);
+            signatures.set(index, signature);
+        } else if (!freeSlots.isEmpty()) {
+            index = freeSlots.remove(freeSlots.size() - 1);
+            keys.set(index, key);
+            signatures.set(index, signature);
+            keyIndices.put(key, index);
+        } else {
+            index = keys.size();
+            keys.add(key);
+            signatures.add(signature);
+            keyIndices.put(key, index);
+        }
+
+        for (int band = 0; band < bands; band++) {
+            Map<Long, List<Integer>> bandBuckets = buckets.get(band);
+            long hash = bandHash(signature, band);
+
+            List<Integer> bucket = bandBuckets.get(hash);
+            if (bucket == null) {
+                bucket = Lists.newArrayListWithCapacity(1);
+                bandBuckets.put(hash, bucket);
+            }
+
+            bucket.add(index);
+        }
+    }
+
+    /**
+     * Removes a script from the index, e.g. after it was deleted.
+     *
+     * @return true if the key was in the index
+     */
+    public synchronized boolean remove(@NotNull K key) {
+        Integer index = keyIndices.remove(key);
+        if (index == null) {
+            return false;
+        }
+
+        removeFromBuckets(index);
+        keys.set(index, null);
+        signatures.set(index, null);
+        freeSlots.add(index);
+        return true;
+    }
+
+    /**
+     * @return The number of scripts in the index
+     */
+    public synchronized int size() {
+        return keyIndices.size();
+    }
+
+    /**
+     * Returns the scripts which share a band with the given signature and which are at least as similar as the given minimum.
+     *
+     * @param signature     The signature of a script
+     * @param minSimilarity The minimal estimated similarity, 0 returns all candidates
+     * @return The keys of the similar scripts
+     */
+    @NotNull
+    public synchronized Set<K> findSimilar(@NotNull MinHashSignature signature, double minSimilarity) {
+        Set<K> result = Sets.newLinkedHashSet();
+
+        for (int band = 0; band < bands; band++) {
+            List<Integer> bucket = buckets.get(band).get(bandHash(signature, band));
+            if (bucket == null) {
+                continue;
+            }
+
+            for (int index : bucket) {
+                if (signatures.get(index).similarity(signature) >= minSimilarity) {
+                    result.add(keys.get(index));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Groups the scripts into clusters of near-duplicates. Two scripts are in the same cluster if they are connected
+     * by a chain of candidate pairs whose estimated similarity is at least the given minimum.
+     * <br>
+     * The members of a bucket aren't compared pairwise. A member is compared with the representatives of the bucket,
+     * i.e. the members which were not similar to an earlier representative, and becomes a representative itself if it's
+     * similar to none of them. A bucket of copies of the same template is handled in linear time.
+     *
+     * @param minSimilarity The minimal estimated similarity of a pair
+     * @return The clusters with at least two scripts
+     */
+    @NotNull
+    public synchronized List<Set<K>> clusters(double minSimilarity) {
+        int[] parents = new int[keys.size()];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+
+        for (Map<Long, List<Integer>> bandBuckets : buckets) {
+            for (List<Integer> bucket : bandBuckets.values()) {
+                IntArrayList representatives = new IntArrayList();
+                for (int index : bucket) {
+                    if (!joinRepresentative(parents, representatives, index, minSimilarity)) {
+                        representatives.add(index);
+                    }
+                }
+            }
+        }
+
+        Map<Integer, Set<K>> clusters = Maps.newLinkedHashMap();
+        for (int index : keyIndices.values()) {
+            int root = find(parents, index);
+            Set<K> cluster = clusters.get(root);
+            if (cluster == null) {
+                cluster = Sets.newLinkedHashSet();
+                clusters.put(root, cluster);
+            }
+
+            cluster.add(keys.get(index));
+        }
+
+        List<Set<K>> result = Lists.newArrayList();
+        for (Set<K> cluster : clusters.values()) {
+            if (cluster.size() > 1) {
+                result.add(cluster);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return true if the script is similar to one of the representatives or already in the cluster of one of them
+     */
+    private boolean joinRepresentative(int[] parents, IntArrayList representatives, int index, double minSimilarity) {
+        MinHashSignature signature = signatures.get(index);
+        for (int i = 0; i < representatives.size(); i++) {
+            int representative = representatives.getQuick(i);
+            int a = find(parents, index);
+            int b = find(parents, representative);
+            if (a == b) {
+                return true;
+            }
+
+            if (signatures.get(representative).similarity(signature) >= minSimilarity) {
+                parents[a] = b;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeFromBuckets(int index) {
+        MinHashSignature signature = signatures.get(index);
+        for (int band = 0; band < bands; band++) {
+            Map<Long, List<Integer>> bandBuckets = buckets.get(band);
+            long hash = bandHash(signature, band);
+
+            List<Integer> bucket = bandBuckets.get(hash);
+            bucket.remove(Integer.valueOf(index));
+            if (bucket.isEmpty()) {
+                bandBuckets.remove(hash);
+            }
+        }
+    }
+
+    private long bandHash(@NotNull MinHashSignature signature, int band) {
+        long hash = band;
+        for (int i = band * rows; i < (band + 1) * rows; i++) {
+            hash = hash * 0x100000001b3L ^ signature.get(i);
+        }
+
+        return hash;
+    }
+
+    //union-find with path halving
+    private static int find(int[] parents, int index) {
+        while (parents[index] != index) {
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+
+        return index;
+    }
+}
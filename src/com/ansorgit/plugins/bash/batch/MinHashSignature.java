@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * The MinHash signature of a script or of a function, it estimates the similarity of the token shingles of two scripts.
+ * Instances are immutable.
+ *
+ * @author jansorg
+ * @see ScriptMinHasher
+ */
+public final class MinHashSignature {
+    private final long[] values;
+
+    MinHashSignature(@NotNull long[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @return The number of hash functions of the signature
+     */
+    public int size() {
+        return values.length;
+    }
+
+    long get(int index) {
+        return values[index];
+    }
+
+    /**
+     * Estimates the Jaccard similarity of the shingle sets of two signatures.
+     *
+     * @param other A signature which was computed with the same hash functions
+     * @return The similarity between 0 and 1
+     */
+    public double similarity(@NotNull MinHashSignature other) {
+        if (other.values.length != values.length) {
+            throw new IllegalArgumentException("The signatures have different sizes: " + values.length + ", " + other.values.length);
+        }
+
+        int equal = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == other.values[i]) {
+                equal++;
+            }
+        }
+
+        return (double) equal / values.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof MinHashSignature && Arrays.equals(values, ((MinHashSignature) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+}
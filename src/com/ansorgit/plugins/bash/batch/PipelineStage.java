@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.intellij.util.ConcurrencyUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stage of the batch pipeline: a fixed number of threads and a bounded queue in front of them.
+ * Submitting blocks while the queue is full, which throttles the previous stage.
+ *
+ * @author jansorg
+ */
+final class PipelineStage {
+    /**
+     * The outcome of a task.
+     */
+    enum Step {
+        //the file was passed to the next stage
+        HANDED_OVER,
+        //the file was passed to the sink
+        SUCCEEDED,
+        FAILED
+    }
+
+    private final String name;
+    private final int threads;
+    private final int queueCapacity;
+    private final ExecutorService executor;
+    //one permit per queue slot and per thread
+    private final Semaphore permits;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private final Runnable taskDone;
+
+    /**
+     * @param taskDone Called after the accounting of each task
+     */
+    PipelineStage(@NotNull String name, int threads, int queueCapacity, @NotNull Runnable taskDone) {
+        this.name = name;
+        this.taskDone = taskDone;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.permits = new Semaphore(threads + queueCapacity);
+        this.executor = Executors.newFixedThreadPool(threads, ConcurrencyUtil.newNamedThreadFactory("Bash batch " + name, true, Thread.NORM_PRIORITY));
+    }
+
+    /**
+     * Queues a task, blocks while the queue of this stage is full.
+     * The task has to report its own failures to the sink.
+     */
+    void submit(@NotNull Callable<Step> task) throws InterruptedException {
+        permits.acquire();
+        queued.incrementAndGet();
+
+        try {
+            executor.execute(() -> {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+
+                long start = System.nanoTime();
+                Step step = Step.FAILED;
+                try {
+                    step = task.call();
+                } catch (Exception e) {
+                    //the tasks handle their exceptions, this is only a safeguard to keep the permits intact
+                } finally {
+                    busyNanos.addAndGet(System.nanoTime() - start);
+                    active.decrementAndGet();
+                    completed.incrementAndGet();
+                    if (step == Step.FAILED) {
+                        failed.incrementAndGet();
+                    }
+
+                    permits.release();
+                    taskDone.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            permits.release();
+            throw e;
+        }
+    }
+
+    @NotNull
+    StageMetrics metrics() {
+        return new StageMetrics(name, threads, queued.get(), queueCapacity, active.get(), completed.get(), failed.get(), busyNanos.get(), System.nanoTime() - startNanos);
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
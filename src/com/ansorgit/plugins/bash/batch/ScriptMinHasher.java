@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.ansorgit.plugins.bash.lang.lexer.BashTokenTypes;
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes;
+import com.ansorgit.plugins.bash.lang.parser.BashParserDefinition;
+import com.ansorgit.plugins.bash.lang.psi.BashVisitor;
+import com.ansorgit.plugins.bash.lang.psi.api.function.BashFunctionDef;
+import com.ansorgit.plugins.bash.lang.psi.util.BashTreeWalker;
+import com.google.common.collect.Maps;
+import com.intellij.lang.ASTNode;
+import com.intellij.lexer.Lexer;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Computes MinHash signatures of scripts to find near-duplicates.
+ * <br>
+ * A script is reduced to its tokens without whitespace and comments. Each token is hashed with its type and its normalized text,
+ * a shingle is a sequence of consecutive tokens. The signature keeps the minimal shingle hash for each of the hash functions.
+ * Numbers are normalized to 0 and words which contain a path separator or a dot, e.g. paths, file names and qualified table names,
+ * are normalized to a single placeholder. Scripts which differ only in these values have the same signature.
+ * The content of strings and heredocs is split into words, e.g. SQL statements are compared by their words.
+ * <br>
+ * The signature is computed in a single pass over the tokens, either by the lexer or from the leaves of a parsed tree.
+ * The parser remaps some tokens, only signatures which were computed in the same way should be compared.
+ * <br>
+ * Instances are immutable and thread-safe.
+ *
+ * @author jansorg
+ * @see LshIndex
+ */
+public final class ScriptMinHasher implements BashTokenTypes {
+    public static final int DEFAULT_HASH_COUNT = 128;
+    public static final int DEFAULT_SHINGLE_SIZE = 4;
+
+    private static final TokenSet ignoredTokens = TokenSet.orSet(whitespaceTokens, commentTokens);
+    private static final TokenSet contentTokens = TokenSet.create(STRING_CONTENT, HEREDOC_CONTENT, HEREDOC_LINE);
+
+    private static final long PATH_HASH = 0x9e3779b97f4a7c15L;
+
+    //the hash functions are a * x + b with odd multipliers, these are permutations of the 64 bit values
+    private final long[] multipliers;
+    private final long[] addends;
+    private final int shingleSize;
+
+    public ScriptMinHasher() {
+        this(DEFAULT_HASH_COUNT, DEFAULT_SHINGLE_SIZE);
+    }
+
+    /**
+     * @param hashCount   The number of hash functions, i.e. the size of the signatures
+     * @param shingleSize The number of tokens of a shingle
+     */
+    public ScriptMinHasher(int hashCount, int shingleSize) {
+        if (hashCount <= 0 || shingleSize <= 0) {
+            throw new IllegalArgumentException("The hash count and the shingle size must be positive");
+        }
+
+        this.shingleSize = shingleSize;
+        this.multipliers = new long[hashCount];
+        this.addends = new long[hashCount];
+
+        //a fixed seed, signatures of different runs and of different instances are comparable
+        Random random = new Random(0x5eed);
+        for (int i = 0; i < hashCount; i++) {
+            multipliers[i] = random.nextLong() | 1;
+            addends[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Computes the signature of a script with the lexer, the script isn't parsed.
+     */
+    @NotNull
+    public MinHashSignature signature(@NotNull CharSequence script) {
+        Accumulator accumulator = new Accumulator();
+
+        Lexer lexer = BashParserDefinition.createBashLexer();
+        lexer.start(script);
+
+        IElementType type;
+        while ((type = lexer.getTokenType()) != null) {
+            accumulator.addToken(type, script, lexer.getTokenStart(), lexer.getTokenEnd());
+            lexer.advance();
+        }
+
+        return accumulator.finish();
+    }
+
+    /**
+     * Computes the signature of the tokens of a parsed tree, e.g. of a file or of a function definition.
+     */
+    @NotNull
+    public MinHashSignature signature(@NotNull ASTNode node) {
+        Accumulator accumulator = new Accumulator();
+
+        CharSequence text = node.getChars();
+        int offset = node.getStartOffset();
+
+        //iterates the leaves without a stack
+        ASTNode current = node;
+        while (current != null) {
+            ASTNode child = current.getFirstChildNode();
+            if (child != null) {
+                current = child;
+                continue;
+            }
+
+            if (current != node && current.getTextLength() > 0) {
+                int start = current.getStartOffset() - offset;
+                accumulator.addToken(current.getElementType(), text, start, start + current.getTextLength());
+            }
+
+            while (current != node && current.getTreeNext() == null) {
+                current = current.getTreeParent();
+            }
+
+            current = current == node ? null : current.getTreeNext();
+        }
+
+        return accumulator.finish();
+    }
+
+    /**
+     * Computes the signatures of the function definitions of a parsed tree.
+     *
+     * @return The signatures by function name, the last definition of a name is used
+     */
+    @NotNull
+    public Map<String, MinHashSignature> functionSignatures(@NotNull ASTNode root) {
+        final Map<String, MinHashSignature> result = Maps.newLinkedHashMap();
+
+        new BashTreeWalker().add(new BashVisitor() {
+            @Override
+            public void visitFunctionDef(BashFunctionDef functionDef) {
+                String name = functionDef.getName();
+                if (name != null) {
+                    result.put(name, signature(functionDef.getNode()));
+                }
+            }
+        }, TokenSet.create(BashElementTypes.FUNCTION_DEF_COMMAND)).walk(root);
+
+        return result;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * Hashes the tokens of a single script.
+     */
+    private final class Accumulator {
+        private final long[] minimums = new long[multipliers.length];
+        private final long[] window = new long[shingleSize];
+        private int tokens = 0;
+
+        Accumulator() {
+            Arrays.fill(minimums, Long.MAX_VALUE);
+        }
+
+        void addToken(@NotNull IElementType type, @NotNull CharSequence text, int start, int end) {
+            if (ignoredTokens.contains(type)) {
+                return;
+            }
+
+            if (!contentTokens.contains(type)) {
+                addWord(type, text, start, end);
+                return;
+            }
+
+            int wordStart = -1;
+            for (int i = start; i <= end; i++) {
+                boolean separator = i == end || Character.isWhitespace(text.charAt(i));
+                if (separator && wordStart >= 0) {
+                    addWord(type, text, wordStart, i);
+                    wordStart = -1;
+                } else if (!separator && wordStart < 0) {
+                    wordStart = i;
+                }
+            }
+        }
+
+        private void addWord(@NotNull IElementType type, @NotNull CharSequence text, int start, int end) {
+            window[tokens++ % shingleSize] = mix(type.getIndex() * 31L + normalizedHash(text, start, end));
+
+            if (tokens >= shingleSize) {
+                addShingle(shingleSize);
+            }
+        }
+
+        private long normalizedHash(@NotNull CharSequence text, int start, int end) {
+            long hash = 0;
+            boolean digits = false;
+
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (c == '/' || c == '.' && end - start > 1) {
+                    return PATH_HASH;
+                }
+
+                //a sequence of digits is hashed as a single 0
+                boolean digit = c >= '0' && c <= '9';
+                if (!digit || !digits) {
+                    hash = hash * 31 + (digit ? '0' : c);
+                }
+                digits = digit;
+            }
+
+            return hash;
+        }
+
+        private void addShingle(int size) {
+            //the tokens of the window in the order of the script
+            long shingle = 0;
+            for (int i = tokens - size; i < tokens; i++) {
+                shingle = mix(shingle * 31 + window[i % shingleSize]);
+            }
+
+            for (int i = 0; i < minimums.length; i++) {
+                long value = multipliers[i] * shingle + addends[i];
+                if (value < minimums[i]) {
+                    minimums[i] = value;
+                }
+            }
+        }
+
+        @NotNull
+        MinHashSignature finish() {
+            //a script with less tokens than a shingle is a single shingle
+            if (tokens > 0 && tokens < shingleSize) {
+                addShingle(tokens);
+            }
+
+            return new MinHashSignature(minimums);
+        }
+    }
+}
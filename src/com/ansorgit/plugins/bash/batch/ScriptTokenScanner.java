@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.ansorgit.plugins.bash.lang.lexer.BashTokenTypes;
+import com.ansorgit.plugins.bash.lang.parser.BashParserDefinition;
+import com.google.common.collect.Lists;
+import com.intellij.lexer.Lexer;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * The base of the scanners which read facts of a script in a single pass over the tokens of the lexer, without building a tree.
+ * <br>
+ * The content of a here document follows the line of its operator, i.e. there may be other tokens and other here documents
+ * in between. This class keeps the here documents of a line until their content was read, in the order of their operators.
+ *
+ * @param <H> The type of the here documents which wait for their content
+ * @author jansorg
+ */
+abstract class ScriptTokenScanner<H> implements BashTokenTypes {
+    //tokens after which a word is in command position, backquotes are handled by isCommandStart
+    private static final TokenSet commandStart = TokenSet.create(LINE_FEED, SEMI, AMP, PIPE, PIPE_AMP, AND_AND, OR_OR,
+            LEFT_PAREN, LEFT_CURLY, CASE_END, SHEBANG,
+            IF_KEYWORD, THEN_KEYWORD, ELIF_KEYWORD, ELSE_KEYWORD, DO_KEYWORD, WHILE_KEYWORD, UNTIL_KEYWORD);
+
+    final CharSequence content;
+    final Lexer lexer;
+
+    //the here documents whose content was not read yet
+    private final List<H> pendingHeredocs = Lists.newLinkedList();
+    private int heredocContentStart = -1;
+    private int heredocContentEnd = -1;
+
+    private boolean inBackquote = false;
+
+    ScriptTokenScanner(@NotNull CharSequence content) {
+        this.content = content;
+        this.lexer = BashParserDefinition.createBashLexer();
+        this.lexer.start(content);
+    }
+
+    /**
+     * Called with the content range of a here document, in the order in which the here documents were added.
+     * The range is empty if the here document has no content.
+     */
+    abstract void finishHeredoc(@NotNull H heredoc, int contentStart, int contentEnd);
+
+    /**
+     * Must be called once for each token which isn't skipped.
+     *
+     * @return true if the next word after the token is in command position. Only the opening backquote of a
+     * command substitution starts a command.
+     */
+    final boolean isCommandStart(IElementType type) {
+        if (type == BACKQUOTE) {
+            inBackquote = !inBackquote;
+            return inBackquote;
+        }
+
+        return commandStart.contains(type);
+    }
+
+    /**
+     * Reads a token which belongs to the content of a here document. The lexer isn't advanced.
+     *
+     * @return true if the token was a content or an end marker token
+     */
+    final boolean heredocToken(IElementType type) {
+        if (type == HEREDOC_CONTENT) {
+            if (heredocContentStart < 0) {
+                heredocContentStart = lexer.getTokenStart();
+            }
+            heredocContentEnd = lexer.getTokenEnd();
+            return true;
+        }
+
+        if (type == HEREDOC_MARKER_END || type == HEREDOC_MARKER_IGNORING_TABS_END) {
+            finishNextHeredoc();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the start marker which follows a here document operator. The lexer must be at the token after the operator.
+     *
+     * @return true if the marker is quoted, i.e. the content contains no expansions
+     */
+    final boolean readHeredocMarker() {
+        skipWhitespace();
+
+        boolean quoted = false;
+        if (lexer.getTokenType() == HEREDOC_MARKER_START) {
+            quoted = isQuotedMarker(lexer.getTokenStart(), lexer.getTokenEnd());
+            lexer.advance();
+        }
+        return quoted;
+    }
+
+    final void addHeredoc(@NotNull H heredoc) {
+        pendingHeredocs.add(heredoc);
+    }
+
+    /**
+     * Finishes the here documents without an end marker, they end at the end of the file.
+     */
+    final void finishPendingHeredocs() {
+        while (!pendingHeredocs.isEmpty()) {
+            finishNextHeredoc();
+        }
+    }
+
+    private void finishNextHeredoc() {
+        if (pendingHeredocs.isEmpty()) {
+            return;
+        }
+
+        H heredoc = pendingHeredocs.remove(0);
+        int start = heredocContentStart >= 0 ? heredocContentStart : lexer.getTokenType() != null ? lexer.getTokenStart() : content.length();
+        int end = heredocContentStart >= 0 ? heredocContentEnd : start;
+        heredocContentStart = -1;
+        heredocContentEnd = -1;
+
+        finishHeredoc(heredoc, start, end);
+    }
+
+    private boolean isQuotedMarker(int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = content.charAt(i);
+            if (c == '\'' || c == '"' || c == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    final void skipWhitespace() {
+        while (whitespaceTokens.contains(lexer.getTokenType())) {
+            lexer.advance();
+        }
+    }
+
+    /**
+     * @return The file name of a command or of an interpreter which is given by its path, e.g. bash for /bin/bash
+     */
+    @NotNull
+    static String baseName(@NotNull String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A function definition of a file which references the shared facts of its body.
+ * Only the name and the offset of the body belong to the file.
+ *
+ * @author jansorg
+ * @see SharedFunctionTable
+ */
+public final class SharedFunction {
+    private final String name;
+    private final int bodyOffset;
+    private final FunctionFacts facts;
+
+    SharedFunction(@NotNull String name, int bodyOffset, @NotNull FunctionFacts facts) {
+        this.name = name;
+        this.bodyOffset = bodyOffset;
+        this.facts = facts;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The offset of the function body in the file
+     */
+    public int getBodyOffset() {
+        return bodyOffset;
+    }
+
+    /**
+     * @return The facts of the body, they may be shared with other files
+     */
+    @NotNull
+    public FunctionFacts getFacts() {
+        return facts;
+    }
+
+    /**
+     * @return The offset of a fact in the file
+     */
+    public int getOffset(int factIndex) {
+        return bodyOffset + facts.getOffset(factIndex);
+    }
+
+    @Override
+    public String toString() {
+        return "SharedFunction{name='" + name + "', bodyOffset=" + bodyOffset + "}";
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes;
+import com.ansorgit.plugins.bash.lang.psi.BashVisitor;
+import com.ansorgit.plugins.bash.lang.psi.api.BashBlock;
+import com.ansorgit.plugins.bash.lang.psi.api.command.BashCommand;
+import com.ansorgit.plugins.bash.lang.psi.api.function.BashFunctionDef;
+import com.ansorgit.plugins.bash.lang.psi.api.vars.BashVar;
+import com.ansorgit.plugins.bash.lang.psi.api.vars.BashVarDef;
+import com.ansorgit.plugins.bash.lang.psi.util.BashIdentifierInterner;
+import com.ansorgit.plugins.bash.lang.psi.util.BashTreeWalker;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.tree.TokenSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares the facts of identical function bodies between the files of a batch.
+ * <br>
+ * Many scripts contain copies of the same helper functions. The facts of a body are extracted for its first copy,
+ * the other copies reference the same {@link FunctionFacts}. Bodies are identical if their text is identical,
+ * i.e. if they have the same tokens including the whitespace, because the offsets of the facts are relative to the body.
+ * The lookup uses a 64 bit hash of the body text, the text is compared only if the hashes are equal.
+ * <br>
+ * The table references the facts weakly, facts which are not referenced by a {@link SharedFunction} anymore are released.
+ * PSI trees aren't shared, their nodes reference their parents and their file.
+ * <br>
+ * This class is thread-safe.
+ *
+ * @author jansorg
+ */
+public final class SharedFunctionTable {
+    private final ConcurrentMap<BodyKey, FunctionFacts> table = new MapMaker().weakValues().makeMap();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the function definitions in the tree of the given node with their shared facts.
+     *
+     * @param root The root of the tree, e.g. a parsed file
+     * @return The function definitions of the tree in document order, definitions without a body are skipped
+     */
+    @NotNull
+    public List<SharedFunction> shareAll(@NotNull ASTNode root) {
+        final List<SharedFunction> result = Lists.newArrayList();
+
+        BashVisitor visitor = new BashVisitor() {
+            @Override
+            public void visitFunctionDef(BashFunctionDef functionDef) {
+                SharedFunction function = share(functionDef);
+                if (function != null) {
+                    result.add(function);
+                }
+            }
+        };
+        new BashTreeWalker().add(visitor, TokenSet.create(BashElementTypes.FUNCTION_DEF_COMMAND)).walk(root);
+
+        return result;
+    }
+
+    /**
+     * @param functionDef The function definition
+     * @return The function definition with the shared facts of its body, null if the function has no body or no name
+     */
+    @Nullable
+    public SharedFunction share(@NotNull BashFunctionDef functionDef) {
+        BashBlock body = functionDef.functionBody();
+        String name = functionDef.getName();
+        if (body == null || name == null) {
+            return null;
+        }
+
+        ASTNode bodyNode = body.getNode();
+        BodyKey key = new BodyKey(bodyNode.getChars());
+
+        FunctionFacts facts = table.get(key);
+        if (facts != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+
+            FunctionFacts newFacts = extract(bodyNode);
+            facts = table.putIfAbsent(key.detach(), newFacts);
+            if (facts == null) {
+                facts = newFacts;
+            }
+        }
+
+        return new SharedFunction(BashIdentifierInterner.internName(name), bodyNode.getStartOffset(), facts);
+    }
+
+    /**
+     * @return The number of bodies whose facts are currently shared
+     */
+    public int size() {
+        return table.size();
+    }
+
+    /**
+     * @return The number of bodies whose facts were found in the table
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of bodies whose facts were extracted
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @NotNull
+    private static FunctionFacts extract(@NotNull ASTNode bodyNode) {
+        final int bodyStart = bodyNode.getStartOffset();
+        final FunctionFacts.Builder builder = new FunctionFacts.Builder();
+
+        new BashTreeWalker().add(new BashVisitor() {
+            @Override
+            public void visitVarDef(BashVarDef varDef) {
+                add(FunctionFacts.Kind.VARIABLE_DEFINITION, varDef.getName(), varDef);
+            }
+
+            @Override
+            public void visitVarUse(BashVar var) {
+                add(FunctionFacts.Kind.VARIABLE_READ, var.getReferenceName(), var);
+            }
+
+            @Override
+            public void visitGenericCommand(BashCommand bashCommand) {
+                add(FunctionFacts.Kind.COMMAND, bashCommand.getReferencedCommandName(), bashCommand);
+            }
+
+            @Override
+            public void visitInternalCommand(BashCommand bashCommand) {
+                add(FunctionFacts.Kind.COMMAND, bashCommand.getReferencedCommandName(), bashCommand);
+            }
+
+            private void add(FunctionFacts.Kind kind, @Nullable String name, PsiElement element) {
+                if (name != null) {
+                    builder.add(kind, BashIdentifierInterner.internName(name), element.getNode().getStartOffset() - bodyStart);
+                }
+            }
+        }).walk(bodyNode);
+
+        return builder.build(bodyNode.getTextLength());
+    }
+
+    /**
+     * The text of a body with its 64 bit FNV-1a hash.
+     */
+    private static final class BodyKey {
+        private final CharSequence text;
+        private final long hash;
+
+        BodyKey(@NotNull CharSequence text) {
+            this(text, hash(text));
+        }
+
+        private BodyKey(@NotNull CharSequence text, long hash) {
+            this.text = text;
+            this.hash = hash;
+        }
+
+        /**
+         * @return A key which doesn't reference the text of the parsed file
+         */
+        @NotNull
+        BodyKey detach() {
+            return new BodyKey(text.toString(), hash);
+        }
+
+        private static long hash(@NotNull CharSequence text) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < text.length(); i++) {
+                hash ^= text.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BodyKey)) {
+                return false;
+            }
+
+            BodyKey other = (BodyKey) o;
+            if (hash != other.hash || text.length() != other.text.length()) {
+                return false;
+            }
+
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) != other.text.charAt(i)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
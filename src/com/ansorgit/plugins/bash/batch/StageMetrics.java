@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.ansorgit.plugins.bash.batch;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the state of a pipeline stage.
+ *
+ * @author jansorg
+ */
+public final class StageMetrics {
+    private final String name;
+    private final int threads;
+    private final int queueDepth;
+    private final int queueCapacity;
+    private final int active;
+    private final long completed;
+    private final long failed;
+    private final long busyNanos;
+    private final long elapsedNanos;
+
+    StageMetrics(@NotNull String name, int threads, int queueDepth, int queueCapacity, int active, long completed, long failed, long busyNanos, long elapsedNanos) {
+        this.name = name;
+        this.threads = threads;
+        this.queueDepth = queueDepth;
+        this.queueCapacity = queueCapacity;
+        this.active = active;
+        this.completed = completed;
+        this.failed = failed;
+        this.busyNanos = busyNanos;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return The number of tasks which are waiting for a thread of this stage
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return The number of tasks which are currently executed
+     */
+    public int getActive() {
+        return active;
+    }
+
+    /**
+     * @return The number of finished tasks, including the failed tasks
+     */
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return The completed tasks per second since the stage was created
+     */
+    public double getThroughput() {
+        return elapsedNanos > 0 ? completed * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+    }
+
+    /**
+     * @return The fraction of the available thread time which was spent executing tasks, between 0 and 1
+     */
+    public double getUtilization() {
+        return elapsedNanos > 0 ? Math.min(1.0, busyNanos / ((double) elapsedNanos * threads)) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: threads=%d, queue=%d/%d, active=%d, completed=%d, failed=%d, throughput=%.1f/s, utilization=%.0f%%",
+                name, threads, queueDepth, queueCapacity, active, completed, failed, getThroughput(), getUtilization() * 100);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.batch;
+
+import com.ansorgit.plugins.bash.lang.lexer.BashTokenTypes;
+import com.ansorgit.plugins.bash.lang.parser.BashParserDefinition;
+import com.ansorgit.plugins.bash.util.IntStack;
+import com.intellij.lexer.Lexer;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Finds the offsets in a script where a top-level command list ends, without building tokens or a tree.
+ * <br>
+ * A boundary is the end of a line feed which is followed by a token in the initial lexer state, i.e. outside
+ * of strings, heredocs, subshells and arithmetic expressions, and which is not nested in a compound command.
+ * Compound commands are tracked by their opening and closing keywords in command position and by parentheses.
+ * The scan is a heuristic, the caller has to verify the parsed chunks.
+ * <br>
+ * A top-level exit command is handled like the parser handles it, everything after it is a single chunk.
+ *
+ * @author jansorg
+ */
+final class TopLevelBoundaryScanner implements BashTokenTypes {
+    //tokens after which a keyword is in command position
+    private static final TokenSet commandStart = TokenSet.create(LINE_FEED, SEMI, AMP, PIPE, PIPE_AMP, AND_AND, OR_OR,
+            LEFT_PAREN, RIGHT_PAREN, LEFT_CURLY, CASE_END, SHEBANG,
+            IF_KEYWORD, THEN_KEYWORD, ELIF_KEYWORD, ELSE_KEYWORD, DO_KEYWORD, WHILE_KEYWORD, UNTIL_KEYWORD);
+
+    //tokens which continue the command list on the next line
+    private static final TokenSet continuation = TokenSet.create(PIPE, PIPE_AMP, AND_AND, OR_OR);
+
+    //the tokens after exit which make it a top-level exit, see FileParsing
+    private static final TokenSet exitFollowers = TokenSet.create(WORD, STRING2, INTEGER_LITERAL, LINE_FEED);
+
+    private static final TokenSet loopKeywords = TokenSet.create(FOR_KEYWORD, SELECT_KEYWORD, WHILE_KEYWORD, UNTIL_KEYWORD);
+
+    private static final TokenSet ignored = TokenSet.create(WHITESPACE, COMMENT);
+
+    private final CharSequence content;
+    private final Lexer lexer;
+
+    //the opening tokens of the compound commands which are not closed yet
+    private final IntStack openConstructs = new IntStack();
+
+    private IElementType previous;
+    private IElementType beforePrevious;
+
+    private int pendingBoundary = -1;
+    private boolean lineStart = true;
+    private boolean exitCandidate = false;
+    private boolean finished = false;
+
+    TopLevelBoundaryScanner(@NotNull CharSequence content) {
+        this.content = content;
+        this.lexer = BashParserDefinition.createBashLexer();
+        this.lexer.start(content);
+    }
+
+    /**
+     * Returns the next boundary which is at or after the given offset.
+     *
+     * @param minOffset The minimal offset of the boundary
+     * @return The offset of the boundary, the length of the content at the end, or -1 if the end was already returned
+     */
+    int next(int minOffset) {
+        if (finished) {
+            return -1;
+        }
+
+        IElementType type;
+        while ((type = lexer.getTokenType()) != null) {
+            if (pendingBoundary >= 0) {
+                int boundary = pendingBoundary;
+                pendingBoundary = -1;
+
+                //the state of the token which follows the line feed is the state after the line feed
+                if (lexer.getState() == 0 && type != SHEBANG) {
+                    lineStart = true;
+                    if (boundary >= minOffset) {
+                        return boundary;
+                    }
+                }
+            }
+
+            if (exitCandidate && type != WHITESPACE) {
+                exitCandidate = false;
+                if (exitFollowers.contains(type)) {
+                    break;
+                }
+            }
+
+            if (lineStart && type == WORD && openConstructs.empty() && isExit()) {
+                exitCandidate = true;
+            }
+            lineStart = type == SHEBANG;
+
+            if (type == LEFT_PAREN) {
+                openConstructs.push(LEFT_PAREN.getIndex());
+            } else if (type == RIGHT_PAREN) {
+                closeConstruct(LEFT_PAREN);
+            } else if (previous == null || commandStart.contains(previous) || isFunctionBody(type)) {
+                trackKeyword(type);
+            }
+
+            if (type == LINE_FEED && openConstructs.empty() && !continuation.contains(previous)) {
+                pendingBoundary = lexer.getTokenEnd();
+            }
+
+            if (!ignored.contains(type)) {
+                beforePrevious = previous;
+                previous = type;
+            }
+
+            lexer.advance();
+        }
+
+        finished = true;
+        return content.length();
+    }
+
+    private boolean isExit() {
+        int start = lexer.getTokenStart();
+        return lexer.getTokenEnd() - start == 4
+                && content.charAt(start) == 'e' && content.charAt(start + 1) == 'x'
+                && content.charAt(start + 2) == 'i' && content.charAt(start + 3) == 't';
+    }
+
+    //function name { ... } and name() { ... }
+    private boolean isFunctionBody(IElementType type) {
+        return type == LEFT_CURLY && previous == WORD && beforePrevious == FUNCTION_KEYWORD;
+    }
+
+    private void trackKeyword(IElementType type) {
+        if (loopKeywords.contains(type)) {
+            openConstructs.push(FOR_KEYWORD.getIndex());
+        } else if (type == DO_KEYWORD) {
+            //the loop keyword is replaced by the body, the loop head may span several lines
+            closeConstruct(FOR_KEYWORD);
+            openConstructs.push(DO_KEYWORD.getIndex());
+        } else if (type == IF_KEYWORD || type == CASE_KEYWORD || type == LEFT_CURLY) {
+            openConstructs.push(type.getIndex());
+        } else if (type == FI_KEYWORD) {
+            closeConstruct(IF_KEYWORD);
+        } else if (type == ESAC_KEYWORD) {
+            closeConstruct(CASE_KEYWORD);
+        } else if (type == DONE_KEYWORD) {
+            closeConstruct(DO_KEYWORD);
+        } else if (type == RIGHT_CURLY) {
+            closeConstruct(LEFT_CURLY);
+        }
+    }
+
+    //closing tokens which don't match, e.g. the parenthesis of a case pattern, are ignored
+    private void closeConstruct(IElementType opening) {
+        if (!openConstructs.empty() && openConstructs.peek() == opening.getIndex()) {
+            openConstructs.pop();
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.ansorgit.plugins.bash.file;
 import com.ansorgit.plugins.bash.lang.BashLanguage;
 import com.intellij.lang.Language;
 import com.intellij.openapi.fileTypes.LanguageFileType;
+import com.intellij.openapi.util.io.FileUtilRt;
 import org.jetbrains.annotations.NotNull;
 
 
@@ -70,4 +71,23 @@ public class BashFileType extends LanguageFileType {
         return SH_EXTENSION;
     }
 
+    /**
+     * @param name The name of a file without the path
+     * @return true if the extension or the name belong to this file type, the content is not checked
+     */
+    public static boolean isBashFileName(@NotNull String name) {
+        String extension = FileUtilRt.getExtension(name);
+        if (SH_EXTENSION.equals(extension) || BASH_EXTENSION.equals(extension)) {
+            return true;
+        }
+
+        for (String specialFile : BASH_SPECIAL_FILES) {
+            if (specialFile.equals(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
 }
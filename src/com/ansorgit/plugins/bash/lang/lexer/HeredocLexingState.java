@@ -50,6 +50,10 @@ final class HeredocLexingState {
         return !expectedHeredocs.isEmpty() && expectedHeredocs.peekFirst().ignoreLeadingTabs;
     }
 
+    void reset() {
+        expectedHeredocs.clear();
+    }
+
     void removeMarker(long offset) {
         // remove existing markers at the same offset
         expectedHeredocs.removeIf(info -> info.offset == offset);
@@ -52,6 +52,10 @@ final class StringLexingstate {
         return !subshells.isEmpty();
     }
 
+    void reset() {
+        subshells.clear();
+    }
+
     void enterSubshell() {
         subshells.push(new SubshellState());
     }
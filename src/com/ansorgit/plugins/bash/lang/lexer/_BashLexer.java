@@ -45,9 +45,37 @@ final class _BashLexer extends _BashLexerBase implements BashLexerDef {
     }
 
 
+    @Override
+    public void reset(CharSequence buffer, int start, int end, int initialState) {
+        super.reset(buffer, start, end, initialState);
+
+        // a lexer which is started again at the beginning, e.g. for the next file, must not see the state of the previous run
+        if (start == 0 && initialState == YYINITIAL) {
+            lastStates.clear();
+            string.reset();
+            heredocState.reset();
+            paramExpansionHash = false;
+            paramExpansionWord = false;
+            paramExpansionOther = false;
+            openParenths = 0;
+            inCaseBody = false;
+            emptyConditionalCommand = false;
+            inHereString = false;
+        }
+    }
+
     @Override
     public IElementType advance() throws IOException {
         try {
+            if (yystate() == X_HEREDOC && !heredocState.isEmpty() && !heredocState.isExpectingEvaluatingHeredoc()) {
+                int start = getTokenEnd();
+                int end = skipHeredocLines(start);
+                if (end > start) {
+                    markNextToken(end);
+                    return HEREDOC_LINE;
+                }
+            }
+
             return super.advance();
         } catch (Error e) {
             // provide the current file as context when a "couldn't match input" lexer error occurs
@@ -55,6 +83,53 @@ final class _BashLexer extends _BashLexerBase implements BashLexerDef {
         }
     }
 
+    /**
+     * Fast path for the content of heredocs which don't evaluate variables, e.g. for <<'EOF'.
+     * The rules of X_HEREDOC return a HEREDOC_LINE token for every line and for every line terminator of such a heredoc,
+     * which are merged into a single HEREDOC_CONTENT token by the BashLexer. This skips the lines which the rules would
+     * return as HEREDOC_LINE tokens without a state change, so that they're returned as a single token.
+     * <br>
+     * A line is skipped if it contains no $ or \ and if it's not the end marker, i.e. if the rules would match it by
+     * [^$\n\r\\]+ and the marker check of that rule fails. All other lines are left to the rules.
+     *
+     * @return The offset after the last skipped line or line terminator, the start offset if nothing was skipped
+     */
+    private int skipHeredocLines(int start) {
+        CharSequence buffer = getBuffer();
+        int end = getBufferEnd();
+        boolean inBackquote = isInState(S_BACKQUOTE);
+
+        int pos = start;
+        while (pos < end) {
+            char c = buffer.charAt(pos);
+            if (c == '\n' || c == '\r') {
+                pos++;
+                continue;
+            }
+
+            int lineEnd = pos;
+            while (lineEnd < end && (c = buffer.charAt(lineEnd)) != '\n' && c != '\r' && c != '$' && c != '\\') {
+                lineEnd++;
+            }
+
+            if (lineEnd < end && (c == '$' || c == '\\')) {
+                return pos;
+            }
+
+            CharSequence markerText = buffer.subSequence(pos, lineEnd);
+            if (inBackquote && markerText.length() >= 2 && markerText.charAt(markerText.length() - 1) == '`') {
+                markerText = markerText.subSequence(0, markerText.length() - 1);
+            }
+            if (heredocState.isNextMarker(markerText)) {
+                return pos;
+            }
+
+            pos = lineEnd;
+        }
+
+        return pos;
+    }
+
     @Override
     public HeredocLexingState heredocState() {
         return heredocState;
@@ -1411,6 +1411,18 @@ public abstract class _BashLexerBase implements BashLexerDef {
     return zzBuffer;
   }
 
+  // return the end offset of the lexed range of the buffer
+  protected int getBufferEnd() {
+    return zzEndRead;
+  }
+
+  // make the text from the end of the current token until the given offset the next token, without running the rules
+  protected void markNextToken(int end) {
+    yychar += zzMarkedPos - zzStartRead;
+    zzStartRead = zzMarkedPos;
+    zzCurrentPos = zzMarkedPos = end;
+  }
+
 
   /**
    * Creates a new scanner
@@ -23,6 +23,7 @@ import com.intellij.lang.PsiParser;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.psi.tree.IElementType;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Consumes a stream of Bash tokens and generates a PSI tree for a Bash file.
@@ -39,17 +40,35 @@ public class BashParser implements PsiParser {
     private static final Logger log = Logger.getInstance("BashParser");
     private static final String debugKey = "bashsupport.debug";
     private static final boolean debugMode = "true".equals(System.getProperty(debugKey)) || "true".equals(System.getenv(debugKey));
+    //the number of tokens which may be rolled back per character of a file, a negative value disables the limit
+    private static final String rollbackBudgetKey = "bashsupport.rollbackBudget";
+    private static final int rollbackBudget = Integer.getInteger(rollbackBudgetKey, 4);
+    private static final int minimumRollbackBudget = 50000;
     //private final Project project;
     private final BashVersion version;
+    @Nullable
+    private final BashPsiBuilder.State reusableState;
 
     public BashParser(BashVersion version) {
+        this(version, false);
+    }
+
+    /**
+     * @param version    The version of Bash
+     * @param reuseState True if the parsing state should be reset and reused by the following calls of parse.
+     *                   A parser which reuses its state must only be used by a single thread at a time.
+     */
+    public BashParser(BashVersion version, boolean reuseState) {
         //this.project = project;
         this.version = version;
+        this.reusableState = reuseState ? new BashPsiBuilder.State() : null;
     }
 
     @NotNull
     public ASTNode parse(@NotNull final IElementType root, @NotNull final PsiBuilder psiBuilder) {
-        final BashPsiBuilder builder = new BashPsiBuilder(psiBuilder, version);
+        final BashPsiBuilder builder = reusableState != null
+                ? new BashPsiBuilder(psiBuilder, version, reusableState)
+                : new BashPsiBuilder(psiBuilder, version);
         builder.putUserData(BashPsiBuilder.IN_EVAL_MODE, root instanceof BashEvalElementType);
 
         if (debugMode) {
@@ -57,6 +76,7 @@ public class BashParser implements PsiParser {
         }
 
         builder.setDebugMode(debugMode);
+        builder.setRollbackBudget(rollbackBudget, minimumRollbackBudget);
 
         final PsiBuilder.Marker rootMarker = builder.mark();
         Parsing.file.parseFile(builder);
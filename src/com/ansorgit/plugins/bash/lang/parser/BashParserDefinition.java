@@ -59,6 +59,13 @@ public class BashParserDefinition implements ParserDefinition, BashElementTypes
         return new BashParser(findLanguageLevel());
     }
 
+    /**
+     * @return A parser which reuses its state for the following files, it must only be used by a single thread at a time
+     */
+    public static PsiParser createReusableParser() {
+        return new BashParser(findLanguageLevel(), true);
+    }
+
     private static BashVersion findLanguageLevel() {
         boolean supportBash4 = true;
         return supportBash4 ? BashVersion.Bash_v4 : BashVersion.Bash_v3;
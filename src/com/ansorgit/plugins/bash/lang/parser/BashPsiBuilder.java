@@ -41,18 +41,40 @@ public final class BashPsiBuilder extends PsiBuilderAdapter implements PsiBuilde
 
     private static final Logger log = Logger.getInstance("#bash.BashPsiBuilder");
 
-    private final Stack<Boolean> errorsStatusStack = new Stack<>();
+    //tokens which may be rolled back by a top-level statement after the budget of the file has been exhausted
+    private static final int PANIC_STATEMENT_CREDIT = 256;
+
+    private final Stack<Boolean> errorsStatusStack;
     private final BashTokenRemapper tokenRemapper;
     private final BashVersion bashVersion;
-    private final BackquoteData backquoteData = new BackquoteData();
-    private final ParsingStateData parsingStateData = new ParsingStateData();
+    private final BackquoteData backquoteData;
+    private final ParsingStateData parsingStateData;
     //private final Project project;
 
+    //the number of tokens which may still be rolled back
+    private long rollbackCredit = Long.MAX_VALUE;
+    private int rolledBackTokens = 0;
+    private boolean panicMode = false;
+    //the furthest token which was reached by the current top-level statement before it was rolled back
+    private int furthestTokenIndex = 0;
+
     public BashPsiBuilder(PsiBuilder wrappedBuilder, BashVersion bashVersion) {
+        this(wrappedBuilder, bashVersion, new State());
+    }
+
+    /**
+     * Creates a builder which uses the given state. The state is reset and must not be used by another builder at the same time.
+     */
+    BashPsiBuilder(PsiBuilder wrappedBuilder, BashVersion bashVersion, State state) {
         super(wrappedBuilder);
 
+        state.reset();
+
         //this.project = project;
         this.bashVersion = bashVersion;
+        this.errorsStatusStack = state.errorsStatusStack;
+        this.backquoteData = state.backquoteData;
+        this.parsingStateData = state.parsingStateData;
         this.tokenRemapper = new BashTokenRemapper(this);
         setTokenTypeRemapper(tokenRemapper);
     }
@@ -164,6 +186,79 @@ public final class BashPsiBuilder extends PsiBuilderAdapter implements PsiBuilde
         return parsingStateData;
     }
 
+    /**
+     * Limits the number of tokens which may be rolled back while the file is parsed. Trial parses and rollbacks of
+     * the parsers make the parse time superlinear on broken scripts.
+     * If the budget is exhausted, then the current top-level statement is skipped up to the next newline or semicolon
+     * and the parser switches to panic mode. In panic mode each following top-level statement may only roll back a
+     * small, constant number of tokens. This keeps the parse time linear in the size of the file.
+     *
+     * @param tokensPerChar The number of tokens which may be rolled back per character of the file, a negative value disables the budget
+     * @param minimum       The number of tokens which may be rolled back by all files
+     */
+    void setRollbackBudget(int tokensPerChar, int minimum) {
+        this.rollbackCredit = tokensPerChar < 0 ? Long.MAX_VALUE : minimum + (long) tokensPerChar * getOriginalText().length();
+    }
+
+    /**
+     * @return The number of tokens which were rolled back so far
+     */
+    public int getRolledBackTokens() {
+        return rolledBackTokens;
+    }
+
+    /**
+     * @return True if the rollback budget was exhausted and the parser recovers in panic mode
+     */
+    public boolean isPanicMode() {
+        return panicMode;
+    }
+
+    /**
+     * Called by the file parser before a top-level statement is parsed.
+     */
+    void startStatement() {
+        furthestTokenIndex = rawTokenIndex();
+        if (panicMode) {
+            rollbackCredit = PANIC_STATEMENT_CREDIT;
+        }
+    }
+
+    private void rolledBack(int fromIndex) {
+        int tokens = fromIndex - rawTokenIndex();
+        rolledBackTokens += tokens;
+        furthestTokenIndex = Math.max(furthestTokenIndex, fromIndex);
+
+        rollbackCredit -= tokens;
+        if (rollbackCredit < 0) {
+            panicMode = true;
+            throw new RollbackBudgetExceededException();
+        }
+    }
+
+    /**
+     * Skips a top-level statement which exhausted the rollback budget.
+     * The statement is rolled back and the tokens up to the next newline or semicolon after the furthest token
+     * which was reached are marked as an error.
+     *
+     * @param statement The marker which was created before the statement
+     */
+    void skipStatement(@NotNull Marker statement) {
+        //the rollback of the statement itself is not counted
+        ((BashPsiMarker) statement).original.rollbackTo();
+
+        //the exception may have been thrown in nested parsing states
+        errorsStatusStack.clear();
+        backquoteData.leaveBackquote();
+        parsingStateData.reset();
+
+        Marker error = myDelegate.mark();
+        while (!eof() && (rawTokenIndex() < furthestTokenIndex || getTokenType() != BashTokenTypes.LINE_FEED && getTokenType() != BashTokenTypes.SEMI)) {
+            advanceLexer();
+        }
+        error.error("Unable to parse the statement");
+    }
+
     /**
      * BashPsiBuilder supports nested levels of error reporting. Error reporting can
      * be switched of on demand to make test functions possible which
@@ -286,7 +381,9 @@ public final class BashPsiBuilder extends PsiBuilderAdapter implements PsiBuilde
 
         @Override
         public void rollbackTo() {
+            int fromIndex = psiBuilder.rawTokenIndex();
             original.rollbackTo();
+            psiBuilder.rolledBack(fromIndex);
         }
 
         public void clean() {
@@ -306,4 +403,30 @@ public final class BashPsiBuilder extends PsiBuilderAdapter implements PsiBuilde
             original.setCustomEdgeTokenBinders(whitespacesAndCommentsBinder, whitespacesAndCommentsBinder1);
         }
     }
+
+    /**
+     * The parsing state of a builder, it's reused by the following builders of the same parser.
+     */
+    static final class State {
+        private final Stack<Boolean> errorsStatusStack = new Stack<>();
+        private final BackquoteData backquoteData = new BackquoteData();
+        private final ParsingStateData parsingStateData = new ParsingStateData();
+
+        void reset() {
+            errorsStatusStack.clear();
+            backquoteData.leaveBackquote();
+            parsingStateData.reset();
+        }
+    }
+
+    /**
+     * Thrown by a rollback which exceeds the rollback budget, it's handled by the file parser.
+     */
+    static final class RollbackBudgetExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        RollbackBudgetExceededException() {
+            super("The rollback budget was exceeded", null, false, false);
+        }
+    }
 }
@@ -17,6 +17,7 @@ package com.ansorgit.plugins.bash.lang.parser;
 
 import com.ansorgit.plugins.bash.lang.parser.util.ParserUtil;
 import com.intellij.lang.PsiBuilder;
+import com.intellij.openapi.progress.CancellationBudget;
 import com.intellij.psi.tree.IElementType;
 
 /**
@@ -44,9 +45,23 @@ public class FileParsing implements ParsingTool {
                 break;
             }
 
+            //a top-level command which doesn't consume tokens would not be caught by the token budget
+            CancellationBudget.checkCurrent(builder.getCurrentOffset());
+
             boolean toplevelExitCommand = isToplevelExit(builder);
 
-            boolean ok = Parsing.list.parseSimpleList(builder);
+            builder.startStatement();
+            PsiBuilder.Marker statement = builder.mark();
+
+            boolean ok;
+            try {
+                ok = Parsing.list.parseSimpleList(builder);
+                statement.drop();
+            } catch (BashPsiBuilder.RollbackBudgetExceededException e) {
+                builder.skipStatement(statement);
+                ok = true;
+                success = false;
+            }
             toplevelExitCommand &= ok;
 
             if (!builder.eof() && Parsing.list.isSimpleListTerminator(builder.getTokenType())) {
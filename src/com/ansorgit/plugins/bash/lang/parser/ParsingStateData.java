@@ -61,6 +61,15 @@ public final class ParsingStateData {
         }
     }
 
+    /**
+     * Resets the state for the next file.
+     */
+    public void reset() {
+        inSimpleCommand = 0;
+        heredocMarkers = 0;
+        heredocMarkersIndexSet.clear();
+    }
+
     public Set<Integer> getHeredocMarkersIndexSet() {
         return heredocMarkersIndexSet;
     }
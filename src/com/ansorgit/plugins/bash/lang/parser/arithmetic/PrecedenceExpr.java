@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.lang.parser.arithmetic;
+
+import com.ansorgit.plugins.bash.lang.parser.BashPsiBuilder;
+import com.ansorgit.plugins.bash.lang.parser.util.ParserUtil;
+import com.intellij.lang.PsiBuilder;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+
+/**
+ * Precedence climbing parser for arithmetic expressions, i.e. comma separated assignments, ternary expressions
+ * and binary operators.
+ * <br>
+ * The left operand of a binary operator is parsed only once. The parser looks at the operator which follows it
+ * to decide how far the expression extends. A sequence of operators of the same level is wrapped in a single element,
+ * e.g. a+b-c is one sum element with three operands, like the grammar of the Bash manual describes it.
+ * Parenthesis expressions are parsed as operands without any lookahead.
+ * <br>
+ * A ternary expression is not parsed if its condition is just a parenthesis expression, e.g. (a) ? b : c .
+ * This matches the behaviour of the previous recursive implementation.
+ *
+ * @author jansorg
+ */
+class PrecedenceExpr implements ArithmeticParsingFunction {
+    private static final TokenSet assignmentWords = TokenSet.create(WORD, ASSIGNMENT_WORD);
+    private static final TokenSet simpleAssignmentOps = TokenSet.create(EQ);
+
+    /**
+     * The binary operators by level, the operators of a level bind stronger than the operators of the following levels.
+     */
+    private static final TokenSet[] operators = {
+            TokenSet.create(ARITH_EXPONENT),
+            arithmeticProduct,
+            arithmeticAdditionOps,
+            arithmeticShiftOps,
+            arithmeticCmpOp,
+            arithmeticEqualityOps,
+            TokenSet.create(ARITH_BITWISE_AND),
+            TokenSet.create(ARITH_BITWISE_XOR),
+            TokenSet.create(PIPE),
+            TokenSet.create(AND_AND),
+            TokenSet.create(OR_OR),
+            //math with a variable as operator
+            TokenSet.create(VARIABLE)
+    };
+
+    private static final IElementType[] elements = {
+            ARITH_EXPONENT_ELEMENT,
+            ARITH_MULTIPLICACTION_ELEMENT,
+            ARITH_SUM_ELEMENT,
+            ARITH_SHIFT_ELEMENT,
+            ARITH_COMPUND_COMPARISION_ELEMENT,
+            ARITH_EQUALITY_ELEMENT,
+            ARITH_BIT_AND_ELEMENT,
+            ARITH_BIT_XOR_ELEMENT,
+            ARITH_BIT_OR_ELEMENT,
+            ARITH_LOGIC_AND_ELEMENT,
+            ARITH_LOGIC_OR_ELEMENT,
+            ARITH_VARIABLE_OPERATOR_ELEMENT
+    };
+
+    private static final int lowestLevel = operators.length;
+
+    private final ArithmeticParsingFunction operandParser;
+    private final ArithmeticParsingFunction parenthesisParser;
+
+    /**
+     * @param operandParser     Parses an operand which is not in parentheses
+     * @param parenthesisParser Parses an operand in parentheses
+     */
+    PrecedenceExpr(ArithmeticParsingFunction operandParser, ArithmeticParsingFunction parenthesisParser) {
+        this.operandParser = operandParser;
+        this.parenthesisParser = parenthesisParser;
+    }
+
+    public boolean isValid(BashPsiBuilder builder) {
+        IElementType tokenType = builder.getTokenType();
+        return assignmentWords.contains(tokenType)
+                || arithmeticNegationOps.contains(tokenType)
+                || parenthesisParser.isValid(builder)
+                || operandParser.isValid(builder);
+    }
+
+    /**
+     * Parses a comma separated list of assignments.
+     */
+    public boolean parse(BashPsiBuilder builder) {
+        PsiBuilder.Marker marker = builder.mark();
+
+        int count = 0;
+        boolean ok;
+        do {
+            ok = parseAssignment(builder);
+            count++;
+        } while (ok && ParserUtil.conditionalRead(builder, COMMA));
+
+        if (ok && count > 1) {
+            marker.done(ARITH_ASSIGNMENT_CHAIN_ELEMENT);
+        } else {
+            marker.drop();
+        }
+
+        return ok;
+    }
+
+    /**
+     * Parses an optional combined assignment (e.g. a += ...), an optional simple assignment (e.g. a = ...)
+     * and the ternary expression which follows them.
+     */
+    private boolean parseAssignment(BashPsiBuilder builder) {
+        boolean assignment = parseAssignmentTarget(builder, arithmeticAssign);
+        assignment |= parseAssignmentTarget(builder, simpleAssignmentOps);
+
+        boolean parenthesisOperand = !assignment && parenthesisParser.isValid(builder);
+
+        PsiBuilder.Marker ternary = builder.mark();
+        PsiBuilder.Marker operand = builder.mark();
+
+        boolean ok = parseUnary(builder);
+        if (!ok || parenthesisOperand && operatorLevel(builder.getTokenType()) == 0) {
+            operand.drop();
+            ternary.drop();
+            return ok;
+        }
+
+        ok = parseOperators(builder, operand, lowestLevel);
+
+        if (ok && ParserUtil.conditionalRead(builder, ARITH_QMARK)) {
+            ok = parseBinary(builder, lowestLevel)
+                    && ParserUtil.conditionalRead(builder, ARITH_COLON)
+                    && parseBinary(builder, lowestLevel);
+
+            if (ok) {
+                ternary.done(ARITH_TERNERAY_ELEMENT);
+            } else {
+                ternary.drop();
+            }
+        } else {
+            ternary.drop();
+        }
+
+        return ok;
+    }
+
+    private static boolean parseAssignmentTarget(BashPsiBuilder builder, TokenSet assignmentOps) {
+        if (!assignmentWords.contains(builder.getTokenType())) {
+            return false;
+        }
+
+        PsiBuilder.Marker marker = builder.mark();
+        builder.advanceLexer();
+
+        if (assignmentOps.contains(builder.getTokenType())) {
+            marker.done(VAR_DEF_ELEMENT);
+            builder.advanceLexer();
+            return true;
+        }
+
+        marker.rollbackTo();
+        return false;
+    }
+
+    /**
+     * Parses an expression which contains only binary operators up to the given level.
+     */
+    private boolean parseBinary(BashPsiBuilder builder, int maxLevel) {
+        if (maxLevel == 0) {
+            return parseUnary(builder);
+        }
+
+        PsiBuilder.Marker operand = builder.mark();
+        if (!parseUnary(builder)) {
+            operand.drop();
+            return false;
+        }
+
+        return parseOperators(builder, operand, maxLevel);
+    }
+
+    /**
+     * Parses the operators and right-hand operands which follow an already parsed left operand.
+     *
+     * @param start    The marker in front of the left operand, it's dropped or done by this method
+     * @param maxLevel The highest operator level which is accepted
+     */
+    private boolean parseOperators(BashPsiBuilder builder, PsiBuilder.Marker start, int maxLevel) {
+        int level;
+        while ((level = operatorLevel(builder.getTokenType())) > 0 && level <= maxLevel) {
+            do {
+                builder.advanceLexer();
+
+                if (!parseBinary(builder, level - 1)) {
+                    start.drop();
+                    return false;
+                }
+            } while (operatorLevel(builder.getTokenType()) == level);
+
+            //the expression parsed so far becomes the left operand of the operators of the next levels
+            PsiBuilder.Marker outer = start.precede();
+            start.done(elements[level - 1]);
+            start = outer;
+        }
+
+        start.drop();
+        return true;
+    }
+
+    /**
+     * Parses an operand with optional negations, e.g. !a or ~(a+b).
+     */
+    private boolean parseUnary(BashPsiBuilder builder) {
+        PsiBuilder.Marker marker = builder.mark();
+
+        boolean negated = false;
+        while (ParserUtil.conditionalRead(builder, arithmeticNegationOps)) {
+            negated = true;
+        }
+
+        boolean ok = operandParser.isValid(builder)
+                ? operandParser.parse(builder)
+                : parenthesisParser.parse(builder);
+
+        if (ok && negated) {
+            marker.done(ARITH_NEGATION_ELEMENT);
+        } else {
+            marker.drop();
+        }
+
+        return ok;
+    }
+
+    /**
+     * @return The level of the binary operator, 0 if the token is not a binary operator
+     */
+    private static int operatorLevel(IElementType tokenType) {
+        if (tokenType == null) {
+            return 0;
+        }
+
+        for (int i = 0; i < operators.length; i++) {
+            if (operators[i].contains(tokenType)) {
+                return i + 1;
+            }
+        }
+
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PrecedenceExpr: " + super.toString();
+    }
+}
@@ -0,0 +1,722 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.lang.psi.callGraph;
+
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes;
+import com.ansorgit.plugins.bash.lang.psi.api.command.BashCommand;
+import com.ansorgit.plugins.bash.lang.psi.api.command.BashIncludeCommand;
+import com.ansorgit.plugins.bash.lang.psi.api.function.BashFunctionDef;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.containers.IntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * The function call graph of one or more Bash files.
+ * <br>
+ * Every function definition and every file is a node of the graph, identified by a dense int id.
+ * A file node stands for the top-level commands of that file. An edge is added for each command
+ * which calls a function and for each include command which pulls in another file.
+ * <br>
+ * Bash binds function names at runtime, the last executed definition wins. The graph doesn't try
+ * to be smarter than that and links a call to all the definitions of the called name. Reachability
+ * is therefore an over-approximation, which is what dead-code and lineage analysis need.
+ * <br>
+ * The graph is built with a single walk over each tree and a hash lookup per call site. It doesn't
+ * use references, resolving every command separately is quadratic in large function libraries.
+ *
+ * @author jansorg
+ */
+public final class BashCallGraph {
+    private static final int[] NO_NODES = ArrayUtil.EMPTY_INT_ARRAY;
+
+    private final IncludeResolver includeResolver;
+
+    private final List<PsiElement> elements = Lists.newArrayList();
+    private final Map<PsiElement, Integer> ids = new IdentityHashMap<>();
+    private final BitSet fileNodes = new BitSet();
+    private final IntArrayList entryFiles = new IntArrayList();
+
+    //per node, index is the node id
+    private final List<String> names = Lists.newArrayList();
+    private final List<String[]> calledNames = Lists.newArrayList();
+    private final List<int[]> includedFiles = Lists.newArrayList();
+    private final List<int[]> nestedFunctions = Lists.newArrayList();
+    private final List<int[]> callees = Lists.newArrayList();
+
+    private final Map<String, IntArrayList> functionsByName = Maps.newHashMap();
+    private final Map<String, IntArrayList> callersByName = Maps.newHashMap();
+
+    //derived data, reset on every modification
+    private int[][] callers;
+    private int[] componentOf;
+    private int[][] components;
+
+    private BashCallGraph(@NotNull IncludeResolver includeResolver) {
+        this.includeResolver = includeResolver;
+    }
+
+    /**
+     * Builds the call graph of a single file. Include commands are not followed.
+     *
+     * @param file The file or root element of a parsed Bash tree
+     * @return The new call graph
+     */
+    @NotNull
+    public static BashCallGraph forFile(@NotNull PsiElement file) {
+        return forFiles(Collections.singletonList(file), IncludeResolver.NONE);
+    }
+
+    /**
+     * Builds the call graph of a set of files. Files which are included by the given files are added
+     * to the graph as they are found by the resolver, but they are not entry files.
+     *
+     * @param files           The entry files
+     * @param includeResolver Used to locate the files of include commands
+     * @return The new call graph
+     */
+    @NotNull
+    public static BashCallGraph forFiles(@NotNull Collection<? extends PsiElement> files, @NotNull IncludeResolver includeResolver) {
+        BashCallGraph graph = new BashCallGraph(includeResolver);
+
+        IntArrayList todo = new IntArrayList();
+        for (PsiElement file : files) {
+            int id = graph.nodeOf(file, true, todo);
+            if (!graph.entryFiles.contains(id)) {
+                graph.entryFiles.add(id);
+            }
+        }
+
+        //scanning a node may register more nodes, e.g. nested functions or included files
+        while (!todo.isEmpty()) {
+            graph.scan(todo.remove(todo.size() - 1), todo);
+        }
+
+        for (int id = 0; id < graph.size(); id++) {
+            graph.resolveEdges(id);
+        }
+
+        return graph;
+    }
+
+    /**
+     * @return The number of nodes, i.e. files and functions
+     */
+    public int size() {
+        return elements.size();
+    }
+
+    /**
+     * @param id The node id
+     * @return The function definition or the file root element of the node
+     */
+    @NotNull
+    public PsiElement getElement(int id) {
+        return elements.get(id);
+    }
+
+    /**
+     * @param element A function definition or file root element
+     * @return The node id or -1 if the element is not part of this graph
+     */
+    public int idOf(@NotNull PsiElement element) {
+        Integer id = ids.get(element);
+        return id != null ? id : -1;
+    }
+
+    public boolean isFile(int id) {
+        return fileNodes.get(id);
+    }
+
+    /**
+     * @param id The node id
+     * @return The function name or {@code null} for file nodes
+     */
+    @Nullable
+    public String getName(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * @return The ids of the files which were passed in when the graph was built
+     */
+    @NotNull
+    public int[] entryFiles() {
+        return entryFiles.toArray();
+    }
+
+    /**
+     * @param name The function name
+     * @return The ids of all definitions of the given function name
+     */
+    @NotNull
+    public int[] functionsNamed(@NotNull String name) {
+        IntArrayList result = functionsByName.get(name);
+        return result != null ? result.toArray() : NO_NODES;
+    }
+
+    /**
+     * @param id The node id
+     * @return The sorted ids of the nodes which are called or included by the node. Don't modify the returned array.
+     */
+    @NotNull
+    public int[] callees(int id) {
+        return callees.get(id);
+    }
+
+    /**
+     * @param id The node id
+     * @return The sorted ids of the nodes which call or include the node. Don't modify the returned array.
+     */
+    @NotNull
+    public int[] callers(int id) {
+        if (callers == null) {
+            callers = computeCallers();
+        }
+
+        return callers[id];
+    }
+
+    /**
+     * @param id The node id
+     * @return The names of all commands executed by the node, including calls of external and builtin commands
+     */
+    @NotNull
+    public String[] calledNames(int id) {
+        return calledNames.get(id).clone();
+    }
+
+    /**
+     * @return The nodes reachable from the top-level commands of the entry files, the entry files are included
+     */
+    @NotNull
+    public BitSet reachableFromTopLevel() {
+        return reachableFrom(entryFiles.toArray());
+    }
+
+    /**
+     * @param start The ids of the start nodes
+     * @return The nodes transitively reachable from the start nodes, the start nodes are included
+     */
+    @NotNull
+    public BitSet reachableFrom(@NotNull int... start) {
+        BitSet visited = new BitSet(size());
+        IntArrayList queue = new IntArrayList(Math.max(16, start.length));
+
+        for (int id : start) {
+            if (!visited.get(id)) {
+                visited.set(id);
+                queue.add(id);
+            }
+        }
+
+        for (int i = 0; i < queue.size(); i++) {
+            for (int target : callees.get(queue.get(i))) {
+                if (!visited.get(target)) {
+                    visited.set(target);
+                    queue.add(target);
+                }
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * Returns the strongly connected components of the graph. The components are returned in reverse
+     * topological order, i.e. a component is listed before all the components which call it.
+     *
+     * @return The components, each is an array of node ids
+     */
+    @NotNull
+    public int[][] stronglyConnectedComponents() {
+        computeComponents();
+        return components.clone();
+    }
+
+    /**
+     * @param id The node id
+     * @return The index of the node's strongly connected component in {@link #stronglyConnectedComponents()}
+     */
+    public int componentOf(int id) {
+        computeComponents();
+        return componentOf[id];
+    }
+
+    /**
+     * @param id The node id
+     * @return True if the node may call itself, directly or by a cycle of calls
+     */
+    public boolean isRecursive(int id) {
+        computeComponents();
+        return components[componentOf[id]].length > 1 || Arrays.binarySearch(callees.get(id), id) >= 0;
+    }
+
+    /**
+     * Updates the graph after the body of a function or file was modified.
+     * Only the calls of the given node are scanned again. The edges of other nodes are only
+     * updated if the modification renamed the function or added or removed nested function definitions.
+     * <br>
+     * The nested function definitions which are no longer part of the body are removed from the graph,
+     * with all the definitions nested in them. The ids of the nodes after a removed node are shifted.
+     *
+     * @param element The modified function definition or file root element
+     * @throws IllegalArgumentException if the element is not part of this graph
+     */
+    public void update(@NotNull PsiElement element) {
+        int id = idOf(element);
+        if (id < 0) {
+            throw new IllegalArgumentException("Element is not part of the call graph: " + element);
+        }
+
+        update(id);
+    }
+
+    /**
+     * @param id The id of the modified node
+     * @see #update(PsiElement)
+     */
+    public void update(int id) {
+        Set<String> affectedNames = new HashSet<>();
+
+        if (!isFile(id)) {
+            String oldName = names.get(id);
+            String newName = ((BashFunctionDef) elements.get(id)).getName();
+
+            if (!Objects.equals(oldName, newName)) {
+                remove(functionsByName, oldName, id);
+                add(functionsByName, newName, id);
+                names.set(id, newName);
+
+                affectedNames.add(oldName);
+                affectedNames.add(newName);
+            }
+        }
+
+        for (String name : calledNames.get(id)) {
+            remove(callersByName, name, id);
+        }
+
+        int[] oldNested = nestedFunctions.get(id);
+        int firstNewNode = size();
+
+        IntArrayList todo = new IntArrayList();
+        scan(id, todo);
+        while (!todo.isEmpty()) {
+            scan(todo.remove(todo.size() - 1), todo);
+        }
+
+        //the definitions which were deleted or replaced in the body, with everything nested in them
+        BitSet removed = new BitSet(size());
+        int[] newNested = nestedFunctions.get(id);
+        for (int nestedId : oldNested) {
+            if (ArrayUtil.indexOf(newNested, nestedId) < 0) {
+                collectNested(nestedId, removed);
+            }
+        }
+
+        for (int removedId = removed.nextSetBit(0); removedId >= 0; removedId = removed.nextSetBit(removedId + 1)) {
+            String name = names.get(removedId);
+            remove(functionsByName, name, removedId);
+            affectedNames.add(name);
+
+            for (String calledName : calledNames.get(removedId)) {
+                remove(callersByName, calledName, removedId);
+            }
+        }
+
+        //new function definitions may be the target of existing calls
+        for (int newId = firstNewNode; newId < size(); newId++) {
+            affectedNames.add(names.get(newId));
+        }
+
+        if (!removed.isEmpty()) {
+            int[] newIds = compact(removed);
+            id = newIds[id];
+            firstNewNode -= removed.cardinality();
+        }
+
+        BitSet dirty = new BitSet(size());
+        dirty.set(id);
+        dirty.set(firstNewNode, size());
+
+        for (String name : affectedNames) {
+            IntArrayList nameCallers = name != null ? callersByName.get(name) : null;
+            if (nameCallers != null) {
+                for (int i = 0; i < nameCallers.size(); i++) {
+                    dirty.set(nameCallers.get(i));
+                }
+            }
+        }
+
+        for (int dirtyId = dirty.nextSetBit(0); dirtyId >= 0; dirtyId = dirty.nextSetBit(dirtyId + 1)) {
+            resolveEdges(dirtyId);
+        }
+
+        callers = null;
+        components = null;
+        componentOf = null;
+    }
+
+    private void collectNested(int id, @NotNull BitSet result) {
+        result.set(id);
+        for (int nestedId : nestedFunctions.get(id)) {
+            collectNested(nestedId, result);
+        }
+    }
+
+    /**
+     * Drops the removed nodes and renumbers the remaining nodes, the order of the nodes is kept.
+     *
+     * @return The new id of each old id, -1 for removed nodes
+     */
+    @NotNull
+    private int[] compact(@NotNull BitSet removed) {
+        int oldSize = size();
+        int[] newIds = new int[oldSize];
+        int next = 0;
+        for (int id = 0; id < oldSize; id++) {
+            newIds[id] = removed.get(id) ? -1 : next++;
+        }
+
+        BitSet oldFileNodes = (BitSet) fileNodes.clone();
+        fileNodes.clear();
+        ids.clear();
+
+        for (int id = oldSize - 1; id >= 0; id--) {
+            if (removed.get(id)) {
+                elements.remove(id);
+                names.remove(id);
+                calledNames.remove(id);
+                includedFiles.remove(id);
+                nestedFunctions.remove(id);
+                callees.remove(id);
+            }
+        }
+
+        for (int id = 0; id < oldSize; id++) {
+            if (newIds[id] >= 0 && oldFileNodes.get(id)) {
+                fileNodes.set(newIds[id]);
+            }
+        }
+
+        for (int id = 0; id < size(); id++) {
+            ids.put(elements.get(id), id);
+            includedFiles.set(id, remap(includedFiles.get(id), newIds));
+            nestedFunctions.set(id, remap(nestedFunctions.get(id), newIds));
+            callees.set(id, remap(callees.get(id), newIds));
+        }
+
+        remap(entryFiles, newIds);
+        for (IntArrayList values : functionsByName.values()) {
+            remap(values, newIds);
+        }
+        for (IntArrayList values : callersByName.values()) {
+            remap(values, newIds);
+        }
+
+        return newIds;
+    }
+
+    private int nodeOf(@NotNull PsiElement element, boolean file, @NotNull IntArrayList todo) {
+        Integer existing = ids.get(element);
+        if (existing != null) {
+            return existing;
+        }
+
+        int id = elements.size();
+        elements.add(element);
+        ids.put(element, id);
+
+        String name = null;
+        if (file) {
+            fileNodes.set(id);
+        } else {
+            name = ((BashFunctionDef) element).getName();
+            add(functionsByName, name, id);
+        }
+
+        names.add(name);
+        calledNames.add(ArrayUtil.EMPTY_STRING_ARRAY);
+        includedFiles.add(NO_NODES);
+        nestedFunctions.add(NO_NODES);
+        callees.add(NO_NODES);
+
+        todo.add(id);
+        return id;
+    }
+
+    /**
+     * Collects the calls of a single node. The walk stops at nested function definitions,
+     * these are registered as nodes of their own.
+     */
+    private void scan(int id, @NotNull IntArrayList todo) {
+        Set<String> nodeCalls = new LinkedHashSet<>();
+        IntArrayList nodeIncludes = new IntArrayList();
+        IntArrayList nodeFunctions = new IntArrayList();
+
+        ArrayDeque<ASTNode> stack = new ArrayDeque<>();
+        pushChildren(stack, elements.get(id).getNode());
+
+        while (!stack.isEmpty()) {
+            ASTNode node = stack.pop();
+            IElementType type = node.getElementType();
+
+            if (type == BashElementTypes.FUNCTION_DEF_COMMAND) {
+                nodeFunctions.add(nodeOf(node.getPsi(), false, todo));
+                continue;
+            }
+
+            if (type == BashElementTypes.SIMPLE_COMMAND_ELEMENT || type == BashElementTypes.INCLUDE_COMMAND_ELEMENT) {
+                PsiElement psi = node.getPsi();
+
+                String name = psi instanceof BashCommand ? ((BashCommand) psi).getReferencedCommandName() : null;
+                if (name != null) {
+                    nodeCalls.add(name);
+                }
+
+                if (psi instanceof BashIncludeCommand) {
+                    PsiElement includedFile = includeResolver.resolveIncludedFile((BashIncludeCommand) psi);
+                    if (includedFile != null) {
+                        int fileId = nodeOf(includedFile, true, todo);
+                        if (!nodeIncludes.contains(fileId)) {
+                            nodeIncludes.add(fileId);
+                        }
+                    }
+                }
+            }
+
+            //commands may be nested in arguments, e.g. in subshells or backquotes
+            pushChildren(stack, node);
+        }
+
+        String[] nodeCallArray = ArrayUtil.toStringArray(nodeCalls);
+        for (String name : nodeCallArray) {
+            add(callersByName, name, id);
+        }
+
+        calledNames.set(id, nodeCallArray);
+        includedFiles.set(id, nodeIncludes.toArray());
+        nestedFunctions.set(id, nodeFunctions.toArray());
+    }
+
+    private void resolveEdges(int id) {
+        IntArrayList targets = new IntArrayList();
+        targets.add(includedFiles.get(id));
+
+        for (String name : calledNames.get(id)) {
+            IntArrayList definitions = functionsByName.get(name);
+            if (definitions != null) {
+                targets.add(definitions.toArray());
+            }
+        }
+
+        callees.set(id, sortedUnique(targets.toArray()));
+    }
+
+    private int[][] computeCallers() {
+        int[] counts = new int[size()];
+        for (int id = 0; id < size(); id++) {
+            for (int target : callees.get(id)) {
+                counts[target]++;
+            }
+        }
+
+        int[][] result = new int[size()][];
+        for (int id = 0; id < size(); id++) {
+            result[id] = counts[id] == 0 ? NO_NODES : new int[counts[id]];
+            counts[id] = 0;
+        }
+
+        //ids are visited in ascending order, the caller arrays are sorted without further work
+        for (int id = 0; id < size(); id++) {
+            for (int target : callees.get(id)) {
+                result[target][counts[target]++] = id;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Tarjan's algorithm with an explicit stack, deep call chains must not overflow the Java stack.
+     */
+    private void computeComponents() {
+        if (components != null) {
+            return;
+        }
+
+        int size = size();
+        int[] index = new int[size];
+        int[] lowLink = new int[size];
+        int[] componentIds = new int[size];
+        Arrays.fill(index, -1);
+
+        BitSet onStack = new BitSet(size);
+        IntArrayList nodeStack = new IntArrayList();
+        List<int[]> result = Lists.newArrayList();
+
+        //frames of the simulated recursion: the node and the position in its callee array
+        int[] frameNode = new int[size];
+        int[] frameEdge = new int[size];
+
+        int nextIndex = 0;
+        for (int root = 0; root < size; root++) {
+            if (index[root] >= 0) {
+                continue;
+            }
+
+            int depth = 0;
+            frameNode[0] = root;
+            frameEdge[0] = 0;
+            index[root] = lowLink[root] = nextIndex++;
+            nodeStack.add(root);
+            onStack.set(root);
+
+            while (depth >= 0) {
+                int node = frameNode[depth];
+                int[] targets = callees.get(node);
+
+                if (frameEdge[depth] < targets.length) {
+                    int target = targets[frameEdge[depth]++];
+
+                    if (index[target] < 0) {
+                        index[target] = lowLink[target] = nextIndex++;
+                        nodeStack.add(target);
+                        onStack.set(target);
+
+                        depth++;
+                        frameNode[depth] = target;
+                        frameEdge[depth] = 0;
+                    } else if (onStack.get(target)) {
+                        lowLink[node] = Math.min(lowLink[node], index[target]);
+                    }
+                    continue;
+                }
+
+                if (lowLink[node] == index[node]) {
+                    IntArrayList component = new IntArrayList();
+                    int member;
+                    do {
+                        member = nodeStack.remove(nodeStack.size() - 1);
+                        onStack.clear(member);
+                        componentIds[member] = result.size();
+                        component.add(member);
+                    } while (member != node);
+
+                    int[] componentArray = component.toArray();
+                    Arrays.sort(componentArray);
+                    result.add(componentArray);
+                }
+
+                depth--;
+                if (depth >= 0) {
+                    int parent = frameNode[depth];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                }
+            }
+        }
+
+        componentOf = componentIds;
+        components = result.toArray(new int[result.size()][]);
+    }
+
+    private static void pushChildren(@NotNull ArrayDeque<ASTNode> stack, @NotNull ASTNode parent) {
+        //pushed in reverse order to visit the children in document order
+        for (ASTNode child = parent.getLastChildNode(); child != null; child = child.getTreePrev()) {
+            if (child.getFirstChildNode() != null) {
+                stack.push(child);
+            }
+        }
+    }
+
+    @NotNull
+    private static int[] sortedUnique(@NotNull int[] values) {
+        if (values.length == 0) {
+            return NO_NODES;
+        }
+
+        Arrays.sort(values);
+
+        int size = 1;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] != values[size - 1]) {
+                values[size++] = values[i];
+            }
+        }
+
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    @NotNull
+    private static int[] remap(@NotNull int[] values, @NotNull int[] newIds) {
+        IntArrayList result = new IntArrayList(values.length);
+        for (int value : values) {
+            if (newIds[value] >= 0) {
+                result.add(newIds[value]);
+            }
+        }
+        return result.size() == 0 ? NO_NODES : result.toArray();
+    }
+
+    private static void remap(@NotNull IntArrayList values, @NotNull int[] newIds) {
+        int size = 0;
+        for (int i = 0; i < values.size(); i++) {
+            int newId = newIds[values.get(i)];
+            if (newId >= 0) {
+                values.set(size++, newId);
+            }
+        }
+        values.removeRange(size, values.size());
+    }
+
+    private static void add(@NotNull Map<String, IntArrayList> map, @Nullable String key, int id) {
+        if (key == null) {
+            return;
+        }
+
+        IntArrayList values = map.get(key);
+        if (values == null) {
+            values = new IntArrayList(2);
+            map.put(key, values);
+        }
+
+        if (!values.contains(id)) {
+            values.add(id);
+        }
+    }
+
+    private static void remove(@NotNull Map<String, IntArrayList> map, @Nullable String key, int id) {
+        IntArrayList values = key != null ? map.get(key) : null;
+        if (values != null) {
+            int index = values.indexOf(id);
+            if (index >= 0) {
+                values.remove(index);
+            }
+
+            if (values.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+}
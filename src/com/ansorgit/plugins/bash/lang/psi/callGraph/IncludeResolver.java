@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.lang.psi.callGraph;
+
+import com.ansorgit.plugins.bash.lang.psi.api.command.BashIncludeCommand;
+import com.ansorgit.plugins.bash.lang.psi.util.BashPsiUtils;
+import com.intellij.psi.PsiElement;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Maps a {@code source} or {@code .} command to the root element of the file it includes.
+ * Batch tools which parse files without a project usually provide their own implementation
+ * which looks up the parsed tree of the referenced path.
+ *
+ * @author jansorg
+ */
+public interface IncludeResolver {
+    /**
+     * Resolves the included files with the file references of the PSI.
+     */
+    IncludeResolver PSI_REFERENCES = BashPsiUtils::findIncludedFile;
+
+    /**
+     * Never follows include commands.
+     */
+    IncludeResolver NONE = command -> null;
+
+    /**
+     * @param command The include command
+     * @return The root element of the included file or {@code null} if it could not be located
+     */
+    @Nullable
+    PsiElement resolveIncludedFile(@NotNull BashIncludeCommand command);
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.lang.psi.dataflow;
+
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes;
+import com.ansorgit.plugins.bash.lang.psi.api.vars.BashVar;
+import com.ansorgit.plugins.bash.lang.psi.api.vars.BashVarDef;
+import com.ansorgit.plugins.bash.lang.psi.callGraph.BashCallGraph;
+import com.ansorgit.plugins.bash.lang.psi.dataflow.FlowGraph.Block;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.containers.IntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Reaching definitions of all variable uses of a file, computed in one pass.
+ * <br>
+ * The analysis builds a control flow graph over if, case, loops, {@code &&}/{@code ||} lists and subshells
+ * and solves the classic dataflow equations with bit sets, one bit per variable definition.
+ * In contrast to {@link com.ansorgit.plugins.bash.lang.psi.impl.vars.BashVarProcessor}, which picks the
+ * best definition of a single variable by walking the tree, this returns all definitions which may reach
+ * a use on some path through the script.
+ * <br>
+ * Functions are analyzed as regions of their own. The body of a function may be called at any time,
+ * so all definitions which are not local are assumed to reach its entry. A call of a function which is
+ * defined in the same file adds the global definitions of the function and of all the functions it may call.
+ * Definitions which only apply to a single command, e.g. {@code a=1 cmd}, are not tracked.
+ *
+ * @author jansorg
+ */
+public final class BashReachingDefinitions {
+    private static final int[] NO_DEFINITIONS = ArrayUtil.EMPTY_INT_ARRAY;
+
+    private final List<BashVarDef> definitions;
+    private final Map<PsiElement, Integer> definitionBits;
+    private final List<BashVar> uses;
+    private final Map<PsiElement, Integer> useIndices;
+    private final int[][] reaching;
+
+    private BashReachingDefinitions(List<BashVarDef> definitions, List<BashVar> uses, int[][] reaching) {
+        this.definitions = definitions;
+        this.uses = uses;
+        this.reaching = reaching;
+
+        this.definitionBits = new IdentityHashMap<>(definitions.size());
+        for (int i = 0; i < definitions.size(); i++) {
+            definitionBits.put(definitions.get(i), i);
+        }
+
+        this.useIndices = new IdentityHashMap<>(uses.size());
+        for (int i = 0; i < uses.size(); i++) {
+            useIndices.put(uses.get(i), i);
+        }
+    }
+
+    /**
+     * Analyzes a whole file.
+     *
+     * @param file The file or the root element of a parsed Bash tree
+     * @return The reaching definitions of all variable uses in the file
+     */
+    @NotNull
+    public static BashReachingDefinitions analyze(@NotNull PsiElement file) {
+        return new Analysis(file).run();
+    }
+
+    /**
+     * @return The tracked variable definitions in document order. The index of a definition is its bit in the bit sets.
+     */
+    @NotNull
+    public List<BashVarDef> getDefinitions() {
+        return Collections.unmodifiableList(definitions);
+    }
+
+    /**
+     * @return The variable uses in document order
+     */
+    @NotNull
+    public List<BashVar> getUses() {
+        return Collections.unmodifiableList(uses);
+    }
+
+    /**
+     * @param definition The definition
+     * @return The bit of the definition or -1 if it isn't tracked
+     */
+    public int bitOf(@NotNull BashVarDef definition) {
+        Integer bit = definitionBits.get(definition);
+        return bit != null ? bit : -1;
+    }
+
+    /**
+     * @param use A variable use of the analyzed file
+     * @return The bits of the definitions which may reach the use
+     */
+    @NotNull
+    public BitSet reachingBits(@NotNull BashVar use) {
+        BitSet result = new BitSet(definitions.size());
+        for (int bit : reachingIndexes(use)) {
+            result.set(bit);
+        }
+
+        return result;
+    }
+
+    /**
+     * @param use A variable use of the analyzed file
+     * @return The definitions which may reach the use, in document order. The list is empty for variables which are defined outside of the file.
+     */
+    @NotNull
+    public List<BashVarDef> reachingDefinitions(@NotNull BashVar use) {
+        int[] bits = reachingIndexes(use);
+        if (bits.length == 0) {
+            return Collections.emptyList();
+        }
+
+        List<BashVarDef> result = Lists.newArrayListWithCapacity(bits.length);
+        for (int bit : bits) {
+            result.add(definitions.get(bit));
+        }
+
+        return result;
+    }
+
+    @NotNull
+    private int[] reachingIndexes(@NotNull BashVar use) {
+        Integer index = useIndices.get(use);
+        return index != null ? reaching[index] : NO_DEFINITIONS;
+    }
+
+    private static final class Analysis {
+        private final PsiElement file;
+        private final BashCallGraph callGraph;
+
+        private final List<BashVarDef> definitions = Lists.newArrayList();
+        private final List<String> definitionNames = Lists.newArrayList();
+        private final Map<ASTNode, Integer> definitionBits = Maps.newHashMap();
+
+        private final List<BashVar> uses = Lists.newArrayList();
+        private final List<String> useNames = Lists.newArrayList();
+        private final Map<ASTNode, Integer> useIndices = Maps.newHashMap();
+
+        private final Map<String, BitSet> definitionsByName = Maps.newHashMap();
+        private final BitSet globalDefinitions = new BitSet();
+        //global definitions made directly in a function, indexed by call graph node
+        private final Map<Integer, BitSet> functionDefinitions = Maps.newHashMap();
+        private final Map<Integer, BitSet> callEffects = Maps.newHashMap();
+
+        Analysis(@NotNull PsiElement file) {
+            this.file = file;
+            this.callGraph = BashCallGraph.forFile(file);
+        }
+
+        @NotNull
+        BashReachingDefinitions run() {
+            collect();
+
+            FlowGraph graph = new FlowGraph();
+            FlowGraphBuilder builder = new FlowGraphBuilder(graph, definitionBits, useIndices, callGraph);
+
+            Map<Block, BitSet> entryStates = Maps.newHashMap();
+            entryStates.put(builder.buildRegion(file.getNode()), new BitSet());
+
+            for (int id = 0; id < callGraph.size(); id++) {
+                if (!callGraph.isFile(id)) {
+                    entryStates.put(builder.buildRegion(callGraph.getElement(id).getNode()), globalDefinitions);
+                }
+            }
+
+            return new BashReachingDefinitions(definitions, uses, solve(graph, entryStates));
+        }
+
+        /**
+         * Assigns the definition bits and use indexes in document order.
+         */
+        private void collect() {
+            ArrayDeque<ASTNode> nodes = new ArrayDeque<>();
+            ArrayDeque<Integer> owners = new ArrayDeque<>();
+            nodes.push(file.getNode());
+            owners.push(-1);
+
+            while (!nodes.isEmpty()) {
+                ASTNode node = nodes.pop();
+                int owner = owners.pop();
+
+                IElementType type = node.getElementType();
+                if (type == BashElementTypes.FUNCTION_DEF_COMMAND) {
+                    owner = callGraph.idOf(node.getPsi());
+                } else if (type == BashElementTypes.VAR_DEF_ELEMENT) {
+                    addDefinition(node, owner);
+                } else if (type == BashElementTypes.VAR_ELEMENT) {
+                    addUse(node);
+                }
+
+                for (ASTNode child = node.getLastChildNode(); child != null; child = child.getTreePrev()) {
+                    if (child.getFirstChildNode() != null) {
+                        nodes.push(child);
+                        owners.push(owner);
+                    }
+                }
+            }
+        }
+
+        private void addDefinition(@NotNull ASTNode node, int owner) {
+            PsiElement psi = node.getPsi();
+            if (!(psi instanceof BashVarDef)) {
+                return;
+            }
+
+            BashVarDef definition = (BashVarDef) psi;
+            String name = definition.getName();
+            if (name == null || definition.isCommandLocal()) {
+                return;
+            }
+
+            int bit = definitions.size();
+            definitions.add(definition);
+            definitionNames.add(name);
+            definitionBits.put(node, bit);
+
+            BitSet sameName = definitionsByName.get(name);
+            if (sameName == null) {
+                sameName = new BitSet();
+                definitionsByName.put(name, sameName);
+            }
+            sameName.set(bit);
+
+            boolean local = owner >= 0 && definition.isLocalVarDef();
+            if (!local) {
+                globalDefinitions.set(bit);
+
+                if (owner >= 0) {
+                    BitSet ownerDefinitions = functionDefinitions.get(owner);
+                    if (ownerDefinitions == null) {
+                        ownerDefinitions = new BitSet();
+                        functionDefinitions.put(owner, ownerDefinitions);
+                    }
+                    ownerDefinitions.set(bit);
+                }
+            }
+        }
+
+        private void addUse(@NotNull ASTNode node) {
+            PsiElement psi = node.getPsi();
+            if (!(psi instanceof BashVar) || psi instanceof BashVarDef) {
+                return;
+            }
+
+            String name = ((BashVar) psi).getReferenceName();
+            if (name == null) {
+                return;
+            }
+
+            useIndices.put(node, uses.size());
+            uses.add((BashVar) psi);
+            useNames.add(name);
+        }
+
+        /**
+         * @return The global definitions which may be made by a call of the given function
+         */
+        @NotNull
+        private BitSet callEffect(int function) {
+            BitSet effect = callEffects.get(function);
+            if (effect == null) {
+                effect = new BitSet();
+
+                BitSet reachable = callGraph.reachableFrom(function);
+                for (int id = reachable.nextSetBit(0); id >= 0; id = reachable.nextSetBit(id + 1)) {
+                    BitSet direct = functionDefinitions.get(id);
+                    if (direct != null) {
+                        effect.or(direct);
+                    }
+                }
+
+                callEffects.put(function, effect);
+            }
+
+            return effect;
+        }
+
+        @NotNull
+        private int[][] solve(@NotNull FlowGraph graph, @NotNull Map<Block, BitSet> entryStates) {
+            int blockCount = graph.blocks.size();
+
+            BitSet[] gen = new BitSet[blockCount];
+            BitSet[] kill = new BitSet[blockCount];
+            BitSet[] in = new BitSet[blockCount];
+            BitSet[] out = new BitSet[blockCount];
+
+            for (Block block : graph.blocks) {
+                BitSet blockGen = new BitSet();
+                BitSet blockKill = new BitSet();
+
+                IntArrayList events = block.events;
+                for (int i = 0; i < events.size(); i++) {
+                    int event = events.get(i);
+
+                    if (event == FlowGraph.CALL_MARKER) {
+                        blockGen.or(callEffect(events.get(++i)));
+                    } else if (event >= 0) {
+                        BitSet sameName = definitionsByName.get(definitionNames.get(event));
+                        blockGen.andNot(sameName);
+                        blockGen.set(event);
+                        blockKill.or(sameName);
+                    }
+                }
+
+                gen[block.id] = blockGen;
+                kill[block.id] = blockKill;
+                in[block.id] = new BitSet();
+                out[block.id] = (BitSet) blockGen.clone();
+            }
+
+            //the blocks are created in flow order, which makes the worklist converge quickly
+            ArrayDeque<Block> worklist = new ArrayDeque<>(graph.blocks);
+            BitSet queued = new BitSet(blockCount);
+            queued.set(0, blockCount);
+
+            while (!worklist.isEmpty()) {
+                Block block = worklist.poll();
+                queued.clear(block.id);
+
+                BitSet newIn = new BitSet();
+                BitSet entry = entryStates.get(block);
+                if (entry != null) {
+                    newIn.or(entry);
+                }
+
+                for (int i = 0; i < block.predecessors.size(); i++) {
+                    newIn.or(out[block.predecessors.get(i)]);
+                }
+
+                in[block.id] = newIn;
+
+                BitSet newOut = (BitSet) newIn.clone();
+                newOut.andNot(kill[block.id]);
+                newOut.or(gen[block.id]);
+
+                if (!newOut.equals(out[block.id])) {
+                    out[block.id] = newOut;
+
+                    for (int i = 0; i < block.successors.size(); i++) {
+                        int successor = block.successors.get(i);
+                        if (!queued.get(successor)) {
+                            queued.set(successor);
+                            worklist.add(graph.blocks.get(successor));
+                        }
+                    }
+                }
+            }
+
+            return resolveUses(graph, in);
+        }
+
+        /**
+         * Replays the events of each block to find the definitions which reach each use.
+         */
+        @NotNull
+        private int[][] resolveUses(@NotNull FlowGraph graph, @NotNull BitSet[] in) {
+            int[][] result = new int[uses.size()][];
+            Arrays.fill(result, NO_DEFINITIONS);
+
+            for (Block block : graph.blocks) {
+                BitSet state = (BitSet) in[block.id].clone();
+
+                IntArrayList events = block.events;
+                for (int i = 0; i < events.size(); i++) {
+                    int event = events.get(i);
+
+                    if (event == FlowGraph.CALL_MARKER) {
+                        state.or(callEffect(events.get(++i)));
+                    } else if (event >= 0) {
+                        state.andNot(definitionsByName.get(definitionNames.get(event)));
+                        state.set(event);
+                    } else {
+                        int use = FlowGraph.useIndex(event);
+
+                        BitSet sameName = definitionsByName.get(useNames.get(use));
+                        if (sameName != null) {
+                            BitSet reachingUse = (BitSet) sameName.clone();
+                            reachingUse.and(state);
+                            result[use] = reachingUse.isEmpty() ? NO_DEFINITIONS : reachingUse.stream().toArray();
+                        }
+                    }
+                }
+            }
+
+            return result;
+        }
+    }
+}
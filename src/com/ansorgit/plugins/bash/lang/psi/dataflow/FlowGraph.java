@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.lang.psi.dataflow;
+
+import com.google.common.collect.Lists;
+import com.intellij.util.containers.IntArrayList;
+
+import java.util.List;
+
+/**
+ * A lightweight control flow graph. A block holds a sequence of events, the edges connect the blocks.
+ * <br>
+ * Events are encoded as ints to keep the graph compact:
+ * <ul>
+ * <li>{@code event >= 0}: definition of the variable definition with this bit index</li>
+ * <li>{@code event <= -2}: use of the variable use with index {@code -event - 2}</li>
+ * <li>{@code event == CALL_MARKER}: call of a function, the next event is the function's node id in the call graph</li>
+ * </ul>
+ *
+ * @author jansorg
+ */
+final class FlowGraph {
+    static final int CALL_MARKER = -1;
+
+    final List<Block> blocks = Lists.newArrayList();
+
+    Block newBlock() {
+        Block block = new Block(blocks.size());
+        blocks.add(block);
+        return block;
+    }
+
+    static int useEvent(int useIndex) {
+        return -useIndex - 2;
+    }
+
+    static int useIndex(int event) {
+        return -event - 2;
+    }
+
+    static final class Block {
+        final int id;
+        final IntArrayList events = new IntArrayList(4);
+        final IntArrayList successors = new IntArrayList(2);
+        final IntArrayList predecessors = new IntArrayList(2);
+
+        Block(int id) {
+            this.id = id;
+        }
+
+        void addEdge(Block target) {
+            if (!successors.contains(target.id)) {
+                successors.add(target.id);
+                target.predecessors.add(id);
+            }
+        }
+    }
+}
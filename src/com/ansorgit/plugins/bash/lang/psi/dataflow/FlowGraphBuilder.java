@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.lang.psi.dataflow;
+
+import com.ansorgit.plugins.bash.lang.lexer.BashTokenTypes;
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes;
+import com.ansorgit.plugins.bash.lang.psi.api.command.BashCommand;
+import com.ansorgit.plugins.bash.lang.psi.callGraph.BashCallGraph;
+import com.ansorgit.plugins.bash.lang.psi.dataflow.FlowGraph.Block;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * Builds the control flow graph of a file or of a function body.
+ * <br>
+ * Commands which are executed in a subshell, e.g. {@code (...)}, {@code $(...)}, backquotes and the parts
+ * of a pipeline, see the definitions of the enclosing shell but their own definitions are lost when the subshell exits.
+ * The right-hand side of {@code &&} and {@code ||} is optional. Loop bodies may be executed zero or more times,
+ * {@code break} and {@code continue} are not modelled which only makes the result more conservative.
+ *
+ * @author jansorg
+ */
+final class FlowGraphBuilder implements BashTokenTypes, BashElementTypes {
+    private static final TokenSet LOOPS = TokenSet.create(WHILE_COMMAND, UNTIL_COMMAND, FOR_COMMAND, SELECT_COMMAND);
+    private static final TokenSet SUBSHELLS = TokenSet.create(SUBSHELL_COMMAND, BACKQUOTE_COMMAND, PROCESS_SUBSTITUTION_ELEMENT);
+    private static final TokenSet COMMANDS = TokenSet.create(SIMPLE_COMMAND_ELEMENT, INCLUDE_COMMAND_ELEMENT);
+    private static final TokenSet CONDITIONAL_OPERATORS = TokenSet.create(AND_AND, OR_OR);
+
+    private final FlowGraph graph;
+    private final Map<ASTNode, Integer> definitionBits;
+    private final Map<ASTNode, Integer> useIndices;
+    private final BashCallGraph callGraph;
+
+    FlowGraphBuilder(@NotNull FlowGraph graph, @NotNull Map<ASTNode, Integer> definitionBits, @NotNull Map<ASTNode, Integer> useIndices, @NotNull BashCallGraph callGraph) {
+        this.graph = graph;
+        this.definitionBits = definitionBits;
+        this.useIndices = useIndices;
+        this.callGraph = callGraph;
+    }
+
+    /**
+     * Adds the flow of the children of the given file or function definition to the graph.
+     * Nested function definitions are skipped, they are a region of their own.
+     *
+     * @param container The file or the function definition
+     * @return The entry block of the new region
+     */
+    @NotNull
+    Block buildRegion(@NotNull ASTNode container) {
+        Block entry = graph.newBlock();
+        sequence(container, entry);
+        return entry;
+    }
+
+    /**
+     * Processes the children of a node in order.
+     *
+     * @return The block which is current after the last child
+     */
+    @NotNull
+    private Block sequence(@NotNull ASTNode parent, @NotNull Block current) {
+        return sequence(parent.getFirstChildNode(), null, current);
+    }
+
+    /**
+     * Processes the siblings from first up to, but not including, end.
+     */
+    @NotNull
+    private Block sequence(@Nullable ASTNode first, @Nullable ASTNode end, @NotNull Block current) {
+        boolean conditional = false;
+
+        for (ASTNode child = first; child != null && child != end; child = child.getTreeNext()) {
+            if (CONDITIONAL_OPERATORS.contains(child.getElementType())) {
+                conditional = true;
+            } else if (child.getFirstChildNode() != null) {
+                if (conditional) {
+                    Block branch = graph.newBlock();
+                    current.addEdge(branch);
+
+                    Block join = graph.newBlock();
+                    current.addEdge(join);
+                    node(child, branch).addEdge(join);
+
+                    current = join;
+                    conditional = false;
+                } else {
+                    current = node(child, current);
+                }
+            }
+        }
+
+        return current;
+    }
+
+    @NotNull
+    private Block node(@NotNull ASTNode node, @NotNull Block current) {
+        IElementType type = node.getElementType();
+
+        if (type == FUNCTION_DEF_COMMAND) {
+            //the body is not executed at the place of the definition
+            return current;
+        }
+
+        if (type == VAR_DEF_ELEMENT) {
+            //the assigned value is evaluated before the variable is defined
+            current = sequence(node, current);
+
+            Integer bit = definitionBits.get(node);
+            if (bit != null) {
+                current.events.add(bit);
+            }
+            return current;
+        }
+
+        if (type == VAR_ELEMENT) {
+            //e.g. array indexes contain variables
+            current = sequence(node, current);
+
+            Integer index = useIndices.get(node);
+            if (index != null) {
+                current.events.add(FlowGraph.useEvent(index));
+            }
+            return current;
+        }
+
+        if (COMMANDS.contains(type)) {
+            current = sequence(node, current);
+            addCall(node, current);
+            return current;
+        }
+
+        if (SUBSHELLS.contains(type)) {
+            sequence(node, subshell(current));
+            return current;
+        }
+
+        if (type == PIPELINE_COMMAND) {
+            for (ASTNode child = node.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+                if (child.getFirstChildNode() != null) {
+                    node(child, subshell(current));
+                }
+            }
+            return current;
+        }
+
+        if (type == IF_COMMAND) {
+            return ifCommand(node, current);
+        }
+
+        if (type == CASE_COMMAND) {
+            return caseCommand(node, current);
+        }
+
+        if (LOOPS.contains(type)) {
+            return loop(node, current);
+        }
+
+        return sequence(node, current);
+    }
+
+    /**
+     * The end of a subshell isn't connected to the following commands, its definitions don't reach them.
+     *
+     * @return The entry block of the subshell
+     */
+    @NotNull
+    private Block subshell(@NotNull Block current) {
+        Block inner = graph.newBlock();
+        current.addEdge(inner);
+        return inner;
+    }
+
+    private void addCall(@NotNull ASTNode command, @NotNull Block current) {
+        PsiElement psi = command.getPsi();
+        String name = psi instanceof BashCommand ? ((BashCommand) psi).getReferencedCommandName() : null;
+        if (name == null) {
+            return;
+        }
+
+        for (int function : callGraph.functionsNamed(name)) {
+            current.events.add(FlowGraph.CALL_MARKER);
+            current.events.add(function);
+        }
+    }
+
+    /**
+     * if c1; then b1; elif c2; then b2; else b3; fi
+     */
+    @NotNull
+    private Block ifCommand(@NotNull ASTNode node, @NotNull Block current) {
+        Block join = graph.newBlock();
+
+        //the block which is current if none of the previous conditions matched
+        Block noMatch = current;
+
+        ASTNode child = node.getFirstChildNode();
+        while (child != null) {
+            IElementType type = child.getElementType();
+
+            if (type == IF_KEYWORD || type == ELIF_KEYWORD) {
+                ASTNode then = findNext(child, THEN_KEYWORD);
+                Block conditionEnd = sequence(child.getTreeNext(), then, noMatch);
+
+                ASTNode branchEnd = findNext(then, ELIF_KEYWORD, ELSE_KEYWORD, FI_KEYWORD);
+
+                Block branch = graph.newBlock();
+                conditionEnd.addEdge(branch);
+                sequence(then != null ? then.getTreeNext() : null, branchEnd, branch).addEdge(join);
+
+                Block next = graph.newBlock();
+                conditionEnd.addEdge(next);
+                noMatch = next;
+
+                child = branchEnd;
+            } else if (type == ELSE_KEYWORD) {
+                ASTNode fi = findNext(child, FI_KEYWORD);
+                noMatch = sequence(child.getTreeNext(), fi, noMatch);
+
+                child = fi;
+            } else {
+                child = child.getTreeNext();
+            }
+        }
+
+        noMatch.addEdge(join);
+        return join;
+    }
+
+    /**
+     * case word in p1) b1;; p2) b2;; esac
+     */
+    @NotNull
+    private Block caseCommand(@NotNull ASTNode node, @NotNull Block current) {
+        Block join = graph.newBlock();
+
+        for (ASTNode child = node.getFirstChildNode(); child != null; child = child.getTreeNext()) {
+            if (child.getElementType() == CASE_PATTERN_LIST_ELEMENT) {
+                Block branch = graph.newBlock();
+                current.addEdge(branch);
+                sequence(child, branch).addEdge(join);
+            } else if (child.getFirstChildNode() != null) {
+                current = node(child, current);
+            }
+        }
+
+        //no pattern matched
+        current.addEdge(join);
+        return join;
+    }
+
+    /**
+     * The header is everything before "do", i.e. the condition of while and until
+     * and the loop variable and word list of for and select.
+     */
+    @NotNull
+    private Block loop(@NotNull ASTNode node, @NotNull Block current) {
+        ASTNode doKeyword = findNext(node.getFirstChildNode(), DO_KEYWORD);
+
+        Block header = graph.newBlock();
+        current.addEdge(header);
+        Block headerEnd = sequence(node.getFirstChildNode(), doKeyword, header);
+
+        Block body = graph.newBlock();
+        headerEnd.addEdge(body);
+        Block bodyEnd = doKeyword != null ? sequence(doKeyword.getTreeNext(), null, body) : body;
+        bodyEnd.addEdge(header);
+
+        Block exit = graph.newBlock();
+        headerEnd.addEdge(exit);
+        return exit;
+    }
+
+    @Nullable
+    private static ASTNode findNext(@Nullable ASTNode start, IElementType... types) {
+        for (ASTNode node = start != null ? start.getTreeNext() : null; node != null; node = node.getTreeNext()) {
+            for (IElementType type : types) {
+                if (node.getElementType() == type) {
+                    return node;
+                }
+            }
+        }
+
+        return null;
+    }
+}
@@ -16,12 +16,14 @@
 package com.ansorgit.plugins.bash.lang.psi.impl;
 
 import com.ansorgit.plugins.bash.file.BashFileType;
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes;
 import com.ansorgit.plugins.bash.lang.psi.BashVisitor;
 import com.ansorgit.plugins.bash.lang.psi.api.BashFile;
 import com.ansorgit.plugins.bash.lang.psi.api.BashShebang;
 import com.ansorgit.plugins.bash.lang.psi.api.function.BashFunctionDef;
 import com.ansorgit.plugins.bash.lang.psi.stubs.api.BashFileStub;
 import com.ansorgit.plugins.bash.lang.psi.util.BashResolveUtil;
+import com.ansorgit.plugins.bash.lang.psi.util.BashTreeWalker;
 import com.intellij.extapi.psi.PsiFileBase;
 import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.psi.FileViewProvider;
@@ -30,6 +32,7 @@ import com.intellij.psi.PsiElementVisitor;
 import com.intellij.psi.ResolveState;
 import com.intellij.psi.scope.PsiScopeProcessor;
 import com.intellij.psi.search.SearchScope;
+import com.intellij.psi.tree.TokenSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -128,13 +131,14 @@ public class BashFileImpl extends PsiFileBase implements BashFile {
         }
     }
 
-    private static void collectNestedFunctionDefinitions(PsiElement parent, List<BashFunctionDef> target) {
-        for (PsiElement e = parent.getFirstChild(); e != null; e = e.getNextSibling()) {
-            if (e instanceof BashFunctionDef) {
-                target.add((BashFunctionDef) e);
+    private static void collectNestedFunctionDefinitions(PsiElement parent, final List<BashFunctionDef> target) {
+        BashVisitor collector = new BashVisitor() {
+            @Override
+            public void visitFunctionDef(BashFunctionDef functionDef) {
+                target.add(functionDef);
             }
+        };
 
-            collectNestedFunctionDefinitions(e, target);
-        }
+        new BashTreeWalker().add(collector, TokenSet.create(BashElementTypes.FUNCTION_DEF_COMMAND)).walk(parent);
     }
 }
@@ -28,6 +28,7 @@ import com.ansorgit.plugins.bash.lang.psi.impl.BashBaseStubElementImpl;
 import com.ansorgit.plugins.bash.lang.psi.impl.Keys;
 import com.ansorgit.plugins.bash.lang.psi.stubs.api.BashCommandStub;
 import com.ansorgit.plugins.bash.lang.psi.stubs.api.BashCommandStubBase;
+import com.ansorgit.plugins.bash.lang.psi.util.BashIdentifierInterner;
 import com.ansorgit.plugins.bash.lang.psi.util.BashPsiUtils;
 import com.ansorgit.plugins.bash.lang.psi.util.BashResolveUtil;
 import com.google.common.collect.Lists;
@@ -255,7 +256,7 @@ public class AbstractBashCommand<T extends BashCommandStubBase> extends BashBase
                     String newCommandName = command != null ? command.getText() : null;
 
                     hasReferencedCommandName = true;
-                    referencedCommandName = newCommandName;
+                    referencedCommandName = BashIdentifierInterner.internName(newCommandName);
                 }
             }
         }
@@ -30,6 +30,7 @@ import com.ansorgit.plugins.bash.lang.psi.impl.BashBaseStubElementImpl;
 import com.ansorgit.plugins.bash.lang.psi.impl.BashElementSharedImpl;
 import com.ansorgit.plugins.bash.lang.psi.stubs.api.BashVarDefStub;
 import com.ansorgit.plugins.bash.lang.psi.util.BashCommandUtil;
+import com.ansorgit.plugins.bash.lang.psi.util.BashIdentifierInterner;
 import com.ansorgit.plugins.bash.lang.psi.util.BashIdentifierUtil;
 import com.ansorgit.plugins.bash.lang.psi.util.BashPsiElementFactory;
 import com.ansorgit.plugins.bash.lang.psi.util.BashPsiUtils;
@@ -114,7 +115,7 @@ public class BashVarDefImpl extends BashBaseStubElementImpl<BashVarDefStub> impl
                         newName = element.getText();
                     }
 
-                    name = newName;
+                    name = BashIdentifierInterner.internName(newName);
                 }
             }
         }
@@ -23,6 +23,7 @@ import com.ansorgit.plugins.bash.lang.psi.api.BashReference;
 import com.ansorgit.plugins.bash.lang.psi.api.vars.*;
 import com.ansorgit.plugins.bash.lang.psi.impl.BashBaseStubElementImpl;
 import com.ansorgit.plugins.bash.lang.psi.stubs.api.BashVarStub;
+import com.ansorgit.plugins.bash.lang.psi.util.BashIdentifierInterner;
 import com.ansorgit.plugins.bash.lang.psi.util.BashIdentifierUtil;
 import com.ansorgit.plugins.bash.lang.psi.util.BashPsiElementFactory;
 import com.ansorgit.plugins.bash.lang.psi.util.BashPsiUtils;
@@ -135,7 +136,7 @@ public class BashVarImpl extends BashBaseStubElementImpl<BashVarStub> implements
         if (referencedName == null) {
             synchronized (stateLock) {
                 if (referencedName == null) {
-                    referencedName = getNameTextRange().substring(getText());
+                    referencedName = BashIdentifierInterner.internName(getNameTextRange().substring(getText()));
                 }
             }
         }
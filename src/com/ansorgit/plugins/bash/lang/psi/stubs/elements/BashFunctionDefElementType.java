@@ -22,6 +22,7 @@ import com.ansorgit.plugins.bash.lang.psi.impl.function.BashFunctionDefImpl;
 import com.ansorgit.plugins.bash.lang.psi.stubs.api.BashFunctionDefStub;
 import com.ansorgit.plugins.bash.lang.psi.stubs.impl.BashFunctionDefStubImpl;
 import com.ansorgit.plugins.bash.lang.psi.stubs.index.BashFunctionNameIndex;
+import com.ansorgit.plugins.bash.lang.psi.util.BashIdentifierInterner;
 import com.intellij.psi.stubs.IndexSink;
 import com.intellij.psi.stubs.StubElement;
 import com.intellij.psi.stubs.StubInputStream;
@@ -52,7 +53,7 @@ public class BashFunctionDefElementType extends BashStubElementType<BashFunction
 
     @NotNull
     public BashFunctionDefStub deserialize(@NotNull StubInputStream dataStream, StubElement parentStub) throws IOException {
-        StringRef ref = dataStream.readName();
+        StringRef ref = BashIdentifierInterner.internName(dataStream.readName());
         return new BashFunctionDefStubImpl(parentStub, ref, this);
     }
 
@@ -61,7 +62,7 @@ public class BashFunctionDefElementType extends BashStubElementType<BashFunction
     }
 
     public BashFunctionDefStub createStub(@NotNull BashFunctionDef psi, StubElement parentStub) {
-        return new BashFunctionDefStubImpl(parentStub, StringRef.fromString(psi.getName()), BashElementTypes.FUNCTION_DEF_COMMAND);
+        return new BashFunctionDefStubImpl(parentStub, StringRef.fromString(BashIdentifierInterner.internName(psi.getName())), BashElementTypes.FUNCTION_DEF_COMMAND);
     }
 
     @Override
@@ -22,6 +22,7 @@ import com.ansorgit.plugins.bash.lang.psi.impl.command.BashSimpleCommandImpl;
 import com.ansorgit.plugins.bash.lang.psi.stubs.api.BashCommandStub;
 import com.ansorgit.plugins.bash.lang.psi.stubs.impl.BashCommandStubImpl;
 import com.ansorgit.plugins.bash.lang.psi.stubs.index.BashCommandNameIndex;
+import com.ansorgit.plugins.bash.lang.psi.util.BashIdentifierInterner;
 import com.intellij.psi.stubs.IndexSink;
 import com.intellij.psi.stubs.StubElement;
 import com.intellij.psi.stubs.StubInputStream;
@@ -60,7 +61,7 @@ public class BashSimpleCommandElementType extends BashStubElementType<BashComman
         boolean internalCommandBash4 = dataStream.readBoolean();
         boolean genericCommand = dataStream.readBoolean();
 
-        return new BashCommandStubImpl(parentStub, StringRef.toString(bashCommandFilename), this, internalCommandBash3, internalCommandBash4, genericCommand);
+        return new BashCommandStubImpl(parentStub, BashIdentifierInterner.internName(StringRef.toString(bashCommandFilename)), this, internalCommandBash3, internalCommandBash4, genericCommand);
     }
 
     public BashCommand createPsi(@NotNull BashCommandStub stub) {
@@ -22,6 +22,7 @@ import com.ansorgit.plugins.bash.lang.psi.impl.vars.BashVarDefImpl;
 import com.ansorgit.plugins.bash.lang.psi.stubs.api.BashVarDefStub;
 import com.ansorgit.plugins.bash.lang.psi.stubs.impl.BashVarDefStubImpl;
 import com.ansorgit.plugins.bash.lang.psi.stubs.index.BashVarDefIndex;
+import com.ansorgit.plugins.bash.lang.psi.util.BashIdentifierInterner;
 import com.intellij.psi.stubs.IndexSink;
 import com.intellij.psi.stubs.StubElement;
 import com.intellij.psi.stubs.StubInputStream;
@@ -52,7 +53,7 @@ public class BashVarDefElementType extends BashStubElementType<BashVarDefStub, B
 
     @NotNull
     public BashVarDefStub deserialize(@NotNull StubInputStream dataStream, StubElement parentStub) throws IOException {
-        StringRef ref = dataStream.readName();
+        StringRef ref = BashIdentifierInterner.internName(dataStream.readName());
         boolean readOnly = dataStream.readBoolean();
 
         return new BashVarDefStubImpl(parentStub, ref, this, readOnly);
@@ -22,6 +22,7 @@ import com.ansorgit.plugins.bash.lang.psi.impl.vars.BashVarImpl;
 import com.ansorgit.plugins.bash.lang.psi.stubs.api.BashVarStub;
 import com.ansorgit.plugins.bash.lang.psi.stubs.impl.BashVarStubImpl;
 import com.ansorgit.plugins.bash.lang.psi.stubs.index.BashVarIndex;
+import com.ansorgit.plugins.bash.lang.psi.util.BashIdentifierInterner;
 import com.intellij.psi.stubs.IndexSink;
 import com.intellij.psi.stubs.StubElement;
 import com.intellij.psi.stubs.StubInputStream;
@@ -52,7 +53,7 @@ public class BashVarElementType extends BashStubElementType<BashVarStub, BashVar
 
     @NotNull
     public BashVarStub deserialize(@NotNull StubInputStream dataStream, StubElement parentStub) throws IOException {
-        StringRef ref = dataStream.readName();
+        StringRef ref = BashIdentifierInterner.internName(dataStream.readName());
         int prefixLength = dataStream.readInt();
 
         return new BashVarStubImpl(parentStub, ref, this, prefixLength);
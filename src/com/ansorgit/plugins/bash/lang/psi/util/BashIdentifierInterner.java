@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.lang.psi.util;
+
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.io.StringRef;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares the strings of variable, function and command names between the parsed files of a batch.
+ * <br>
+ * The same identifiers, e.g. HOME or LOG_DIR, are used in most scripts. Without interning each variable,
+ * each command and each stub holds its own copy of the name. An interner is activated for a batch with
+ * {@link #activate(BashIdentifierInterner)}, the names which are computed while it is active are interned.
+ * The active interner is kept per thread, concurrent batches don't see each other's interner.
+ * A batch which processes its files on several threads activates its interner on each of them.
+ * <br>
+ * An interner also maps identifiers to dense int ids for analyses which are based on arrays or bit sets.
+ * An identifier which was assigned an id is strongly referenced, even if the interner is weak.
+ * <br>
+ * This class is thread-safe, the files of a batch may be processed in parallel. Interning and the lookup of
+ * known ids don't lock, only the assignment of a new id does.
+ *
+ * @author jansorg
+ */
+public final class BashIdentifierInterner {
+    private static final ThreadLocal<BashIdentifierInterner> active = new ThreadLocal<>();
+
+    private final ConcurrentMap<String, String> strings;
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    //written while holding the lock, an id is published by ids after its identifier was stored
+    private volatile String[] identifiers = ArrayUtil.EMPTY_STRING_ARRAY;
+    private volatile int idCount;
+
+    private BashIdentifierInterner(@NotNull ConcurrentMap<String, String> strings) {
+        this.strings = strings;
+    }
+
+    /**
+     * @return A new interner which keeps all identifiers until it is cleared
+     */
+    @NotNull
+    public static BashIdentifierInterner create() {
+        return new BashIdentifierInterner(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @return A new interner which releases identifiers which are not referenced anymore
+     */
+    @NotNull
+    public static BashIdentifierInterner createWeak() {
+        return new BashIdentifierInterner(ContainerUtil.createConcurrentWeakKeyWeakValueMap());
+    }
+
+    /**
+     * Activates an interner for the current batch on the current thread.
+     * The previous interner of the thread is restored when the returned scope is closed.
+     *
+     * @param interner The interner to use, null disables interning
+     * @return The scope of the batch, it must be closed by the same thread
+     */
+    @NotNull
+    public static Scope activate(@Nullable BashIdentifierInterner interner) {
+        Scope scope = new Scope(active.get());
+        set(interner);
+        return scope;
+    }
+
+    /**
+     * @return The interner of the current batch of this thread, if there is one
+     */
+    @Nullable
+    public static BashIdentifierInterner getActive() {
+        return active.get();
+    }
+
+    private static void set(@Nullable BashIdentifierInterner interner) {
+        if (interner == null) {
+            active.remove();
+        } else {
+            active.set(interner);
+        }
+    }
+
+    /**
+     * Interns a name with the interner of the current batch.
+     *
+     * @param name The name
+     * @return The interned name or the name itself if no batch is active
+     */
+    @Contract("null -> null; !null -> !null")
+    public static String internName(@Nullable String name) {
+        BashIdentifierInterner interner = name != null ? active.get() : null;
+        return interner == null ? name : interner.intern(name);
+    }
+
+    /**
+     * Interns the name of a deserialized stub.
+     *
+     * @param name The name which was read
+     * @return A reference to the interned name or the reference itself if no batch is active
+     */
+    @Contract("null -> null; !null -> !null")
+    public static StringRef internName(@Nullable StringRef name) {
+        BashIdentifierInterner interner = name != null ? active.get() : null;
+        return interner == null ? name : StringRef.fromString(interner.intern(name.getString()));
+    }
+
+    @NotNull
+    public String intern(@NotNull String name) {
+        return ConcurrencyUtil.cacheOrGet(strings, name, name);
+    }
+
+    /**
+     * Returns the id of an identifier. A new id is assigned if the identifier wasn't seen before.
+     * Ids are assigned in ascending order, starting with 0.
+     *
+     * @param identifier The identifier
+     * @return The id of the identifier
+     */
+    public int idOf(@NotNull String identifier) {
+        Integer id = ids.get(identifier);
+        return id != null ? id : assignId(identifier);
+    }
+
+    private synchronized int assignId(@NotNull String identifier) {
+        Integer existing = ids.get(identifier);
+        if (existing != null) {
+            return existing;
+        }
+
+        int id = idCount;
+        String[] current = identifiers;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, Math.max(16, id * 2));
+            identifiers = current;
+        }
+
+        String interned = intern(identifier);
+        current[id] = interned;
+        idCount = id + 1;
+        ids.put(interned, id);
+        return id;
+    }
+
+    /**
+     * @param identifier The identifier
+     * @return The id of the identifier or -1 if no id was assigned to it
+     */
+    public int findId(@NotNull String identifier) {
+        Integer id = ids.get(identifier);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @param id An id which was returned by {@link #idOf(String)}
+     * @return The identifier of the id
+     */
+    @NotNull
+    public String identifier(int id) {
+        if (id < 0 || id >= idCount) {
+            throw new IndexOutOfBoundsException("Unknown identifier id: " + id);
+        }
+        return identifiers[id];
+    }
+
+    /**
+     * @return The number of identifiers which were assigned an id
+     */
+    public int idCount() {
+        return idCount;
+    }
+
+    /**
+     * @return The number of interned strings
+     */
+    public int size() {
+        return strings.size();
+    }
+
+    /**
+     * Removes all interned strings and all ids. It must not be called while the interner is used by other threads.
+     */
+    public synchronized void clear() {
+        strings.clear();
+        ids.clear();
+        identifiers = ArrayUtil.EMPTY_STRING_ARRAY;
+        idCount = 0;
+    }
+
+    /**
+     * Restores the previously active interner of the thread when it is closed.
+     */
+    public static final class Scope implements AutoCloseable {
+        private final BashIdentifierInterner previous;
+        private final Thread thread = Thread.currentThread();
+
+        private Scope(@Nullable BashIdentifierInterner previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (Thread.currentThread() != thread) {
+                throw new IllegalStateException("The interner scope of " + thread.getName() + " must be closed by the same thread");
+            }
+
+            set(previous);
+        }
+    }
+}
@@ -35,7 +35,6 @@ import com.intellij.lang.ASTNode;
 import com.intellij.lang.injection.InjectedLanguageManager;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.*;
-import com.intellij.psi.impl.source.tree.CompositeElement;
 import com.intellij.psi.scope.PsiScopeProcessor;
 //import com.intellij.psi.stubs.StubIndex;
 import com.intellij.psi.tree.IElementType;
@@ -352,19 +351,12 @@ public final class BashPsiUtils {
         return result;
     }
 
+    /**
+     * Passes the element and all composite elements below it to the visitor, in document order.
+     * Use a {@link BashTreeWalker} to pass the elements to several visitors in a single walk.
+     */
     public static void visitRecursively(PsiElement element, BashVisitor visitor) {
-        element.accept(visitor);
-
-        // calling element.getChildren() is expensive,
-        // better iterate over the chilren
-        PsiElement child = element.getFirstChild();
-        while (child != null) {
-            if (child.getNode() instanceof CompositeElement) {
-                visitRecursively(child, visitor);
-            }
-
-            child = child.getNextSibling();
-        }
+        new BashTreeWalker().add(visitor).walk(element);
     }
 
     public static boolean hasContext(PsiElement element, PsiElement contextCandidate) {
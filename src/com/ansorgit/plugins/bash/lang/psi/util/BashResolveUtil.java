@@ -26,7 +26,7 @@ import com.ansorgit.plugins.bash.lang.psi.impl.vars.BashVarProcessor;
 import com.google.common.collect.Lists;
 import com.intellij.ide.scratch.ScratchFileService;
 import com.intellij.injected.editor.VirtualFileWindow;
-import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.ProgressIndicatorProvider;
 //import com.intellij.openapi.project.Project;
 //import com.intellij.openapi.roots.FileIndexFacade;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -151,7 +151,7 @@ public final class BashResolveUtil {
         }
 
         for (BashVarDef varDef : varDefs) {
-            ProgressManager.checkCanceled();
+            ProgressIndicatorProvider.checkCanceled();
 
             processor.execute(varDef, resolveState);
         }
@@ -162,7 +162,7 @@ public final class BashResolveUtil {
                 boolean varIsInFunction = BashPsiUtils.findNextVarDefFunctionDefScope(bashVar) != null;
 
                 for (BashIncludeCommand command : includeCommands) {
-                    ProgressManager.checkCanceled();
+                    ProgressIndicatorProvider.checkCanceled();
 
                     boolean includeIsInFunction = BashPsiUtils.findNextVarDefFunctionDefScope(command) != null;
 
@@ -273,7 +273,7 @@ public final class BashResolveUtil {
 
         *//*Collection<BashVarDef> allDefs = StubIndex.getElements(BashVarDefIndex.KEY, bashVar.getReferenceName(), bashVar.getProject(), GlobalSearchScope.fileScope(psiFile), BashVarDef.class);
         for (BashVarDef candidateDef : allDefs) {
-            ProgressManager.checkCanceled();
+            ProgressIndicatorProvider.checkCanceled();
 
             // skip var defs which are not in our own def scope
             BashFunctionDef scope = BashPsiUtils.findNextVarDefFunctionDefScope(candidateDef);
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.lang.psi.util;
+
+import com.ansorgit.plugins.bash.lang.psi.BashVisitor;
+import com.google.common.collect.Lists;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.impl.source.tree.CompositeElement;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Walks a tree once and passes the elements to several visitors.
+ * <br>
+ * Each visitor is registered with the element types it's interested in, an element is only passed to the visitors
+ * which registered its type. The dispatch is based on a bit mask per element type, one bit per visitor.
+ * A visitor may prune the subtree of an element, either by registering the pruned element types or by calling
+ * {@link #skipChildren()} while it visits the element. The other visitors still see the subtree.
+ * <br>
+ * The walk uses an explicit stack, deeply nested trees don't overflow the call stack.
+ * Like {@link BashPsiUtils#visitRecursively(PsiElement, BashVisitor)} only composite elements are visited, in document order.
+ * <br>
+ * A walker is not thread-safe, but it may be used for several walks.
+ *
+ * @author jansorg
+ */
+public final class BashTreeWalker {
+    private static final int MAX_VISITORS = Long.SIZE;
+    private static final long[] NO_MASKS = new long[0];
+
+    private final List<BashVisitor> visitors = Lists.newArrayList();
+
+    //visitors interested in all element types
+    private long allTypesMask = 0;
+    //visitors by element type index
+    private long[] typeMasks = NO_MASKS;
+    //visitors which don't descend into the element type, by element type index
+    private long[] pruneMasks = NO_MASKS;
+
+    private ASTNode[] nodeStack = new ASTNode[32];
+    private long[] maskStack = new long[32];
+
+    //the visitors which requested to skip the children of the current element
+    private long skipRequests;
+    private long currentVisitor;
+
+    /**
+     * Registers a visitor for all composite elements.
+     */
+    @NotNull
+    public BashTreeWalker add(@NotNull BashVisitor visitor) {
+        allTypesMask |= register(visitor);
+        return this;
+    }
+
+    /**
+     * Registers a visitor for the given element types.
+     */
+    @NotNull
+    public BashTreeWalker add(@NotNull BashVisitor visitor, @NotNull TokenSet types) {
+        return add(visitor, types, TokenSet.EMPTY);
+    }
+
+    /**
+     * Registers a visitor for the given element types.
+     *
+     * @param visitor     The visitor
+     * @param types       The element types which are passed to the visitor
+     * @param prunedTypes The element types whose children are not passed to the visitor
+     */
+    @NotNull
+    public BashTreeWalker add(@NotNull BashVisitor visitor, @NotNull TokenSet types, @NotNull TokenSet prunedTypes) {
+        long bit = register(visitor);
+
+        for (IElementType type : types.getTypes()) {
+            typeMasks = ensureCapacity(typeMasks, type.getIndex());
+            typeMasks[type.getIndex()] |= bit;
+        }
+
+        for (IElementType type : prunedTypes.getTypes()) {
+            pruneMasks = ensureCapacity(pruneMasks, type.getIndex());
+            pruneMasks[type.getIndex()] |= bit;
+        }
+
+        return this;
+    }
+
+    /**
+     * May be called by a visitor while it visits an element.
+     * The children of the current element are not passed to the calling visitor.
+     */
+    public void skipChildren() {
+        skipRequests |= currentVisitor;
+    }
+
+    /**
+     * Walks the tree of the given element, including the element itself.
+     */
+    public void walk(@NotNull PsiElement root) {
+        walk(root.getNode());
+    }
+
+    /**
+     * Walks the tree of the given node, including the node itself.
+     */
+    public void walk(@Nullable ASTNode root) {
+        if (root == null || visitors.isEmpty()) {
+            return;
+        }
+
+        long allVisitors = visitors.size() == MAX_VISITORS ? -1L : (1L << visitors.size()) - 1;
+
+        int size = 0;
+        nodeStack[size] = root;
+        maskStack[size++] = allVisitors;
+
+        try {
+            while (size > 0) {
+                ASTNode node = nodeStack[--size];
+                long active = maskStack[size];
+                nodeStack[size] = null;
+
+                int typeIndex = node.getElementType().getIndex();
+
+                skipRequests = 0;
+                long interested = active & (allTypesMask | mask(typeMasks, typeIndex));
+                if (interested != 0) {
+                    dispatch(node.getPsi(), interested);
+                }
+
+                long childMask = active & ~mask(pruneMasks, typeIndex) & ~skipRequests;
+                if (childMask == 0) {
+                    continue;
+                }
+
+                //push the children in reverse order to visit them in document order
+                for (ASTNode child = node.getLastChildNode(); child != null; child = child.getTreePrev()) {
+                    if (!(child instanceof CompositeElement)) {
+                        continue;
+                    }
+
+                    if (size == nodeStack.length) {
+                        nodeStack = Arrays.copyOf(nodeStack, size * 2);
+                        maskStack = Arrays.copyOf(maskStack, size * 2);
+                    }
+
+                    nodeStack[size] = child;
+                    maskStack[size++] = childMask;
+                }
+            }
+        } finally {
+            Arrays.fill(nodeStack, 0, size, null);
+            currentVisitor = 0;
+        }
+    }
+
+    private void dispatch(@NotNull PsiElement element, long interested) {
+        for (long remaining = interested; remaining != 0; remaining &= remaining - 1) {
+            int index = Long.numberOfTrailingZeros(remaining);
+
+            currentVisitor = 1L << index;
+            element.accept(visitors.get(index));
+        }
+
+        currentVisitor = 0;
+    }
+
+    private long register(@NotNull BashVisitor visitor) {
+        if (visitors.size() == MAX_VISITORS) {
+            throw new IllegalStateException("At most " + MAX_VISITORS + " visitors are supported");
+        }
+
+        visitors.add(visitor);
+        return 1L << (visitors.size() - 1);
+    }
+
+    private static long mask(@NotNull long[] masks, int typeIndex) {
+        return typeIndex < masks.length ? masks[typeIndex] : 0;
+    }
+
+    @NotNull
+    private static long[] ensureCapacity(@NotNull long[] masks, int typeIndex) {
+        return typeIndex < masks.length ? masks : Arrays.copyOf(masks, Math.max(typeIndex + 1, masks.length * 2));
+    }
+}
@@ -0,0 +1,620 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.lang.psi.value;
+
+import com.ansorgit.plugins.bash.lang.lexer.BashTokenTypes;
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes;
+import com.google.common.collect.ImmutableMap;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.impl.source.tree.CompositeElement;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Computes the static values of words, strings and parameter expansions, e.g. the value of the command word
+ * "${BTEQ_HOME:-/opt/teradata}/bin/bteq" or of $SQL_DIR/$TABLE.sql.
+ * <br>
+ * The values of the variables are taken from the bindings of the evaluator. The value of an element is unknown, i.e. null,
+ * if it contains a dynamic part: a command substitution, an arithmetic expansion, a variable without a binding or an
+ * operator which isn't supported. Unbound variables may be treated as unset variables instead, then the defaults
+ * of expansions like ${name:-default} apply. Globs and brace expansions are not expanded, words which contain
+ * brace expansions are unknown.
+ * <br>
+ * Supported operators are the defaults (:- - := = :+ + :? ?), the pattern removals (# ## % %%), the replacements
+ * (/ // /# /%), the case modifications (^ ^^ , ,,), substrings (:offset:length), the length and indirection.
+ * <br>
+ * The values of composite elements are cached by their modification count, a changed subtree is evaluated again.
+ * This class is thread-safe.
+ *
+ * @author jansorg
+ */
+public final class BashValueEvaluator implements BashTokenTypes {
+    private static final TokenSet literalTokens = TokenSet.create(WORD, INTEGER_LITERAL, COLON, EQ, ASSIGNMENT_WORD);
+
+    //operators in the text of a single variable token, longer operators first
+    private static final String[] textOperators = {":-", ":=", ":+", ":?", "##", "%%", "//", "^^", ",,", "-", "=", "+", "?", "#", "%", "/", "^", ",", ":"};
+
+    //marks an unknown value in the cache
+    private static final Object UNKNOWN = new Object();
+
+    private final Map<String, String> bindings;
+    private final boolean unboundIsUnset;
+
+    private final Map<ASTNode, CachedValue> cache = Collections.synchronizedMap(new WeakHashMap<ASTNode, CachedValue>());
+
+    /**
+     * Creates an evaluator which treats unbound variables as unknown.
+     *
+     * @param bindings The known values of variables by name, e.g. "BTEQ_HOME" or "1"
+     */
+    public BashValueEvaluator(@NotNull Map<String, String> bindings) {
+        this(bindings, false);
+    }
+
+    /**
+     * @param bindings       The known values of variables by name, e.g. "BTEQ_HOME" or "1"
+     * @param unboundIsUnset True if variables without a binding are unset, false if their values are unknown
+     */
+    public BashValueEvaluator(@NotNull Map<String, String> bindings, boolean unboundIsUnset) {
+        this.bindings = ImmutableMap.copyOf(bindings);
+        this.unboundIsUnset = unboundIsUnset;
+    }
+
+    /**
+     * @param element A word, a string or a variable
+     * @return The value of the element or null if it's unknown
+     */
+    @Nullable
+    public String evaluate(@NotNull PsiElement element) {
+        return evaluate(element.getNode());
+    }
+
+    /**
+     * @param node The node of a word, a string or a variable
+     * @return The value of the node or null if it's unknown
+     */
+    @Nullable
+    public String evaluate(@NotNull ASTNode node) {
+        if (!(node instanceof CompositeElement)) {
+            return evaluateLeaf(node, false);
+        }
+
+        int stamp = ((CompositeElement) node).getModificationCount();
+        CachedValue cached = cache.get(node);
+        if (cached != null && cached.stamp == stamp) {
+            return cached.value == UNKNOWN ? null : (String) cached.value;
+        }
+
+        String value = evaluateComposite(node);
+        cache.put(node, new CachedValue(stamp, value != null ? value : UNKNOWN));
+        return value;
+    }
+
+    @Nullable
+    private String evaluateComposite(@NotNull ASTNode node) {
+        IElementType type = node.getElementType();
+
+        if (type == BashElementTypes.PARSED_WORD_ELEMENT || type == BashElementTypes.STRING_ELEMENT) {
+            return concatenate(node.getFirstChildNode(), null, type == BashElementTypes.STRING_ELEMENT);
+        }
+
+        if (type == BashElementTypes.VAR_ELEMENT) {
+            ASTNode child = node.getFirstChildNode();
+            return child != null && child.getTreeNext() == null && child.getElementType() == VARIABLE
+                    ? evaluateVariableText(child.getText())
+                    : null;
+        }
+
+        if (type == BashElementTypes.VAR_COMPOSED_VAR_ELEMENT) {
+            return evaluateComposedVariable(node);
+        }
+
+        return null;
+    }
+
+    /**
+     * Concatenates the values of the nodes from first to the end node (exclusive).
+     */
+    @Nullable
+    private String concatenate(@Nullable ASTNode first, @Nullable ASTNode end, boolean quoted) {
+        StringBuilder result = new StringBuilder();
+
+        for (ASTNode child = first; child != end && child != null; child = child.getTreeNext()) {
+            IElementType type = child.getElementType();
+            if (quoted && (type == STRING_BEGIN || type == STRING_END)) {
+                continue;
+            }
+
+            String value = child instanceof CompositeElement ? evaluate(child) : evaluateLeaf(child, quoted);
+            if (value == null) {
+                return null;
+            }
+
+            result.append(value);
+        }
+
+        return result.toString();
+    }
+
+    @Nullable
+    private static String evaluateLeaf(@NotNull ASTNode leaf, boolean quoted) {
+        IElementType type = leaf.getElementType();
+        String text = leaf.getText();
+
+        if (type == STRING_CONTENT) {
+            return unescapeDoubleQuoted(text);
+        }
+
+        if (type == STRING2) {
+            return text.startsWith("$'") ? unescapeAnsiC(text.substring(2, text.length() - 1)) : text.substring(1, text.length() - 1);
+        }
+
+        if (literalTokens.contains(type)) {
+            return quoted ? text : unquote(text);
+        }
+
+        return null;
+    }
+
+    @Nullable
+    private String evaluateComposedVariable(@NotNull ASTNode node) {
+        ASTNode dollar = node.getFirstChildNode();
+        ASTNode brace = dollar != null ? dollar.getTreeNext() : null;
+        if (brace == null || brace.getElementType() != LEFT_CURLY) {
+            //command substitutions and arithmetic expansions
+            return null;
+        }
+
+        String prefixOperator = null;
+        String name = null;
+        String operator = null;
+        ASTNode argument = null;
+        ASTNode closingBrace = null;
+
+        for (ASTNode child = brace.getTreeNext(); child != null; child = child.getTreeNext()) {
+            IElementType type = child.getElementType();
+            if (type == RIGHT_CURLY) {
+                closingBrace = child;
+                break;
+            }
+
+            if (name == null && paramExpansionOperators.contains(type)) {
+                prefixOperator = child.getText();
+            } else if (name == null && (type == BashElementTypes.VAR_ELEMENT || type == BashElementTypes.VAR_DEF_ELEMENT)) {
+                name = child.getText();
+            } else if (name != null && operator == null && paramExpansionOperators.contains(type)) {
+                operator = child.getText();
+                argument = child.getTreeNext();
+            } else if (operator == null) {
+                return null;
+            }
+        }
+
+        if (name == null || closingBrace == null) {
+            return null;
+        }
+
+        if (prefixOperator != null) {
+            return operator == null ? applyPrefixOperator(prefixOperator, name) : null;
+        }
+
+        if (operator == null) {
+            return lookupExpanded(name);
+        }
+
+        final ASTNode argumentEnd = closingBrace;
+        if (operator.length() == 1 && argument != null && argument != argumentEnd && !(argument instanceof CompositeElement)
+                && argument.getText().startsWith(operator) && "#%/^,".contains(operator)) {
+            //the lexer splits doubled operators like %% into the operator and a word which starts with the operator
+            final String firstText = argument.getText().substring(1);
+            final ASTNode rest = argument.getTreeNext();
+            return applyOperator(name, operator + operator, new Argument() {
+                @Nullable
+                @Override
+                public String value() {
+                    String first = unquote(firstText);
+                    String remaining = concatenate(rest, argumentEnd, false);
+                    return first != null && remaining != null ? first + remaining : null;
+                }
+            });
+        }
+
+        final ASTNode argumentStart = argument;
+        return applyOperator(name, operator, new Argument() {
+            @Nullable
+            @Override
+            public String value() {
+                return concatenate(argumentStart, argumentEnd, false);
+            }
+        });
+    }
+
+    /**
+     * Evaluates the text of a variable token, e.g. $HOME, $1, ${HOME} or ${name#prefix}.
+     */
+    @Nullable
+    private String evaluateVariableText(@NotNull String text) {
+        if (!text.startsWith("${")) {
+            return text.length() > 1 ? lookupExpanded(text.substring(1)) : null;
+        }
+
+        if (!text.endsWith("}") || text.length() < 4) {
+            return null;
+        }
+
+        String content = text.substring(2, text.length() - 1);
+        if ((content.startsWith("#") || content.startsWith("!")) && content.length() > 1 && nameLength(content, 1) == content.length() - 1) {
+            return applyPrefixOperator(content.substring(0, 1), content.substring(1));
+        }
+
+        int nameLength = nameLength(content, 0);
+        if (nameLength == 0) {
+            return null;
+        }
+
+        String name = content.substring(0, nameLength);
+        if (nameLength == content.length()) {
+            return lookupExpanded(name);
+        }
+
+        for (String operator : textOperators) {
+            if (content.startsWith(operator, nameLength)) {
+                final String argument = content.substring(nameLength + operator.length());
+                return applyOperator(name, operator, new Argument() {
+                    @Nullable
+                    @Override
+                    public String value() {
+                        return unquote(argument);
+                    }
+                });
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The length of the variable name at the given offset, 0 if there's no name
+     */
+    private static int nameLength(@NotNull String text, int offset) {
+        if (offset >= text.length()) {
+            return 0;
+        }
+
+        char first = text.charAt(offset);
+        if ("@*#?$!-".indexOf(first) >= 0) {
+            return 1;
+        }
+
+        int end = offset;
+        if (Character.isDigit(first)) {
+            while (end < text.length() && Character.isDigit(text.charAt(end))) {
+                end++;
+            }
+        } else {
+            while (end < text.length() && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '_')
+                    && (end > offset || !Character.isDigit(text.charAt(end)))) {
+                end++;
+            }
+        }
+
+        return end - offset;
+    }
+
+    @Nullable
+    private String applyPrefixOperator(@NotNull String operator, @NotNull String name) {
+        if (!isKnown(name)) {
+            return null;
+        }
+
+        String value = bindings.get(name);
+        if ("#".equals(operator)) {
+            return String.valueOf(value != null ? value.length() : 0);
+        }
+
+        if ("!".equals(operator) && value != null) {
+            return lookupExpanded(value);
+        }
+
+        return null;
+    }
+
+    /**
+     * Applies a parameter expansion operator.
+     *
+     * @param name     The name of the variable
+     * @param operator The operator, e.g. :- or ##
+     * @param argument The argument of the operator, e.g. the default value or the pattern
+     * @return The value of the expansion or null if it's unknown
+     */
+    @Nullable
+    private String applyOperator(@NotNull String name, @NotNull String operator, @NotNull Argument argument) {
+        if (!isKnown(name)) {
+            return null;
+        }
+
+        //null if the variable is unset
+        String value = bindings.get(name);
+        boolean nonEmpty = value != null && !value.isEmpty();
+
+        switch (operator) {
+            case ":-":
+            case ":=":
+                return nonEmpty ? value : argument.value();
+            case "-":
+            case "=":
+                return value != null ? value : argument.value();
+            case ":+":
+                return nonEmpty ? argument.value() : "";
+            case "+":
+                return value != null ? argument.value() : "";
+            case ":?":
+                return nonEmpty ? value : null;
+            case "?":
+                return value;
+            default:
+                break;
+        }
+
+        String text = value != null ? value : "";
+        String pattern = argument.value();
+        if (pattern == null) {
+            return null;
+        }
+
+        switch (operator) {
+            case "#":
+            case "##":
+                return GlobPattern.compile(pattern).removePrefix(text, operator.length() == 2);
+            case "%":
+            case "%%":
+                return GlobPattern.compile(pattern).removeSuffix(text, operator.length() == 2);
+            case "/":
+            case "//":
+                return replace(text, pattern, operator.length() == 2);
+            case "^":
+                return pattern.isEmpty() && !text.isEmpty() ? text.substring(0, 1).toUpperCase() + text.substring(1) : pattern.isEmpty() ? text : null;
+            case "^^":
+                return pattern.isEmpty() ? text.toUpperCase() : null;
+            case ",":
+                return pattern.isEmpty() && !text.isEmpty() ? text.substring(0, 1).toLowerCase() + text.substring(1) : pattern.isEmpty() ? text : null;
+            case ",,":
+                return pattern.isEmpty() ? text.toLowerCase() : null;
+            case ":":
+                return substring(text, pattern);
+            default:
+                return null;
+        }
+    }
+
+    @NotNull
+    private static String replace(@NotNull String value, @NotNull String argument, boolean all) {
+        char anchor = 0;
+        if (!all && (argument.startsWith("#") || argument.startsWith("%"))) {
+            anchor = argument.charAt(0);
+            argument = argument.substring(1);
+        }
+
+        //the pattern ends at the first unescaped slash
+        int separator = -1;
+        for (int i = 0; i < argument.length() && separator < 0; i++) {
+            if (argument.charAt(i) == '\\') {
+                i++;
+            } else if (argument.charAt(i) == '/') {
+                separator = i;
+            }
+        }
+
+        String pattern = separator >= 0 ? argument.substring(0, separator) : argument;
+        String replacement = separator >= 0 ? argument.substring(separator + 1) : "";
+        if (pattern.isEmpty()) {
+            return value;
+        }
+
+        return GlobPattern.compile(pattern).replace(value, replacement, all, anchor);
+    }
+
+    @Nullable
+    private static String substring(@NotNull String value, @NotNull String argument) {
+        String[] parts = argument.split(":", -1);
+        if (parts.length > 2) {
+            return null;
+        }
+
+        try {
+            int offset = Integer.parseInt(parts[0].trim());
+            if (offset < 0) {
+                offset = Math.max(0, value.length() + offset);
+            }
+            offset = Math.min(offset, value.length());
+
+            int end = value.length();
+            if (parts.length == 2) {
+                int length = Integer.parseInt(parts[1].trim());
+                end = length >= 0 ? Math.min(value.length(), offset + length) : value.length() + length;
+                if (end < offset) {
+                    return null;
+                }
+            }
+
+            return value.substring(offset, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private boolean isKnown(@NotNull String name) {
+        return unboundIsUnset || bindings.containsKey(name);
+    }
+
+    /**
+     * @return The value of a plain expansion of the variable, an unset variable expands to the empty string
+     */
+    @Nullable
+    private String lookupExpanded(@NotNull String name) {
+        if (!isKnown(name)) {
+            return null;
+        }
+
+        String value = bindings.get(name);
+        return value != null ? value : "";
+    }
+
+    /**
+     * Removes the quotes and escapes of an unquoted word.
+     *
+     * @return The value or null if the word contains a dynamic part
+     */
+    @Nullable
+    static String unquote(@NotNull String text) {
+        StringBuilder result = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                result.append(text.charAt(++i));
+            } else if (c == '\'') {
+                int end = text.indexOf('\'', i + 1);
+                if (end < 0) {
+                    return null;
+                }
+
+                result.append(text, i + 1, end);
+                i = end;
+            } else if (c == '"') {
+                int end = i + 1;
+                while (end < text.length() && text.charAt(end) != '"') {
+                    end += text.charAt(end) == '\\' ? 2 : 1;
+                }
+                if (end >= text.length()) {
+                    return null;
+                }
+
+                String content = text.substring(i + 1, end);
+                if (content.indexOf('$') >= 0 || content.indexOf('`') >= 0) {
+                    return null;
+                }
+
+                result.append(unescapeDoubleQuoted(content));
+                i = end;
+            } else if (c == '$' || c == '`') {
+                return null;
+            } else {
+                result.append(c);
+            }
+        }
+
+        return result.toString();
+    }
+
+    @NotNull
+    private static String unescapeDoubleQuoted(@NotNull String text) {
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length() && "$`\"\\\n".indexOf(text.charAt(i + 1)) >= 0) {
+                char next = text.charAt(++i);
+                if (next != '\n') {
+                    result.append(next);
+                }
+            } else {
+                result.append(c);
+            }
+        }
+
+        return result.toString();
+    }
+
+    @NotNull
+    private static String unescapeAnsiC(@NotNull String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 == text.length()) {
+                result.append(c);
+                continue;
+            }
+
+            char next = text.charAt(++i);
+            switch (next) {
+                case 'n':
+                    result.append('\n');
+                    break;
+                case 't':
+                    result.append('\t');
+                    break;
+                case 'r':
+                    result.append('\r');
+                    break;
+                case 'a':
+                    result.append('\u0007');
+                    break;
+                case 'b':
+                    result.append('\b');
+                    break;
+                case 'e':
+                case 'E':
+                    result.append('\u001b');
+                    break;
+                case 'f':
+                    result.append('\f');
+                    break;
+                case 'v':
+                    result.append('\u000b');
+                    break;
+                case '\\':
+                case '\'':
+                case '"':
+                case '?':
+                    result.append(next);
+                    break;
+                default:
+                    result.append(c).append(next);
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * The argument of an operator is only evaluated if the operator needs it.
+     */
+    private interface Argument {
+        @Nullable
+        String value();
+    }
+
+    private static final class CachedValue {
+        private final int stamp;
+        private final Object value;
+
+        CachedValue(int stamp, @NotNull Object value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ansorgit.plugins.bash.lang.psi.value;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The patterns of the parameter expansion operators, e.g. the pattern of ${name%.*}.
+ * Supports *, ? and bracket expressions. Extended globs are not supported.
+ *
+ * @author jansorg
+ */
+final class GlobPattern {
+    private final Pattern pattern;
+
+    private GlobPattern(@NotNull Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    @NotNull
+    static GlobPattern compile(@NotNull String glob) {
+        StringBuilder regex = new StringBuilder();
+
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                regex.append("[\\s\\S]*");
+            } else if (c == '?') {
+                regex.append("[\\s\\S]");
+            } else if (c == '\\' && i + 1 < glob.length()) {
+                regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+            } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+                int end = glob.indexOf(']', i + 2);
+                String content = glob.substring(i + 1, end);
+                if (content.startsWith("!") || content.startsWith("^")) {
+                    content = "^" + content.substring(1);
+                }
+
+                regex.append('[').append(content.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                i = end;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        return new GlobPattern(Pattern.compile(regex.toString()));
+    }
+
+    boolean matches(@NotNull String value, int start, int end) {
+        return pattern.matcher(value).region(start, end).matches();
+    }
+
+    /**
+     * Removes the shortest or longest matching prefix, like ${name#pattern} and ${name##pattern}.
+     */
+    @NotNull
+    String removePrefix(@NotNull String value, boolean longest) {
+        for (int i = 0; i <= value.length(); i++) {
+            int end = longest ? value.length() - i : i;
+            if (matches(value, 0, end)) {
+                return value.substring(end);
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Removes the shortest or longest matching suffix, like ${name%pattern} and ${name%%pattern}.
+     */
+    @NotNull
+    String removeSuffix(@NotNull String value, boolean longest) {
+        for (int i = 0; i <= value.length(); i++) {
+            int start = longest ? i : value.length() - i;
+            if (matches(value, start, value.length())) {
+                return value.substring(0, start);
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Replaces the longest non-empty matches, like ${name/pattern/replacement} and its variants.
+     *
+     * @param all    Replace all matches instead of only the first
+     * @param anchor 0 for matches anywhere, '#' for a match at the start, '%' for a match at the end
+     */
+    @NotNull
+    String replace(@NotNull String value, @NotNull String replacement, boolean all, char anchor) {
+        if (anchor == '#') {
+            int end = longestMatch(value, 0);
+            return end > 0 ? replacement + value.substring(end) : value;
+        }
+
+        if (anchor == '%') {
+            for (int start = 0; start < value.length(); start++) {
+                if (matches(value, start, value.length())) {
+                    return value.substring(0, start) + replacement;
+                }
+            }
+
+            return value;
+        }
+
+        StringBuilder result = new StringBuilder();
+        int start = 0;
+        while (start < value.length()) {
+            int end = longestMatch(value, start);
+            if (end < 0) {
+                result.append(value.charAt(start++));
+                continue;
+            }
+
+            result.append(replacement);
+            start = end;
+
+            if (!all) {
+                break;
+            }
+        }
+
+        return result.append(value, start, value.length()).toString();
+    }
+
+    private int longestMatch(@NotNull String value, int start) {
+        Matcher matcher = pattern.matcher(value);
+        for (int end = value.length(); end > start; end--) {
+            if (matcher.region(start, end).matches()) {
+                return end;
+            }
+        }
+
+        return -1;
+    }
+}
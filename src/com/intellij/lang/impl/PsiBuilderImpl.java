@@ -20,6 +20,7 @@ import com.ansorgit.plugins.bash.lang.psi.impl.BashFileImpl;
 import com.intellij.lang.*;
 import com.intellij.lexer.Lexer;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.CancellationBudget;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressIndicatorProvider;
 import com.intellij.openapi.util.*;
@@ -81,6 +82,8 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
     private IElementType myCachedTokenType;
     private final LimitedPool<StartMarker> START_MARKERS;
     private final LimitedPool<DoneMarker> DONE_MARKERS;
+    @Nullable
+    private final ReusableBuffers myBuffers;
     private static final ArrayFactory<IElementType> myElementTypeArrayFactory;
     @NonNls
     private static final String UNBALANCED_MESSAGE = "Unbalanced tree. Most probably caused by unbalanced markers. Try calling setDebugMode(true) against PsiBuilder passed to identify exact location of the problem";
@@ -90,16 +93,47 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
     }
 
     public PsiBuilderImpl(PsiFile containingFile, @NotNull ParserDefinition parserDefinition, @NotNull Lexer lexer, CharTable charTable, @NotNull CharSequence text, @Nullable ASTNode originalTree, @Nullable MyTreeStructure parentLightTree) {
-        this(containingFile, parserDefinition.getWhitespaceTokens(), parserDefinition.getCommentTokens(), lexer, charTable, text, originalTree, originalTree == null ? null : originalTree.getText(), parentLightTree, (Object)null);
+        this(containingFile, parserDefinition.getWhitespaceTokens(), parserDefinition.getCommentTokens(), lexer, charTable, text, originalTree, originalTree == null ? null : originalTree.getText(), parentLightTree, (Object)null, null);
     }
 
     public PsiBuilderImpl(PsiFile containingFile, @NotNull TokenSet whiteSpaces, @NotNull TokenSet comments, @NotNull Lexer lexer, CharTable charTable, @NotNull CharSequence text, @Nullable ASTNode originalTree, @Nullable MyTreeStructure parentLightTree) {
-        this(containingFile, whiteSpaces, comments, lexer, charTable, text, originalTree, originalTree == null ? null : originalTree.getText(), parentLightTree, (Object)null);
+        this(containingFile, whiteSpaces, comments, lexer, charTable, text, originalTree, originalTree == null ? null : originalTree.getText(), parentLightTree, (Object)null, null);
+    }
+
+    private PsiBuilderImpl(PsiFile containingFile, @NotNull TokenSet whiteSpaces, @NotNull TokenSet comments, @NotNull Lexer lexer, CharTable charTable, @NotNull CharSequence text, @Nullable ASTNode originalTree, @Nullable CharSequence lastCommittedText, @Nullable MyTreeStructure parentLightTree, @Nullable Object parentCachingNode, @Nullable ReusableBuffers buffers) {
+        this.myBuffers = buffers;
+        if (buffers != null) {
+            //a previous builder may have failed before its tree was built
+            buffers.production.clear();
+            this.myProduction = buffers.production;
+            this.START_MARKERS = buffers.startMarkers;
+            this.DONE_MARKERS = buffers.doneMarkers;
+        } else {
+            this.myProduction = new MyList();
+            this.START_MARKERS = createStartMarkerPool();
+            this.DONE_MARKERS = createDoneMarkerPool();
+        }
+        this.myFile = containingFile;
+        this.myText = text;
+        this.myTextArray = CharArrayUtil.fromSequenceWithoutCopying(text);
+        this.myLexer = lexer;
+        this.myWhitespaces = whiteSpaces;
+        this.myComments = comments;
+        this.myCharTable = charTable;
+        this.myOriginalTree = originalTree;
+        this.myLastCommittedText = lastCommittedText;
+        if (originalTree == null != (lastCommittedText == null)) {
+            throw new IllegalArgumentException("originalTree and lastCommittedText must be null/notnull together but got: originalTree=" + originalTree + "; lastCommittedText=" + (lastCommittedText == null ? null : "'" + StringUtil.first(lastCommittedText, 80, true) + "'"));
+        } else {
+            this.myParentLightTree = parentLightTree;
+            this.myOffset = parentCachingNode instanceof LazyParseableToken ? ((LazyParseableToken)parentCachingNode).getStartOffset() : 0;
+            this.cacheLexemes(parentCachingNode);
+        }
     }
 
-    private PsiBuilderImpl(PsiFile containingFile, @NotNull TokenSet whiteSpaces, @NotNull TokenSet comments, @NotNull Lexer lexer, CharTable charTable, @NotNull CharSequence text, @Nullable ASTNode originalTree, @Nullable CharSequence lastCommittedText, @Nullable MyTreeStructure parentLightTree, @Nullable Object parentCachingNode) {
-        this.myProduction = new MyList();
-        this.START_MARKERS = new LimitedPool(2000, new LimitedPool.ObjectFactory<StartMarker>() {
+    @NotNull
+    private static LimitedPool<StartMarker> createStartMarkerPool() {
+        return new LimitedPool(2000, new LimitedPool.ObjectFactory<StartMarker>() {
             @NotNull
             public StartMarker create() {
                 return new StartMarker();
@@ -109,7 +143,11 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
                 startMarker.clean();
             }
         });
-        this.DONE_MARKERS = new LimitedPool(2000, new LimitedPool.ObjectFactory<DoneMarker>() {
+    }
+
+    @NotNull
+    private static LimitedPool<DoneMarker> createDoneMarkerPool() {
+        return new LimitedPool(2000, new LimitedPool.ObjectFactory<DoneMarker>() {
             @NotNull
             public DoneMarker create() {
                 return new DoneMarker();
@@ -119,31 +157,23 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
                 doneMarker.clean();
             }
         });
-        this.myFile = containingFile;
-        this.myText = text;
-        this.myTextArray = CharArrayUtil.fromSequenceWithoutCopying(text);
-        this.myLexer = lexer;
-        this.myWhitespaces = whiteSpaces;
-        this.myComments = comments;
-        this.myCharTable = charTable;
-        this.myOriginalTree = originalTree;
-        this.myLastCommittedText = lastCommittedText;
-        if (originalTree == null != (lastCommittedText == null)) {
-            throw new IllegalArgumentException("originalTree and lastCommittedText must be null/notnull together but got: originalTree=" + originalTree + "; lastCommittedText=" + (lastCommittedText == null ? null : "'" + StringUtil.first(lastCommittedText, 80, true) + "'"));
-        } else {
-            this.myParentLightTree = parentLightTree;
-            this.myOffset = parentCachingNode instanceof LazyParseableToken ? ((LazyParseableToken)parentCachingNode).getStartOffset() : 0;
-            this.cacheLexemes(parentCachingNode);
-        }
     }
 
     public PsiBuilderImpl(@NotNull ParserDefinition parserDefinition, @NotNull Lexer lexer, @NotNull ASTNode chameleon, @NotNull CharSequence text) {
         //String a = "";
 
-        this(SharedImplUtil.getContainingFile(chameleon), parserDefinition.getWhitespaceTokens(), parserDefinition.getCommentTokens(), lexer, SharedImplUtil.findCharTableByTree(chameleon), text, (ASTNode)Pair.getFirst((Pair)chameleon.getUserData(BlockSupport.TREE_TO_BE_REPARSED)), (CharSequence)Pair.getSecond((Pair)chameleon.getUserData(BlockSupport.TREE_TO_BE_REPARSED)), (MyTreeStructure)null, chameleon);
+        this(SharedImplUtil.getContainingFile(chameleon), parserDefinition.getWhitespaceTokens(), parserDefinition.getCommentTokens(), lexer, SharedImplUtil.findCharTableByTree(chameleon), text, (ASTNode)Pair.getFirst((Pair)chameleon.getUserData(BlockSupport.TREE_TO_BE_REPARSED)), (CharSequence)Pair.getSecond((Pair)chameleon.getUserData(BlockSupport.TREE_TO_BE_REPARSED)), (MyTreeStructure)null, chameleon, null);
     }
 
     public PsiBuilderImpl(BashFileImpl impl, @NotNull ParserDefinition parserDefinition, @NotNull Lexer lexer, @NotNull ASTNode chameleon, @NotNull CharSequence text) {
+        this(impl, parserDefinition, lexer, chameleon, text, null);
+    }
+
+    /**
+     * Creates a builder which uses the given buffers instead of allocating its own.
+     * The buffers must not be used by another builder until the tree of this builder has been built.
+     */
+    public PsiBuilderImpl(BashFileImpl impl, @NotNull ParserDefinition parserDefinition, @NotNull Lexer lexer, @NotNull ASTNode chameleon, @NotNull CharSequence text, @Nullable ReusableBuffers buffers) {
         this(
                 impl,
                 parserDefinition.getWhitespaceTokens(),
@@ -154,12 +184,13 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
                 null/*(ASTNode)Pair.getFirst((Pair)chameleon.getUserData(BlockSupport.TREE_TO_BE_REPARSED))*/,
                 null/*(CharSequence)Pair.getSecond((Pair)chameleon.getUserData(BlockSupport.TREE_TO_BE_REPARSED))*/,
                 (MyTreeStructure)null,
-                null
+                null,
+                buffers
         );
     }
 
     public PsiBuilderImpl(@NotNull ParserDefinition parserDefinition, @NotNull Lexer lexer, @NotNull LighterLazyParseableNode chameleon, @NotNull CharSequence text) {
-        this(chameleon.getContainingFile(), parserDefinition.getWhitespaceTokens(), parserDefinition.getCommentTokens(), lexer, chameleon.getCharTable(), text, (ASTNode)null, (CharSequence)null, ((LazyParseableToken)chameleon).myParent, chameleon);
+        this(chameleon.getContainingFile(), parserDefinition.getWhitespaceTokens(), parserDefinition.getCommentTokens(), lexer, chameleon.getCharTable(), text, (ASTNode)null, (CharSequence)null, ((LazyParseableToken)chameleon).myParent, chameleon, null);
     }
 
     private void cacheLexemes(@Nullable Object parentCachingNode) {
@@ -208,14 +239,19 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
         }
 
         int approxLexCount = Math.max(10, this.myText.length() / 5);
-        this.myLexStarts = new int[approxLexCount];
-        this.myLexTypes = new IElementType[approxLexCount];
+        if (this.myBuffers != null && this.myBuffers.lexTypes != null && this.myBuffers.lexTypes.length >= approxLexCount) {
+            this.myLexStarts = this.myBuffers.lexStarts;
+            this.myLexTypes = this.myBuffers.lexTypes;
+        } else {
+            this.myLexStarts = new int[approxLexCount];
+            this.myLexTypes = new IElementType[approxLexCount];
+        }
         this.myLexer.start(this.myText);
         i = 0;
         offset = 0;
 
         while(true) {
-            //ProgressIndicatorProvider.checkCanceled();
+            CancellationBudget.checkCurrent(offset);
             IElementType type = this.myLexer.getTokenType();
             if (type == null) {
                 this.myLexStarts[i] = this.myText.length();
@@ -389,7 +425,7 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
     }
 
     public void advanceLexer() {
-        ProgressIndicatorProvider.checkCanceled();
+        CancellationBudget.tokenConsumed(this.myLexStarts[this.myCurrentLexeme]);
         if (!this.eof()) {
             if (!this.myTokenTypeChecked) {
                 LOG.error("Probably a bug: eating token without its type checking");
@@ -695,6 +731,10 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
                     DONE_MARKERS.recycle((DoneMarker)marker);
                 }
             }
+
+            if (myBuffers != null) {
+                myBuffers.release(myLexStarts, myLexTypes);
+            }
         }
     }
 
@@ -1066,6 +1106,34 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
         }
     }
 
+    /**
+     * Buffers of a builder which are reused by the following builders of the same thread, instead of allocating them again
+     * for each parsed file: the pools of markers, the list of productions and the arrays of lexemes.
+     * The buffers are returned when the tree has been built. They must not be used by two builders at the same time.
+     */
+    public static final class ReusableBuffers {
+        //larger arrays of a single large file aren't kept for the following files
+        private static final int MAX_RETAINED_LEXEMES = 1 << 20;
+
+        private final LimitedPool<StartMarker> startMarkers = createStartMarkerPool();
+        private final LimitedPool<DoneMarker> doneMarkers = createDoneMarkerPool();
+        private MyList production = new MyList();
+        private int[] lexStarts;
+        private IElementType[] lexTypes;
+
+        private void release(int[] lexStarts, IElementType[] lexTypes) {
+            if (this.production.size() > MAX_RETAINED_LEXEMES) {
+                this.production = new MyList();
+            } else {
+                this.production.clear();
+            }
+
+            boolean retain = lexTypes.length <= MAX_RETAINED_LEXEMES;
+            this.lexStarts = retain ? lexStarts : null;
+            this.lexTypes = retain ? lexTypes : null;
+        }
+    }
+
     private static class MyList extends ArrayList<ProductionMarker> {
         private static final Field ourElementDataField = ReflectionUtil.getDeclaredField(ArrayList.class, "elementData");
         private Object[] cachedElementData;
@@ -1524,6 +1592,7 @@ public class PsiBuilderImpl extends UserDataHolderBase implements PsiBuilder {
         public void clean() {
             super.clean();
             this.myStart = null;
+            this.myCollapse = false;
             this.myEdgeTokenBinder = WhitespacesBinders.DEFAULT_RIGHT_BINDER;
         }
 
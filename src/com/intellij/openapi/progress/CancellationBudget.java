@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.progress;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-local cancellation with a deadline and a token budget, which works without an application.
+ * <br>
+ * A budget is installed for the current thread with {@link #start(long, int)} and removed again when it's closed.
+ * {@link ProgressIndicatorProvider#checkCanceled()} and the lexer of {@link com.intellij.lang.impl.PsiBuilderImpl}
+ * check the budget of the current thread and throw a {@link BudgetExceededException} as soon as it is exhausted.
+ * The exception contains the text offset which was reached. Without an installed budget the checks do nothing.
+ * <br>
+ * The token budget limits the number of tokens consumed by the parser, tokens which are consumed again after a rollback
+ * are counted again. This limits the work spent on a file independent of the speed of the machine.
+ *
+ * @author jansorg
+ */
+public final class CancellationBudget implements AutoCloseable {
+  private static final ThreadLocal<CancellationBudget> current = new ThreadLocal<CancellationBudget>();
+
+  //System.nanoTime() is only called every CLOCK_INTERVAL checks
+  private static final int CLOCK_INTERVAL = 64;
+
+  public enum Reason {
+    DEADLINE, TOKENS, CANCELED
+  }
+
+  private final CancellationBudget previous;
+  private final long deadline;
+  private final int maxTokens;
+
+  private volatile boolean canceled;
+  private int tokens;
+  private int offset;
+  private int checks;
+
+  private CancellationBudget(@Nullable CancellationBudget previous, long deadline, int maxTokens) {
+    this.previous = previous;
+    this.deadline = deadline;
+    this.maxTokens = maxTokens;
+  }
+
+  /**
+   * Installs a new budget for the current thread.
+   *
+   * @param timeoutMillis The time in milliseconds after which the work is canceled, a value <= 0 disables the deadline
+   * @param maxTokens     The maximum number of tokens the parser may consume, a value <= 0 disables the token limit
+   * @return The new budget, it has to be closed by the thread which started it
+   */
+  @NotNull
+  public static CancellationBudget start(long timeoutMillis, int maxTokens) {
+    long deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+
+    CancellationBudget budget = new CancellationBudget(current.get(), deadline, maxTokens > 0 ? maxTokens : Integer.MAX_VALUE);
+    current.set(budget);
+    return budget;
+  }
+
+  /**
+   * @return The budget of the current thread, if there is one
+   */
+  @Nullable
+  public static CancellationBudget getCurrent() {
+    return current.get();
+  }
+
+  /**
+   * Checks the budget of the current thread.
+   *
+   * @throws BudgetExceededException If the budget is exhausted
+   */
+  public static void checkCurrent() throws BudgetExceededException {
+    CancellationBudget budget = current.get();
+    if (budget != null) {
+      budget.check();
+    }
+  }
+
+  /**
+   * Checks the budget of the current thread and records the offset which was reached.
+   *
+   * @param offset The current offset in the text
+   * @throws BudgetExceededException If the budget is exhausted
+   */
+  public static void checkCurrent(int offset) throws BudgetExceededException {
+    CancellationBudget budget = current.get();
+    if (budget != null) {
+      budget.offset = offset;
+      budget.check();
+    }
+  }
+
+  /**
+   * Called by the parser for each consumed token.
+   *
+   * @param offset The start offset of the consumed token
+   * @throws BudgetExceededException If the budget is exhausted
+   */
+  public static void tokenConsumed(int offset) throws BudgetExceededException {
+    CancellationBudget budget = current.get();
+    if (budget != null) {
+      budget.offset = offset;
+      if (++budget.tokens > budget.maxTokens) {
+        throw new BudgetExceededException(Reason.TOKENS, offset);
+      }
+      budget.check();
+    }
+  }
+
+  /**
+   * Cancels the work which uses this budget. This may be called by any thread.
+   */
+  public void cancel() {
+    canceled = true;
+  }
+
+  /**
+   * @return The number of tokens which were consumed so far
+   */
+  public int getConsumedTokens() {
+    return tokens;
+  }
+
+  /**
+   * @return The last offset which was reported to this budget
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  private void check() throws BudgetExceededException {
+    if (canceled) {
+      throw new BudgetExceededException(Reason.CANCELED, offset);
+    }
+
+    if (deadline != Long.MAX_VALUE && ++checks % CLOCK_INTERVAL == 0 && System.nanoTime() - deadline > 0) {
+      throw new BudgetExceededException(Reason.DEADLINE, offset);
+    }
+  }
+
+  /**
+   * Removes this budget from the current thread and restores the previous budget.
+   */
+  @Override
+  public void close() {
+    if (current.get() == this) {
+      if (previous != null) {
+        current.set(previous);
+      } else {
+        current.remove();
+      }
+    }
+  }
+
+  /**
+   * Thrown when the budget of the current thread is exhausted.
+   */
+  public static final class BudgetExceededException extends ProcessCanceledException {
+    private static final long serialVersionUID = 1L;
+
+    private final Reason reason;
+    private final int offset;
+
+    public BudgetExceededException(@NotNull Reason reason, int offset) {
+      this.reason = reason;
+      this.offset = offset;
+    }
+
+    @NotNull
+    public Reason getReason() {
+      return reason;
+    }
+
+    /**
+     * @return The offset in the text which was reached when the work was aborted
+     */
+    public int getOffset() {
+      return offset;
+    }
+
+    @Override
+    public String getMessage() {
+      return "Budget exceeded (" + reason + ") at offset " + offset;
+    }
+  }
+}
@@ -47,5 +47,6 @@ public abstract class ProgressIndicatorProvider {
 
   public static void checkCanceled() throws ProcessCanceledException {
     //ProgressManager.checkCanceled();
+    CancellationBudget.checkCurrent();
   }
 }
@@ -16,8 +16,8 @@
 package com.intellij.openapi.vfs.newvfs.impl;
 
 import com.intellij.openapi.vfs.newvfs.persistent.FSRecords;
-import com.intellij.util.IntSLRUCache;
 import com.intellij.util.containers.IntObjectLinkedMap;
+import com.intellij.util.containers.TinyLfuCache;
 import com.intellij.util.io.PersistentStringEnumerator;
 import com.intellij.util.text.ByteArrayCharSequence;
 import org.jetbrains.annotations.NotNull;
@@ -29,23 +29,16 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class FileNameCache {
   private static final PersistentStringEnumerator ourNames = FSRecords.getNames();
-  @SuppressWarnings("unchecked") private static final IntSLRUCache<IntObjectLinkedMap.MapEntry<CharSequence>>[] ourNameCache = new IntSLRUCache[16];
-  static {
-    final int protectedSize = 40000 / ourNameCache.length;
-    final int probationalSize = 20000 / ourNameCache.length;
-    for(int i = 0; i < ourNameCache.length; ++i) {
-      ourNameCache[i] = new IntSLRUCache<>(protectedSize, probationalSize);
-    }
-  }
+  private static final TinyLfuCache<Integer, IntObjectLinkedMap.MapEntry<CharSequence>> ourNameCache = new TinyLfuCache<>(60000);
 
   public static int storeName(@NotNull String name) {
     final int idx = FSRecords.getNameId(name);
-    cacheData(name, idx, calcStripeIdFromNameId(idx));
+    cacheData(name, idx);
     return idx;
   }
 
   @NotNull
-  private static IntObjectLinkedMap.MapEntry<CharSequence> cacheData(String name, int id, int stripe) {
+  private static IntObjectLinkedMap.MapEntry<CharSequence> cacheData(String name, int id) {
     if (name == null) {
       ourNames.markCorrupted();
       throw new RuntimeException("VFS name enumerator corrupted");
@@ -53,23 +46,8 @@ public class FileNameCache {
 
     CharSequence rawName = ByteArrayCharSequence.convertToBytesIfAsciiString(name);
     IntObjectLinkedMap.MapEntry<CharSequence> entry = new IntObjectLinkedMap.MapEntry<>(id, rawName);
-    IntSLRUCache<IntObjectLinkedMap.MapEntry<CharSequence>> cache = ourNameCache[stripe];
-    //noinspection SynchronizationOnLocalVariableOrMethodParameter
-    synchronized (cache) {
-      return cache.cacheEntry(entry);
-    }
-  }
-
-  private static int calcStripeIdFromNameId(int id) {
-    int h = id;
-    h -= h<<6;
-    h ^= h>>17;
-    h -= h<<9;
-    h ^= h<<4;
-    h -= h<<3;
-    h ^= h<<10;
-    h ^= h>>15;
-    return h % ourNameCache.length;
+    IntObjectLinkedMap.MapEntry<CharSequence> cached = ourNameCache.putIfAbsent(id, entry);
+    return cached != null ? cached : entry;
   }
 
   private static final boolean ourTrackStats = false;
@@ -104,14 +82,9 @@ public class FileNameCache {
       ourMisses.incrementAndGet();
     }
 
-    final int stripe = calcStripeIdFromNameId(nameId);
-    IntSLRUCache<IntObjectLinkedMap.MapEntry<CharSequence>> cache = ourNameCache[stripe];
-    //noinspection SynchronizationOnLocalVariableOrMethodParameter
-    synchronized (cache) {
-      entry = cache.getCachedEntry(nameId);
-    }
+    entry = ourNameCache.get(nameId);
     if (entry == null) {
-      entry = cacheData(FSRecords.getNameByNameId(nameId), nameId, stripe);
+      entry = cacheData(FSRecords.getNameByNameId(nameId), nameId);
     }
     ourArrayCache[l1] = entry;
     return entry.value;
@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) Joachim Ansorg, mail@ansorg-it.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.containers;
+
+import com.intellij.openapi.util.Condition;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache with a frequency based admission policy, it's an alternative to {@link SLRUMap} which isn't flushed by scans.
+ * <br>
+ * The cache is split into shards which are locked independently. Each shard stores new entries in a small LRU window.
+ * An entry which drops out of the window is only admitted into the main segmented LRU area if it was requested more often than
+ * the entry it would evict from there. The request frequencies of the recent past are estimated by a count-min sketch
+ * with 4-bit counters, which are halved periodically. Keys which are only seen once, e.g. by a scan over all files, therefore
+ * can't displace the keys which are requested repeatedly.
+ * <br>
+ * Only {@link #get(Object)} counts as a request of a key, a value is usually put after a cache miss.
+ * {@link #onDropFromCache(Object, Object)} is called for every value which leaves the cache, it's called while the lock of the shard is held.
+ *
+ * @author jansorg
+ */
+public class TinyLfuCache<K, V> {
+  private static final int DEFAULT_CONCURRENCY = 16;
+  //the smallest capacity of a shard, smaller shards don't estimate frequencies well
+  private static final int MIN_SHARD_CAPACITY = 64;
+
+  private final Shard<K, V>[] myShards;
+  private final int myShardShift;
+
+  public TinyLfuCache(int capacity) {
+    this(capacity, DEFAULT_CONCURRENCY);
+  }
+
+  /**
+   * @param capacity    The maximum number of entries
+   * @param concurrency The maximum number of shards, the actual number is a power of two
+   */
+  public TinyLfuCache(int capacity, int concurrency) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+
+    int shardCount = 1;
+    while (shardCount < concurrency && capacity / (shardCount * 2) >= MIN_SHARD_CAPACITY) {
+      shardCount <<= 1;
+    }
+
+    myShards = newShards(shardCount);
+    for (int i = 0; i < shardCount; i++) {
+      int shardCapacity = capacity / shardCount + (i < capacity % shardCount ? 1 : 0);
+      myShards[i] = new Shard<K, V>(this, shardCapacity);
+    }
+    myShardShift = 32 - Integer.numberOfTrailingZeros(shardCount);
+  }
+
+  @SuppressWarnings({"rawtypes", "unchecked"}) // generic arrays can't be created, the array only ever holds shards of K and V
+  private static <K, V> Shard<K, V>[] newShards(int count) {
+    return new Shard[count];
+  }
+
+  @Nullable
+  public V get(@NotNull K key) {
+    int hash = spread(key.hashCode());
+    Shard<K, V> shard = shardFor(hash);
+    synchronized (shard) {
+      return shard.get(key, hash);
+    }
+  }
+
+  /**
+   * Stores the value. A value which is replaced by this one is dropped from the cache.
+   */
+  public void put(@NotNull K key, @NotNull V value) {
+    int hash = spread(key.hashCode());
+    Shard<K, V> shard = shardFor(hash);
+    synchronized (shard) {
+      shard.put(key, hash, value, true);
+    }
+  }
+
+  /**
+   * Stores the value if the key isn't cached yet.
+   *
+   * @return The cached value, or {@code null} if the value was stored
+   */
+  @Nullable
+  public V putIfAbsent(@NotNull K key, @NotNull V value) {
+    int hash = spread(key.hashCode());
+    Shard<K, V> shard = shardFor(hash);
+    synchronized (shard) {
+      return shard.put(key, hash, value, false);
+    }
+  }
+
+  public boolean remove(@NotNull K key) {
+    int hash = spread(key.hashCode());
+    Shard<K, V> shard = shardFor(hash);
+    synchronized (shard) {
+      return shard.remove(key);
+    }
+  }
+
+  /**
+   * Removes all values which match the condition.
+   *
+   * @return {@code true} if at least one value was removed
+   */
+  public boolean removeIf(@NotNull Condition<? super V> condition) {
+    boolean removed = false;
+    for (Shard<K, V> shard : myShards) {
+      synchronized (shard) {
+        removed |= shard.removeIf(condition);
+      }
+    }
+    return removed;
+  }
+
+  public void clear() {
+    for (Shard<K, V> shard : myShards) {
+      synchronized (shard) {
+        shard.clear();
+      }
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Shard<K, V> shard : myShards) {
+      synchronized (shard) {
+        size += shard.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return The number of calls of {@link #get(Object)} which found a value
+   */
+  public long getHits() {
+    long hits = 0;
+    for (Shard<K, V> shard : myShards) {
+      synchronized (shard) {
+        hits += shard.hits;
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * @return The number of calls of {@link #get(Object)} which didn't find a value
+   */
+  public long getMisses() {
+    long misses = 0;
+    for (Shard<K, V> shard : myShards) {
+      synchronized (shard) {
+        misses += shard.misses;
+      }
+    }
+    return misses;
+  }
+
+  /**
+   * @return The number of values which were dropped to make room for other values, replaced and removed values are not counted
+   */
+  public long getEvictions() {
+    long evictions = 0;
+    for (Shard<K, V> shard : myShards) {
+      synchronized (shard) {
+        evictions += shard.evictions;
+      }
+    }
+    return evictions;
+  }
+
+  protected void onDropFromCache(K key, V value) {
+  }
+
+  @SuppressWarnings("unchecked")
+  protected K getStableKey(K key) {
+    if (key instanceof ShareableKey) {
+      return (K)((ShareableKey)key).getStableCopy();
+    }
+
+    return key;
+  }
+
+  private Shard<K, V> shardFor(int hash) {
+    return myShardShift == 32 ? myShards[0] : myShards[hash >>> myShardShift];
+  }
+
+  private static int spread(int hash) {
+    hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+    hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+    return (hash >>> 16) ^ hash;
+  }
+
+  private static final class Shard<K, V> {
+    private final TinyLfuCache<K, V> myCache;
+    private final FrequencySketch mySketch;
+
+    private final int myWindowCapacity;
+    private final int myMainCapacity;
+    private final int myProtectedCapacity;
+
+    private final LinkedHashMap<K, V> myWindow = new LinkedHashMap<K, V>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> myProbation = new LinkedHashMap<K, V>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> myProtected = new LinkedHashMap<K, V>(16, 0.75f, true);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private Shard(TinyLfuCache<K, V> cache, int capacity) {
+      myCache = cache;
+      mySketch = new FrequencySketch(capacity);
+
+      myWindowCapacity = Math.max(1, capacity / 100);
+      myMainCapacity = Math.max(0, capacity - myWindowCapacity);
+      myProtectedCapacity = myMainCapacity * 4 / 5;
+    }
+
+    private V get(K key, int hash) {
+      mySketch.increment(hash);
+
+      V value = myWindow.get(key);
+      if (value == null) {
+        value = myProtected.get(key);
+      }
+      if (value == null) {
+        value = myProbation.remove(key);
+        if (value != null) {
+          toProtected(getStableKey(key), value);
+        }
+      }
+
+      if (value != null) {
+        hits++;
+      }
+      else {
+        misses++;
+      }
+      return value;
+    }
+
+    private V put(K key, int hash, V value, boolean replace) {
+      LinkedHashMap<K, V> segment = myWindow.containsKey(key) ? myWindow
+                                    : myProtected.containsKey(key) ? myProtected
+                                    : myProbation.containsKey(key) ? myProbation
+                                    : null;
+      if (segment != null) {
+        if (!replace) {
+          return segment.get(key);
+        }
+
+        V old = segment.put(key, value);
+        if (old != value) {
+          myCache.onDropFromCache(key, old);
+        }
+        return null;
+      }
+
+      myWindow.put(getStableKey(key), value);
+      if (myWindow.size() > myWindowCapacity) {
+        Map.Entry<K, V> candidate = removeEldest(myWindow);
+        admit(candidate.getKey(), candidate.getValue());
+      }
+      return null;
+    }
+
+    private void admit(K key, V value) {
+      if (myProbation.size() + myProtected.size() < myMainCapacity) {
+        myProbation.put(key, value);
+        return;
+      }
+
+      LinkedHashMap<K, V> victims = myProbation.isEmpty() ? myProtected : myProbation;
+      if (victims.isEmpty()) {
+        evict(key, value);
+        return;
+      }
+
+      K victimKey = victims.keySet().iterator().next();
+      if (mySketch.frequency(spread(key.hashCode())) > mySketch.frequency(spread(victimKey.hashCode()))) {
+        evict(victimKey, victims.remove(victimKey));
+        myProbation.put(key, value);
+      }
+      else {
+        evict(key, value);
+      }
+    }
+
+    private void toProtected(K key, V value) {
+      myProtected.put(key, value);
+      if (myProtected.size() > myProtectedCapacity) {
+        Map.Entry<K, V> demoted = removeEldest(myProtected);
+        myProbation.put(demoted.getKey(), demoted.getValue());
+      }
+    }
+
+    private void evict(K key, V value) {
+      evictions++;
+      myCache.onDropFromCache(key, value);
+    }
+
+    private boolean remove(K key) {
+      V value = myWindow.remove(key);
+      if (value == null) {
+        value = myProtected.remove(key);
+      }
+      if (value == null) {
+        value = myProbation.remove(key);
+      }
+
+      if (value != null) {
+        myCache.onDropFromCache(key, value);
+        return true;
+      }
+      return false;
+    }
+
+    private boolean removeIf(Condition<? super V> condition) {
+      List<Map.Entry<K, V>> removed = new ArrayList<Map.Entry<K, V>>();
+      removeIf(myWindow, condition, removed);
+      removeIf(myProtected, condition, removed);
+      removeIf(myProbation, condition, removed);
+
+      for (Map.Entry<K, V> entry : removed) {
+        myCache.onDropFromCache(entry.getKey(), entry.getValue());
+      }
+      return !removed.isEmpty();
+    }
+
+    private static <K, V> void removeIf(LinkedHashMap<K, V> segment, Condition<? super V> condition, List<Map.Entry<K, V>> removed) {
+      for (Iterator<Map.Entry<K, V>> iterator = segment.entrySet().iterator(); iterator.hasNext(); ) {
+        Map.Entry<K, V> entry = iterator.next();
+        if (condition.value(entry.getValue())) {
+          removed.add(new AbstractMap.SimpleImmutableEntry<K, V>(entry));
+          iterator.remove();
+        }
+      }
+    }
+
+    private void clear() {
+      List<Map.Entry<K, V>> removed = new ArrayList<Map.Entry<K, V>>(size());
+      removed.addAll(myWindow.entrySet());
+      removed.addAll(myProtected.entrySet());
+      removed.addAll(myProbation.entrySet());
+
+      myWindow.clear();
+      myProtected.clear();
+      myProbation.clear();
+      for (Map.Entry<K, V> entry : removed) {
+        myCache.onDropFromCache(entry.getKey(), entry.getValue());
+      }
+    }
+
+    private int size() {
+      return myWindow.size() + myProtected.size() + myProbation.size();
+    }
+
+    private K getStableKey(K key) {
+      return myCache.getStableKey(key);
+    }
+
+    private static <K, V> Map.Entry<K, V> removeEldest(LinkedHashMap<K, V> segment) {
+      Iterator<Map.Entry<K, V>> iterator = segment.entrySet().iterator();
+      Map.Entry<K, V> eldest = new AbstractMap.SimpleImmutableEntry<K, V>(iterator.next());
+      iterator.remove();
+      return eldest;
+    }
+  }
+
+  /**
+   * A count-min sketch with four rows of 4-bit counters, which estimates how often a hash was seen recently.
+   * The sixteen counters of a long belong to four slots of four rows each, a hash uses a single slot of every long it hits.
+   * All counters are halved after a number of increments proportional to the capacity, this ages old frequencies.
+   */
+  static final class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final long[] myTable;
+    private final int myTableMask;
+    private final int mySampleSize;
+    private int mySize;
+
+    FrequencySketch(int capacity) {
+      int length = Integer.highestOneBit(Math.max(16, capacity) - 1) << 1;
+      myTable = new long[length];
+      myTableMask = length - 1;
+      mySampleSize = 10 * Math.max(16, capacity);
+    }
+
+    int frequency(int hash) {
+      int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+        int index = indexOf(hash, i);
+        int count = (int)((myTable[index] >>> ((start + i) << 2)) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
+    }
+
+    void increment(int hash) {
+      int start = (hash & 3) << 2;
+
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        added |= incrementAt(indexOf(hash, i), start + i);
+      }
+
+      if (added && ++mySize == mySampleSize) {
+        reset();
+      }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+      int offset = counter << 2;
+      long mask = 0xfL << offset;
+      if ((myTable[index] & mask) != mask) {
+        myTable[index] += 1L << offset;
+        return true;
+      }
+      return false;
+    }
+
+    private int indexOf(int hash, int row) {
+      long h = (hash + SEEDS[row]) * SEEDS[row];
+      h += h >>> 32;
+      return (int)h & myTableMask;
+    }
+
+    private void reset() {
+      int odd = 0;
+      for (int i = 0; i < myTable.length; i++) {
+        odd += Long.bitCount(myTable[i] & ONE_MASK);
+        myTable[i] = (myTable[i] >>> 1) & RESET_MASK;
+      }
+      mySize = (mySize >>> 1) - (odd >>> 2);
+    }
+  }
+}
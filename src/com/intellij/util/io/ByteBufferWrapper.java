@@ -66,6 +66,10 @@ public abstract class ByteBufferWrapper {
     return new ReadOnlyMappedBufferWrapper(file, offset);
   }
 
+  public static ByteBufferWrapper readOnly(final File file, final long offset, final long length) {
+    return new ReadOnlyMappedBufferWrapper(file, offset, length);
+  }
+
   @Override
   public String toString() {
     return "Buffer for " + myFile + ", offset:" + myPosition + ", size: " + myLength;
@@ -19,19 +19,24 @@ import com.intellij.openapi.util.LowMemoryWatcher;
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.CompressionUtil;
+import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.SLRUMap;
 import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.concurrent.*;
 
 /**
  * Random read append only file, that internally consists of sequence of (compressed) chunks with the same length (buffer size) +
  * tail that is smaller that buffer size. Main file contains compressed data chunks, there are also chunk length table (.s) and incomplete
  * chunk file (.at).
  * (Decompressed) chunks are cached.
+ * Complete chunks are immutable, they are read without holding the lock of the file. Appenders may hand the compression of complete
+ * chunks to a shared pool, the compressed chunks are saved in the order of the appends and are read from memory until then.
  */
 public class CompressedAppendableFile {
   private final File myBaseFile;
@@ -45,6 +50,18 @@ public class CompressedAppendableFile {
   private int myChunkTableLength;
   private static final int FACTOR = 32;
   private long [] myChunkOffsetTable; // one long offset per FACTOR compressed chunks
+  private volatile ChunkTable myChunkTable; // what readers see of the saved chunks
+  private volatile ReadSnapshot myReadSnapshot; // what readers see of the appended data
+  private int myCompleteChunks; // saved chunks and chunks which are still compressed
+
+  private static final boolean PARALLEL_COMPRESSION = SystemProperties.getBooleanProperty("idea.compressed.file.parallel.compression", false);
+  private static final int MAX_CHUNKS_IN_COMPRESSION = 2 * Runtime.getRuntime().availableProcessors();
+  private final boolean myParallelCompression;
+  // complete chunks in compression, in the order of the appends
+  private final ArrayDeque<Future<BufferExposingByteArrayOutputStream>> myChunksInCompression =
+    new ArrayDeque<Future<BufferExposingByteArrayOutputStream>>();
+  // complete chunks which are not saved yet
+  private final ConcurrentMap<Integer, byte[]> myUnsavedChunks = new ConcurrentHashMap<Integer, byte[]>();
   private static final boolean doDebug = SystemProperties.getBooleanProperty("idea.compressed.file.self.check", false);
   private TLongArrayList myCompressedChunksFileOffsets = doDebug ? new TLongArrayList() : null;
   private static final int MAX_PAGE_LENGTH = 0xFFFF;
@@ -59,12 +76,17 @@ public class CompressedAppendableFile {
   private final LowMemoryWatcher myLowMemoryWatcher;
 
   public CompressedAppendableFile(File file) {
-    this(file, PersistentBTreeEnumerator.PAGE_SIZE);
+    this(file, PARALLEL_COMPRESSION);
   }
 
-  private CompressedAppendableFile(File file, int bufferSize) {
+  public CompressedAppendableFile(File file, boolean parallelCompression) {
+    this(file, PersistentBTreeEnumerator.PAGE_SIZE, parallelCompression);
+  }
+
+  private CompressedAppendableFile(File file, int bufferSize, boolean parallelCompression) {
     myBaseFile = file;
     myAppendBufferLength = bufferSize;
+    myParallelCompression = parallelCompression;
     assert bufferSize <= MAX_PAGE_LENGTH; // length of compressed buffer size should be in short range
     myLowMemoryWatcher = LowMemoryWatcher.register(new Runnable() {
       @Override
@@ -74,15 +96,17 @@ public class CompressedAppendableFile {
           myChunkLengthTable = null;
           myChunkTableLength = 0;
           myChunkOffsetTable = null;
+          myChunkTable = null;
           myNextChunkBuffer = null;
           myBufferPosition = 0;
+          myReadSnapshot = null;
           if (doDebug) myCompressedChunksFileOffsets.clear();
         }
       }
     });
   }
 
-  public synchronized <Data> Data read(final long addr, KeyDescriptor<Data> descriptor) throws IOException {
+  public <Data> Data read(final long addr, KeyDescriptor<Data> descriptor) throws IOException {
     DataInputStream stream = getStream(addr);
     try {
       return descriptor.read(stream);
@@ -92,14 +116,58 @@ public class CompressedAppendableFile {
   }
 
   @NotNull
-  public synchronized DataInputStream getStream(final long addr) throws IOException {
-    initChunkLengthTable();
-    loadAppendBuffer();
+  public DataInputStream getStream(final long addr) throws IOException {
+    ReadSnapshot snapshot = myReadSnapshot;
+    if (snapshot == null) snapshot = initReadSnapshot();
     return new DataInputStream(
-      new SegmentedChunkInputStream(addr, myChunkTableLength, myNextChunkBuffer, myBufferPosition)
+      new SegmentedChunkInputStream(addr, snapshot.completeChunks, snapshot.appendBuffer, snapshot.appendBufferPosition)
     );
   }
 
+  @NotNull
+  private synchronized ReadSnapshot initReadSnapshot() throws IOException {
+    initChunkLengthTable();
+    loadAppendBuffer();
+    if (myReadSnapshot == null) publishReadSnapshot();
+    return myReadSnapshot;
+  }
+
+  // the append buffer is replaced when it's complete or grown, the bytes before the position of a snapshot never change
+  private void publishReadSnapshot() {
+    myReadSnapshot = new ReadSnapshot(myCompleteChunks, myNextChunkBuffer, myBufferPosition);
+  }
+
+  private static class ReadSnapshot {
+    final int completeChunks;
+    final byte[] appendBuffer;
+    final int appendBufferPosition;
+
+    ReadSnapshot(int completeChunks, byte[] appendBuffer, int appendBufferPosition) {
+      this.completeChunks = completeChunks;
+      this.appendBuffer = appendBuffer;
+      this.appendBufferPosition = appendBufferPosition;
+    }
+  }
+
+  // the arrays are shared with the writer, which only writes the entries after count or replaces the arrays
+  private static class ChunkTable {
+    final short[] chunkLengths;
+    final int count;
+    final long[] chunkOffsets;
+    final long fileLength;
+
+    ChunkTable(short[] chunkLengths, int count, long[] chunkOffsets, long fileLength) {
+      this.chunkLengths = chunkLengths;
+      this.count = count;
+      this.chunkOffsets = chunkOffsets;
+      this.fileLength = fileLength;
+    }
+  }
+
+  private void publishChunkTable() {
+    myChunkTable = new ChunkTable(myChunkLengthTable, myChunkTableLength, myChunkOffsetTable, myFileLength);
+  }
+
   protected File getChunkLengthFile() {
     return new File(myBaseFile.getPath() + INCOMPLETE_CHUNK_LENGTH_FILE_EXTENSION);
   }
@@ -146,14 +214,14 @@ public class CompressedAppendableFile {
           myChunkOffsetTable = chunkOffsetTable;
           if (doDebug) { // check all offsets
             for(int i = 0; i < chunkLengthTableLength; ++i) {
-              calcOffsetOfPage(i);
+              calcOffsetOfPage(new ChunkTable(myChunkLengthTable, myChunkTableLength, myChunkOffsetTable, 0), i);
             }
           }
         } else {
           myChunkOffsetTable = ArrayUtil.EMPTY_LONG_ARRAY;
         }
 
-        myFileLength = calcOffsetOfPage(myChunkTableLength - 1);
+        myFileLength = calcOffsetOfPage(new ChunkTable(myChunkLengthTable, myChunkTableLength, myChunkOffsetTable, 0), myChunkTableLength - 1);
       } finally {
         try {
           chunkLengthStream.close();
@@ -167,6 +235,9 @@ public class CompressedAppendableFile {
       myFileLength = 0;
     }
 
+    myCompleteChunks = myChunkTableLength; // all chunks were saved before the table was dropped
+    publishChunkTable();
+
     if (myUncompressedFileLength == -1) {
       long tempFileLength = getIncompleteChunkFile().length();
       myUncompressedFileLength = ((long)myChunkTableLength * myAppendBufferLength) + tempFileLength;
@@ -180,12 +251,22 @@ public class CompressedAppendableFile {
 
   private static final FileChunkReadCache ourDecompressedCache = new FileChunkReadCache();
 
-  private synchronized byte[] loadChunk(int chunkNumber) throws IOException {
+  private synchronized ChunkTable initChunkTable() throws IOException {
+    initChunkLengthTable();
+    return myChunkTable;
+  }
+
+  // called concurrently, without the lock of the file
+  private byte[] loadChunk(int chunkNumber) throws IOException {
     try {
-      if (myChunkLengthTable == null) initChunkLengthTable();
-      assert chunkNumber < myChunkTableLength;
+      final byte[] unsavedChunk = myUnsavedChunks.get(chunkNumber);
+      if (unsavedChunk != null) return unsavedChunk;
 
-      final DataInputStream keysStream = getChunkStream(getChunksFile(), chunkNumber);
+      ChunkTable table = myChunkTable;
+      if (table == null) table = initChunkTable();
+      assert chunkNumber < table.count;
+
+      final DataInputStream keysStream = getChunkStream(table, getChunksFile(), chunkNumber);
       try {
         if (keysStream.available() > 0) {
           byte[] decompressedBytes = decompress(keysStream);
@@ -200,7 +281,7 @@ public class CompressedAppendableFile {
         } catch (IOException ignore) {}
       }
 
-      assert false:"data corruption detected:"+chunkNumber + "," + myChunkTableLength;
+      assert false:"data corruption detected:"+chunkNumber + "," + table.count;
       return ArrayUtil.EMPTY_BYTE_ARRAY;
     }
     catch (RuntimeException e) { // CorruptedException, ArrayIndexOutofBounds, etc
@@ -211,14 +292,14 @@ public class CompressedAppendableFile {
   }
 
   @NotNull
-  private DataInputStream getChunkStream(final File appendFile, int pageNumber) throws IOException {
-    assert myFileLength != 0;
+  private DataInputStream getChunkStream(final ChunkTable table, final File appendFile, int pageNumber) throws IOException {
+    assert table.fileLength != 0;
     int limit;
     long pageStartOffset;
-    final long pageEndOffset = pageNumber < myChunkTableLength ? calcOffsetOfPage(pageNumber) : myFileLength;
+    final long pageEndOffset = pageNumber < table.count ? calcOffsetOfPage(table, pageNumber) : table.fileLength;
 
     if (pageNumber > 0) {
-      pageStartOffset = calcOffsetOfPage(pageNumber - 1);
+      pageStartOffset = calcOffsetOfPage(table, pageNumber - 1);
       limit = (int)(pageEndOffset - pageStartOffset);
     } else {
       pageStartOffset = 0;
@@ -228,12 +309,12 @@ public class CompressedAppendableFile {
     return new DataInputStream(getChunkInputStream(appendFile, pageStartOffset, limit));
   }
 
-  private long calcOffsetOfPage(int pageNumber) {
+  private long calcOffsetOfPage(ChunkTable table, int pageNumber) {
     final int calculatedOffset = ((pageNumber + 1) / FACTOR);
-    long offset = calculatedOffset > 0 ? myChunkOffsetTable[calculatedOffset - 1]:0;
+    long offset = calculatedOffset > 0 ? table.chunkOffsets[calculatedOffset - 1]:0;
     final int baseOffset = calculatedOffset * FACTOR;
     for(int index = 0, len = (pageNumber + 1) % FACTOR; index < len; ++index) {
-      offset += (myChunkLengthTable[baseOffset + index] & MAX_PAGE_LENGTH);
+      offset += (table.chunkLengths[baseOffset + index] & MAX_PAGE_LENGTH);
     }
     if (doDebug) {
       assert myCompressedChunksFileOffsets.get(pageNumber) == offset;
@@ -241,6 +322,7 @@ public class CompressedAppendableFile {
     return offset;
   }
 
+  // called concurrently
   @NotNull
   protected InputStream getChunkInputStream(File appendFile, long offset, int pageSize) throws IOException {
     FileInputStream in = new FileInputStream(appendFile);
@@ -267,6 +349,7 @@ public class CompressedAppendableFile {
   public synchronized void append(byte[] buffer, int size) throws IOException {
     if (size == 0) return;
 
+    if (myChunkLengthTable == null) initChunkLengthTable();
     if (myNextChunkBuffer == null) loadAppendBuffer();
     int newBufferSize = calcBufferSize(myBufferPosition + size);
     if (newBufferSize != myNextChunkBuffer.length) {
@@ -287,6 +370,7 @@ public class CompressedAppendableFile {
 
     myUncompressedFileLength += size;
     myDirty = true;
+    publishReadSnapshot();
   }
 
   private synchronized void loadAppendBuffer() throws IOException {
@@ -324,36 +408,87 @@ public class CompressedAppendableFile {
 
   private void saveNextChunkIfNeeded() throws IOException {
     if (myBufferPosition == myNextChunkBuffer.length) {
-      BufferExposingByteArrayOutputStream compressedOut = new BufferExposingByteArrayOutputStream();
-      DataOutputStream compressedDataOut = new DataOutputStream(compressedOut);
-      compress(compressedDataOut, myNextChunkBuffer);
-      compressedDataOut.close();
-
-      assert compressedDataOut.size() <= MAX_PAGE_LENGTH; // we need to be in short range for chunk length table
-      saveChunk(compressedOut, myFileLength);
-
+      // the complete chunk isn't modified anymore, readers may still use it
+      final byte[] chunk = myNextChunkBuffer;
+      final int chunkNumber = myCompleteChunks++;
+      myNextChunkBuffer = new byte[myAppendBufferLength];
       myBufferPosition = 0;
-      initChunkLengthTable();
-
-      myFileLength += compressedOut.size();
-      if (doDebug) myCompressedChunksFileOffsets.add(myFileLength);
+      ourDecompressedCache.put(this, chunkNumber, chunk);
 
-      if (myChunkLengthTable.length == myChunkTableLength) {
-        myChunkLengthTable = reallocShortTable(myChunkLengthTable);
+      if (myParallelCompression) {
+        myUnsavedChunks.put(chunkNumber, chunk);
+        myChunksInCompression.add(CompressionPool.EXECUTOR.submit(new Callable<BufferExposingByteArrayOutputStream>() {
+          @Override
+          public BufferExposingByteArrayOutputStream call() throws IOException {
+            return compressChunk(chunk);
+          }
+        }));
+        saveCompressedChunks(MAX_CHUNKS_IN_COMPRESSION);
       }
+      else {
+        saveCompressedChunk(compressChunk(chunk));
+      }
+    }
+  }
+
+  @NotNull
+  private BufferExposingByteArrayOutputStream compressChunk(@NotNull byte[] chunk) throws IOException {
+    BufferExposingByteArrayOutputStream compressedOut = new BufferExposingByteArrayOutputStream();
+    DataOutputStream compressedDataOut = new DataOutputStream(compressedOut);
+    compress(compressedDataOut, chunk);
+    compressedDataOut.close();
+    return compressedOut;
+  }
 
-      myChunkLengthTable[myChunkTableLength++] = (short)compressedOut.size();
-      if (myChunkTableLength / FACTOR > myChunkOffsetTable.length) {
-        long[] newChunkOffsetTable = new long[myChunkOffsetTable.length + 1];
-        System.arraycopy(myChunkOffsetTable, 0, newChunkOffsetTable, 0, myChunkOffsetTable.length);
-        newChunkOffsetTable[myChunkOffsetTable.length] = myFileLength;
-        myChunkOffsetTable = newChunkOffsetTable;
+  // saves the compressed chunks in the order of the appends, waits until at most maxInCompression chunks are left.
+  // a chunk whose compression failed stays in the queue, the following chunks must not be saved in its place
+  private void saveCompressedChunks(int maxInCompression) throws IOException {
+    while (!myChunksInCompression.isEmpty() &&
+           (myChunksInCompression.size() > maxInCompression || myChunksInCompression.peek().isDone())) {
+      final BufferExposingByteArrayOutputStream compressedOut;
+      try {
+        compressedOut = myChunksInCompression.peek().get();
+      }
+      catch (InterruptedException e) {
+        throw new IOException(e);
       }
+      catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      }
+
+      saveCompressedChunk(compressedOut);
+      myChunksInCompression.poll();
+      myUnsavedChunks.remove(myChunkTableLength - 1); // readers find it in the published table now
+    }
+  }
+
+  private void saveCompressedChunk(@NotNull BufferExposingByteArrayOutputStream compressedOut) throws IOException {
+    assert compressedOut.size() <= MAX_PAGE_LENGTH; // we need to be in short range for chunk length table
+    saveChunk(compressedOut, myFileLength);
+
+    myFileLength += compressedOut.size();
+    if (doDebug) myCompressedChunksFileOffsets.add(myFileLength);
 
-      byte[] bytes = new byte[myAppendBufferLength];
-      System.arraycopy(myNextChunkBuffer, 0, bytes, 0, myAppendBufferLength);
-      ourDecompressedCache.put(this, myChunkTableLength - 1, bytes);
+    if (myChunkLengthTable.length == myChunkTableLength) {
+      myChunkLengthTable = reallocShortTable(myChunkLengthTable);
     }
+
+    myChunkLengthTable[myChunkTableLength++] = (short)compressedOut.size();
+    if (myChunkTableLength / FACTOR > myChunkOffsetTable.length) {
+      long[] newChunkOffsetTable = new long[myChunkOffsetTable.length + 1];
+      System.arraycopy(myChunkOffsetTable, 0, newChunkOffsetTable, 0, myChunkOffsetTable.length);
+      newChunkOffsetTable[myChunkOffsetTable.length] = myFileLength;
+      myChunkOffsetTable = newChunkOffsetTable;
+    }
+
+    publishChunkTable();
+  }
+
+  private static class CompressionPool {
+    static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+      Runtime.getRuntime().availableProcessors(),
+      ConcurrencyUtil.newNamedThreadFactory("CompressedAppendableFile compression", true, Thread.NORM_PRIORITY)
+    );
   }
 
   private static short[] reallocShortTable(short[] table) {
@@ -362,6 +497,7 @@ public class CompressedAppendableFile {
     return newTable;
   }
 
+  // called on the threads of the compression pool in the parallel mode
   protected int compress(DataOutputStream compressedDataOut, byte[] buffer) throws IOException {
     return CompressionUtil.writeCompressedWithoutOriginalBufferLength(compressedDataOut, buffer, myAppendBufferLength);
   }
@@ -430,6 +566,13 @@ public class CompressedAppendableFile {
   }
 
   public synchronized void force() {
+    // the incomplete chunk follows the saved chunks, it's saved after them
+    try {
+      saveCompressedChunks(0);
+    }
+    catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
     saveIncompleteChunk();
   }
 
@@ -456,41 +599,60 @@ public class CompressedAppendableFile {
     return myDirty;
   }
 
-  private static class FileChunkReadCache extends SLRUMap<FileChunkKey<CompressedAppendableFile>, byte[]> {
+  // decompressed chunks of all files, striped to let readers of different chunks proceed in parallel
+  private static class FileChunkReadCache {
+    private static final int SEGMENTS = 8;
+    private final Segment[] mySegments = new Segment[SEGMENTS];
     @SuppressWarnings("unused") private final LowMemoryWatcher myLowMemoryWatcher = LowMemoryWatcher.register(new Runnable() {
       @Override
       public void run() {
-        synchronized (FileChunkReadCache.this) {
-          clear();
+        for (Segment segment : mySegments) {
+          synchronized (segment) {
+            segment.clear();
+          }
         }
       }
     });
-    private final FileChunkKey<CompressedAppendableFile> myKey = new FileChunkKey<CompressedAppendableFile>(null, 0);
 
     public FileChunkReadCache() {
-      super(64, 64);
+      for (int i = 0; i < SEGMENTS; ++i) {
+        mySegments[i] = new Segment();
+      }
     }
 
     @NotNull
     public byte[] get(CompressedAppendableFile file, int page) throws IOException {
+      final Segment segment = segment(file, page);
       byte[] bytes;
-      synchronized (this) {
-        myKey.setup(file, page);
-        bytes = get(myKey);
+      synchronized (segment) {
+        segment.myKey.setup(file, page);
+        bytes = segment.get(segment.myKey);
         if (bytes != null) return bytes;
       }
 
       bytes = file.loadChunk(page);   // out of lock
-      synchronized (this) {
-        put(file, page, bytes);
-      }
+      put(file, page, bytes);
       return bytes;
     }
 
     public void put(CompressedAppendableFile file, long page, byte[] bytes) {
-      synchronized (this) {
-        myKey.setup(file, page);
-        put(myKey, bytes);
+      final Segment segment = segment(file, page);
+      synchronized (segment) {
+        segment.myKey.setup(file, page);
+        segment.put(segment.myKey, bytes);
+      }
+    }
+
+    @NotNull
+    private Segment segment(CompressedAppendableFile file, long page) {
+      return mySegments[(int)((file.hashCode() * 31 + page) & (SEGMENTS - 1))];
+    }
+
+    private static class Segment extends SLRUMap<FileChunkKey<CompressedAppendableFile>, byte[]> {
+      final FileChunkKey<CompressedAppendableFile> myKey = new FileChunkKey<CompressedAppendableFile>(null, 0);
+
+      Segment() {
+        super(64 / SEGMENTS, 64 / SEGMENTS);
       }
     }
   }
@@ -550,7 +712,7 @@ public class CompressedAppendableFile {
       }
 
       if (bytesFromTempAppendBlock == null) {
-        bytesFromTempAppendBlock = new ByteArrayInputStream(myNextChunkBufferSnapshot, myPageOffset, myBufferPositionSnapshot);
+        bytesFromTempAppendBlock = new ByteArrayInputStream(myNextChunkBufferSnapshot, myPageOffset, myBufferPositionSnapshot - myPageOffset);
       }
       return readBytesCount + bytesFromTempAppendBlock.read(b, off + readBytesCount, len - readBytesCount);
     }
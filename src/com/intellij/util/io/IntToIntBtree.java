@@ -17,13 +17,26 @@ package com.intellij.util.io;
 
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.BitUtil;
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntIntHashMap;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
 
 /**
 * Created by IntelliJ IDEA.
@@ -269,6 +282,391 @@ public class IntToIntBtree {
     storage.force();
   }
 
+  public boolean isEmpty() {
+    return count == 0 && !hasZeroKey;
+  }
+
+  // bulkLoad requires an empty tree which consists of its root page only
+  public boolean canBulkLoad() {
+    return isEmpty() && pagesCount == 1;
+  }
+
+  // Mappings for bulkLoad, keys have to be strictly ascending in signed int order
+  public abstract static class SortedMappings {
+    // advances to the next mapping, returns false if there is none
+    public abstract boolean next() throws IOException;
+
+    public abstract int key();
+
+    public abstract int value();
+  }
+
+  // Loads the mappings into an empty tree, keys may be in any order, the last value of a duplicated key wins
+  public void bulkLoad(@NotNull final int[] keys, @NotNull final int[] values) throws IOException {
+    assert keys.length == values.length;
+
+    boolean sorted = true;
+    for(int i = 1; i < keys.length && sorted; ++i) {
+      sorted = keys[i - 1] < keys[i];
+    }
+
+    if (sorted) {
+      bulkLoad(new ArrayMappings(keys, values, keys.length));
+    }
+    else {
+      BulkLoader loader = newBulkLoader(Math.max(1, keys.length));
+      for(int i = 0; i < keys.length; ++i) loader.add(keys[i], values[i]);
+      loader.finish();
+    }
+  }
+
+  // Builds the tree bottom-up from sorted mappings: leaves are fully packed and written sequentially,
+  // then every interior level is written on top of the level below it. The tree has to be empty.
+  public void bulkLoad(@NotNull SortedMappings mappings) throws IOException {
+    if (!canBulkLoad()) throw new IllegalStateException("Bulk load requires an empty tree");
+
+    flushCachedMappings();
+    myCanUseLastKey = false;
+
+    final ByteBuffer page = ByteBuffer.allocate(pageSize);
+    page.order(IOUtil.ourByteBuffersUseNativeByteOrder ? ByteOrder.nativeOrder() : ByteOrder.BIG_ENDIAN);
+
+    TIntArrayList firstKeys = new TIntArrayList();
+    TIntArrayList addresses = new TIntArrayList();
+
+    int address = root.address; // the empty root leaf becomes the first leaf
+    int entries = 0;
+    int previousKey = 0;
+    boolean hasPrevious = false;
+
+    while (mappings.next()) {
+      final int key = mappings.key();
+      final int value = mappings.value();
+
+      if (hasPrevious && key <= previousKey) {
+        throw new IllegalArgumentException("Keys are not ascending: " + key + " after " + previousKey);
+      }
+      hasPrevious = true;
+      previousKey = key;
+
+      if (key == 0) {
+        hasZeroKey = true;
+        zeroKeyValue = value;
+        continue;
+      }
+
+      if (entries == maxLeafNodes) {
+        int next = nextPage();
+        writeBulkPage(page, address, BtreeIndexNodeView.INDEX_LEAF_MASK, entries, next);
+        address = next;
+        entries = 0;
+      }
+
+      if (entries == 0) {
+        firstKeys.add(key);
+        addresses.add(address);
+      }
+
+      int offset = BtreePage.RESERVED_META_PAGE_LEN + entries * BtreeIndexNodeView.INTERIOR_SIZE;
+      page.putInt(offset, value);
+      page.putInt(offset + BtreeIndexNodeView.KEY_OFFSET, key);
+      ++entries;
+      ++count;
+    }
+
+    if (entries > 0) {
+      writeBulkPage(page, address, BtreeIndexNodeView.INDEX_LEAF_MASK, entries, 0);
+      height = 1;
+    }
+
+    while (addresses.size() > 1) {
+      TIntArrayList parentFirstKeys = new TIntArrayList();
+      TIntArrayList parentAddresses = new TIntArrayList();
+      writeBulkInteriorLevel(page, firstKeys, addresses, parentFirstKeys, parentAddresses);
+
+      firstKeys = parentFirstKeys;
+      addresses = parentAddresses;
+      ++height;
+    }
+
+    if (!addresses.isEmpty()) root.setAddress(addresses.get(0));
+  }
+
+  private void writeBulkInteriorLevel(@NotNull ByteBuffer page,
+                                      @NotNull TIntArrayList firstKeys,
+                                      @NotNull TIntArrayList addresses,
+                                      @NotNull TIntArrayList parentFirstKeys,
+                                      @NotNull TIntArrayList parentAddresses) {
+    final int children = addresses.size();
+    final int nodes = (children + maxInteriorNodes - 1) / maxInteriorNodes;
+
+    int address = nextPage();
+    int child = 0;
+    for(int node = 0; node < nodes; ++node) {
+      int childrenInNode = Math.min(maxInteriorNodes, children - child);
+      if (children - child - childrenInNode == 1) --childrenInNode; // the last node must not have a single child
+
+      parentFirstKeys.add(firstKeys.get(child));
+      parentAddresses.add(address);
+
+      // next_node[i] points to all keys less than key[i], key[i] is the first key of the next child
+      for(int i = 0; i < childrenInNode; ++i) {
+        int offset = BtreePage.RESERVED_META_PAGE_LEN + i * BtreeIndexNodeView.INTERIOR_SIZE;
+        page.putInt(offset, -addresses.get(child + i));
+        if (i > 0) page.putInt(offset - BtreeIndexNodeView.INTERIOR_SIZE + BtreeIndexNodeView.KEY_OFFSET, firstKeys.get(child + i));
+      }
+
+      int next = node + 1 < nodes ? nextPage() : 0;
+      writeBulkPage(page, address, 0, childrenInNode - 1, next);
+      address = next;
+      child += childrenInNode;
+    }
+  }
+
+  private void writeBulkPage(@NotNull ByteBuffer page, int address, int flags, int childrenCount, int nextPage) {
+    page.putInt(0, (flags << BtreePage.FLAGS_SHIFT) | (childrenCount << BtreePage.LENGTH_SHIFT));
+    page.putInt(4, nextPage);
+    storage.put(address, page.array(), 0, pageSize);
+    Arrays.fill(page.array(), (byte)0);
+  }
+
+  // Collects mappings in any order for bulkLoad. Up to maxMappingsInMemory mappings are sorted in memory,
+  // more are sorted in runs which are written to temporary files next to the tree and merged when the tree is built.
+  // A run which was added in ascending order isn't sorted again.
+  @NotNull
+  public BulkLoader newBulkLoader(int maxMappingsInMemory) {
+    return new BulkLoader(maxMappingsInMemory);
+  }
+
+  public final class BulkLoader {
+    private int[] myKeys;
+    private int[] myValues;
+    private int[] mySortedKeys;
+    private int[] mySortedValues;
+    private long[] myOrder;
+    private int mySize;
+    private boolean mySorted = true;
+    private final List<File> myRuns = new ArrayList<File>();
+    private final TIntArrayList myRunLengths = new TIntArrayList();
+
+    private BulkLoader(int maxMappingsInMemory) {
+      assert maxMappingsInMemory > 0;
+      myKeys = new int[maxMappingsInMemory];
+      myValues = new int[maxMappingsInMemory];
+    }
+
+    public void add(int key, int value) throws IOException {
+      if (mySize == myKeys.length) spill();
+      if (mySize > 0 && key <= myKeys[mySize - 1]) mySorted = false;
+
+      myKeys[mySize] = key;
+      myValues[mySize] = value;
+      ++mySize;
+    }
+
+    public void finish() throws IOException {
+      RunMerger merger = null;
+      try {
+        if (myRuns.isEmpty()) {
+          sort();
+          bulkLoad(new ArrayMappings(myKeys, myValues, mySize));
+        }
+        else {
+          spill();
+          myKeys = myValues = mySortedKeys = mySortedValues = null;
+          myOrder = null;
+          merger = new RunMerger(myRuns, myRunLengths);
+          bulkLoad(merger);
+        }
+      }
+      finally {
+        // open files can't be deleted on all platforms
+        if (merger != null) merger.close();
+        for(File run : myRuns) FileUtil.delete(run);
+        myRuns.clear();
+      }
+    }
+
+    // sorts by key and then by position, of equal keys only the last one is kept
+    private void sort() {
+      if (mySorted) return;
+
+      if (myOrder == null) {
+        myOrder = new long[myKeys.length];
+        mySortedKeys = new int[myKeys.length];
+        mySortedValues = new int[myKeys.length];
+      }
+
+      for(int i = 0; i < mySize; ++i) myOrder[i] = ((long)myKeys[i] << 32) | i;
+      Arrays.sort(myOrder, 0, mySize);
+
+      int size = 0;
+      for(int i = 0; i < mySize; ++i) {
+        int key = (int)(myOrder[i] >> 32);
+        if (i + 1 < mySize && (int)(myOrder[i + 1] >> 32) == key) continue;
+
+        mySortedKeys[size] = key;
+        mySortedValues[size] = myValues[(int)myOrder[i]];
+        ++size;
+      }
+
+      int[] keys = myKeys;
+      myKeys = mySortedKeys;
+      mySortedKeys = keys;
+      int[] values = myValues;
+      myValues = mySortedValues;
+      mySortedValues = values;
+
+      mySize = size;
+      mySorted = true;
+    }
+
+    private void spill() throws IOException {
+      sort();
+
+      File treeFile = storage.getPagedFileStorage().getFile();
+      File run = FileUtil.createTempFile(treeFile.getParentFile(), treeFile.getName(), ".run", true, true);
+      myRuns.add(run);
+      myRunLengths.add(mySize);
+
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_SIZE));
+      try {
+        for(int i = 0; i < mySize; ++i) {
+          out.writeInt(myKeys[i]);
+          out.writeInt(myValues[i]);
+        }
+      }
+      finally {
+        out.close();
+      }
+
+      mySize = 0;
+    }
+  }
+
+  private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+  private static class ArrayMappings extends SortedMappings {
+    private final int[] myKeys;
+    private final int[] myValues;
+    private final int mySize;
+    private int myIndex = -1;
+
+    ArrayMappings(int[] keys, int[] values, int size) {
+      myKeys = keys;
+      myValues = values;
+      mySize = size;
+    }
+
+    @Override
+    public boolean next() {
+      return ++myIndex < mySize;
+    }
+
+    @Override
+    public int key() {
+      return myKeys[myIndex];
+    }
+
+    @Override
+    public int value() {
+      return myValues[myIndex];
+    }
+  }
+
+  private static class SortedRun {
+    final int index;
+    final DataInputStream in;
+    int remaining;
+    int key;
+    int value;
+
+    SortedRun(int index, File file, int length) throws IOException {
+      this.index = index;
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), RUN_BUFFER_SIZE));
+      remaining = length;
+    }
+
+    boolean advance() throws IOException {
+      if (remaining == 0) {
+        in.close();
+        return false;
+      }
+      --remaining;
+      key = in.readInt();
+      value = in.readInt();
+      return true;
+    }
+  }
+
+  // k-way merge of sorted runs, of equal keys the one of the latest run wins
+  private static class RunMerger extends SortedMappings implements Closeable {
+    private final List<SortedRun> myRuns = new ArrayList<SortedRun>();
+    private final PriorityQueue<SortedRun> myQueue;
+    private int myKey;
+    private int myValue;
+
+    RunMerger(List<File> runs, TIntArrayList lengths) throws IOException {
+      myQueue = new PriorityQueue<SortedRun>(Math.max(1, runs.size()), new Comparator<SortedRun>() {
+        @Override
+        public int compare(SortedRun o1, SortedRun o2) {
+          if (o1.key != o2.key) return o1.key < o2.key ? -1 : 1;
+          return o2.index - o1.index;
+        }
+      });
+
+      try {
+        for(int i = 0; i < runs.size(); ++i) {
+          SortedRun run = new SortedRun(i, runs.get(i), lengths.get(i));
+          myRuns.add(run);
+          if (run.advance()) myQueue.add(run);
+        }
+      }
+      catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    // closes the runs which were not read completely
+    @Override
+    public void close() {
+      for(SortedRun run : myRuns) {
+        try {
+          run.in.close();
+        }
+        catch (IOException ignore) {
+        }
+      }
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      SortedRun run = myQueue.poll();
+      if (run == null) return false;
+
+      myKey = run.key;
+      myValue = run.value;
+      if (run.advance()) myQueue.add(run);
+
+      while (!myQueue.isEmpty() && myQueue.peek().key == myKey) {
+        SortedRun older = myQueue.poll();
+        if (older.advance()) myQueue.add(older);
+      }
+      return true;
+    }
+
+    @Override
+    public int key() {
+      return myKey;
+    }
+
+    @Override
+    public int value() {
+      return myValue;
+    }
+  }
+
   static void myAssert(boolean b) {
     if (!b) {
       myAssert("breakpoint place" != "do not remove");
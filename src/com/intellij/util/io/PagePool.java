@@ -19,21 +19,19 @@
  */
 package com.intellij.util.io;
 
+import com.intellij.openapi.util.Condition;
 import com.intellij.util.SystemProperties;
-import com.intellij.util.containers.hash.LinkedHashMap;
+import com.intellij.util.containers.TinyLfuCache;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Iterator;
-import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 
 @SuppressWarnings({"AssignmentToStaticFieldFromInstanceMethod"})
 public class PagePool {
-  private final Map<PoolPageKey, Page> myProtectedQueue;
-  private final Map<PoolPageKey, Page> myProbationalQueue;
+  private final TinyLfuCache<PoolPageKey, Page> myPages;
 
   private int finalizationId = 0;
 
@@ -46,25 +44,11 @@ public class PagePool {
   private PoolPageKey lastFinalizedKey = null;
 
   public PagePool(final int protectedPagesLimit, final int probationalPagesLimit) {
-    myProbationalQueue = new LinkedHashMap<PoolPageKey,Page>(probationalPagesLimit * 2, 1, true) {
+    //the pool is guarded by its own lock, a single shard is enough
+    myPages = new TinyLfuCache<PoolPageKey, Page>(protectedPagesLimit + probationalPagesLimit, 1) {
       @Override
-      protected boolean removeEldestEntry(final Map.Entry<PoolPageKey, Page> eldest) {
-        if (size() > probationalPagesLimit) {
-          scheduleFinalization(eldest.getValue());
-          return true;
-        }
-        return false;
-      }
-    };
-
-    myProtectedQueue = new LinkedHashMap<PoolPageKey, Page>(protectedPagesLimit, 1, true) {
-      @Override
-      protected boolean removeEldestEntry(final Map.Entry<PoolPageKey, Page> eldest) {
-        if (size() > protectedPagesLimit) {
-          myProbationalQueue.put(eldest.getKey(), eldest.getValue());
-          return true;
-        }
-        return false;
+      protected void onDropFromCache(PoolPageKey key, Page page) {
+        scheduleFinalization(page);
       }
     };
   }
@@ -72,8 +56,7 @@ public class PagePool {
   @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int hits = 0;
   @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int cache_misses = 0;
   @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int same_page_hits = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int protected_queue_hits = 0;
-  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int probational_queue_hits = 0;
+  @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int cache_hits = 0;
   @SuppressWarnings({"FieldAccessedSynchronizedAndUnsynchronized"}) private static int finalization_queue_hits = 0;
 
   public static final PagePool SHARED = new PagePool(
@@ -110,16 +93,9 @@ public class PagePool {
   private Page hitQueues(final RandomAccessDataFile owner, final long offset) {
     PoolPageKey key = setupKey(owner, offset);
 
-    Page page = myProtectedQueue.get(key);
-    if (page != null) {
-      protected_queue_hits++;
-      return page;
-    }
-
-    page = myProbationalQueue.remove(key);
+    Page page = myPages.get(key);
     if (page != null) {
-      probational_queue_hits++;
-      toProtectedQueue(page);
+      cache_hits++;
       return page;
     }
 
@@ -127,14 +103,14 @@ public class PagePool {
     if (request != null) {
       page = request.page;
       finalization_queue_hits++;
-      toProtectedQueue(page);
+      myPages.put(keyForPage(page), page);
       return page;
     }
 
     cache_misses++;
     page = new Page(owner, offset);
 
-    myProbationalQueue.put(keyForPage(page), page);
+    myPages.put(keyForPage(page), page);
 
     return page;
   }
@@ -149,8 +125,7 @@ public class PagePool {
   public static void printStatistics() {
     System.out.println("Total requests: " + hits);
     System.out.println("Same page hits: " + same_page_hits + " (" + percent(same_page_hits, hits) + "%)");
-    System.out.println("Protected queue hits: " + protected_queue_hits + " (" + percent(protected_queue_hits, hits) + "%)");
-    System.out.println("Probatinonal queue hits: " + probational_queue_hits + " (" + percent(probational_queue_hits, hits) + "%)");
+    System.out.println("Cache hits: " + cache_hits + " (" + percent(cache_hits, hits) + "%)");
     System.out.println("Finalization queue hits: " + finalization_queue_hits + " (" + percent(finalization_queue_hits, hits) + "%)");
     System.out.println("Cache misses: " + cache_misses + " (" + percent(cache_misses, hits) + "%)");
 
@@ -162,10 +137,6 @@ public class PagePool {
     return page.getKey();
   }
 
-  private void toProtectedQueue(final Page page) {
-    myProtectedQueue.put(keyForPage(page), page);
-  }
-
   private PoolPageKey setupKey(RandomAccessDataFile owner, long offset) {
     keyInstance.setup(owner, offset);
     return keyInstance;
@@ -190,8 +161,12 @@ public class PagePool {
         lastOwner = null;
       }
 
-      hasFlushes = scanQueue(owner, myProtectedQueue);
-      hasFlushes |= scanQueue(owner, myProbationalQueue);
+      hasFlushes = myPages.removeIf(new Condition<Page>() {
+        @Override
+        public boolean value(Page page) {
+          return page.getOwner() == owner;
+        }
+      });
     }
 
     return !hasFlushes || flushFinalizationQueue(maxPagesToFlush);
@@ -213,21 +188,6 @@ public class PagePool {
     return false;
   }
 
-  private boolean scanQueue(final RandomAccessDataFile owner, final Map<?, Page> queue) {
-    Iterator<Page> iterator = queue.values().iterator();
-    boolean hasFlushes = false;
-    while (iterator.hasNext()) {
-      Page page = iterator.next();
-
-      if (page.getOwner() == owner) {
-        scheduleFinalization(page);
-        iterator.remove();
-        hasFlushes = true;
-      }
-    }
-    return hasFlushes;
-  }
-
   private boolean scheduleFinalization(final Page page) {
     final int curFinalizationId;
     synchronized (lock) {
@@ -110,6 +110,13 @@ public class PagedFileStorage implements Forceable {
   protected final int myPageSize;
   protected final boolean myValuesAreBufferAligned;
 
+  // Snapshot mode: a finished file is mapped read-only once, in a few large segments, when the storage is opened.
+  // The pages are slices of the segments, so reads need neither the storage lock nor the LRU of mapped buffers.
+  private static final int SNAPSHOT_SEGMENT_SIZE = 1 << 30;
+  private static final int SNAPSHOT_PAGE_OVERLAP = 8; // a value which starts in a page can be read from its slice
+  @Nullable private final ByteBufferWrapper[] mySnapshotSegments;
+  @Nullable private final ByteBufferWrapper[] mySnapshotPages;
+
   public PagedFileStorage(File file, StorageLock lock) throws IOException {
     this(file, lock, BUFFER_SIZE, false);
   }
@@ -134,6 +141,123 @@ public class PagedFileStorage implements Forceable {
     myStorageIndex = myStorageLockContext.myStorageLock.registerPagedFileStorage(this);
     myTypedIOBuffer = valuesAreBufferAligned ? null:new byte[8];
     myNativeBytesOrder = nativeBytesOrder;
+    mySnapshotSegments = null;
+    mySnapshotPages = null;
+  }
+
+  private PagedFileStorage(File file, int pageSize, boolean valuesAreBufferAligned, boolean nativeBytesOrder, int segmentSize)
+    throws IOException {
+    myFile = file;
+    myStorageLockContext = ourLock.myDefaultStorageLockContext;
+    myPageSize = Math.max(pageSize > 0 ? pageSize : BUFFER_SIZE, Page.PAGE_SIZE);
+    myValuesAreBufferAligned = valuesAreBufferAligned;
+    myStorageIndex = -1;
+    myTypedIOBuffer = null;
+    myNativeBytesOrder = nativeBytesOrder;
+
+    final long fileLength = file.length();
+    final long pagesCount = (fileLength + myPageSize - 1) / myPageSize;
+    if (pagesCount > MAX_PAGES_COUNT + 1) throw new IOException("File is too large for a snapshot: " + file);
+    mySize = fileLength;
+
+    final int pagesPerSegment = Math.max(1, segmentSize / myPageSize);
+    final long segmentLength = (long)pagesPerSegment * myPageSize;
+    if (segmentLength + SNAPSHOT_PAGE_OVERLAP > Integer.MAX_VALUE) throw new IOException("Page size is too large for a snapshot: " + myPageSize);
+
+    mySnapshotSegments = new ByteBufferWrapper[(int)((pagesCount + pagesPerSegment - 1) / pagesPerSegment)];
+    mySnapshotPages = new ByteBufferWrapper[(int)pagesCount];
+
+    try {
+      for (int segment = 0; segment < mySnapshotSegments.length; ++segment) {
+        final long start = segment * segmentLength;
+        final ByteBufferWrapper wrapper = ByteBufferWrapper.readOnly(file, start, Math.min(segmentLength + SNAPSHOT_PAGE_OVERLAP, fileLength - start));
+        mySnapshotSegments[segment] = wrapper;
+        final ByteBuffer segmentBuffer = wrapper.getBuffer();
+
+        for (int page = segment * pagesPerSegment; page < Math.min(pagesCount, (segment + 1) * (long)pagesPerSegment); ++page) {
+          final int offset = (int)((long)page * myPageSize - start);
+          final ByteBuffer duplicate = segmentBuffer.duplicate();
+          duplicate.position(offset);
+          duplicate.limit(Math.min(segmentBuffer.limit(), offset + myPageSize + SNAPSHOT_PAGE_OVERLAP));
+
+          final ByteBuffer pageBuffer = duplicate.slice();
+          // unaligned values are written with Bits, in big endian order
+          pageBuffer.order(nativeBytesOrder && valuesAreBufferAligned ? ourNativeByteOrder : ByteOrder.BIG_ENDIAN);
+          mySnapshotPages[page] = new SnapshotPageWrapper(file, (long)page * myPageSize, pageBuffer);
+        }
+      }
+    }
+    catch (IOException e) {
+      unmapSnapshot();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a file which isn't modified anymore, e.g. a storage of a finished index, for reading only.
+   * The storage is safe for concurrent readers without locking. It must not be accessed after it was closed.
+   */
+  @NotNull
+  public static PagedFileStorage openSnapshot(@NotNull File file, int pageSize, boolean valuesAreBufferAligned, boolean nativeBytesOrder)
+    throws IOException {
+    return openSnapshot(file, pageSize, valuesAreBufferAligned, nativeBytesOrder, SNAPSHOT_SEGMENT_SIZE);
+  }
+
+  /**
+   * @param segmentSize the length of the mappings, it's rounded down to a multiple of the page size
+   */
+  @NotNull
+  public static PagedFileStorage openSnapshot(@NotNull File file,
+                                              int pageSize,
+                                              boolean valuesAreBufferAligned,
+                                              boolean nativeBytesOrder,
+                                              int segmentSize) throws IOException {
+    return new PagedFileStorage(file, pageSize, valuesAreBufferAligned, nativeBytesOrder, segmentSize);
+  }
+
+  public boolean isSnapshot() {
+    return mySnapshotPages != null;
+  }
+
+  private void assertWritable() {
+    assertWritable(true);
+  }
+
+  private void assertWritable(boolean modify) {
+    if (modify && mySnapshotPages != null) throw new UnsupportedOperationException("Snapshot storage is read-only: " + myFile);
+  }
+
+  private void unmapSnapshot() {
+    for (ByteBufferWrapper segment : mySnapshotSegments) {
+      if (segment != null) segment.dispose();
+    }
+  }
+
+  private static class SnapshotPageWrapper extends ByteBufferWrapper {
+    private final ByteBuffer myBuffer;
+
+    SnapshotPageWrapper(File file, long offset, ByteBuffer buffer) {
+      super(file, offset, buffer.capacity());
+      myBuffer = buffer;
+    }
+
+    @Override
+    public ByteBuffer getCachedBuffer() {
+      return myBuffer;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+      return myBuffer;
+    }
+
+    @Override
+    public void unmap() {
+    }
+
+    @Override
+    public void flush() {
+    }
   }
 
   public void lock() {
@@ -153,6 +277,7 @@ public class PagedFileStorage implements Forceable {
   }
 
   public void putInt(long addr, int value) {
+    assertWritable();
     if (myValuesAreBufferAligned) {
       long page = addr / myPageSize;
       int page_offset = (int)(addr % myPageSize);
@@ -164,7 +289,7 @@ public class PagedFileStorage implements Forceable {
   }
 
   public int getInt(long addr) {
-    if (myValuesAreBufferAligned) {
+    if (myValuesAreBufferAligned || mySnapshotPages != null) {
       long page = addr / myPageSize;
       int page_offset = (int) (addr % myPageSize);
       return getReadOnlyBuffer(page).getInt(page_offset);
@@ -175,6 +300,7 @@ public class PagedFileStorage implements Forceable {
   }
 
   public final void putShort(long addr, short value) {
+    assertWritable();
     if (myValuesAreBufferAligned) {
       long page = addr / myPageSize;
       int page_offset = (int)(addr % myPageSize);
@@ -194,7 +320,7 @@ public class PagedFileStorage implements Forceable {
   }
 
   public final short getShort(long addr) {
-    if (myValuesAreBufferAligned) {
+    if (myValuesAreBufferAligned || mySnapshotPages != null) {
       long page = addr / myPageSize;
       int page_offset = (int)(addr % myPageSize);
       return getReadOnlyBuffer(page).getShort(page_offset);
@@ -205,6 +331,7 @@ public class PagedFileStorage implements Forceable {
   }
 
   public void putLong(long addr, long value) {
+    assertWritable();
     if (myValuesAreBufferAligned) {
       long page = addr / myPageSize;
       int page_offset = (int)(addr % myPageSize);
@@ -225,7 +352,7 @@ public class PagedFileStorage implements Forceable {
   }
 
   public long getLong(long addr) {
-    if (myValuesAreBufferAligned) {
+    if (myValuesAreBufferAligned || mySnapshotPages != null) {
       long page = addr / myPageSize;
       int page_offset = (int)(addr % myPageSize);
       return getReadOnlyBuffer(page).getLong(page_offset);
@@ -260,6 +387,13 @@ public class PagedFileStorage implements Forceable {
 
       int page_len = Math.min(l, myPageSize - page_offset);
       final ByteBuffer buffer = getReadOnlyBuffer(page);
+      if (mySnapshotPages != null) {
+        buffer.get(page_offset, dst, o, page_len); // absolute, the buffer is shared by the readers
+        l -= page_len;
+        o += page_len;
+        i += page_len;
+        continue;
+      }
       try {
         buffer.position(page_offset);
       }
@@ -304,6 +438,11 @@ public class PagedFileStorage implements Forceable {
   }
 
   public void close() {
+    if (mySnapshotPages != null) {
+      unmapSnapshot();
+      return;
+    }
+
     try {
       force();
     }
@@ -328,6 +467,7 @@ public class PagedFileStorage implements Forceable {
   }
 
   public void resize(long newSize) throws IOException {
+    assertWritable();
     long oldSize = myFile.length();
     if (oldSize == newSize && oldSize == length()) return;
 
@@ -393,6 +533,11 @@ public class PagedFileStorage implements Forceable {
   }
 
   private ByteBufferWrapper getBufferWrapper(long page, boolean modify) {
+    if (mySnapshotPages != null) {
+      assertWritable(modify);
+      return mySnapshotPages[(int)page];
+    }
+
     synchronized (myLastAccessedBufferCacheLock) {
       if (myLastPage == page) {
         ByteBuffer buf = myLastBuffer.getCachedBuffer();
@@ -17,11 +17,16 @@ package com.intellij.util.io;
 
 import com.intellij.util.Processor;
 import com.intellij.util.SystemProperties;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TIntIntIterator;
+import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 // Assigns / store unique integral id for Data instances.
 // Btree stores mapping between integer hash code into integer that interpreted in following way:
@@ -480,6 +485,93 @@ public class PersistentBTreeEnumerator<Data> extends PersistentEnumeratorBase<Da
     }
   }
 
+  private static final int BULK_MAPPINGS_IN_MEMORY = 1024 * 1024;
+
+  // Enumerates the values into an empty enumerator: the data is appended in the order of the values and the btree
+  // is bulk loaded once at the end instead of being updated for every value. Returns the ids in the order of the values.
+  @NotNull
+  public synchronized int[] enumerateAll(@NotNull List<Data> values) throws IOException {
+    // a caller error, it must not be reported as corruption by the catch below
+    if (myValuesCount != 0 || !myBTree.canBulkLoad()) throw new IllegalStateException("Bulk enumeration requires an empty enumerator");
+
+    try {
+      lockStorage();
+
+      final int[] ids = new int[values.size()];
+      final TIntIntHashMap firstIds = new TIntIntHashMap(values.size());
+      final TIntObjectHashMap<TIntArrayList> collisions = new TIntObjectHashMap<TIntArrayList>();
+
+      for(int i = 0; i < ids.length; ++i) {
+        final Data value = values.get(i);
+        final int valueHC = myDataDescriptor.getHashCode(value);
+
+        if (!firstIds.containsKey(valueHC)) {
+          ids[i] = writeData(value, valueHC);
+          firstIds.put(valueHC, ids[i]);
+          ++myValuesCount;
+          continue;
+        }
+
+        int id = firstIds.get(valueHC);
+        if (!myInlineKeysNoMapping && !isKeyAtIndex(value, id)) {
+          id = NULL_ID;
+          TIntArrayList collided = collisions.get(valueHC);
+          for(int j = 0; collided != null && j < collided.size() && id == NULL_ID; ++j) {
+            if (isKeyAtIndex(value, collided.get(j))) id = collided.get(j);
+          }
+        }
+
+        if (id != NULL_ID) {
+          ++myExistingKeysEnumerated;
+          ids[i] = id;
+          continue;
+        }
+
+        ids[i] = writeData(value, valueHC);
+        ++myValuesCount;
+
+        TIntArrayList collided = collisions.get(valueHC);
+        if (collided == null) collisions.put(valueHC, collided = new TIntArrayList(1));
+        collided.add(ids[i]);
+      }
+
+      final IntToIntBtree.BulkLoader loader = myBTree.newBulkLoader(Math.max(1, Math.min(firstIds.size(), BULK_MAPPINGS_IN_MEMORY)));
+      for(TIntIntIterator it = firstIds.iterator(); it.hasNext(); ) {
+        it.advance();
+        final TIntArrayList collided = collisions.get(it.key());
+        loader.add(it.key(), collided == null ? it.value() : -writeCollisionList(it.value(), collided));
+      }
+      loader.finish();
+
+      return ids;
+    }
+    catch (IllegalStateException e) {
+      CorruptedException exception = new CorruptedException(myFile);
+      exception.initCause(e);
+      throw exception;
+    } finally {
+      unlockStorage();
+    }
+  }
+
+  // same layout as the collision lists of enumerateImpl: (id, next record address)+
+  private int writeCollisionList(int firstId, @NotNull TIntArrayList collided) {
+    final int head = nextDuplicatedValueRecord();
+    myStorage.putInt(head, firstId);
+    ++myCollisions;
+
+    int previous = head;
+    for(int i = 0; i < collided.size(); ++i) {
+      final int record = nextDuplicatedValueRecord();
+      myStorage.putInt(previous + COLLISION_OFFSET, record);
+      myStorage.putInt(record, collided.get(i));
+      previous = record;
+      ++myCollisions;
+    }
+    myStorage.putInt(previous + COLLISION_OFFSET, 0);
+    return head;
+  }
+
   @Override
   boolean canReEnumerate() {
     return true;
@@ -21,8 +21,8 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.IncorrectOperationException;
 import com.intellij.util.Processor;
-import com.intellij.util.containers.SLRUMap;
 import com.intellij.util.containers.ShareableKey;
+import com.intellij.util.containers.TinyLfuCache;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
@@ -46,7 +46,6 @@ public abstract class PersistentEnumeratorBase<Data> implements Forceable, Close
 
   private static final int META_DATA_OFFSET = 4;
   protected static final int DATA_START = META_DATA_OFFSET + 16;
-  private static final CacheKey ourFlyweight = new FlyweightKey();
 
   protected final ResizeableMappedFile myStorage;
   private final boolean myAssumeDifferentSerializedBytesMeansObjectsInequality;
@@ -90,8 +89,8 @@ public abstract class PersistentEnumeratorBase<Data> implements Forceable, Close
   }
 
   private static class CacheKey implements ShareableKey {
-    public PersistentEnumeratorBase owner;
-    public Object key;
+    public final PersistentEnumeratorBase owner;
+    public final Object key;
 
     private CacheKey(Object key, PersistentEnumeratorBase owner) {
       this.key = key;
@@ -120,19 +119,14 @@ public abstract class PersistentEnumeratorBase<Data> implements Forceable, Close
     }
   }
 
-  private static CacheKey sharedKey(Object key, PersistentEnumeratorBase owner) {
-    ourFlyweight.key = key;
-    ourFlyweight.owner = owner;
-    return ourFlyweight;
-  }
-
   private static final int ENUMERATION_CACHE_SIZE;
   static {
     String property = System.getProperty("idea.enumerationCacheSize");
     ENUMERATION_CACHE_SIZE = property == null ? 8192 : Integer.valueOf(property);
   }
 
-  private static final SLRUMap<Object, Integer> ourEnumerationCache = new SLRUMap<Object, Integer>(ENUMERATION_CACHE_SIZE, ENUMERATION_CACHE_SIZE);
+  //shared by all enumerators, the admission policy keeps the values of frequently used enumerators cached during scans
+  private static final TinyLfuCache<CacheKey, Integer> ourEnumerationCache = new TinyLfuCache<CacheKey, Integer>(2 * ENUMERATION_CACHE_SIZE);
 
   @TestOnly
   public static void clearCacheForTests() {
@@ -280,10 +274,8 @@ public abstract class PersistentEnumeratorBase<Data> implements Forceable, Close
 
   private int doEnumerate(Data value, boolean onlyCheckForExisting, boolean saveNewValue) throws IOException {
     if (myDoCaching && !saveNewValue) {
-      synchronized (ourEnumerationCache) {
-        final Integer cachedId = ourEnumerationCache.get(sharedKey(value, this));
-        if (cachedId != null) return cachedId.intValue();
-      }
+      final Integer cachedId = ourEnumerationCache.get(new CacheKey(value, this));
+      if (cachedId != null) return cachedId.intValue();
     }
 
     final int id;
@@ -301,9 +293,7 @@ public abstract class PersistentEnumeratorBase<Data> implements Forceable, Close
     }
 
     if (myDoCaching && id != NULL_ID) {
-      synchronized (ourEnumerationCache) {
-        ourEnumerationCache.put(new CacheKey(value, this), id);
-      }
+      ourEnumerationCache.put(new CacheKey(value, this), id);
     }
 
     return id;
@@ -613,15 +603,4 @@ public abstract class PersistentEnumeratorBase<Data> implements Forceable, Close
       }
     }
   }
-
-  private static class FlyweightKey extends CacheKey {
-    public FlyweightKey() {
-      super(null, null);
-    }
-
-    @Override
-    public ShareableKey getStableCopy() {
-      return new CacheKey(key, owner);
-    }
-  }
 }
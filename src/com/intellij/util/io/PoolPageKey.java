@@ -19,8 +19,15 @@
  */
 package com.intellij.util.io;
 
+import com.intellij.util.containers.ShareableKey;
+
 class PoolPageKey extends FileChunkKey<RandomAccessDataFile> {
   public PoolPageKey(final RandomAccessDataFile owner, final long offset) {
     super(owner, offset);
   }
+
+  @Override
+  public ShareableKey getStableCopy() {
+    return new PoolPageKey(getOwner(), getOffset());
+  }
 }
\ No newline at end of file
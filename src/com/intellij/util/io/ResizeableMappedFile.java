@@ -65,6 +65,39 @@ public class ResizeableMappedFile implements Forceable {
     }
   }
 
+  private ResizeableMappedFile(@NotNull PagedFileStorage snapshot) throws IOException {
+    myStorage = snapshot;
+    File lengthFile = getLengthFile();
+    if (lengthFile.exists()) {
+      DataInputStream stream = new DataInputStream(new FileInputStream(lengthFile));
+      try {
+        myLogicalSize = stream.readLong();
+      }
+      finally {
+        stream.close();
+      }
+    }
+    else {
+      myLogicalSize = snapshot.length();
+    }
+  }
+
+  /**
+   * Opens a file which isn't modified anymore for reading only, see {@link PagedFileStorage#openSnapshot(File, int, boolean, boolean)}.
+   */
+  @NotNull
+  public static ResizeableMappedFile openSnapshot(@NotNull File file, int pageSize, boolean valuesAreBufferAligned, boolean nativeBytesOrder)
+    throws IOException {
+    PagedFileStorage storage = PagedFileStorage.openSnapshot(file, pageSize, valuesAreBufferAligned, nativeBytesOrder);
+    try {
+      return new ResizeableMappedFile(storage);
+    }
+    catch (IOException e) {
+      storage.close();
+      throw e;
+    }
+  }
+
   public ResizeableMappedFile(final File file, int initialSize, PagedFileStorage.StorageLock lock, int pageSize, boolean valuesAreBufferAligned) throws IOException {
     this(file, initialSize, lock.myDefaultStorageLockContext, pageSize, valuesAreBufferAligned);
   }
@@ -3,6 +3,7 @@ package psiTree
 import com.ansorgit.plugins.bash.lang.parser.BashParserDefinition
 import com.ansorgit.plugins.bash.lang.psi.impl.BashFileImpl
 import com.ansorgit.plugins.bash.lang.psi.stubs.elements.BashStubFileElementType
+import com.intellij.lang.ASTNode
 import com.intellij.lang.PsiBuilder
 import com.intellij.lang.impl.PsiBuilderImpl
 import com.intellij.psi.SingleRootFileViewProvider
@@ -15,6 +16,14 @@ abstract class AbstractBashPsiTreeTest {
 
     @Throws(IOException::class)
     protected fun assertPsiTree(content: String, expectedPsiTreeContent: String) {
+        val ast = parse(content)
+
+        val actualPsiTree = DebugUtil.psiToString(ast.psi, false)
+
+        Assertions.assertEquals(expectedPsiTreeContent, actualPsiTree)
+    }
+
+    protected fun parse(content: String): ASTNode {
         val singleRootFileViewProvider = SingleRootFileViewProvider(null, false)
         val fileElement = FileElement(BashStubFileElementType(), content)
         val bashImpl = BashFileImpl(singleRootFileViewProvider)
@@ -25,10 +34,6 @@ abstract class AbstractBashPsiTreeTest {
             fileElement,
             content
         )
-        val ast = BashParserDefinition.createNewParser().parse(BashStubFileElementType(), builder)
-
-        val actualPsiTree = DebugUtil.psiToString(ast.psi, false)
-
-        Assertions.assertEquals(expectedPsiTreeContent, actualPsiTree)
+        return BashParserDefinition.createNewParser().parse(BashStubFileElementType(), builder)
     }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes
+import com.intellij.lang.ASTNode
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+/**
+ * Parses arithmetic expressions with increasing nesting depth of parentheses.
+ * The parsing time has to grow linearly with the nesting depth, deep nesting must not take exponential time.
+ */
+class ArithmeticNestingTest : AbstractBashPsiTreeTest() {
+
+    private fun nestedExpression(depth: Int): String {
+        val builder = StringBuilder()
+        repeat(depth) { builder.append("(") }
+        builder.append("a")
+        for (i in 0 until depth) {
+            builder.append(if (i % 2 == 0) "+b)" else "*c)")
+        }
+        return "echo $(( $builder - d ))"
+    }
+
+    private fun parenDepth(node: ASTNode): Int {
+        val childDepth = node.getChildren(null).maxOfOrNull { parenDepth(it) } ?: 0
+        return childDepth + if (node.elementType == BashElementTypes.ARITH_PARENS_ELEMENT) 1 else 0
+    }
+
+    @Test
+    fun testNestingDepth() {
+        for (depth in listOf(10, 50, 100, 200)) {
+            val script = nestedExpression(depth)
+
+            val start = System.nanoTime()
+            val root = parse(script)
+            val millis = (System.nanoTime() - start) / 1_000_000
+
+            Assertions.assertEquals(depth, parenDepth(root))
+            Assertions.assertTrue(millis < 10_000, "depth $depth took $millis ms")
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashBatchPipeline
+import com.ansorgit.plugins.bash.batch.BashFileWalker
+import com.ansorgit.plugins.bash.batch.FactExtractor
+import com.ansorgit.plugins.bash.batch.FileResult
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+class BashFileWalkerTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    private fun file(path: String, content: String) = File(dir, path).apply {
+        parentFile.mkdirs()
+        writeText(content)
+    }
+
+    @Test
+    fun testBashFileDetection() {
+        Assertions.assertTrue(BashFileWalker.isBashFile(file("a.sh", "echo")))
+        Assertions.assertTrue(BashFileWalker.isBashFile(file("a.bash", "echo")))
+        Assertions.assertTrue(BashFileWalker.isBashFile(file(".bashrc", "echo")))
+        Assertions.assertTrue(BashFileWalker.isBashFile(file("build", "#!/bin/bash\necho")))
+        Assertions.assertTrue(BashFileWalker.isBashFile(file("run", "#! /bin/sh -e\necho")))
+        Assertions.assertTrue(BashFileWalker.isBashFile(file("deploy", "#!/usr/bin/env bash\necho")))
+        Assertions.assertTrue(BashFileWalker.isBashFile(file("install", "#!/usr/bin/env -S bash -e\necho")))
+
+        Assertions.assertFalse(BashFileWalker.isBashFile(file("tool", "#!/usr/bin/env python\nprint()")))
+        Assertions.assertFalse(BashFileWalker.isBashFile(file("README", "echo")))
+        Assertions.assertFalse(BashFileWalker.isBashFile(file("script.py", "#!/bin/bash\n")))
+        Assertions.assertFalse(BashFileWalker.isBashFile(file("empty", "")))
+    }
+
+    @Test
+    fun testParallelWalk() {
+        val expected = mutableSetOf<File>()
+        for (i in 0 until 20) {
+            for (j in 0 until 10) {
+                expected += file("d$i/sub$j/script$j.sh", "echo $j\n")
+            }
+            expected += file("d$i/tool$i", "#!/bin/bash\necho $i\n")
+            file("d$i/notes.txt", "text")
+        }
+        Files.createSymbolicLink(File(dir, "link").toPath(), File(dir, "d0").toPath())
+
+        val found = ConcurrentLinkedQueue<File>()
+        val count = BashFileWalker(4).use { walker -> walker.walk(dir) { found.add(it) } }
+
+        Assertions.assertEquals(expected.size, count)
+        Assertions.assertEquals(expected.size, found.size)
+        Assertions.assertEquals(expected, found.toSet())
+    }
+
+    @Test
+    fun testConsumerFailureStopsWalk() {
+        file("a/a.sh", "echo")
+
+        BashFileWalker(2).use { walker ->
+            val e = Assertions.assertThrows(IllegalStateException::class.java) {
+                walker.walk(dir) { throw IllegalStateException("failed") }
+            }
+            Assertions.assertEquals("failed", e.message)
+        }
+    }
+
+    @Test
+    fun testConsumerFailureInDeepTree() {
+        for (i in 0 until 4) {
+            var path = "d$i"
+            for (depth in 0 until 10) {
+                (0 until 3).forEach { file("$path/script$it.sh", "echo $it\n") }
+                path += "/sub$depth"
+            }
+        }
+        val failing = file("fail.sh", "exit 1\n")
+
+        val failure = CountDownLatch(1)
+        val active = AtomicInteger()
+        val returned = AtomicBoolean()
+        val lateCalls = AtomicInteger()
+
+        BashFileWalker(4).use { walker ->
+            val e = Assertions.assertThrows(IllegalStateException::class.java) {
+                walker.walk(dir) {
+                    if (returned.get()) {
+                        lateCalls.incrementAndGet()
+                    }
+
+                    if (it == failing) {
+                        //fail while the tasks of the subdirectories are in the consumer
+                        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2)
+                        while (active.get() < 2 && System.nanoTime() < deadline) {
+                            Thread.sleep(1)
+                        }
+                        failure.countDown()
+                        throw IllegalStateException("failed")
+                    }
+
+                    active.incrementAndGet()
+                    try {
+                        failure.await()
+                        Thread.sleep(20)
+                    } finally {
+                        active.decrementAndGet()
+                    }
+                }
+            }
+            returned.set(true)
+
+            Assertions.assertEquals("failed", e.message)
+            Assertions.assertEquals(0, active.get())
+        }
+
+        Assertions.assertEquals(0, lateCalls.get())
+    }
+
+    @Test
+    fun testPipelineParsesWhileWalking() {
+        for (i in 0 until 200) {
+            file("d${i % 10}/script$i.sh", "if true; then echo $i; fi\n")
+        }
+
+        val results = ConcurrentLinkedQueue<FileResult<Int>>()
+        val extractor = FactExtractor<Int> { _, root -> root.getChildren(null).size }
+        BashFileWalker(4).use { walker ->
+            BashBatchPipeline(extractor, StandardCharsets.UTF_8, 2, 2, 1, 2).use { pipeline ->
+                pipeline.run(dir, walker) { results.add(it) }
+            }
+        }
+
+        Assertions.assertEquals(200, results.size)
+        Assertions.assertTrue(results.all { it.isSuccess })
+    }
+
+    @Test
+    fun testInterruptedPipelineStopsCallingTheSink() {
+        for (i in 0 until 500) {
+            file("d${i % 10}/script$i.sh", "echo $i\n")
+        }
+
+        val results = AtomicInteger()
+        val firstResult = CountDownLatch(1)
+        val extractor = FactExtractor<Int> { _, _ ->
+            Thread.sleep(5)
+            1
+        }
+
+        val failure = AtomicReference<Throwable>()
+        BashFileWalker(2).use { walker ->
+            BashBatchPipeline(extractor, StandardCharsets.UTF_8, 1, 1, 1, 2).use { pipeline ->
+                val runner = Thread {
+                    try {
+                        pipeline.run(dir, walker) {
+                            results.incrementAndGet()
+                            firstResult.countDown()
+                        }
+                    } catch (e: Throwable) {
+                        failure.set(e)
+                    }
+                }
+                runner.start()
+
+                Assertions.assertTrue(firstResult.await(10, TimeUnit.SECONDS))
+                runner.interrupt()
+                runner.join(10_000)
+                Assertions.assertFalse(runner.isAlive)
+
+                val resultsAfterRun = results.get()
+                Thread.sleep(200)
+                Assertions.assertEquals(resultsAfterRun, results.get())
+                Assertions.assertTrue(resultsAfterRun < 500)
+            }
+        }
+
+        Assertions.assertTrue(failure.get() is InterruptedException, "unexpected failure ${failure.get()}")
+    }
+}
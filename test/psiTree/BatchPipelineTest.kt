@@ -0,0 +1,57 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashBatchPipeline
+import com.ansorgit.plugins.bash.batch.FactExtractor
+import com.ansorgit.plugins.bash.batch.FileResult
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentLinkedQueue
+
+class BatchPipelineTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    private val childCount = FactExtractor<Int> { _, root -> root.getChildren(null).size }
+
+    @Test
+    fun testAllFilesProcessed() {
+        val files = (0 until 50).map { i ->
+            File(dir, "script$i.sh").apply { writeText("echo $i\n".repeat(i + 1)) }
+        }
+
+        val results = ConcurrentLinkedQueue<FileResult<Int>>()
+        BashBatchPipeline(childCount, StandardCharsets.UTF_8, 2, 3, 1, 2).use { pipeline ->
+            pipeline.run(files) { results.add(it) }
+
+            val metrics = pipeline.metrics
+            Assertions.assertEquals(listOf("read", "parse", "extract"), metrics.map { it.name })
+            metrics.forEach {
+                Assertions.assertEquals(50, it.completed)
+                Assertions.assertEquals(0, it.queueDepth)
+            }
+        }
+
+        Assertions.assertEquals(files.toSet(), results.map { it.file }.toSet())
+        Assertions.assertTrue(results.all { it.isSuccess && it.facts!! > 0 })
+    }
+
+    @Test
+    fun testFailures() {
+        val missing = File(dir, "missing.sh")
+        val large = File(dir, "large.sh").apply { writeText("echo a\n".repeat(1000)) }
+
+        val results = ConcurrentLinkedQueue<FileResult<Int>>()
+        BashBatchPipeline(childCount).use { pipeline ->
+            pipeline.setFileBudget(0, 100)
+            pipeline.run(listOf(missing, large)) { results.add(it) }
+        }
+
+        Assertions.assertTrue(results.none { it.isSuccess })
+        Assertions.assertEquals(-1, results.first { it.file == missing }.abortOffset)
+        Assertions.assertTrue(results.first { it.file == large }.abortOffset > 0)
+    }
+}
@@ -0,0 +1,197 @@
+package psiTree
+
+import com.intellij.util.io.EnumeratorStringDescriptor
+import com.intellij.util.io.IntToIntBtree
+import com.intellij.util.io.PagedFileStorage
+import com.intellij.util.io.PersistentBTreeEnumerator
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.nio.file.Files
+import java.util.*
+
+/**
+ * Compares trees which were bulk loaded with trees which were built by incremental inserts.
+ */
+class BtreeBulkLoadTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    private val pageSize = 4096
+
+    private fun newTree(name: String) = IntToIntBtree(pageSize, File(dir, name), PagedFileStorage.StorageLockContext(false), true)
+
+    private fun mappings(tree: IntToIntBtree): Map<Int, Int> {
+        val result = LinkedHashMap<Int, Int>()
+        tree.processMappings(object : IntToIntBtree.KeyValueProcessor() {
+            override fun process(key: Int, value: Int): Boolean {
+                result[key] = value
+                return true
+            }
+        })
+        return result
+    }
+
+    private fun assertContent(expected: Map<Int, Int>, tree: IntToIntBtree) {
+        val result = IntArray(1)
+        for ((key, value) in expected) {
+            Assertions.assertTrue(tree.get(key, result), "missing key $key")
+            Assertions.assertEquals(value, result[0])
+        }
+        Assertions.assertFalse(tree.get(Int.MIN_VALUE + 1, result))
+        Assertions.assertEquals(expected, HashMap(mappings(tree)))
+    }
+
+    @Test
+    fun testSortedArrays() {
+        val keys = IntArray(20_000) { it * 3 - 30_000 }
+        val values = IntArray(keys.size) { it + 1 }
+
+        val tree = newTree("sorted")
+        tree.bulkLoad(keys, values)
+
+        assertContent(keys.indices.associate { keys[it] to values[it] }, tree)
+        tree.doClose()
+    }
+
+    @Test
+    fun testUnsortedWithDuplicates() {
+        val random = Random(1)
+        val keys = IntArray(50_000) { random.nextInt(20_000) - 10_000 }
+        val values = IntArray(keys.size) { random.nextInt() }
+
+        val expected = HashMap<Int, Int>()
+        keys.indices.forEach { expected[keys[it]] = values[it] }
+
+        val tree = newTree("unsorted")
+        tree.bulkLoad(keys, values)
+        assertContent(expected, tree)
+
+        //inserts into the packed pages split them
+        for (i in 0 until 20_000) {
+            val key = random.nextInt()
+            tree.put(key, i)
+            expected[key] = i
+        }
+        assertContent(expected, tree)
+        tree.doClose()
+    }
+
+    @Test
+    fun testExternalSort() {
+        val random = Random(2)
+        val expected = HashMap<Int, Int>()
+
+        val tree = newTree("external")
+        val loader = tree.newBulkLoader(1_000)
+        for (i in 0 until 100_000) {
+            val key = random.nextInt(60_000) - 30_000
+            loader.add(key, i)
+            expected[key] = i
+        }
+        loader.finish()
+
+        assertContent(expected, tree)
+        Assertions.assertEquals(listOf("external"), dir.list()!!.filter { it.endsWith(".run") || it == "external" })
+        tree.doClose()
+    }
+
+    @Test
+    fun testExternalSortFailure() {
+        val tree = newTree("failing")
+        tree.put(1, 1)
+
+        val loader = tree.newBulkLoader(1_000)
+        for (i in 0 until 10_000) {
+            loader.add(10_000 - i, i)
+        }
+        //the runs are opened for the merge, then the bulk load fails
+        Assertions.assertThrows(IllegalStateException::class.java) { loader.finish() }
+
+        Assertions.assertEquals(emptyList<String>(), openRunFiles())
+        Assertions.assertEquals(listOf("failing"), dir.list()!!.filter { it.endsWith(".run") || it == "failing" })
+        tree.doClose()
+    }
+
+    //the temporary run files which are still open by this process, empty if the open files can't be listed
+    private fun openRunFiles(): List<String> {
+        val descriptors = File("/proc/self/fd").listFiles() ?: return emptyList()
+        return descriptors.mapNotNull { runCatching { Files.readSymbolicLink(it.toPath()).toString() }.getOrNull() }
+                .filter { it.startsWith(dir.path) && it.contains(".run") }
+    }
+
+    @Test
+    fun testRequiresEmptyTree() {
+        val tree = newTree("nonEmpty")
+        tree.put(1, 1)
+        Assertions.assertThrows(IllegalStateException::class.java) { tree.bulkLoad(intArrayOf(2), intArrayOf(2)) }
+        tree.doClose()
+    }
+
+    @Test
+    fun testEnumerateAll() {
+        //"Aa" and "BB" have the same hash code
+        val values = listOf("a", "Aa", "b", "BB", "a", "AaAa", "BBBB", "AaBB", "BB") + (0 until 10_000).map { "value$it" }
+
+        val enumerator = PersistentBTreeEnumerator(File(dir, "enumerator"), EnumeratorStringDescriptor.INSTANCE, 4096)
+        val ids = enumerator.enumerateAll(values)
+
+        Assertions.assertEquals(ids[0], ids[4])
+        Assertions.assertEquals(ids[3], ids[8])
+        Assertions.assertEquals(values.toSet().size, ids.toSet().size)
+        for (i in values.indices) {
+            Assertions.assertEquals(ids[i], enumerator.enumerate(values[i]))
+            Assertions.assertEquals(values[i], enumerator.valueOf(ids[i]))
+        }
+        Assertions.assertNotEquals(0, enumerator.enumerate("new value"))
+        enumerator.close()
+    }
+
+    @Test
+    fun testEnumerateAllRequiresEmptyEnumerator() {
+        val enumerator = PersistentBTreeEnumerator(File(dir, "nonEmptyEnumerator"), EnumeratorStringDescriptor.INSTANCE, 4096)
+        val id = enumerator.enumerate("a")
+
+        //a caller error, not a corrupted enumerator
+        Assertions.assertThrows(IllegalStateException::class.java) { enumerator.enumerateAll(listOf("b")) }
+        Assertions.assertEquals(id, enumerator.enumerate("a"))
+        Assertions.assertFalse(enumerator.isCorrupted)
+        enumerator.close()
+    }
+
+    @Test
+    fun testBulkLoadMatchesIncremental() {
+        val random = Random(3)
+        val size = 200_000
+        val keys = IntArray(size) { random.nextInt() }
+        val values = IntArray(size) { it }
+
+        val incremental = newTree("incremental")
+        for (i in 0 until size) {
+            incremental.put(keys[i], values[i])
+        }
+
+        val bulk = newTree("bulk")
+        bulk.bulkLoad(keys, values)
+
+        val external = newTree("bulkExternal")
+        val loader = external.newBulkLoader(size / 8)
+        for (i in 0 until size) {
+            loader.add(keys[i], values[i])
+        }
+        loader.finish()
+
+        val expected = mappings(incremental)
+        Assertions.assertEquals(expected, mappings(bulk))
+        Assertions.assertEquals(expected, mappings(external))
+
+        incremental.doClose()
+        bulk.doClose()
+        external.doClose()
+
+        //bulk loading fills the pages, it never needs more pages than inserting one by one
+        Assertions.assertTrue(File(dir, "bulk").length() <= File(dir, "incremental").length())
+    }
+}
@@ -0,0 +1,107 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.lang.psi.callGraph.BashCallGraph
+import com.ansorgit.plugins.bash.lang.psi.impl.BashFileImpl
+import com.intellij.lang.Language
+import com.intellij.psi.SingleRootFileViewProvider
+import com.intellij.psi.impl.source.tree.FileElement
+import com.intellij.psi.impl.source.tree.TreeElement
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class CallGraphTest : AbstractBashPsiTreeTest() {
+
+    @Test
+    fun testReachableFromTopLevel() {
+        val script = """f() { g; echo ${"$"}a; }
+                       |g() { f && x=1 || h | cat; }
+                       |h() { local y=${"$"}(k); }
+                       |k() { :; }
+                       |unused() { k; }
+                       |f
+                       |""".trimMargin()
+
+        val graph = BashCallGraph.forFile(parse(script).psi)
+        val reachable = graph.reachableFromTopLevel()
+
+        for (name in listOf("f", "g", "h", "k")) {
+            Assertions.assertTrue(reachable.get(graph.functionsNamed(name)[0]), name)
+        }
+        Assertions.assertFalse(reachable.get(graph.functionsNamed("unused")[0]))
+    }
+
+    @Test
+    fun testRecursion() {
+        val script = """a() { b; }
+                       |b() { a; }
+                       |c() { c; }
+                       |d() { a; }
+                       |""".trimMargin()
+
+        val graph = BashCallGraph.forFile(parse(script).psi)
+        val a = graph.functionsNamed("a")[0]
+        val b = graph.functionsNamed("b")[0]
+        val c = graph.functionsNamed("c")[0]
+        val d = graph.functionsNamed("d")[0]
+
+        Assertions.assertEquals(graph.componentOf(a), graph.componentOf(b))
+        Assertions.assertTrue(graph.isRecursive(a))
+        Assertions.assertTrue(graph.isRecursive(c))
+        Assertions.assertFalse(graph.isRecursive(d))
+        Assertions.assertArrayEquals(intArrayOf(b, d), graph.callers(a))
+    }
+
+    @Test
+    fun testNestedFunctions() {
+        val script = """outer() { inner() { echo; }; }
+                       |outer
+                       |inner
+                       |""".trimMargin()
+
+        val graph = BashCallGraph.forFile(parse(script).psi)
+        val outer = graph.functionsNamed("outer")[0]
+        val inner = graph.functionsNamed("inner")[0]
+
+        Assertions.assertArrayEquals(intArrayOf(), graph.callees(outer))
+        Assertions.assertArrayEquals(arrayOf("echo"), graph.calledNames(inner))
+        Assertions.assertArrayEquals(intArrayOf(outer, inner), graph.callees(graph.entryFiles()[0]))
+    }
+
+    @Test
+    fun testUpdateRemovesDeletedNestedFunctions() {
+        val script = """outer() { inner() { deep() { :; }; }; }
+                       |other() { inner; deep; }
+                       |outer
+                       |""".trimMargin()
+
+        val file = parse(script) as FileElement
+        val graph = BashCallGraph.forFile(file.psi)
+        val outer = graph.functionsNamed("outer")[0]
+        val other = graph.functionsNamed("other")[0]
+        Assertions.assertEquals(5, graph.size())
+        Assertions.assertEquals(2, graph.callees(other).size)
+
+        //raw tree modifications notify the file of the root, the parsed root has none
+        lateinit var psiFile: BashFileImpl
+        psiFile = BashFileImpl(object : SingleRootFileViewProvider(null, false) {
+            override fun getPsiInner(target: Language) = psiFile
+        })
+        psiFile.setTreeElementPointer(file)
+        file.setPsi(psiFile)
+
+        val inner = graph.getElement(graph.functionsNamed("inner")[0]).node as TreeElement
+        inner.rawRemove()
+        graph.update(outer)
+
+        Assertions.assertEquals(3, graph.size())
+        Assertions.assertArrayEquals(intArrayOf(), graph.functionsNamed("inner"))
+        Assertions.assertArrayEquals(intArrayOf(), graph.functionsNamed("deep"))
+
+        val newOther = graph.functionsNamed("other")[0]
+        Assertions.assertArrayEquals(intArrayOf(), graph.callees(newOther))
+        Assertions.assertArrayEquals(intArrayOf(graph.functionsNamed("outer")[0]), graph.callees(graph.entryFiles()[0]))
+        for (id in 0 until graph.size()) {
+            Assertions.assertEquals(id, graph.idOf(graph.getElement(id)))
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package psiTree
+
+import com.intellij.openapi.progress.CancellationBudget
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class CancellationBudgetTest : AbstractBashPsiTreeTest() {
+
+    @Test
+    fun testTokenBudget() {
+        val script = "echo a\n".repeat(100)
+
+        val exception = CancellationBudget.start(0, 50).use {
+            Assertions.assertThrows(CancellationBudget.BudgetExceededException::class.java) { parse(script) }
+        }
+
+        Assertions.assertEquals(CancellationBudget.Reason.TOKENS, exception.reason)
+        Assertions.assertTrue(exception.offset in 1 until script.length, "offset: ${exception.offset}")
+        Assertions.assertNull(CancellationBudget.getCurrent())
+    }
+
+    @Test
+    fun testCanceled() {
+        val exception = CancellationBudget.start(0, 0).use {
+            it.cancel()
+            Assertions.assertThrows(CancellationBudget.BudgetExceededException::class.java) { parse("echo a") }
+        }
+
+        Assertions.assertEquals(CancellationBudget.Reason.CANCELED, exception.reason)
+    }
+
+    @Test
+    fun testWithinBudget() {
+        CancellationBudget.start(60_000, 1_000).use {
+            parse("echo a\n".repeat(10))
+            Assertions.assertTrue(it.consumedTokens > 0)
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashFileParser
+import com.ansorgit.plugins.bash.batch.CommandFactStore
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+
+class CommandFactStoreTest {
+    private val first = "cat -n <<EOF > out.txt 2>&1\nhi\nEOF\nfoo=1 ./bar a \"b c\" \$(echo d)\nlocal x=1\n"
+    private val second = "a=1\necho x | grep -v y\n"
+
+    @TempDir
+    lateinit var dir: File
+
+    private fun store(): CommandFactStore {
+        val builder = CommandFactStore.builder()
+        Assertions.assertEquals(4, builder.addFile("first.sh", BashFileParser.parse(first)))
+        Assertions.assertEquals(3, builder.addFile("second.sh", BashFileParser.parse(second)))
+        return builder.build()
+    }
+
+    private fun CommandFactStore.rows(): List<String> = (0 until size()).map { row ->
+        val text = if (getFile(getFileId(row)) == "first.sh") first else second
+        val name = getCommandName(row) ?: "-"
+        val args = (0 until getArgumentCount(row)).map { text.substring(getArgumentStart(row, it), getArgumentEnd(row, it)) }
+        val redirects = (0 until getRedirectCount(row)).map { text.substring(getRedirectStart(row, it), getRedirectEnd(row, it)) }
+        "$name $args $redirects ${getFlags(row)}"
+    }
+
+    @Test
+    fun testColumns() {
+        val store = store()
+
+        Assertions.assertEquals(7, store.size())
+        Assertions.assertEquals(2, store.fileCount)
+        Assertions.assertEquals(listOf(0, 0, 0, 0, 1, 1, 1), (0 until store.size()).map { store.getFileId(it) })
+
+        Assertions.assertEquals(listOf(
+                "cat [-n] [<<EOF, > out.txt, 2>&1] ${CommandFactStore.HAS_HEREDOC or CommandFactStore.HAS_REDIRECT}",
+                "./bar [a, \"b c\", \$(echo d)] [] ${CommandFactStore.HAS_ASSIGNMENT}",
+                "echo [d] [] 0",
+                "local [x=1] [] ${CommandFactStore.HAS_ASSIGNMENT}",
+                "- [] [] ${CommandFactStore.HAS_ASSIGNMENT}",
+                "echo [x] [] 0",
+                "grep [-v, y] [] 0"),
+                store.rows())
+
+        Assertions.assertEquals("cat -n <<EOF > out.txt 2>&1", first.substring(store.getStartOffset(0), store.getEndOffset(0)))
+        Assertions.assertNull(store.getCommandName(4))
+        Assertions.assertEquals(CommandFactStore.NO_NAME, store.getNameId(4))
+    }
+
+    @Test
+    fun testFilters() {
+        val store = store()
+
+        Assertions.assertEquals("{2, 5}", store.withCommandNames(listOf("echo", "unknown")).toString())
+        Assertions.assertEquals("{4, 5, 6}", store.inFiles(listOf("second.sh")).toString())
+        Assertions.assertEquals("{0}", store.withFlags(CommandFactStore.HAS_HEREDOC).toString())
+
+        val echoInSecond = store.withCommandNames(listOf("echo"))
+        echoInSecond.and(store.inFiles(listOf("second.sh")))
+        Assertions.assertEquals("{5}", echoInSecond.toString())
+    }
+
+    @Test
+    fun testIds() {
+        val builder = CommandFactStore.builder()
+        builder.addFile("first.sh", BashFileParser.parse(first))
+        val store = builder.build()
+        builder.addFile("second.sh", BashFileParser.parse(second))
+
+        Assertions.assertEquals(listOf("cat", "./bar", "echo", "local"), (0 until store.nameCount).map { store.getName(it) })
+        Assertions.assertEquals(2, store.findNameId("echo"))
+        Assertions.assertEquals(0, store.findFileId("first.sh"))
+
+        //names and files which were added after the store was built are unknown to it
+        Assertions.assertEquals(-1, store.findNameId("grep"))
+        Assertions.assertEquals(-1, store.findFileId("second.sh"))
+        Assertions.assertEquals(4, builder.build().findNameId("grep"))
+    }
+
+    @Test
+    fun testSaveAndLoad() {
+        val store = store()
+        val file = File(dir, "commands.facts")
+        store.save(file)
+
+        val loaded = CommandFactStore.load(file)
+        Assertions.assertEquals(store.size(), loaded.size())
+        Assertions.assertEquals(store.rows(), loaded.rows())
+        Assertions.assertEquals((0 until store.size()).map { store.getFileId(it) to store.getStartOffset(it) },
+                (0 until loaded.size()).map { loaded.getFileId(it) to loaded.getStartOffset(it) })
+        Assertions.assertEquals(store.withCommandNames(listOf("grep")), loaded.withCommandNames(listOf("grep")))
+    }
+}
@@ -0,0 +1,163 @@
+package psiTree
+
+import com.intellij.util.io.CompressedAppendableFile
+import com.intellij.util.io.DataOutputStream
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.io.IOException
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Appends fixed size records and reads them concurrently, with inline and with parallel compression of the chunks.
+ */
+class CompressedAppendableFileTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    private val recordSize = 100
+
+    private fun record(index: Int): ByteArray {
+        val text = "record $index ".repeat(recordSize).substring(0, recordSize)
+        return text.toByteArray()
+    }
+
+    private fun readRecord(file: CompressedAppendableFile, index: Int): ByteArray {
+        val bytes = ByteArray(recordSize)
+        file.getStream(index.toLong() * recordSize).use { it.readFully(bytes) }
+        return bytes
+    }
+
+    private fun appendRecords(file: CompressedAppendableFile, count: Int) {
+        for (i in 0 until count) {
+            val bytes = record(i)
+            file.append(bytes, bytes.size)
+        }
+    }
+
+    @Test
+    fun testParallelCompressionWritesSameFiles() {
+        val inline = CompressedAppendableFile(File(dir, "inline"), false)
+        val parallel = CompressedAppendableFile(File(dir, "parallel"), true)
+
+        appendRecords(inline, 20_000)
+        appendRecords(parallel, 20_000)
+
+        //unsaved chunks are readable
+        for (i in listOf(0, 1, 5_000, 19_999)) {
+            Assertions.assertArrayEquals(record(i), readRecord(parallel, i))
+        }
+
+        inline.dispose()
+        parallel.dispose()
+
+        for (extension in listOf(".a", ".s", ".at")) {
+            Assertions.assertArrayEquals(File(dir, "inline$extension").readBytes(), File(dir, "parallel$extension").readBytes(), extension)
+        }
+
+        val reopened = CompressedAppendableFile(File(dir, "parallel"), true)
+        Assertions.assertEquals(20_000L * recordSize, reopened.length())
+        for (i in 0 until 20_000 step 7) {
+            Assertions.assertArrayEquals(record(i), readRecord(reopened, i))
+        }
+        reopened.dispose()
+    }
+
+    @Test
+    fun testFailedCompressionKeepsChunkOrder() {
+        val failedChunk = 2
+        val file = object : CompressedAppendableFile(File(dir, "failing"), true) {
+            val chunkLength = myAppendBufferLength
+            val failing = chunk(failedChunk, chunkLength)
+
+            override fun compress(compressedDataOut: DataOutputStream, buffer: ByteArray): Int {
+                if (buffer.contentEquals(failing)) {
+                    throw IOException("compression failed")
+                }
+                return super.compress(compressedDataOut, buffer)
+            }
+        }
+
+        Assertions.assertThrows(IOException::class.java) { appendRecords(file, 20_000) }
+        //the failed chunk isn't skipped, the file stays broken instead of saving the next chunks in its place
+        Assertions.assertThrows(RuntimeException::class.java) { file.force() }
+
+        val reopened = CompressedAppendableFile(File(dir, "failing"), true)
+        Assertions.assertEquals(failedChunk.toLong() * file.chunkLength, reopened.length())
+        Assertions.assertArrayEquals(record(0), readRecord(reopened, 0))
+        Assertions.assertArrayEquals(record(100), readRecord(reopened, 100))
+        reopened.dispose()
+    }
+
+    //the content of a chunk of the records which are appended by appendRecords
+    private fun chunk(index: Int, chunkLength: Int): ByteArray {
+        val records = (0..(index + 1) * chunkLength / recordSize).map { record(it) }.reduce { a, b -> a + b }
+        return records.copyOfRange(index * chunkLength, (index + 1) * chunkLength)
+    }
+
+    @Test
+    fun testReadWhileAppending() {
+        val file = CompressedAppendableFile(File(dir, "concurrent"), true)
+        appendRecords(file, 1)
+
+        val done = AtomicBoolean()
+        val pool = Executors.newFixedThreadPool(4)
+        try {
+            val readers = (0 until 4).map { seed ->
+                pool.submit(Callable {
+                    val random = Random(seed.toLong())
+                    var reads = 0
+                    while (!done.get() || reads < 1000) {
+                        val available = (file.length() / recordSize).toInt()
+                        val index = random.nextInt(available)
+                        Assertions.assertArrayEquals(record(index), readRecord(file, index), "record $index")
+                        ++reads
+                    }
+                    reads
+                })
+            }
+
+            for (i in 1 until 30_000) {
+                val bytes = record(i)
+                file.append(bytes, bytes.size)
+            }
+            done.set(true)
+
+            readers.forEach { Assertions.assertTrue(it.get() >= 1000) }
+        } finally {
+            pool.shutdown()
+            file.dispose()
+        }
+    }
+
+    @Test
+    fun testConcurrentReaders() {
+        val file = CompressedAppendableFile(File(dir, "readers"))
+        val records = 100_000
+        appendRecords(file, records)
+        file.force()
+
+        val threads = 4
+        val pool = Executors.newFixedThreadPool(threads)
+        try {
+            val tasks = (0 until threads).map { seed ->
+                pool.submit(Callable {
+                    val random = Random(seed.toLong())
+                    repeat(5_000) {
+                        val index = random.nextInt(records)
+                        Assertions.assertEquals(record(index)[0], readRecord(file, index)[0])
+                    }
+                })
+            }
+            tasks.forEach { it.get() }
+        } finally {
+            pool.shutdown()
+        }
+        file.dispose()
+    }
+}
@@ -0,0 +1,116 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.CorpusSnapshot
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+
+class CorpusSnapshotTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    private val past = System.currentTimeMillis() - 60_000
+
+    private fun script(path: String, content: String, lastModified: Long = past): File {
+        val file = File(dir, "corpus/$path")
+        file.parentFile.mkdirs()
+        file.writeText(content)
+        file.setLastModified(lastModified)
+        return file
+    }
+
+    private fun names(files: List<File>) = files.map { it.name }.sorted()
+
+    @Test
+    fun testIncrementalScans() {
+        val a = script("a.sh", "echo a\n")
+        val b = script("lib/b.sh", "echo b\n")
+        val c = script("lib/deep/c.sh", "echo c\n")
+        val root = File(dir, "corpus")
+
+        CorpusSnapshot(File(dir, "snapshot")).use { snapshot ->
+            val first = snapshot.scan(root)
+            Assertions.assertEquals(listOf("a.sh", "b.sh", "c.sh"), names(first.changed))
+            Assertions.assertEquals(3, first.readCount)
+
+            val second = snapshot.scan(root)
+            Assertions.assertTrue(second.isEmpty)
+            Assertions.assertEquals(0, second.readCount)
+            Assertions.assertEquals(3, second.unchangedCount)
+
+            //a touch changes the timestamp, but not the content
+            a.setLastModified(past + 10_000)
+            b.writeText("echo bb\n")
+            b.setLastModified(past)
+            Assertions.assertTrue(c.delete())
+
+            val third = snapshot.scan(root)
+            Assertions.assertEquals(listOf("b.sh"), names(third.changed))
+            Assertions.assertEquals(listOf("c.sh"), names(third.deleted))
+            Assertions.assertEquals(2, third.readCount)
+            Assertions.assertEquals(2, snapshot.size())
+        }
+
+        //the snapshot is persistent
+        CorpusSnapshot(File(dir, "snapshot")).use { snapshot ->
+            val changes = snapshot.scan(root)
+            Assertions.assertTrue(changes.isEmpty)
+            Assertions.assertEquals(0, changes.readCount)
+        }
+    }
+
+    @Test
+    fun testRecentlyModifiedFilesAreReadAgain() {
+        val file = script("a.sh", "echo a\n", System.currentTimeMillis())
+        val root = File(dir, "corpus")
+
+        CorpusSnapshot(File(dir, "snapshot")).use { snapshot ->
+            snapshot.scan(root)
+
+            //same length and timestamp, but modified after the first scan
+            val lastModified = file.lastModified()
+            file.writeText("echo b\n")
+            file.setLastModified(lastModified)
+
+            val changes = snapshot.scan(root)
+            Assertions.assertEquals(listOf("a.sh"), names(changes.changed))
+        }
+    }
+
+    @Test
+    fun testFilterAndRoots() {
+        script("a.sh", "echo a\n")
+        script("readme.txt", "text\n")
+        val other = File(dir, "other").apply { mkdirs() }
+        File(other, "x.sh").apply { writeText("echo x\n"); setLastModified(past) }
+
+        CorpusSnapshot(File(dir, "snapshot")).use { snapshot ->
+            val changes = snapshot.scan(File(dir, "corpus")) { it.name.endsWith(".sh") }
+            Assertions.assertEquals(listOf("a.sh"), names(changes.changed))
+
+            Assertions.assertEquals(listOf("x.sh"), names(snapshot.scan(other).changed))
+            //files of other roots are not deleted by a scan
+            Assertions.assertTrue(snapshot.scan(File(dir, "corpus")) { it.name.endsWith(".sh") }.isEmpty)
+            Assertions.assertEquals(2, snapshot.size())
+        }
+    }
+
+    @Test
+    fun testRescanOfUnchangedCorpus() {
+        val root = File(dir, "corpus")
+        for (i in 0 until 3000) {
+            script("dir${i % 30}/script$i.sh", "#!/bin/bash\necho $i\n".repeat(20))
+        }
+
+        CorpusSnapshot(File(dir, "snapshot")).use { snapshot ->
+            val first = snapshot.scan(root)
+            val rescan = snapshot.scan(root)
+
+            Assertions.assertEquals(3000, first.changed.size)
+            Assertions.assertEquals(0, rescan.readCount)
+            Assertions.assertEquals(3000, rescan.unchangedCount)
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashBatchPipeline
+import com.ansorgit.plugins.bash.batch.BashFileParser
+import com.ansorgit.plugins.bash.batch.ExecutionGraphStore
+import com.ansorgit.plugins.bash.batch.ExecutionGraphStore.*
+import com.ansorgit.plugins.bash.batch.FileResult
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.util.BitSet
+import java.util.concurrent.ConcurrentLinkedQueue
+
+class ExecutionGraphStoreTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    private val labels = mapOf(PIPE to "|", AND_THEN to "&&", OR_ELSE to "||", SEQUENCE to ";", BACKGROUND to "&")
+
+    private fun graph(script: String): ExecutionGraphStore {
+        val builder = ExecutionGraphStore.builder()
+        builder.addFile("a.sh", BashFileParser.parse(script))
+        return builder.build()
+    }
+
+    private fun ExecutionGraphStore.label(node: Int): String = getName(node) ?: when (getKind(node)) {
+        GROUP -> "{}"
+        SUBSHELL -> "()"
+        SUBSTITUTION -> "$()"
+        IF -> "if"
+        LOOP -> "loop"
+        CASE -> "case"
+        TEST -> "test"
+        else -> "?"
+    }
+
+    private fun ExecutionGraphStore.edges() = (0 until edgeCount).map {
+        "${label(getEdgeSource(it))} ${labels[getEdgeLabel(it)]} ${label(getEdgeTarget(it))}"
+    }
+
+    private fun ExecutionGraphStore.labels(nodes: BitSet) = nodes.stream().toArray().map { label(it) }
+
+    private fun ExecutionGraphStore.node(name: String) = withNames(listOf(name)).nextSetBit(0)
+
+    @Test
+    fun testLists() {
+        val graph = graph("a | b && c || d; e & f\ng |& h &&\n  i\n")
+
+        Assertions.assertEquals(listOf("a", "b", "c", "d", "e", "f", "g", "h", "i"), (0 until graph.size()).map { graph.label(it) })
+        Assertions.assertEquals(listOf("a | b", "b && c", "c || d", "d ; e", "e & f", "f ; g", "g | h", "h && i"), graph.edges())
+        Assertions.assertEquals(IN_BACKGROUND, graph.getFlags(graph.node("e")))
+        Assertions.assertEquals(1, graph.getSuccessorCount(graph.node("a")))
+        Assertions.assertEquals(0, graph.getSuccessorCount(graph.node("i")))
+        Assertions.assertEquals(2, graph.edgesWithLabel(PIPE).cardinality())
+    }
+
+    @Test
+    fun testNameIds() {
+        val graph = graph("a | b\na && c\n")
+
+        Assertions.assertEquals(0, graph.findNameId("a"))
+        Assertions.assertEquals(2, graph.findNameId("c"))
+        Assertions.assertEquals(NO_NAME, graph.findNameId("d"))
+        Assertions.assertEquals(listOf(0, 1, 0, 2), (0 until graph.size()).map { graph.getNameId(it) })
+        Assertions.assertEquals("{0, 2}", graph.withNames(listOf("a", "d")).toString())
+    }
+
+    @Test
+    fun testCompoundCommands() {
+        val graph = graph("if ! x; then y; else z; fi | w\nwhile r; do ( s; t ) & done\nfoo() { g && h; }\n" +
+                "[[ -f f ]] && echo ok\nfor i in \$(seq 3); do echo \$i; done 2>/dev/null\ncase \$x in a) m;; esac\n")
+
+        Assertions.assertEquals(listOf("if | w", "s ; t", "w ; loop", "g && h", "loop ; foo", "foo ; test", "test && echo", "echo ; loop", "loop ; case"), graph.edges())
+        Assertions.assertEquals(NEGATED, graph.getFlags(graph.node("x")))
+
+        val ifNode = graph.withNames(listOf("y")).nextSetBit(0).let { graph.getParent(it) }
+        Assertions.assertEquals(IF, graph.getKind(ifNode))
+        Assertions.assertEquals(listOf("x", "y", "z"), (0 until graph.getChildCount(ifNode)).map { graph.label(graph.getChild(ifNode, it)) })
+
+        val subshell = graph.getParent(graph.node("s"))
+        Assertions.assertEquals(SUBSHELL, graph.getKind(subshell))
+        Assertions.assertEquals(IN_BACKGROUND, graph.getFlags(subshell))
+        Assertions.assertEquals(LOOP, graph.getKind(graph.getParent(subshell)))
+
+        val function = graph.node("foo")
+        Assertions.assertEquals(FUNCTION, graph.getKind(function))
+        Assertions.assertEquals(GROUP, graph.getKind(graph.getParent(graph.node("g"))))
+        Assertions.assertEquals(function, graph.getParent(graph.getParent(graph.node("g"))))
+
+        val seq = graph.getParent(graph.node("seq"))
+        Assertions.assertEquals(SUBSTITUTION, graph.getKind(seq))
+        Assertions.assertEquals(LOOP, graph.getKind(graph.getParent(seq)))
+    }
+
+    @Test
+    fun testSubstitutions() {
+        val graph = graph("v=\$(p | q) k `ls` <(sort f)\nsource lib.sh && let a=1\n")
+
+        val k = graph.node("k")
+        Assertions.assertEquals(listOf("$()", "p", "q", "$()", "ls", "$()", "sort"), graph.labels(BitSet().apply {
+            for (node in 0 until graph.size()) if (node != k && graph.getFileId(node) == 0 && graph.getStartOffset(node) >= graph.getStartOffset(k) && graph.getEndOffset(node) <= graph.getEndOffset(k)) set(node)
+        }))
+        Assertions.assertEquals(listOf("p | q", "k ; source", "source && let"), graph.edges())
+        Assertions.assertEquals(k, graph.getParent(graph.getParent(graph.node("p"))))
+    }
+
+    @Test
+    fun testDownstream() {
+        val graph = graph("a | { b; c \$(d | e); } | f && g\nh || i\nfn() { j | k; }\n")
+
+        Assertions.assertEquals(listOf("{}", "b", "c", "$()", "d", "e", "f", "g", "h", "i", "fn"), graph.labels(graph.downstream(graph.node("a"))))
+        Assertions.assertEquals(listOf("c", "$()", "d", "e", "f", "g", "h", "i", "fn"), graph.labels(graph.downstream(graph.node("b"))))
+        Assertions.assertEquals(listOf("c", "e", "f", "g", "h", "i", "fn"), graph.labels(graph.downstream(graph.node("d"))))
+        Assertions.assertEquals(listOf("k"), graph.labels(graph.downstream(graph.node("j"))))
+
+        Assertions.assertEquals(listOf("{}", "b", "c", "$()", "d", "e", "f"), graph.labels(graph.downstream(graph.node("a"), PIPE)))
+        Assertions.assertEquals(listOf("g"), graph.labels(graph.downstream(graph.node("f"), PIPE, AND_THEN)))
+    }
+
+    @Test
+    fun testPipelineExtraction() {
+        val files = (0 until 50).map { i ->
+            File(dir, "script$i.sh").apply { writeText("cat in$i | sort && echo done || exit 1\n") }
+        }
+
+        val builder = ExecutionGraphStore.builder()
+        val results = ConcurrentLinkedQueue<FileResult<Int>>()
+        BashBatchPipeline(builder.extractor(), StandardCharsets.UTF_8, 2, 2, 2, 4).use { pipeline ->
+            pipeline.run(files) { results.add(it) }
+        }
+
+        val graph = builder.build()
+        Assertions.assertTrue(results.all { it.isSuccess && it.facts == 4 })
+        Assertions.assertEquals(200, graph.size())
+        Assertions.assertEquals(150, graph.edgeCount)
+        Assertions.assertEquals(50, graph.getFileCount())
+        Assertions.assertEquals(50, graph.edgesWithLabel(OR_ELSE).cardinality())
+
+        graph.withNames(listOf("cat")).stream().forEach { cat ->
+            Assertions.assertEquals(listOf("sort", "echo", "exit"), graph.labels(graph.downstream(cat)))
+            graph.downstream(cat).stream().forEach { Assertions.assertEquals(graph.getFileId(cat), graph.getFileId(it)) }
+        }
+    }
+}
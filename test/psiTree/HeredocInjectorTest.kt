@@ -0,0 +1,149 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashBatchPipeline
+import com.ansorgit.plugins.bash.batch.FileResult
+import com.ansorgit.plugins.bash.batch.HeredocInjector
+import com.ansorgit.plugins.bash.batch.InjectedContentParser
+import com.ansorgit.plugins.bash.batch.InjectedHeredoc
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class HeredocInjectorTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    //splits the statements of a SQL script
+    private class StatementParser(val delay: Long = 0, val gate: CountDownLatch? = null) : InjectedContentParser<List<String>> {
+        val calls = AtomicInteger()
+
+        override fun parse(content: String): List<String> {
+            calls.incrementAndGet()
+            if (content.contains("fail")) {
+                throw IllegalArgumentException("invalid sql")
+            }
+            if (delay > 0) {
+                Thread.sleep(delay)
+            }
+            gate?.await()
+            return content.split(';').map { it.trim() }.filter { it.isNotEmpty() }
+        }
+    }
+
+    @Test
+    fun testHostCommands() {
+        val parser = StatementParser()
+        HeredocInjector<List<String>>(2, 4, 100).register("psql", parser).register("bteq", parser).use { injector ->
+            val script = "psql -d db <<EOF > log\nselect 1;\nEOF\n" +
+                    "A=1 /usr/bin/bteq <<-'SQL' | tee out\n\tselect \$a; select 2;\n\tSQL\n" +
+                    "cat <<EOF\nselect 3;\nEOF\n" +
+                    "nohup psql <<EOF\nselect \$x;\nEOF\n" +
+                    "x=\$(exec psql <<EOF\nselect 4;\nEOF\n)\n"
+            val injected = injector.inject(script)
+
+            Assertions.assertEquals(listOf("psql", "bteq", "psql"), injected.map { it.command })
+            Assertions.assertEquals(listOf("select 1;\n", "select \$a; select 2;\n", "select 4;\n"), injected.map { it.content })
+            Assertions.assertEquals("\tselect \$a; select 2;\n", script.substring(injected[1].contentStart, injected[1].contentEnd))
+            Assertions.assertEquals(listOf(listOf("select 1"), listOf("select \$a", "select 2"), listOf("select 4")), injected.map { it.result })
+        }
+    }
+
+    @Test
+    fun testParserFailure() {
+        HeredocInjector<List<String>>(1, 1, 100).register("psql", StatementParser()).use { injector ->
+            val injected = injector.inject("psql <<EOF\nfail;\nEOF\n")
+
+            val e = Assertions.assertThrows(ExecutionException::class.java) { injected[0].result }
+            Assertions.assertEquals("invalid sql", e.cause?.message)
+        }
+    }
+
+    @Test
+    fun testFailedParseIsRetried() {
+        val attempts = AtomicInteger()
+        val parser = InjectedContentParser { content ->
+            if (attempts.incrementAndGet() == 1) {
+                throw IllegalStateException("temporary failure")
+            }
+            content.trim()
+        }
+
+        HeredocInjector<String>(1, 1, 100).register("psql", parser).use { injector ->
+            val script = "psql <<EOF\nselect 1;\nEOF\n"
+
+            val failed = injector.inject(script)
+            Assertions.assertThrows(ExecutionException::class.java) { failed[0].result }
+
+            Assertions.assertEquals("select 1;", injector.inject(script)[0].result)
+            Assertions.assertEquals("select 1;", injector.inject(script)[0].result)
+            Assertions.assertEquals(2, injector.parsedCount)
+        }
+    }
+
+    @Test
+    fun testInFlightParsesAreShared() {
+        //the cache is too small to admit the parses, the running parses must be shared nevertheless
+        val gate = CountDownLatch(1)
+        val parser = StatementParser(gate = gate)
+        HeredocInjector<List<String>>(2, 100, 1).register("psql", parser).use { injector ->
+            val injected = (0 until 50).flatMap { i -> injector.inject("psql <<EOF\nselect ${i % 5};\nEOF\n") }
+            gate.countDown()
+
+            Assertions.assertEquals((0 until 50).map { listOf("select ${it % 5}") }, injected.map { it.result })
+            Assertions.assertEquals(5, parser.calls.get())
+        }
+    }
+
+    @Test
+    fun testCachedByContent() {
+        val parser = StatementParser(5)
+        HeredocInjector<List<String>>(4, 8, 100).register("psql", parser).use { injector ->
+            val injected = (0 until 200).flatMap { i -> injector.inject("psql <<EOF\nselect ${i % 10};\nEOF\necho $i\n") }
+
+            Assertions.assertEquals(200, injected.size)
+            Assertions.assertEquals(listOf("select 7"), injected[17].result)
+            Assertions.assertEquals(10, parser.calls.get())
+            Assertions.assertEquals(200, injector.injectedCount)
+            Assertions.assertEquals(10, injector.parsedCount)
+        }
+    }
+
+    @Test
+    fun testPipelineDoesNotWaitForParsers() {
+        val files = (0 until 100).map { i ->
+            File(dir, "script$i.sh").apply { writeText("echo $i\npsql <<'EOF'\nselect $i; select \$1;\nEOF\n") }
+        }
+
+        //the parsers are blocked until the batch finished
+        val gate = CountDownLatch(1)
+        val parser = StatementParser(gate = gate)
+        HeredocInjector<List<String>>(2, 200, 1000).register("psql", parser).use { injector ->
+            val results = ConcurrentLinkedQueue<FileResult<List<InjectedHeredoc<List<String>>>>>()
+
+            BashBatchPipeline(injector.extractor(), StandardCharsets.UTF_8, 2, 2, 2, 4).use { pipeline ->
+                pipeline.run(files) { results.add(it) }
+            }
+
+            Assertions.assertTrue(results.all { it.isSuccess })
+            Assertions.assertTrue(results.flatMap { it.facts!! }.none { it.future.isDone })
+
+            gate.countDown()
+            val statements = results.flatMap { it.facts!! }.map { it.result!! }
+
+            Assertions.assertEquals(100, statements.size)
+            Assertions.assertTrue(statements.all { it.size == 2 && it[1] == "select \$1" })
+
+            injector.close()
+            Assertions.assertTrue(injector.awaitTermination(10, TimeUnit.SECONDS))
+            Assertions.assertEquals(100, injector.metrics.completed)
+        }
+    }
+}
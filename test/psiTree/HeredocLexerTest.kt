@@ -0,0 +1,71 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.lang.lexer.BashTokenTypes.*
+import com.ansorgit.plugins.bash.lang.parser.BashParserDefinition
+import com.intellij.psi.tree.IElementType
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class HeredocLexerTest {
+
+    private fun tokens(script: String): List<Pair<IElementType, String>> {
+        val lexer = BashParserDefinition.createBashLexer()
+        lexer.start(script)
+
+        val result = mutableListOf<Pair<IElementType, String>>()
+        while (lexer.tokenType != null) {
+            result += lexer.tokenType!! to script.substring(lexer.tokenStart, lexer.tokenEnd)
+            lexer.advance()
+        }
+        return result
+    }
+
+    private fun heredocTokens(script: String) = tokens(script).filter {
+        it.first == HEREDOC_CONTENT || it.first == HEREDOC_MARKER_END || it.first == HEREDOC_MARKER_IGNORING_TABS_END
+    }
+
+    @Test
+    fun testQuotedHeredoc() {
+        Assertions.assertEquals(listOf(HEREDOC_CONTENT to "a \$x\n{b}\n\n", HEREDOC_MARKER_END to "EOF"),
+                heredocTokens("cat <<'EOF'\na \$x\n{b}\n\nEOF\necho\n"))
+
+        Assertions.assertEquals(listOf(HEREDOC_CONTENT to "\tline\n", HEREDOC_MARKER_IGNORING_TABS_END to "\tEND"),
+                heredocTokens("cat <<-'END'\n\tline\n\tEND\n"))
+
+        Assertions.assertEquals(listOf(HEREDOC_CONTENT to "line\r\n\r\n", HEREDOC_MARKER_END to "EOF"),
+                heredocTokens("cat <<'EOF'\r\nline\r\n\r\nEOF\r\n"))
+    }
+
+    @Test
+    fun testMarkerAfterBackslash() {
+        //the rules end the heredoc at a marker which follows a backslash
+        Assertions.assertEquals(listOf(HEREDOC_CONTENT to "a \$x\n\\", HEREDOC_MARKER_END to "EOF"),
+                heredocTokens("cat <<'EOF'\na \$x\n\\EOF\nEOF\n"))
+    }
+
+    @Test
+    fun testNestedAndMultipleHeredocs() {
+        Assertions.assertEquals(listOf(HEREDOC_CONTENT to "q\n", HEREDOC_MARKER_END to "EOF"),
+                heredocTokens("x=`cat <<'EOF'\nq\nEOF`\n"))
+
+        Assertions.assertEquals(listOf(HEREDOC_CONTENT to "a\n", HEREDOC_MARKER_END to "A",
+                HEREDOC_CONTENT to "b ", HEREDOC_CONTENT to "\$v", HEREDOC_CONTENT to "\n", HEREDOC_MARKER_END to "B"),
+                heredocTokens("cat <<'A' <<B\na\nA\nb \$v\nB\n"))
+    }
+
+    @Test
+    fun testMissingEndMarker() {
+        Assertions.assertEquals(listOf(HEREDOC_CONTENT to "EOF x\nno end"), heredocTokens("cat <<'EOF'\nEOF x\nno end"))
+    }
+
+    @Test
+    fun testLargeQuotedHeredoc() {
+        val content = (0 until 10000).joinToString("") { "line $it with {braces} and 'quotes'\n" }
+        val script = "cat <<'EOF'\n${content}EOF\n"
+
+        val tokens = tokens(script)
+
+        Assertions.assertEquals(listOf(HEREDOC_CONTENT to content, HEREDOC_MARKER_END to "EOF"), heredocTokens(script))
+        Assertions.assertEquals(8, tokens.size)
+    }
+}
@@ -0,0 +1,77 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.lang.psi.api.vars.BashVar
+import com.ansorgit.plugins.bash.lang.psi.util.BashIdentifierInterner
+import com.intellij.lang.ASTNode
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class IdentifierInternerTest : AbstractBashPsiTreeTest() {
+
+    private fun variables(node: ASTNode): List<BashVar> {
+        val psi = node.psi
+        val self = if (psi is BashVar) listOf(psi) else emptyList()
+        return self + node.getChildren(null).flatMap { variables(it) }
+    }
+
+    @Test
+    fun testBatchInterning() {
+        val interner = BashIdentifierInterner.create()
+
+        val names = BashIdentifierInterner.activate(interner).use {
+            listOf("echo \$LOG_DIR", "LOG_DIR=/tmp; echo \$LOG_DIR").flatMap { script ->
+                variables(parse(script)).map { it.referenceName }
+            }
+        }
+
+        Assertions.assertEquals(3, names.size)
+        names.forEach { Assertions.assertSame(names[0], it) }
+        Assertions.assertNull(BashIdentifierInterner.getActive())
+    }
+
+    @Test
+    fun testDenseIds() {
+        val interner = BashIdentifierInterner.createWeak()
+
+        Assertions.assertEquals(0, interner.idOf("HOME"))
+        Assertions.assertEquals(1, interner.idOf("TD_USER"))
+        Assertions.assertEquals(0, interner.idOf("HOME"))
+        Assertions.assertEquals(-1, interner.findId("LOG_DIR"))
+        Assertions.assertEquals("TD_USER", interner.identifier(1))
+        Assertions.assertEquals(2, interner.idCount())
+    }
+
+    @Test
+    fun testConcurrentBatches() {
+        val first = BashIdentifierInterner.create()
+        val second = BashIdentifierInterner.create()
+        val bothActive = CountDownLatch(2)
+
+        val pool = Executors.newFixedThreadPool(2)
+        try {
+            val results = listOf(first, second).map { interner ->
+                pool.submit<List<String>> {
+                    BashIdentifierInterner.activate(interner).use {
+                        bothActive.countDown()
+                        bothActive.await()
+
+                        val names = variables(parse("echo \$LOG_DIR; echo \$LOG_DIR")).map { it.referenceName }
+                        Assertions.assertSame(interner, BashIdentifierInterner.getActive())
+                        names
+                    }
+                }
+            }.map { it.get(10, TimeUnit.SECONDS) }
+
+            Assertions.assertSame(first.intern("LOG_DIR"), results[0][0])
+            Assertions.assertSame(second.intern("LOG_DIR"), results[1][0])
+            Assertions.assertNotSame(results[0][0], results[1][0])
+        } finally {
+            pool.shutdown()
+        }
+
+        Assertions.assertNull(BashIdentifierInterner.getActive())
+    }
+}
@@ -0,0 +1,116 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashBatchPipeline
+import com.ansorgit.plugins.bash.batch.FileResult
+import com.ansorgit.plugins.bash.batch.IoLineageStore
+import com.ansorgit.plugins.bash.batch.IoLineageStore.*
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentLinkedQueue
+
+class IoLineageStoreTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    private data class Row(val direction: Int, val fd: Int, val target: String, val value: String?, val flags: Int)
+
+    private fun rows(script: String): List<Row> {
+        val builder = IoLineageStore.builder()
+        builder.addFile("a.sh", script)
+        val store = builder.build()
+        return (0 until store.size()).map {
+            Row(store.getDirection(it), store.getFd(it), script.substring(store.getTargetStart(it), store.getTargetEnd(it)), store.getStaticValue(it), store.getFlags(it))
+        }
+    }
+
+    @Test
+    fun testRedirects() {
+        val rows = rows("cat < in.txt 2>/tmp/err >> \"\$LOG\" 3<> rw.txt &> all.log\n")
+
+        Assertions.assertEquals(listOf(
+                Row(READ, 0, "in.txt", "in.txt", STATIC),
+                Row(WRITE, 2, "/tmp/err", "/tmp/err", STATIC),
+                Row(APPEND, 1, "\"\$LOG\"", null, 0),
+                Row(READ_WRITE, 3, "rw.txt", "rw.txt", STATIC),
+                Row(WRITE, 1, "all.log", "all.log", STATIC or BOTH_OUTPUTS)
+        ), rows)
+    }
+
+    @Test
+    fun testOutOfRangeFileDescriptors() {
+        val rows = rows("echo x 99999999999>out 2147483647>max <<EOF\ntext\nEOF\ncat 4294967297<in\n")
+
+        Assertions.assertEquals(listOf(
+                Row(WRITE, NO_FD, "out", "out", STATIC),
+                Row(WRITE, Int.MAX_VALUE, "max", "max", STATIC),
+                Row(HEREDOC, 0, "text\n", "text\n", STATIC),
+                Row(READ, NO_FD, "in", "in", STATIC)
+        ), rows)
+    }
+
+    @Test
+    fun testStaticValues() {
+        val rows = rows("echo x >\"out file.txt\" >'q.txt' > a\$b.txt > a\\ b.txt > *.log > \"a\"'b'c > \${OUT}/x\n")
+
+        Assertions.assertEquals(listOf("out file.txt", "q.txt", null, "a b.txt", null, "abc", null), rows.map { it.value })
+        Assertions.assertEquals(listOf("\"out file.txt\"", "'q.txt'", "a\$b.txt", "a\\ b.txt", "*.log", "\"a\"'b'c", "\${OUT}/x"), rows.map { it.target })
+    }
+
+    @Test
+    fun testDuplicationsAndSubstitutions() {
+        val rows = rows("cmd 2>&1 >&2 <(sort f) > \"\$(date).log\"\n[[ a > b ]] && echo ok\n(( a > 1 ))\n")
+
+        Assertions.assertEquals(1, rows.size)
+        Assertions.assertEquals("\"\$(date).log\"", rows[0].target)
+        Assertions.assertNull(rows[0].value)
+    }
+
+    @Test
+    fun testSourceCommands() {
+        val rows = rows("source ./lib.sh; . \"\$DIR/conf.sh\"\nif true; then source lib.sh a b; fi\necho source x .\n")
+
+        Assertions.assertEquals(listOf(
+                Row(SOURCE, NO_FD, "./lib.sh", "./lib.sh", STATIC),
+                Row(SOURCE, NO_FD, "\"\$DIR/conf.sh\"", null, 0),
+                Row(SOURCE, NO_FD, "lib.sh", "lib.sh", STATIC)
+        ), rows)
+    }
+
+    @Test
+    fun testHeredocsAndHereStrings() {
+        val script = "cat <<EOF > x\nhello \$a\nEOF\ncat <<-'END'\n\traw \$b\n\tEND\ncat <<< \"here\" 4<<X\nstatic\nX\n"
+        val rows = rows(script)
+
+        Assertions.assertEquals(listOf(
+                Row(HEREDOC, 0, "hello \$a\n", null, 0),
+                Row(WRITE, 1, "x", "x", STATIC),
+                Row(HEREDOC, 0, "\traw \$b\n", "\traw \$b\n", STATIC or QUOTED_HEREDOC),
+                Row(HERE_STRING, 0, "\"here\"", "here", STATIC),
+                Row(HEREDOC, 4, "static\n", "static\n", STATIC)
+        ), rows)
+    }
+
+    @Test
+    fun testPipelineExtraction() {
+        val files = (0 until 50).map { i ->
+            File(dir, "script$i.sh").apply { writeText("cat < in$i.txt > out$i.txt\nsource common.sh\n") }
+        }
+
+        val builder = IoLineageStore.builder()
+        val results = ConcurrentLinkedQueue<FileResult<Int>>()
+        BashBatchPipeline(builder.extractor(), StandardCharsets.UTF_8, 2, 2, 2, 4).use { pipeline ->
+            pipeline.run(files) { results.add(it) }
+        }
+
+        val store = builder.build()
+        Assertions.assertTrue(results.all { it.isSuccess && it.facts == 3 })
+        Assertions.assertEquals(150, store.size())
+        Assertions.assertEquals(50, store.getFileCount())
+        Assertions.assertEquals(50, store.withStaticValue("common.sh").cardinality())
+        Assertions.assertEquals(50, store.withDirections(WRITE, APPEND).cardinality())
+    }
+}
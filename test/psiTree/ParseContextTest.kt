@@ -0,0 +1,97 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashFileParser
+import com.ansorgit.plugins.bash.batch.BashParseContext
+import com.ansorgit.plugins.bash.lang.parser.BashParserDefinition
+import com.ansorgit.plugins.bash.lang.psi.impl.BashFileImpl
+import com.ansorgit.plugins.bash.lang.psi.stubs.elements.BashStubFileElementType
+import com.intellij.lang.impl.PsiBuilderImpl
+import com.intellij.psi.SingleRootFileViewProvider
+import com.intellij.psi.impl.DebugUtil
+import com.intellij.psi.impl.source.tree.FileElement
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class ParseContextTest {
+    private val fileType = BashStubFileElementType()
+
+    // scripts which leave the lexer and the parser in a nested state at the end of the file
+    private val unfinishedScripts = listOf(
+            "cat <<EOF\nunterminated heredoc",
+            "echo \"unterminated \$(string",
+            "case \$a in\n  x) echo \${a",
+            "if true; then\n  echo `date",
+            "a=(1 2\nfunction f {")
+
+    private val corpus: List<String> by lazy {
+        val scripts = File("testResources/psiTree/scripts").listFiles { file -> !file.name.startsWith("expected") }!!
+                .sortedBy { it.name }
+                .map { it.readText() }
+
+        // every script follows an unfinished script at least once
+        scripts.flatMap { script -> unfinishedScripts.map { listOf(it, script) }.flatten() } + unfinishedScripts + scripts
+    }
+
+    private fun freshParse(content: String): String {
+        val fileElement = FileElement(fileType, content)
+        val file = BashFileImpl(SingleRootFileViewProvider(null, false))
+        val builder = PsiBuilderImpl(file, BashParserDefinition(), BashParserDefinition.createBashLexer(), fileElement, content)
+        return DebugUtil.treeToString(BashParserDefinition.createNewParser().parse(fileType, builder), false)
+    }
+
+    @Test
+    fun testReusedContext() {
+        for (content in corpus) {
+            Assertions.assertEquals(freshParse(content), DebugUtil.treeToString(BashFileParser.parse(content), false), content)
+        }
+    }
+
+    @Test
+    fun testContextPerThread() {
+        val executor = Executors.newFixedThreadPool(2)
+        try {
+            val contexts = listOf(executor.submit(Callable { BashParseContext.current() }), executor.submit(Callable { BashParseContext.current() }))
+                    .map { it.get() }
+
+            Assertions.assertSame(BashParseContext.current(), BashParseContext.current())
+            Assertions.assertNotSame(BashParseContext.current(), contexts[0])
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    @Test
+    fun testConcurrentParsing() {
+        val expected = corpus.map { freshParse(it) }
+
+        val threads = 8
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val results = (0 until threads).map { thread ->
+                executor.submit(Callable {
+                    // each thread uses another order of the files
+                    val order = corpus.indices.shuffled(java.util.Random(thread.toLong()))
+                    val trees = arrayOfNulls<String>(corpus.size)
+                    repeat(10) {
+                        for (i in order) {
+                            val tree = DebugUtil.treeToString(BashFileParser.parse(corpus[i]), false)
+                            Assertions.assertTrue(trees[i] == null || trees[i] == tree)
+                            trees[i] = tree
+                        }
+                    }
+                    trees.toList()
+                })
+            }
+
+            for (result in results) {
+                Assertions.assertEquals(expected, result.get(2, TimeUnit.MINUTES))
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+}
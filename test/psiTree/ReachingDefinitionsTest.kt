@@ -0,0 +1,61 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.lang.psi.api.vars.BashVar
+import com.ansorgit.plugins.bash.lang.psi.dataflow.BashReachingDefinitions
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class ReachingDefinitionsTest : AbstractBashPsiTreeTest() {
+
+    private fun reachingValues(script: String, useNumber: Int): List<String> {
+        val definitions = BashReachingDefinitions.analyze(parse(script).psi)
+        val use: BashVar = definitions.uses[useNumber]
+        return definitions.reachingDefinitions(use).map { it.text }
+    }
+
+    @Test
+    fun testIfElse() {
+        val script = """a=1
+                       |if true; then a=2; a=3; elif false; then b=1; else a=4; fi
+                       |echo ${"$"}a
+                       |""".trimMargin()
+
+        Assertions.assertEquals(listOf("a=1", "a=3", "a=4"), reachingValues(script, 0))
+    }
+
+    @Test
+    fun testLoopAndConditional() {
+        val script = """a=1
+                       |while true; do echo ${"$"}a; a=2; done
+                       |true && a=3
+                       |echo ${"$"}a
+                       |""".trimMargin()
+
+        Assertions.assertEquals(listOf("a=1", "a=2"), reachingValues(script, 0))
+        Assertions.assertEquals(listOf("a=1", "a=2", "a=3"), reachingValues(script, 1))
+    }
+
+    @Test
+    fun testSubshell() {
+        val script = """a=1
+                       |(a=2; echo ${"$"}a)
+                       |echo ${"$"}a | cat
+                       |""".trimMargin()
+
+        Assertions.assertEquals(listOf("a=2"), reachingValues(script, 0))
+        Assertions.assertEquals(listOf("a=1"), reachingValues(script, 1))
+    }
+
+    @Test
+    fun testFunctions() {
+        val script = """a=1
+                       |f() { local a=2; b=3; echo ${"$"}a; }
+                       |f
+                       |echo ${"$"}a ${"$"}b
+                       |""".trimMargin()
+
+        Assertions.assertEquals(listOf("a=2"), reachingValues(script, 0))
+        Assertions.assertEquals(listOf("a=1"), reachingValues(script, 1))
+        Assertions.assertEquals(listOf("b=3"), reachingValues(script, 2))
+    }
+}
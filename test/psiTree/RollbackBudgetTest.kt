@@ -0,0 +1,65 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashFileParser
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes
+import com.intellij.lang.ASTNode
+import com.intellij.psi.PsiErrorElement
+import com.intellij.psi.impl.DebugUtil
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import java.io.File
+
+class RollbackBudgetTest {
+    private fun errors(root: ASTNode): List<String> {
+        val result = mutableListOf<String>()
+        fun collect(node: ASTNode) {
+            val psi = node.psi
+            if (psi is PsiErrorElement) {
+                result.add(psi.errorDescription)
+            }
+            generateSequence(node.firstChildNode) { it.treeNext }.forEach { collect(it) }
+        }
+        collect(root)
+        return result
+    }
+
+    private fun topLevelCommands(root: ASTNode) = generateSequence(root.firstChildNode) { it.treeNext }
+            .filter { it.elementType == BashElementTypes.SIMPLE_COMMAND_ELEMENT }
+            .map { it.text }
+            .toList()
+
+    @Test
+    fun testNestedArithmetic() {
+        // every nested arithmetic expansion doubles the rolled back tokens without a budget
+        val content = "echo first\n" + "x=\$(( ".repeat(60) + "\necho ok\n"
+
+        val root = BashFileParser.parse(content)
+
+        //the budget was exhausted by the broken statement only, the statements around it are parsed normally
+        Assertions.assertEquals(content, root.text)
+        Assertions.assertEquals(1, errors(root).count { it == "Unable to parse the statement" })
+        Assertions.assertEquals(listOf("echo first", "echo ok"), topLevelCommands(root))
+    }
+
+    @Test
+    fun testPanicModeIsLinear() {
+        val line = "x=\$(( ".repeat(30) + "\necho ok\n"
+        val content = line.repeat(500)
+
+        val root = BashFileParser.parse(content)
+
+        //in panic mode each broken statement exhausts its own small budget and is skipped on its own
+        Assertions.assertEquals(content, root.text)
+        Assertions.assertEquals(500, errors(root).count { it == "Unable to parse the statement" })
+        Assertions.assertEquals(List(500) { "echo ok" }, topLevelCommands(root))
+    }
+
+    @Test
+    fun testRegularScripts() {
+        val scripts = File("testResources/psiTree/scripts").listFiles { file -> !file.name.startsWith("expected") }!!
+        for (script in scripts) {
+            val root = BashFileParser.parse(script.readText())
+            Assertions.assertFalse(errors(root).contains("Unable to parse the statement"), DebugUtil.treeToString(root, false))
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashFileParser
+import com.ansorgit.plugins.bash.batch.BashScriptLoader
+import com.intellij.psi.impl.DebugUtil
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.nio.CharBuffer
+import java.nio.charset.StandardCharsets
+
+class ScriptLoaderTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    private fun file(name: String, bytes: ByteArray) = File(dir, name).apply { writeBytes(bytes) }
+
+    @Test
+    fun testAsciiView() {
+        val script = "#!/bin/bash\necho \"\$HOME\" | cat\n"
+        val content = BashScriptLoader.load(file("a.sh", script.toByteArray()))
+
+        Assertions.assertFalse(content is String || content is CharBuffer)
+        Assertions.assertEquals(script, content.toString())
+        Assertions.assertEquals("HOME", content.subSequence(19, 23).toString())
+    }
+
+    @Test
+    fun testByteOrderMarks() {
+        val script = "echo ä\n"
+
+        val utf8 = BashScriptLoader.load(file("utf8.sh", byteArrayOf(0xEF.toByte(), 0xBB.toByte(), 0xBF.toByte()) + script.toByteArray(StandardCharsets.UTF_8)))
+        Assertions.assertEquals(script, utf8.toString())
+
+        val utf16 = BashScriptLoader.load(file("utf16.sh", byteArrayOf(0xFF.toByte(), 0xFE.toByte()) + script.toByteArray(StandardCharsets.UTF_16LE)))
+        Assertions.assertEquals(script, utf16.toString())
+    }
+
+    @Test
+    fun testDefaultCharset() {
+        val script = "echo é\n"
+
+        Assertions.assertEquals(script, BashScriptLoader.load(file("utf8.sh", script.toByteArray(StandardCharsets.UTF_8))).toString())
+        Assertions.assertEquals(script, BashScriptLoader.load(file("latin1.sh", script.toByteArray(StandardCharsets.ISO_8859_1)), StandardCharsets.ISO_8859_1).toString())
+    }
+
+    @Test
+    fun testMappedFile() {
+        val script = "if true; then\n  echo \"\${a}\" > /dev/null\nfi\n".repeat(5000)
+        val content = BashScriptLoader.load(file("large.sh", script.toByteArray()))
+
+        Assertions.assertEquals(script.length, content.length)
+        Assertions.assertEquals(DebugUtil.treeToString(BashFileParser.parse(script), false), DebugUtil.treeToString(BashFileParser.parse(content), false))
+    }
+}
@@ -0,0 +1,116 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashFileParser
+import com.ansorgit.plugins.bash.batch.LshIndex
+import com.ansorgit.plugins.bash.batch.ScriptMinHasher
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class ScriptMinHasherTest {
+    private val hasher = ScriptMinHasher()
+
+    private fun loadScript(table: String, path: String) = """#!/bin/bash
+        |set -e
+        |LOG=$path/load.log
+        |log() { echo "${"$"}(date) ${"$"}1" >> "${"$"}LOG"; }
+        |log "loading $table"
+        |bteq <<EOF
+        |.LOGON dbc/user,pass;
+        |DELETE FROM $table ALL;
+        |INSERT INTO $table SELECT * FROM stage_$table;
+        |.LOGOFF;
+        |EOF
+        |if [ ${"$"}? -ne 0 ]; then
+        |  log "failed"
+        |  exit 1
+        |fi
+        |""".trimMargin()
+
+    private val otherScript = """#!/bin/bash
+        |for f in *.txt; do
+        |  wc -l "${"$"}f" | while read n name; do
+        |    case ${"$"}n in
+        |      0) rm -f "${"$"}name" ;;
+        |      *) gzip "${"$"}name" ;;
+        |    esac
+        |  done
+        |done
+        |""".trimMargin()
+
+    @Test
+    fun testNearDuplicates() {
+        val a = hasher.signature(loadScript("sales.orders", "/data/sales"))
+        val b = hasher.signature(loadScript("hr.employees", "/opt/hr"))
+        val other = hasher.signature(otherScript)
+
+        Assertions.assertEquals(1.0, a.similarity(hasher.signature(loadScript("sales.orders", "/data/sales"))))
+        Assertions.assertTrue(a.similarity(b) > 0.8, "similarity ${a.similarity(b)}")
+        Assertions.assertTrue(a.similarity(other) < 0.2, "similarity ${a.similarity(other)}")
+    }
+
+    @Test
+    fun testTreeSignatures() {
+        val script = loadScript("t1", "/x")
+        val root = BashFileParser.parse(script)
+
+        Assertions.assertEquals(hasher.signature(root), hasher.signature(BashFileParser.parse(loadScript("t2", "/y"))))
+
+        val functions = hasher.functionSignatures(root)
+        Assertions.assertEquals(setOf("log"), functions.keys)
+        Assertions.assertEquals(functions["log"], hasher.functionSignatures(BashFileParser.parse("a=1\nlog() { echo \"${"$"}(date) ${"$"}1\" >> \"${"$"}LOG\"; }\n"))["log"])
+    }
+
+    @Test
+    fun testLshClusters() {
+        val index = LshIndex.forThreshold<String>(ScriptMinHasher.DEFAULT_HASH_COUNT, 0.7)
+        for (i in 0 until 20) {
+            index.add("load$i", hasher.signature(loadScript("db.table$i", "/data/dir$i")))
+        }
+        index.add("other", hasher.signature(otherScript))
+        index.add("other-copy", hasher.signature(otherScript.replace("*.txt", "*.csv")))
+
+        val clusters = index.clusters(0.7)
+        Assertions.assertEquals(2, clusters.size)
+        Assertions.assertEquals((0 until 20).map { "load$it" }.toSet(), clusters[0])
+        Assertions.assertEquals(setOf("other", "other-copy"), clusters[1])
+
+        Assertions.assertEquals(setOf("other", "other-copy"), index.findSimilar(hasher.signature(otherScript), 0.7))
+    }
+
+    @Test
+    fun testLshClustersOfManyCopies() {
+        //a template which was copied thousands of times fills a single bucket of each band
+        val index = LshIndex.forThreshold<String>(ScriptMinHasher.DEFAULT_HASH_COUNT, 0.7)
+        val templates = (0 until 4).map { hasher.signature(loadScript("db.table$it", "/data/dir$it")) }
+        for (i in 0 until 5000) {
+            index.add("copy$i", templates[i % templates.size])
+        }
+        index.add("other", hasher.signature(otherScript))
+        index.add("other-copy", hasher.signature(otherScript.replace("*.txt", "*.csv")))
+
+        val clusters = index.clusters(0.7)
+        Assertions.assertEquals(listOf(5000, 2), clusters.map { it.size })
+        Assertions.assertEquals(setOf("other", "other-copy"), clusters[1])
+    }
+
+    @Test
+    fun testLshReplaceAndRemove() {
+        val index = LshIndex.forThreshold<String>(ScriptMinHasher.DEFAULT_HASH_COUNT, 0.7)
+        val load = hasher.signature(loadScript("db.table", "/data"))
+        val other = hasher.signature(otherScript)
+
+        //rescans replace and remove the same keys again and again
+        for (round in 0 until 50) {
+            index.add("a", if (round % 2 == 0) load else other)
+            index.add("b", load)
+            index.remove("c")
+            index.add("c", other)
+        }
+        index.remove("b")
+
+        Assertions.assertEquals(2, index.size())
+        Assertions.assertEquals(setOf("a", "c"), index.findSimilar(other, 0.7))
+        Assertions.assertEquals(emptySet<String>(), index.findSimilar(load, 0.7))
+        Assertions.assertEquals(listOf(setOf("a", "c")), index.clusters(0.7))
+    }
+}
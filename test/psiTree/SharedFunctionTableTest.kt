@@ -0,0 +1,68 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashFileParser
+import com.ansorgit.plugins.bash.batch.FunctionFacts
+import com.ansorgit.plugins.bash.batch.SharedFunctionTable
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class SharedFunctionTableTest {
+
+    private val log = """log() {
+                        |  level=${"$"}1
+                        |  echo "${"$"}level: ${"$"}2" >&2
+                        |  logger -t app "${"$"}2"
+                        |}
+                        |""".trimMargin()
+
+    @Test
+    fun testIdenticalBodiesShareFacts() {
+        val table = SharedFunctionTable()
+
+        val first = table.shareAll(BashFileParser.parse(log + "log info started\n"))
+        val second = table.shareAll(BashFileParser.parse("#!/bin/bash\nset -e\n" + log.replace("log()", "warn()")))
+
+        Assertions.assertEquals(1, first.size)
+        Assertions.assertEquals(1, second.size)
+        Assertions.assertEquals("log", first[0].name)
+        Assertions.assertEquals("warn", second[0].name)
+
+        Assertions.assertSame(first[0].facts, second[0].facts)
+        Assertions.assertEquals(1, table.misses)
+        Assertions.assertEquals(1, table.hits)
+        Assertions.assertEquals(1, table.size())
+
+        val facts = first[0].facts
+        Assertions.assertEquals(listOf("echo", "logger"), facts.getNames(FunctionFacts.Kind.COMMAND))
+        Assertions.assertEquals(listOf("level"), facts.getNames(FunctionFacts.Kind.VARIABLE_DEFINITION))
+        Assertions.assertEquals(listOf("1", "level", "2", "2"), facts.getNames(FunctionFacts.Kind.VARIABLE_READ))
+    }
+
+    @Test
+    fun testRelocatedOffsets() {
+        val table = SharedFunctionTable()
+        val prefix = "#!/bin/bash\nset -e\n"
+        val content = prefix + log
+
+        val function = table.shareAll(BashFileParser.parse(content)).single()
+        val facts = function.facts
+        for (i in 0 until facts.size()) {
+            val offset = function.getOffset(i)
+            Assertions.assertTrue(content.startsWith(facts.getName(i), offset) || content.startsWith("$" + facts.getName(i), offset), "fact $i")
+        }
+
+        Assertions.assertEquals(content.indexOf('{'), function.bodyOffset)
+    }
+
+    @Test
+    fun testDifferentBodies() {
+        val table = SharedFunctionTable()
+
+        val functions = table.shareAll(BashFileParser.parse("a() { echo a; }\nb() { echo b; }\nc() { echo a; }\n"))
+
+        Assertions.assertEquals(3, functions.size)
+        Assertions.assertNotSame(functions[0].facts, functions[1].facts)
+        Assertions.assertSame(functions[0].facts, functions[2].facts)
+        Assertions.assertEquals(2, table.size())
+    }
+}
@@ -0,0 +1,116 @@
+package psiTree
+
+import com.intellij.util.io.PagedFileStorage
+import com.intellij.util.io.ResizeableMappedFile
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+/**
+ * Reads files which were written by a mutable storage through read-only snapshots.
+ */
+class SnapshotStorageTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    private val pageSize = 8192
+    private val values = 100_000
+
+    private fun writeFile(name: String, aligned: Boolean): File {
+        val file = File(dir, name)
+        val storage = ResizeableMappedFile(file, pageSize, PagedFileStorage.StorageLockContext(false), pageSize, aligned, true)
+        //unaligned values cross the page boundaries
+        val stride = if (aligned) 8 else 7
+        for (i in 0 until values) {
+            storage.putInt(i.toLong() * stride, i * 31)
+        }
+        storage.close()
+        return file
+    }
+
+    @Test
+    fun testUnalignedValuesAcrossPagesAndSegments() {
+        val file = writeFile("unaligned", false)
+
+        val snapshot = PagedFileStorage.openSnapshot(file, pageSize, false, true, 3 * pageSize)
+        Assertions.assertTrue(snapshot.isSnapshot)
+
+        val pool = Executors.newFixedThreadPool(4)
+        try {
+            val tasks = (0 until 4).map { seed ->
+                pool.submit(Callable {
+                    val random = Random(seed.toLong())
+                    val bytes = ByteArray(3 * pageSize)
+                    repeat(50_000) {
+                        val i = random.nextInt(values)
+                        Assertions.assertEquals(i * 31, snapshot.getInt(i.toLong() * 7))
+                    }
+                    //a range over several pages and segments
+                    snapshot.get(5L, bytes, 0, bytes.size)
+                    Assertions.assertEquals(snapshot.getByte(5L + pageSize * 2 + 100), bytes[pageSize * 2 + 100])
+                })
+            }
+            tasks.forEach { it.get() }
+        } finally {
+            pool.shutdown()
+        }
+
+        Assertions.assertThrows(UnsupportedOperationException::class.java) { snapshot.putInt(0, 1) }
+        Assertions.assertThrows(UnsupportedOperationException::class.java) { snapshot.resize(0) }
+        snapshot.close()
+    }
+
+    @Test
+    fun testResizeableMappedFileSnapshot() {
+        val file = writeFile("aligned", true)
+
+        val snapshot = ResizeableMappedFile.openSnapshot(file, pageSize, true, true)
+        Assertions.assertEquals(values * 8L - 4, snapshot.length())
+        for (i in 0 until values step 13) {
+            Assertions.assertEquals(i * 31, snapshot.getInt(i.toLong() * 8))
+        }
+        snapshot.close()
+
+        //the file is unchanged and can be opened for writing again
+        val storage = ResizeableMappedFile(file, pageSize, PagedFileStorage.StorageLockContext(false), pageSize, true, true)
+        Assertions.assertEquals(values * 8L - 4, storage.length())
+        Assertions.assertEquals(31, storage.getInt(8))
+        storage.close()
+    }
+
+    @Test
+    fun testConcurrentReaders() {
+        val file = writeFile("readers", true)
+        val reads = 200_000
+
+        fun read(threads: Int, getInt: (Long) -> Int) {
+            val pool = Executors.newFixedThreadPool(threads)
+            try {
+                val tasks = (0 until threads).map { seed ->
+                    pool.submit(Callable {
+                        val random = Random(seed.toLong())
+                        repeat(reads / threads) {
+                            val i = random.nextInt(values)
+                            Assertions.assertEquals(i * 31, getInt(i.toLong() * 8))
+                        }
+                    })
+                }
+                tasks.forEach { it.get() }
+            } finally {
+                pool.shutdown()
+            }
+        }
+
+        val paged = ResizeableMappedFile(file, pageSize, PagedFileStorage.StorageLockContext(false), pageSize, true, true)
+        val snapshot = ResizeableMappedFile.openSnapshot(file, pageSize, true, true)
+        read(4) { paged.getInt(it) }
+        read(4) { snapshot.getInt(it) }
+        paged.close()
+        snapshot.close()
+    }
+}
@@ -0,0 +1,95 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashFileParser
+import com.ansorgit.plugins.bash.batch.BashStreamingParser
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes
+import com.intellij.lang.ASTNode
+import com.intellij.psi.impl.DebugUtil
+import com.intellij.psi.impl.source.tree.CompositeElement
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class StreamingParserTest {
+
+    private val script = """#!/bin/bash
+                           |a=1
+                           |for i
+                           |do
+                           |  echo ${"$"}i |
+                           |    grep x &&
+                           |    echo y
+                           |done
+                           |case ${"$"}a in
+                           |  1) echo one;;
+                           |  (2) echo two;;
+                           |esac
+                           |function f {
+                           |  cat <<EOF
+                           |if then
+                           |EOF
+                           |}
+                           |g() (
+                           |  echo ${"$"}(date)
+                           |)
+                           |x=(1
+                           |2)
+                           |echo if; echo \
+                           |  done
+                           |""".trimMargin()
+
+    private fun fullParse(content: String): List<String> {
+        val root = BashFileParser.parse(content)
+        return generateSequence(root.firstChildNode) { it.treeNext }
+                .filter { it is CompositeElement }
+                .map { "${it.startOffset}:${DebugUtil.treeToString(it, false)}" }
+                .toList()
+    }
+
+    private fun streamedParse(content: String, chunkSize: Int): List<String> {
+        val result = mutableListOf<String>()
+        BashStreamingParser(chunkSize).parse(content) { node, offset -> result.add("$offset:${DebugUtil.treeToString(node, false)}") }
+        return result
+    }
+
+    @Test
+    fun testSameTreesAsFullParse() {
+        val expected = fullParse(script)
+        Assertions.assertEquals(9, expected.size)
+
+        Assertions.assertEquals(expected, streamedParse(script, 0))
+        Assertions.assertEquals(expected, streamedParse(script, 40))
+        Assertions.assertEquals(expected, streamedParse(script, BashStreamingParser.DEFAULT_CHUNK_SIZE))
+    }
+
+    @Test
+    fun testTopLevelExit() {
+        val content = "echo a\nexit 1\necho b\n\u0001\u0002 if (\n"
+
+        val nodes = mutableListOf<ASTNode>()
+        BashStreamingParser(0).parse(content) { node, _ -> nodes.add(node) }
+
+        Assertions.assertEquals(fullParse(content), streamedParse(content, 0))
+        Assertions.assertEquals(BashElementTypes.BINARY_DATA, nodes.last().elementType)
+    }
+
+    @Test
+    fun testSyntaxErrors() {
+        val content = "echo a\nif true; then\necho b\necho c\n"
+
+        Assertions.assertEquals(fullParse(content), streamedParse(content, 0))
+    }
+
+    @Test
+    fun testOffsets() {
+        val content = "echo a\n\n  echo bb\n# comment\necho ccc\n"
+
+        val commands = mutableListOf<String>()
+        val count = BashStreamingParser(0).parse(content) { node, offset ->
+            Assertions.assertEquals(node.text, content.substring(offset, offset + node.textLength))
+            commands.add(node.text)
+        }
+
+        Assertions.assertEquals(3, count)
+        Assertions.assertEquals(listOf("echo a", "echo bb", "echo ccc"), commands)
+    }
+}
@@ -0,0 +1,205 @@
+package psiTree
+
+import com.intellij.openapi.util.Condition
+import com.intellij.util.containers.SLRUMap
+import com.intellij.util.containers.ShareableKey
+import com.intellij.util.containers.TinyLfuCache
+import com.intellij.util.io.Page
+import com.intellij.util.io.PagePool
+import com.intellij.util.io.RandomAccessDataFile
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class TinyLfuCacheTest {
+
+    @TempDir
+    lateinit var dir: File
+
+    //a reused lookup key, like the keys of PagePool
+    private open class MutableKey(var value: Int) : ShareableKey {
+        override fun getStableCopy(): ShareableKey = MutableKey(value)
+
+        override fun equals(other: Any?) = other is MutableKey && other.value == value
+
+        override fun hashCode() = value
+    }
+
+    private class RecordingCache(capacity: Int, concurrency: Int = 16) : TinyLfuCache<Int, String>(capacity, concurrency) {
+        val dropped = mutableListOf<String>()
+
+        override fun onDropFromCache(key: Int, value: String) {
+            dropped += value
+        }
+    }
+
+    @Test
+    fun testBasicOperations() {
+        val cache = RecordingCache(100)
+
+        Assertions.assertNull(cache.get(1))
+        cache.put(1, "a")
+        Assertions.assertEquals("a", cache.get(1))
+
+        cache.put(1, "b")
+        Assertions.assertEquals("b", cache.get(1))
+        Assertions.assertEquals(listOf("a"), cache.dropped)
+
+        Assertions.assertEquals("b", cache.putIfAbsent(1, "c"))
+        Assertions.assertNull(cache.putIfAbsent(2, "c"))
+        Assertions.assertEquals(2, cache.size())
+
+        Assertions.assertTrue(cache.remove(1))
+        Assertions.assertFalse(cache.remove(1))
+        Assertions.assertNull(cache.get(1))
+        Assertions.assertEquals(listOf("a", "b"), cache.dropped)
+
+        cache.clear()
+        Assertions.assertEquals(0, cache.size())
+        Assertions.assertEquals(listOf("a", "b", "c"), cache.dropped)
+    }
+
+    @Test
+    fun testCounters() {
+        val cache = RecordingCache(64, 1)
+        for (i in 0 until 64) {
+            Assertions.assertNull(cache.get(i))
+            cache.put(i, i.toString())
+        }
+        for (i in 0 until 64) {
+            Assertions.assertEquals(i.toString(), cache.get(i))
+        }
+
+        Assertions.assertEquals(64, cache.getHits())
+        Assertions.assertEquals(64, cache.getMisses())
+        Assertions.assertEquals(0, cache.getEvictions())
+
+        for (i in 64 until 128) {
+            cache.get(i)
+            cache.put(i, i.toString())
+        }
+        Assertions.assertEquals(64, cache.size())
+        Assertions.assertEquals(64, cache.getEvictions())
+        Assertions.assertEquals(64, cache.dropped.size)
+    }
+
+    @Test
+    fun testRemoveIf() {
+        val cache = RecordingCache(1000)
+        for (i in 0 until 500) {
+            cache.put(i, i.toString())
+        }
+
+        Assertions.assertTrue(cache.removeIf(Condition { it.length == 1 }))
+        Assertions.assertFalse(cache.removeIf(Condition { it.length == 1 }))
+        Assertions.assertEquals(490, cache.size())
+        Assertions.assertEquals(10, cache.dropped.size)
+        Assertions.assertNull(cache.get(5))
+        Assertions.assertEquals("50", cache.get(50))
+    }
+
+    @Test
+    fun testScanResistance() {
+        val capacity = 1000
+        val hotKeys = 500
+
+        val tinyLfu = TinyLfuCache<Int, Int>(capacity)
+        val slru = SLRUMap<Int, Int>(capacity / 2, capacity / 2)
+
+        fun access(key: Int) {
+            if (tinyLfu.get(key) == null) tinyLfu.put(key, key)
+            if (slru.get(key) == null) slru.put(key, key)
+        }
+
+        //hot keys of an index, which are requested repeatedly between the files of a scan
+        for (round in 0 until 5) {
+            for (key in 0 until hotKeys) access(key)
+        }
+        //every key of the scan is requested twice in a row, e.g. a page which is read by two consecutive reads
+        for (key in 0 until 100_000) {
+            access(1_000_000 + key)
+            access(1_000_000 + key)
+            if (key % 2 == 0) access(key / 2 % hotKeys)
+        }
+
+        val tinyLfuResident = (0 until hotKeys).count { tinyLfu.get(it) != null }
+        val slruResident = (0 until hotKeys).count { slru.get(it) != null }
+
+        Assertions.assertTrue(tinyLfuResident > hotKeys * 9 / 10, "hot keys were evicted: $tinyLfuResident")
+        Assertions.assertTrue(tinyLfuResident > slruResident)
+        Assertions.assertTrue(tinyLfu.size() <= capacity)
+    }
+
+    @Test
+    fun testConcurrentAccess() {
+        val cache = TinyLfuCache<Int, Int>(10_000)
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+            val tasks = (0 until 4).map { thread ->
+                Callable {
+                    val random = java.util.Random(thread.toLong())
+                    for (i in 0 until 200_000) {
+                        val key = if (random.nextInt(4) == 0) random.nextInt(1_000_000) else random.nextInt(2_000)
+                        val value = cache.get(key)
+                        if (value == null) {
+                            cache.put(key, key * 2)
+                        } else {
+                            Assertions.assertEquals(key * 2, value)
+                        }
+                    }
+                }
+            }
+            executor.invokeAll(tasks).forEach { it.get() }
+        } finally {
+            executor.shutdown()
+        }
+
+        Assertions.assertTrue(cache.size() <= 10_000)
+        Assertions.assertEquals(800_000, cache.getHits() + cache.getMisses())
+        Assertions.assertTrue(cache.getHits() > cache.getMisses())
+    }
+
+    @Test
+    fun testShareableKeys() {
+        val cache = object : TinyLfuCache<MutableKey, String>(100, 1) {}
+        val lookup = MutableKey(0)
+
+        for (i in 0 until 50) {
+            lookup.value = i
+            cache.put(lookup, i.toString())
+        }
+
+        //the cache stored copies, changing the lookup key doesn't change the stored keys
+        for (i in 0 until 50) {
+            lookup.value = i
+            Assertions.assertEquals(i.toString(), cache.get(lookup))
+        }
+        Assertions.assertEquals(50, cache.size())
+    }
+
+    @Test
+    fun testPagePoolEviction() {
+        val pool = PagePool(2, 2)
+        val file = RandomAccessDataFile(File(dir, "pages.dat").apply { createNewFile() }, pool)
+        try {
+            for (page in 0 until 64) {
+                file.putInt(page.toLong() * Page.PAGE_SIZE, page)
+                file.putInt(page.toLong() * Page.PAGE_SIZE + 4, -page)
+            }
+            for (page in 0 until 64) {
+                Assertions.assertEquals(page, file.getInt(page.toLong() * Page.PAGE_SIZE))
+                Assertions.assertEquals(-page, file.getInt(page.toLong() * Page.PAGE_SIZE + 4))
+            }
+
+            file.force()
+            for (page in 63 downTo 0) {
+                Assertions.assertEquals(page, file.getInt(page.toLong() * Page.PAGE_SIZE))
+            }
+        } finally {
+            file.dispose()
+        }
+    }
+}
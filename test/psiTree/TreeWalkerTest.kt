@@ -0,0 +1,116 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.lang.parser.BashElementTypes
+import com.ansorgit.plugins.bash.lang.psi.BashVisitor
+import com.ansorgit.plugins.bash.lang.psi.api.function.BashFunctionDef
+import com.ansorgit.plugins.bash.lang.psi.api.expression.BashSubshellCommand
+import com.ansorgit.plugins.bash.lang.psi.api.vars.BashVar
+import com.ansorgit.plugins.bash.lang.psi.api.vars.BashVarDef
+import com.ansorgit.plugins.bash.lang.psi.util.BashTreeWalker
+import com.intellij.psi.tree.TokenSet
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class TreeWalkerTest : AbstractBashPsiTreeTest() {
+
+    @Test
+    fun testMultipleVisitors() {
+        val root = parse("a=1\nf() { b=2; echo \$a; }\necho \$b\n")
+
+        val defs = mutableListOf<String>()
+        val vars = mutableListOf<String>()
+        val functions = mutableListOf<String>()
+
+        BashTreeWalker()
+                .add(object : BashVisitor() {
+                    override fun visitVarDef(varDef: BashVarDef) {
+                        defs.add(varDef.text)
+                    }
+                }, TokenSet.create(BashElementTypes.VAR_DEF_ELEMENT))
+                .add(object : BashVisitor() {
+                    override fun visitVarUse(bashVar: BashVar) {
+                        vars.add(bashVar.text)
+                    }
+                }, TokenSet.create(BashElementTypes.VAR_ELEMENT))
+                .add(object : BashVisitor() {
+                    override fun visitFunctionDef(functionDef: BashFunctionDef) {
+                        functions.add(functionDef.name!!)
+                    }
+                })
+                .walk(root)
+
+        Assertions.assertEquals(listOf("a=1", "b=2"), defs)
+        Assertions.assertEquals(listOf("\$a", "\$b"), vars)
+        Assertions.assertEquals(listOf("f"), functions)
+    }
+
+    @Test
+    fun testPrunedTypes() {
+        val root = parse("a=1\nf() { b=2; }\n(c=3)\n")
+
+        val pruned = mutableListOf<String>()
+        val all = mutableListOf<String>()
+        val types = TokenSet.create(BashElementTypes.VAR_DEF_ELEMENT)
+
+        BashTreeWalker()
+                .add(collector(pruned), types, TokenSet.create(BashElementTypes.FUNCTION_DEF_COMMAND))
+                .add(collector(all), types)
+                .walk(root)
+
+        Assertions.assertEquals(listOf("a=1", "c=3"), pruned)
+        Assertions.assertEquals(listOf("a=1", "b=2", "c=3"), all)
+    }
+
+    @Test
+    fun testSkipChildren() {
+        val root = parse("a=1\n(b=2; (c=3))\nd=4\n")
+
+        val walker = BashTreeWalker()
+        val skipping = mutableListOf<String>()
+        val all = mutableListOf<String>()
+
+        walker.add(object : BashVisitor() {
+            override fun visitSubshell(subshellCommand: BashSubshellCommand) {
+                walker.skipChildren()
+            }
+
+            override fun visitVarDef(varDef: BashVarDef) {
+                skipping.add(varDef.text)
+            }
+        })
+        walker.add(collector(all), TokenSet.create(BashElementTypes.VAR_DEF_ELEMENT))
+        walker.walk(root)
+
+        Assertions.assertEquals(listOf("a=1", "d=4"), skipping)
+        Assertions.assertEquals(listOf("a=1", "b=2", "c=3", "d=4"), all)
+    }
+
+    @Test
+    fun testDeepNesting() {
+        val depth = 300
+        val root = parse("( ".repeat(depth) + "a=1" + " )".repeat(depth) + "\n")
+
+        var subshells = 0
+        val defs = mutableListOf<String>()
+
+        BashTreeWalker()
+                .add(object : BashVisitor() {
+                    override fun visitSubshell(subshellCommand: BashSubshellCommand) {
+                        subshells++
+                    }
+                }, TokenSet.create(BashElementTypes.SUBSHELL_COMMAND))
+                .add(collector(defs), TokenSet.create(BashElementTypes.VAR_DEF_ELEMENT))
+                .walk(root)
+
+        Assertions.assertEquals(depth, subshells)
+        Assertions.assertEquals(listOf("a=1"), defs)
+    }
+
+    private fun collector(target: MutableList<String>): BashVisitor {
+        return object : BashVisitor() {
+            override fun visitVarDef(varDef: BashVarDef) {
+                target.add(varDef.text)
+            }
+        }
+    }
+}
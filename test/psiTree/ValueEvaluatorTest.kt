@@ -0,0 +1,91 @@
+package psiTree
+
+import com.ansorgit.plugins.bash.batch.BashFileParser
+import com.ansorgit.plugins.bash.lang.psi.value.BashValueEvaluator
+import com.intellij.lang.ASTNode
+import com.intellij.psi.TokenType
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class ValueEvaluatorTest {
+    private val bindings = mapOf("HOME" to "/home/user", "SQL_DIR" to "/sql", "TABLE" to "orders", "FILE" to "archive.tar.gz", "EMPTY" to "")
+
+    /**
+     * Returns the node of the single argument of the command "echo <word>".
+     */
+    private fun argument(word: String): ASTNode {
+        val command = BashFileParser.parse("echo $word").firstChildNode
+        val arguments = generateSequence(command.firstChildNode.treeNext) { it.treeNext }
+                .filter { it.elementType != TokenType.WHITE_SPACE }
+                .toList()
+
+        Assertions.assertEquals(1, arguments.size, "Expected a single argument: $word")
+        return arguments[0]
+    }
+
+    private fun evaluate(word: String, evaluator: BashValueEvaluator = BashValueEvaluator(bindings)): String? = evaluator.evaluate(argument(word))
+
+    @Test
+    fun testWords() {
+        Assertions.assertEquals("abc", evaluate("abc"))
+        Assertions.assertEquals("a b", evaluate("'a b'"))
+        Assertions.assertEquals("a b", evaluate("a\\ b"))
+        Assertions.assertEquals("x \$y", evaluate("\"x \\\$y\""))
+        Assertions.assertEquals("a\tb", evaluate("\$'a\\tb'"))
+    }
+
+    @Test
+    fun testConcatenation() {
+        Assertions.assertEquals("/sql/orders.sql", evaluate("\$SQL_DIR/\$TABLE.sql"))
+        Assertions.assertEquals("/sql/orders.sql", evaluate("\"\${SQL_DIR}/\$TABLE.sql\""))
+        Assertions.assertEquals("/home/user/bin", evaluate("~/bin".replace("~", "\$HOME")))
+    }
+
+    @Test
+    fun testDefaults() {
+        val unset = BashValueEvaluator(bindings, true)
+        Assertions.assertEquals("/opt/teradata/bin/bteq", evaluate("\"\${BTEQ_HOME:-/opt/teradata}/bin/bteq\"", unset))
+        Assertions.assertEquals("/td/bin/bteq", evaluate("\"\${BTEQ_HOME:-/opt/teradata}/bin/bteq\"", BashValueEvaluator(mapOf("BTEQ_HOME" to "/td"))))
+
+        Assertions.assertEquals("x", evaluate("\${EMPTY:-x}"))
+        Assertions.assertEquals("", evaluate("\${EMPTY-x}"))
+        Assertions.assertEquals("set", evaluate("\${HOME:+set}"))
+        Assertions.assertEquals("", evaluate("\${UNSET:+set}", unset))
+    }
+
+    @Test
+    fun testPatterns() {
+        Assertions.assertEquals("tar.gz", evaluate("\${FILE#*.}"))
+        Assertions.assertEquals("gz", evaluate("\${FILE##*.}"))
+        Assertions.assertEquals("archive.tar", evaluate("\${FILE%.*}"))
+        Assertions.assertEquals("archive", evaluate("\${FILE%%.*}"))
+        Assertions.assertEquals("archive_tar.gz", evaluate("\${FILE/./_}"))
+        Assertions.assertEquals("archive_tar_gz", evaluate("\${FILE//./_}"))
+        Assertions.assertEquals("ORDERS", evaluate("\${TABLE^^}"))
+        Assertions.assertEquals("10", evaluate("\${#HOME}"))
+        Assertions.assertEquals("home", evaluate("\${HOME:1:4}"))
+    }
+
+    @Test
+    fun testUnknown() {
+        Assertions.assertNull(evaluate("\$(date)"))
+        Assertions.assertNull(evaluate("`date`"))
+        Assertions.assertNull(evaluate("\$((1 + 2))"))
+        Assertions.assertNull(evaluate("\$UNBOUND/x"))
+        Assertions.assertNull(evaluate("\"\${BTEQ_HOME:-/opt/teradata}/bin/bteq\""))
+    }
+
+    @Test
+    fun testCachedValues() {
+        val evaluator = BashValueEvaluator(bindings)
+        val node = argument("\"\${SQL_DIR}/\$TABLE.sql\"")
+
+        val value = evaluator.evaluate(node)
+        Assertions.assertEquals("/sql/orders.sql", value)
+        Assertions.assertSame(value, evaluator.evaluate(node))
+
+        val unknown = argument("\$(date)/x")
+        Assertions.assertNull(evaluator.evaluate(unknown))
+        Assertions.assertNull(evaluator.evaluate(unknown))
+    }
+}